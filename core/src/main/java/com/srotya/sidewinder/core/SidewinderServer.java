@@ -152,7 +152,7 @@ public class SidewinderServer extends Application<SidewinderConfig> {
 
 	private void registerWebAPIs(Environment env, Map<String, String> conf, ScheduledExecutorService bgTasks)
 			throws SQLException, ClassNotFoundException {
-		env.jersey().register(new GrafanaQueryApi(storageEngine));
+		env.jersey().register(new GrafanaQueryApi(storageEngine, conf));
 		env.jersey().register(new MeasurementOpsApi(storageEngine));
 		env.jersey().register(new DatabaseOpsApi(storageEngine));
 		env.jersey().register(new SqlApi(storageEngine));
@@ -17,7 +17,6 @@ package com.srotya.sidewinder.core.api;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.List;
 import java.util.Set;
 
 import javax.ws.rs.BadRequestException;
@@ -34,11 +33,10 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
-import com.google.gson.Gson;
 import com.srotya.sidewinder.core.api.grafana.TargetSeries;
 import com.srotya.sidewinder.core.storage.ItemNotFoundException;
-import com.srotya.sidewinder.core.storage.Series;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
@@ -129,7 +127,7 @@ public class DatabaseOpsApi {
 	@POST
 	@Produces({ MediaType.APPLICATION_JSON })
 	@Consumes({ MediaType.TEXT_PLAIN })
-	public String querySeries(@PathParam(DatabaseOpsApi.DB_NAME) String dbName, String query) {
+	public StreamingOutput querySeries(@PathParam(DatabaseOpsApi.DB_NAME) String dbName, String query) {
 		try {
 			String[] queryParts = query.split("<=?");
 			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
@@ -151,14 +149,19 @@ public class DatabaseOpsApi {
 			// cpu.load.host=v1.domain=test\.com=>derivative,10,mean
 
 			TargetSeries tagSeries = MiscUtils.extractTargetFromQuery(query);
-
-			List<Series> points = storageEngine.queryDataPoints(dbName, tagSeries.getMeasurementName(),
-					tagSeries.getFieldName(), startTs, endTs, tagSeries.getTagFilter(), null,
-					tagSeries.getAggregationFunction());
-			return new Gson().toJson(points);
+			if (!storageEngine.checkIfExists(dbName)) {
+				throw new NotFoundException("Database:" + dbName + " not found");
+			}
+			// fail with a status while it can still be sent
+			storageEngine.getMeasurementsLike(dbName, tagSeries.getMeasurementName());
+			long start = startTs;
+			long end = endTs;
+			return new SeriesStreamingOutput(output -> storageEngine.queryDataPoints(dbName,
+					tagSeries.getMeasurementName(), tagSeries.getFieldName(), start, end, tagSeries.getTagFilter(),
+					null, tagSeries.getAggregationFunction(), output));
 		} catch (ItemNotFoundException e) {
 			throw new NotFoundException(e);
-		} catch (BadRequestException e) {
+		} catch (BadRequestException | NotFoundException e) {
 			throw e;
 		} catch (Exception e) {
 			e.printStackTrace();
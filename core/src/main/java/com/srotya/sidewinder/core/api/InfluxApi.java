@@ -58,12 +58,10 @@ public class InfluxApi {
 			throw new BadRequestException("Empty request no acceptable");
 		}
 		meter.mark(dps.size());
-		for (Point dp : dps) {
-			try {
-				storageEngine.writeDataPoint(dp);
-			} catch (IOException e) {
-				throw new BadRequestException(e);
-			}
+		try {
+			storageEngine.writeDataPoints(dps);
+		} catch (IOException e) {
+			throw new BadRequestException(e);
 		}
 	}
 
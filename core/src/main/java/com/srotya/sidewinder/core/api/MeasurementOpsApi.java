@@ -18,6 +18,7 @@ package com.srotya.sidewinder.core.api;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -35,15 +36,15 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.ItemNotFoundException;
+import com.srotya.sidewinder.core.storage.QueryAbortedException;
 import com.srotya.sidewinder.core.storage.Measurement;
-import com.srotya.sidewinder.core.storage.Series;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 
 /**
@@ -152,17 +153,20 @@ public class MeasurementOpsApi {
 	@Path("/fields/{" + VALUE + "}")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON })
-	public String getAllOfMeasurement(@PathParam(DatabaseOpsApi.DB_NAME) String dbName,
+	public StreamingOutput getAllOfMeasurement(@PathParam(DatabaseOpsApi.DB_NAME) String dbName,
 			@PathParam(MEASUREMENT) String measurementName, @PathParam(VALUE) String valueField,
 			@QueryParam("startTime") long startTime, @QueryParam("endTime") long endTime) {
-		if (endTime == 0) {
-			endTime = Long.MAX_VALUE;
-		}
-		Gson gson = new Gson();
+		long end = endTime == 0 ? Long.MAX_VALUE : endTime;
 		try {
-			List<Series> output = engine.queryDataPoints(dbName, measurementName, valueField, startTime,
-					endTime, null, null, null);
-			return gson.toJson(output);
+			if (!engine.checkIfExists(dbName)) {
+				throw new NotFoundException("Database:" + dbName + " not found");
+			}
+			// fail with a status while it can still be sent
+			if (!engine.checkIfExists(dbName, measurementName)) {
+				throw new NotFoundException("Measurement:" + measurementName + " not found");
+			}
+			return new SeriesStreamingOutput(output -> engine.queryDataPoints(dbName, measurementName, valueField,
+					startTime, end, null, null, null, output));
 		} catch (ItemNotFoundException e) {
 			throw new NotFoundException(e.getMessage());
 		} catch (IOException e) {
@@ -231,21 +235,22 @@ public class MeasurementOpsApi {
 				startTs = sdf.parse(startTime).getTime();
 				endTs = sdf.parse(endTime).getTime();
 			}
-			List<Series> points = engine.queryDataPoints(dbName, measurementName, valueFieldName, startTs,
-					endTs, null);
-			List<Number[]> response = new ArrayList<>();
-			for (Series entry : points) {
-				for (DataPoint dataPoint : entry.getDataPoints()) {
-					if (entry.isFp()) {
-						response.add(new Number[] { dataPoint.getLongValue(), dataPoint.getTimestamp() });
-					} else {
-						response.add(new Number[] { dataPoint.getValue(), dataPoint.getTimestamp() });
-					}
-				}
-			}
+			List<Number[]> response = Collections.synchronizedList(new ArrayList<>());
+			engine.queryDataPoints(dbName, measurementName, valueFieldName, startTs, endTs, null, null, null,
+					entry -> {
+						for (int i = 0; i < entry.size(); i++) {
+							if (entry.isFp()) {
+								response.add(new Number[] { entry.getLongValue(i), entry.getTimestamp(i) });
+							} else {
+								response.add(new Number[] { entry.getValue(i), entry.getTimestamp(i) });
+							}
+						}
+					});
 			return response;
 		} catch (ItemNotFoundException e) {
 			throw new NotFoundException(e);
+		} catch (QueryAbortedException e) {
+			throw new BadRequestException(e.getMessage());
 		} catch (Exception e) {
 			throw new InternalServerErrorException(e);
 		}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.api;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.srotya.sidewinder.core.storage.Series;
+
+/**
+ * Writes the series of a query to the response as a JSON array while the query
+ * is running, each series is serialized as soon as it's produced and can be
+ * collected right after instead of the complete result being held until it's
+ * serialized.
+ * 
+ * The response status is committed before the query runs, so a query that
+ * fails or is aborted part way through ends the array with an object holding
+ * the error instead of leaving the JSON truncated. Clients must treat a result
+ * whose last element has an error field as failed.
+ * 
+ * @author ambud
+ */
+public class SeriesStreamingOutput implements StreamingOutput {
+
+	private static final Gson GSON = new Gson();
+	private static final Logger logger = Logger.getLogger(SeriesStreamingOutput.class.getName());
+	public static final String ERROR = "error";
+	private SeriesQuery query;
+
+	public SeriesStreamingOutput(SeriesQuery query) {
+		this.query = query;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		JsonWriter writer = GSON
+				.newJsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+		TypeAdapter<Series> adapter = GSON.getAdapter(Series.class);
+		// query threads may unwrap the output failure into a plain IOException
+		AtomicReference<IOException> outputFailure = new AtomicReference<>();
+		writer.beginArray();
+		try {
+			query.run(series -> {
+				// series may be produced by several query threads
+				synchronized (writer) {
+					try {
+						adapter.write(writer, series);
+					} catch (IOException e) {
+						outputFailure.compareAndSet(null, e);
+						throw new OutputException(e);
+					}
+				}
+			});
+		} catch (OutputException e) {
+			// the client went away, nothing more can be written
+			throw e.getCause();
+		} catch (IOException | RuntimeException e) {
+			if (outputFailure.get() != null) {
+				// the client went away, nothing more can be written
+				throw outputFailure.get();
+			}
+			logger.log(Level.WARNING, "Query failed after the response was committed", e);
+			synchronized (writer) {
+				writer.beginObject().name(ERROR).value(String.valueOf(e.getMessage())).endObject();
+			}
+		}
+		writer.endArray();
+		writer.flush();
+	}
+
+	/**
+	 * Failure writing to the response
+	 */
+	private static final class OutputException extends UncheckedIOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private OutputException(IOException cause) {
+			super(cause);
+		}
+
+	}
+
+	/**
+	 * Query passing its series to an output
+	 */
+	@FunctionalInterface
+	public static interface SeriesQuery {
+
+		public void run(Consumer<Series> output) throws IOException;
+
+	}
+
+}
@@ -16,16 +16,27 @@
 package com.srotya.sidewinder.core.api.grafana;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +49,8 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 
 import com.codahale.metrics.Meter;
@@ -51,27 +64,64 @@ import com.srotya.sidewinder.core.api.DatabaseOpsApi;
 import com.srotya.sidewinder.core.functions.FunctionTable;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.ItemNotFoundException;
+import com.srotya.sidewinder.core.storage.QueryAbortedException;
+import com.srotya.sidewinder.core.storage.QueryContext;
+import com.srotya.sidewinder.core.storage.QueryExecutor;
 import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
 
 /**
  * API specifically for designed for Grafana Sidewinder Datasource. This API is
  * currently NOT REST compliant and is designed to be purely functional.
  * 
+ * Targets of a query run concurrently on a bounded pool shared by all
+ * requests, each request uses at most the configured number of threads and is
+ * aborted once it exceeds the configured timeout so one heavy panel can't
+ * starve the others. Results are returned in the order of the targets.
+ * 
  * @author ambud
  */
 @Path("/{" + DatabaseOpsApi.DB_NAME + "}")
 public class GrafanaQueryApi {
 
+	public static final String QUERY_THREADS = "grafana.query.threads";
+	public static final String DEFAULT_QUERY_THREADS = "8";
+	public static final String QUERY_QUEUE_SIZE = "grafana.query.queue.size";
+	public static final String DEFAULT_QUERY_QUEUE_SIZE = "1024";
+	public static final String QUERY_PARALLELISM = "grafana.query.parallelism";
+	public static final String DEFAULT_QUERY_PARALLELISM = "4";
+	public static final String QUERY_TIMEOUT = "grafana.query.timeout.ms";
+	public static final String DEFAULT_QUERY_TIMEOUT = "60000";
 	private static final Logger logger = Logger.getLogger(GrafanaQueryApi.class.getName());
 	private StorageEngine engine;
 	private TimeZone tz;
 	private Meter grafanaQueryCounter;
 	private Timer grafanaQueryLatency;
+	private ExecutorService executor;
+	private int parallelism;
+	private long timeout;
 
 	public GrafanaQueryApi(StorageEngine engine) throws SQLException {
+		this(engine, new HashMap<>());
+	}
+
+	public GrafanaQueryApi(StorageEngine engine, Map<String, String> conf) throws SQLException {
 		this.engine = engine;
 		tz = TimeZone.getDefault();
+		int threads = Integer.parseInt(conf.getOrDefault(QUERY_THREADS, DEFAULT_QUERY_THREADS));
+		int queueSize = Integer.parseInt(conf.getOrDefault(QUERY_QUEUE_SIZE, DEFAULT_QUERY_QUEUE_SIZE));
+		parallelism = Integer.parseInt(conf.getOrDefault(QUERY_PARALLELISM, DEFAULT_QUERY_PARALLELISM));
+		timeout = Long.parseLong(conf.getOrDefault(QUERY_TIMEOUT, DEFAULT_QUERY_TIMEOUT));
+		if (threads < 1 || queueSize < 1 || parallelism < 1 || timeout < 1) {
+			throw new IllegalArgumentException("Invalid grafana query threads:" + threads + " queue size:"
+					+ queueSize + " parallelism:" + parallelism + " or timeout:" + timeout);
+		}
+		// a full queue runs targets on the request thread instead of rejecting
+		// them
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), new BackgrounThreadFactory("grafana-query"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
 		MetricRegistry registry = MetricsRegistryService.getInstance().getInstance("grafana");
 		grafanaQueryCounter = registry.meter("queries");
 		grafanaQueryLatency = registry.timer("latency");
@@ -117,18 +167,90 @@ public class GrafanaQueryApi {
 
 		logger.log(Level.FINE,
 				"Extracted targets from query json, target count:" + targetSeries.size() + " " + new Date(startTs));
-		for (TargetSeries targetSeriesEntry : targetSeries) {
-			logger.log(Level.FINE, () -> "Running grafana query fetch for:" + targetSeriesEntry);
-			try {
-				GrafanaUtils.queryAndGetData(engine, dbName, startTs, endTs, output, targetSeriesEntry);
-			} catch (IOException e) {
-				throw new InternalServerErrorException(e);
-			}
+		for (List<Target> targets : queryTargets(dbName, startTs, endTs, targetSeries)) {
+			output.addAll(targets);
 		}
 		time.stop();
 		return output;
 	}
 
+	/**
+	 * Run the supplied targets on the query pool with up to the configured
+	 * number of targets of this request running at a time. All targets share a
+	 * {@link QueryContext} which is cancelled if the request times out.
+	 * 
+	 * @param dbName
+	 * @param startTs
+	 * @param endTs
+	 * @param targetSeries
+	 * @return results of each target in the order of the targets
+	 */
+	private List<List<Target>> queryTargets(String dbName, long startTs, long endTs,
+			List<TargetSeries> targetSeries) {
+		List<List<Target>> results = new ArrayList<>(targetSeries.size());
+		for (int i = 0; i < targetSeries.size(); i++) {
+			results.add(new ArrayList<>());
+		}
+		AtomicInteger next = new AtomicInteger();
+		QueryExecutor queryExecutor = engine.getQueryExecutor();
+		QueryContext context = queryExecutor != null ? queryExecutor.newContext() : null;
+		Runnable worker = () -> {
+			QueryContext previous = context != null ? context.attach() : null;
+			try {
+				int i;
+				while ((i = next.getAndIncrement()) < targetSeries.size()
+						&& !Thread.currentThread().isInterrupted()) {
+					TargetSeries targetSeriesEntry = targetSeries.get(i);
+					logger.log(Level.FINE, () -> "Running grafana query fetch for:" + targetSeriesEntry);
+					try {
+						GrafanaUtils.queryAndGetData(engine, dbName, startTs, endTs, results.get(i),
+								targetSeriesEntry);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			} finally {
+				if (context != null) {
+					QueryContext.restore(previous);
+				}
+			}
+		};
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int i = 0; i < Math.min(parallelism, targetSeries.size()); i++) {
+				futures.add(executor.submit(worker));
+			}
+			for (Future<?> future : futures) {
+				future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+		} catch (TimeoutException e) {
+			throw new ServiceUnavailableException("Query timed out after " + timeout + "ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalServerErrorException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof WebApplicationException) {
+				throw (WebApplicationException) cause;
+			} else if (cause instanceof QueryAbortedException) {
+				throw new BadRequestException(cause.getMessage());
+			} else if (cause instanceof UncheckedIOException) {
+				throw new InternalServerErrorException(cause.getCause());
+			}
+			throw new InternalServerErrorException(cause);
+		} finally {
+			// stop the rest of the targets of a failed request
+			if (context != null) {
+				context.cancel();
+			}
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
 	@Path("/query/measurements")
 	@POST
 	@Produces({ MediaType.APPLICATION_JSON })
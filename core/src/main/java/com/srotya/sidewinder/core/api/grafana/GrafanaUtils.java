@@ -33,9 +33,7 @@ import com.srotya.sidewinder.core.filters.SimpleTagFilter;
 import com.srotya.sidewinder.core.filters.TagFilter;
 import com.srotya.sidewinder.core.functions.Function;
 import com.srotya.sidewinder.core.functions.FunctionTable;
-import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.ItemNotFoundException;
-import com.srotya.sidewinder.core.storage.Series;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
@@ -51,34 +49,30 @@ public class GrafanaUtils {
 
 	public static void queryAndGetData(StorageEngine engine, String dbName, long startTs, long endTs,
 			List<Target> output, TargetSeries targetSeriesEntry) throws IOException {
-		List<Series> points;
 		try {
-			points = engine.queryDataPoints(dbName, targetSeriesEntry.getMeasurementName(),
-					targetSeriesEntry.getFieldName(), startTs, endTs, targetSeriesEntry.getTagFilter(), null,
-					targetSeriesEntry.getAggregationFunction());
+			engine.queryDataPoints(dbName, targetSeriesEntry.getMeasurementName(), targetSeriesEntry.getFieldName(),
+					startTs, endTs, targetSeriesEntry.getTagFilter(), null, targetSeriesEntry.getAggregationFunction(),
+					entry -> {
+						// series are converted as they are queried so they don't have to be held
+						Target tar = new Target(entry.toString());
+						for (int i = 0; i < entry.size(); i++) {
+							if (!entry.isFp()) {
+								tar.getDatapoints().add(new Number[] { entry.getLongValue(i), entry.getTimestamp(i) });
+							} else {
+								tar.getDatapoints().add(new Number[] { entry.getValue(i), entry.getTimestamp(i) });
+							}
+						}
+						tar.sort();
+						synchronized (output) {
+							output.add(tar);
+						}
+					});
 		} catch (ItemNotFoundException e) {
 			throw new NotFoundException(e.getMessage());
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new BadRequestException(e.getMessage());
 		}
-		if (points != null) {
-			for (Series entry : points) {
-				Target tar = new Target(entry.toString());
-				List<DataPoint> dps = entry.getDataPoints();
-				if (dps != null) {
-					for (DataPoint point : dps) {
-						if (!entry.isFp()) {
-							tar.getDatapoints().add(new Number[] { point.getLongValue(), point.getTimestamp() });
-						} else {
-							tar.getDatapoints().add(new Number[] { point.getValue(), point.getTimestamp() });
-						}
-					}
-				}
-				output.add(tar);
-				tar.sort();
-			}
-		}
 	}
 
 	/**
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.functions;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+
+/**
+ * {@link ReduceFunction}s that can be computed from a {@link WindowAggregate}
+ * implement this, which lets windowed aggregations using them be evaluated
+ * while points are decoded instead of on the materialized series.
+ * 
+ * @author ambud
+ */
+public interface AggregatableFunction {
+
+	/**
+	 * Reduce the points of a window to a single value
+	 * 
+	 * @param aggregate
+	 * @param isFp
+	 * @param output
+	 */
+	public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output);
+
+}
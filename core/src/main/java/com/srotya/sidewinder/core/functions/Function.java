@@ -15,14 +15,67 @@
  */
 package com.srotya.sidewinder.core.functions;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
+import com.srotya.sidewinder.core.predicates.Predicate;
+import com.srotya.sidewinder.core.storage.QueryContext;
 import com.srotya.sidewinder.core.storage.Series;
+import com.srotya.sidewinder.core.storage.TimeSeries;
 
 public interface Function extends java.util.function.Function<List<Series>, List<Series>> {
 
 	public void init(Object[] args) throws Exception;
 	
 	public int getNumberOfArgs(); 
-	
+
+	/**
+	 * Functions that transform each series independently of the other series
+	 * of a result are applied to each series as it's queried instead of to the
+	 * complete result, so results don't have to be materialized
+	 * 
+	 * @return true if {@link #apply(Series)} is supported
+	 */
+	public default boolean isSeriesLocal() {
+		return false;
+	}
+
+	/**
+	 * Apply this function to a single series, series local functions should
+	 * override this to avoid wrapping the series in a list
+	 * 
+	 * @param series
+	 * @return output series or null if the function produced none
+	 */
+	public default Series apply(Series series) {
+		List<Series> result = apply(Collections.singletonList(series));
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Query the supplied time series and apply this function to its points,
+	 * only supported if {@link #isSeriesLocal()}. Functions that can be
+	 * evaluated while points are decoded override this to avoid materializing
+	 * the series.
+	 * 
+	 * @param timeSeries
+	 * @param startTime
+	 * @param endTime
+	 * @param valuePredicate
+	 * @param output
+	 *            empty series with the attributes of the time series
+	 * @return output series or null if no points matched
+	 * @throws IOException
+	 */
+	public default Series query(TimeSeries timeSeries, long startTime, long endTime, Predicate valuePredicate,
+			Series output) throws IOException {
+		timeSeries.querySeries(startTime, endTime, valuePredicate, output);
+		if (output.size() == 0) {
+			return null;
+		}
+		QueryContext.checkCurrent(0);
+		return apply(output);
+	}
+
 }
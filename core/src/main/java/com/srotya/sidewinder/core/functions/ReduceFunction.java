@@ -15,9 +15,6 @@
  */
 package com.srotya.sidewinder.core.functions;
 
-import java.util.Arrays;
-import java.util.List;
-
 import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.Series;
 
@@ -33,12 +30,20 @@ public abstract class ReduceFunction extends SingleSeriesFunction {
 				dataPoints.getTags());
 		output.setFp(dataPoints.isFp());
 		DataPoint single = new DataPoint();
-		single.setTimestamp(dataPoints.getDataPoints().get(0).getTimestamp());
-		aggregateToSingle(dataPoints.getDataPoints(), single, dataPoints.isFp());
-		output.setDataPoints(Arrays.asList(single));
+		aggregateToSingle(dataPoints, 0, dataPoints.size(), single);
+		output.add(dataPoints.getTimestamp(0), single.getLongValue());
 		return output;
 	}
 
-	public abstract void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp);
+	/**
+	 * Reduce the points of the supplied series between start (inclusive) and
+	 * end (exclusive) to a single value
+	 * 
+	 * @param series
+	 * @param start
+	 * @param end
+	 * @param output
+	 */
+	public abstract void aggregateToSingle(Series series, int start, int end, DataPoint output);
 
 }
@@ -31,8 +31,14 @@ public abstract class SingleSeriesFunction implements Function {
 		return output;
 	}
 	
+	@Override
 	public abstract Series apply(Series dataPoints);
 
+	@Override
+	public boolean isSeriesLocal() {
+		return true;
+	}
+
 	@Override
 	public int getNumberOfArgs() {
 		return 0;
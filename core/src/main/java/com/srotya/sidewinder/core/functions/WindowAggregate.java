@@ -0,0 +1,155 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.functions;
+
+/**
+ * Running aggregates of the points of a time window, updated one point at a
+ * time so windowed aggregations can be evaluated while points are decoded
+ * instead of on the materialized series.
+ * 
+ * Values are folded in the order they are added with the same arithmetic the
+ * {@link ReduceFunction}s use on a materialized series, both as long and as
+ * floating point since the aggregate doesn't know the type of the series.
+ * The floating point variance is tracked as a running mean and sum of squared
+ * deviations (Welford's method), which unlike a sum of squares doesn't lose
+ * precision for large values with a small spread.
+ * 
+ * @author ambud
+ */
+public class WindowAggregate {
+
+	private long window;
+	private int count;
+	private long first;
+	private long last;
+	private long sum;
+	private double doubleSum;
+	private long squareSum;
+	private double doubleSquareSum;
+	private double doubleMean;
+	private double doubleM2;
+	private long min;
+	private long max;
+	private double minDouble;
+	private double maxDouble;
+
+	public WindowAggregate(long window) {
+		this.window = window;
+	}
+
+	/**
+	 * Add a value to this window
+	 * 
+	 * @param value
+	 *            long bits for floating point values
+	 */
+	public void add(long value) {
+		double d = Double.longBitsToDouble(value);
+		if (count == 0) {
+			first = value;
+			min = value;
+			max = value;
+			minDouble = d;
+			maxDouble = d;
+		} else {
+			if (value < min) {
+				min = value;
+			}
+			if (value > max) {
+				max = value;
+			}
+			if (d < minDouble) {
+				minDouble = d;
+			}
+			if (d > maxDouble) {
+				maxDouble = d;
+			}
+		}
+		last = value;
+		sum += value;
+		doubleSum += d;
+		squareSum += value * value;
+		doubleSquareSum += d * d;
+		double delta = d - doubleMean;
+		doubleMean += delta / (count + 1);
+		doubleM2 += delta * (d - doubleMean);
+		count++;
+	}
+
+	/**
+	 * @return start timestamp of this window
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getFirst() {
+		return first;
+	}
+
+	public long getLast() {
+		return last;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public double getDoubleSum() {
+		return doubleSum;
+	}
+
+	public long getSquareSum() {
+		return squareSum;
+	}
+
+	public double getDoubleSquareSum() {
+		return doubleSquareSum;
+	}
+
+	public double getDoubleMean() {
+		return doubleMean;
+	}
+
+	/**
+	 * @return sum of squared deviations from the mean of the floating point
+	 *         values
+	 */
+	public double getDoubleM2() {
+		return doubleM2;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMinDouble() {
+		return minDouble;
+	}
+
+	public double getMaxDouble() {
+		return maxDouble;
+	}
+
+}
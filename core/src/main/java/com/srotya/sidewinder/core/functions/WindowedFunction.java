@@ -15,12 +15,9 @@
  */
 package com.srotya.sidewinder.core.functions;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.Comparator;
 
-import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.Series;
 
 /**
@@ -40,30 +37,70 @@ public abstract class WindowedFunction extends SingleSeriesFunction {
 		}
 		timeWindow = timeWindow * 1000;
 	}
-	
+
 	@Override
 	public Series apply(Series t) {
 		Series output = new Series(t.getMeasurementName(), t.getValueFieldName(), t.getTags());
 		output.setFp(t.isFp());
-		SortedMap<Long, List<DataPoint>> map = new TreeMap<>();
-		for (DataPoint dataPoint : t.getDataPoints()) {
-			try {
-				long bucket = (dataPoint.getTimestamp() / getTimeWindow()) * getTimeWindow();
-				List<DataPoint> list = map.get(bucket);
-				if (list == null) {
-					list = new ArrayList<>();
-					map.put(bucket, list);
-				}
-				list.add(dataPoint);
-			} catch (Exception e) {
-				System.err.println("Exception :" + getTimeWindow());
+		Series input = sortByWindow(t);
+		int[] windowOffsets = new int[input.size() + 1];
+		int windowCount = 0;
+		long previous = 0;
+		for (int i = 0; i < input.size(); i++) {
+			long window = getWindow(input.getTimestamp(i));
+			if (i == 0 || window != previous) {
+				windowOffsets[windowCount++] = i;
+				previous = window;
 			}
 		}
-		output.setDataPoints(apply(map, t.isFp()));
+		windowOffsets[windowCount] = input.size();
+		apply(input, windowOffsets, windowCount, output);
 		return output;
 	}
-	
-	public abstract List<DataPoint> apply(SortedMap<Long, List<DataPoint>> map, boolean isFp);
+
+	/**
+	 * Series are normally returned in time order; only when they aren't the
+	 * points are stably sorted by window so each window is a contiguous range
+	 */
+	private Series sortByWindow(Series t) {
+		int i = 1;
+		while (i < t.size() && getWindow(t.getTimestamp(i - 1)) <= getWindow(t.getTimestamp(i))) {
+			i++;
+		}
+		if (i >= t.size()) {
+			return t;
+		}
+		Integer[] order = new Integer[t.size()];
+		for (int j = 0; j < order.length; j++) {
+			order[j] = j;
+		}
+		Arrays.sort(order, Comparator.comparingLong(j -> getWindow(t.getTimestamp(j))));
+		Series sorted = new Series(t.getMeasurementName(), t.getValueFieldName(), t.getTags());
+		sorted.setFp(t.isFp());
+		sorted.ensureCapacity(order.length);
+		for (int j : order) {
+			sorted.add(t.getTimestamp(j), t.getLongValue(j));
+		}
+		return sorted;
+	}
+
+	private long getWindow(long timestamp) {
+		return (timestamp / getTimeWindow()) * getTimeWindow();
+	}
+
+	/**
+	 * Aggregate the windows of the supplied series into the output series
+	 * 
+	 * @param input
+	 *            points grouped by window
+	 * @param windowOffsets
+	 *            offset of the first point of each window, followed by the size
+	 *            of the input
+	 * @param windowCount
+	 *            number of windows
+	 * @param output
+	 */
+	public abstract void apply(Series input, int[] windowOffsets, int windowCount, Series output);
 
 	/**
 	 * @return time window for this aggregation
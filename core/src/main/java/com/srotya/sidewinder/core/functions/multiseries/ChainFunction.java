@@ -15,11 +15,15 @@
  */
 package com.srotya.sidewinder.core.functions.multiseries;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.srotya.sidewinder.core.functions.Function;
+import com.srotya.sidewinder.core.predicates.Predicate;
+import com.srotya.sidewinder.core.storage.QueryContext;
 import com.srotya.sidewinder.core.storage.Series;
+import com.srotya.sidewinder.core.storage.TimeSeries;
 
 /**
  * @author ambud
@@ -32,11 +36,53 @@ public class ChainFunction implements Function {
 	public List<Series> apply(List<Series> t) {
 		List<Series> output = t;
 		for(Function f:chain) {
+			QueryContext.checkCurrent(0);
 			output = f.apply(output);
 		}
 		return output;
 	}
 
+	@Override
+	public Series apply(Series series) {
+		Series output = series;
+		for (Function f : chain) {
+			QueryContext.checkCurrent(0);
+			output = f.apply(output);
+		}
+		return output;
+	}
+
+	/**
+	 * The first function of the chain queries the series so it can be evaluated
+	 * while points are decoded
+	 */
+	@Override
+	public Series query(TimeSeries timeSeries, long startTime, long endTime, Predicate valuePredicate,
+			Series series) throws IOException {
+		if (chain.isEmpty()) {
+			return Function.super.query(timeSeries, startTime, endTime, valuePredicate, series);
+		}
+		Series output = chain.get(0).query(timeSeries, startTime, endTime, valuePredicate, series);
+		for (int i = 1; i < chain.size() && output != null; i++) {
+			QueryContext.checkCurrent(0);
+			output = chain.get(i).apply(output);
+		}
+		return output;
+	}
+
+	/**
+	 * A chain is series local if all of its functions are
+	 */
+	@Override
+	public boolean isSeriesLocal() {
+		for (Function f : chain) {
+			if (!f.isSeriesLocal()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public void init(Object[] args) throws Exception {
 		chain = new ArrayList<>();
@@ -22,7 +22,6 @@ import java.util.List;
 import com.srotya.sidewinder.core.filters.Tag;
 import com.srotya.sidewinder.core.functions.Function;
 import com.srotya.sidewinder.core.functions.FunctionName;
-import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.Series;
 
 /**
@@ -34,18 +33,17 @@ public abstract class MultiSeriesFunction implements Function {
 	public List<Series> apply(List<Series> t) {
 		List<Series> output = new ArrayList<>();
 		boolean fp = t.get(0).isFp();
-		List<List<DataPoint>> intermediate = new ArrayList<>();
-		int size = t.get(0).getDataPoints().size();
+		int size = t.get(0).size();
 		for (int i = 0; i < t.size(); i++) {
 			Series ts = t.get(i);
-			if (size != ts.getDataPoints().size()) {
+			if (size != ts.size()) {
 				throw new IllegalArgumentException("Non-uniform series length");
 			}
-			intermediate.add(ts.getDataPoints());
 		}
-		List<DataPoint> compute = compute(intermediate, fp);
-		Series series = new Series(compute);
+		Series series = new Series();
 		series.setFp(fp);
+		series.ensureCapacity(size);
+		compute(t, fp, series);
 		series.setMeasurementName(t.get(0).getMeasurementName());
 		series.setValueFieldName(name());
 		series.setTags(Arrays.asList(new Tag("multiseries", "true")));
@@ -53,7 +51,15 @@ public abstract class MultiSeriesFunction implements Function {
 		return output;
 	}
 
-	public abstract List<DataPoint> compute(List<List<DataPoint>> list, boolean isFp);
+	/**
+	 * Combine the points at each index of the supplied series
+	 * 
+	 * @param list
+	 *            series of the same length
+	 * @param isFp
+	 * @param output
+	 */
+	public abstract void compute(List<Series> list, boolean isFp, Series output);
 
 	public abstract String name();
 
@@ -69,25 +75,23 @@ public abstract class MultiSeriesFunction implements Function {
 	@FunctionName(alias = "ms-division", description = "Divides first series by the rest of the series", type = "multi-series")
 	public static class Division extends MultiSeriesFunction {
 
-		public List<DataPoint> compute(List<List<DataPoint>> dps, boolean isFp) {
-			List<DataPoint> output = new ArrayList<>();
+		public void compute(List<Series> dps, boolean isFp, Series output) {
 			int size = dps.get(0).size();
 			for (int i = 0; i < size; i++) {
 				if (isFp) {
-					double division = Double.doubleToLongBits(dps.get(0).get(i).getLongValue());
+					double division = Double.doubleToLongBits(dps.get(0).getLongValue(i));
 					for (int j = 1; j < dps.size(); j++) {
-						division /= Double.doubleToLongBits(dps.get(j).get(i).getLongValue());
+						division /= Double.doubleToLongBits(dps.get(j).getLongValue(i));
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), Double.doubleToLongBits(division)));
+					output.add(dps.get(0).getTimestamp(i), Double.doubleToLongBits(division));
 				} else {
-					long division = dps.get(0).get(i).getLongValue();
+					long division = dps.get(0).getLongValue(i);
 					for (int j = 1; j < dps.size(); j++) {
-						division /= dps.get(j).get(i).getLongValue();
+						division /= dps.get(j).getLongValue(i);
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), division));
+					output.add(dps.get(0).getTimestamp(i), division);
 				}
 			}
-			return output;
 		}
 
 		@Override
@@ -100,26 +104,23 @@ public abstract class MultiSeriesFunction implements Function {
 	@FunctionName(alias = "ms-multiplication", description = "Multiplies values of all series", type = "multi-series")
 	public static class Multiplication extends MultiSeriesFunction {
 
-		public List<DataPoint> compute(List<List<DataPoint>> dps, boolean isFP) {
-			List<DataPoint> output = new ArrayList<>();
+		public void compute(List<Series> dps, boolean isFP, Series output) {
 			int size = dps.get(0).size();
 			for (int i = 0; i < size; i++) {
 				if (isFP) {
-					double multiplication = Double.doubleToLongBits(dps.get(0).get(i).getLongValue());
+					double multiplication = Double.doubleToLongBits(dps.get(0).getLongValue(i));
 					for (int j = 1; j < dps.size(); j++) {
-						multiplication *= Double.doubleToLongBits(dps.get(j).get(i).getLongValue());
+						multiplication *= Double.doubleToLongBits(dps.get(j).getLongValue(i));
 					}
-					output.add(
-							new DataPoint(dps.get(0).get(i).getTimestamp(), Double.doubleToLongBits(multiplication)));
+					output.add(dps.get(0).getTimestamp(i), Double.doubleToLongBits(multiplication));
 				} else {
-					long multiplication = dps.get(0).get(i).getLongValue();
+					long multiplication = dps.get(0).getLongValue(i);
 					for (int j = 1; j < dps.size(); j++) {
-						multiplication *= dps.get(j).get(i).getLongValue();
+						multiplication *= dps.get(j).getLongValue(i);
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), multiplication));
+					output.add(dps.get(0).getTimestamp(i), multiplication);
 				}
 			}
-			return output;
 		}
 
 		@Override
@@ -132,25 +133,23 @@ public abstract class MultiSeriesFunction implements Function {
 	@FunctionName(alias = "ms-substraction", description = "Adds values of all series", type = "multi-series")
 	public static class Substraction extends MultiSeriesFunction {
 
-		public List<DataPoint> compute(List<List<DataPoint>> dps, boolean isFP) {
-			List<DataPoint> output = new ArrayList<>();
+		public void compute(List<Series> dps, boolean isFP, Series output) {
 			int size = dps.get(0).size();
 			for (int i = 0; i < size; i++) {
 				if (isFP) {
-					double substraction = Double.doubleToLongBits(dps.get(0).get(i).getLongValue());
+					double substraction = Double.doubleToLongBits(dps.get(0).getLongValue(i));
 					for (int j = 1; j < dps.size(); j++) {
-						substraction -= Double.doubleToLongBits(dps.get(j).get(i).getLongValue());
+						substraction -= Double.doubleToLongBits(dps.get(j).getLongValue(i));
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), Double.doubleToLongBits(substraction)));
+					output.add(dps.get(0).getTimestamp(i), Double.doubleToLongBits(substraction));
 				} else {
-					long substraction = dps.get(0).get(i).getLongValue();
+					long substraction = dps.get(0).getLongValue(i);
 					for (int j = 1; j < dps.size(); j++) {
-						substraction -= dps.get(j).get(i).getLongValue();
+						substraction -= dps.get(j).getLongValue(i);
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), substraction));
+					output.add(dps.get(0).getTimestamp(i), substraction);
 				}
 			}
-			return output;
 		}
 
 		@Override
@@ -162,25 +161,23 @@ public abstract class MultiSeriesFunction implements Function {
 	@FunctionName(alias = "ms-addition", description = "Subtracts first series by the rest of the series", type = "multi-series")
 	public static class Addition extends MultiSeriesFunction {
 
-		public List<DataPoint> compute(List<List<DataPoint>> dps, boolean isFP) {
-			List<DataPoint> output = new ArrayList<>();
+		public void compute(List<Series> dps, boolean isFP, Series output) {
 			int size = dps.get(0).size();
 			for (int i = 0; i < size; i++) {
 				if (isFP) {
 					double sum = 0;
 					for (int j = 0; j < dps.size(); j++) {
-						sum += Double.doubleToLongBits(dps.get(j).get(i).getLongValue());
+						sum += Double.doubleToLongBits(dps.get(j).getLongValue(i));
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), Double.doubleToLongBits(sum)));
+					output.add(dps.get(0).getTimestamp(i), Double.doubleToLongBits(sum));
 				} else {
 					long sum = 0;
 					for (int j = 0; j < dps.size(); j++) {
-						sum += dps.get(j).get(i).getLongValue();
+						sum += dps.get(j).getLongValue(i);
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), sum));
+					output.add(dps.get(0).getTimestamp(i), sum);
 				}
 			}
-			return output;
 		}
 
 		@Override
@@ -193,26 +190,23 @@ public abstract class MultiSeriesFunction implements Function {
 	@FunctionName(alias = "ms-average", description = "Averages all series", type = "multi-series")
 	public static class Average extends MultiSeriesFunction {
 
-		public List<DataPoint> compute(List<List<DataPoint>> dps, boolean isFP) {
-			List<DataPoint> output = new ArrayList<>();
+		public void compute(List<Series> dps, boolean isFP, Series output) {
 			int size = dps.get(0).size();
 			for (int i = 0; i < size; i++) {
 				if (isFP) {
 					double avg = 0;
 					for (int j = 0; j < dps.size(); j++) {
-						avg += Double.doubleToLongBits(dps.get(j).get(i).getLongValue());
+						avg += Double.doubleToLongBits(dps.get(j).getLongValue(i));
 					}
-					output.add(
-							new DataPoint(dps.get(0).get(i).getTimestamp(), Double.doubleToLongBits(avg / dps.size())));
+					output.add(dps.get(0).getTimestamp(i), Double.doubleToLongBits(avg / dps.size()));
 				} else {
 					long avg = 0;
 					for (int j = 0; j < dps.size(); j++) {
-						avg += dps.get(j).get(i).getLongValue();
+						avg += dps.get(j).getLongValue(i);
 					}
-					output.add(new DataPoint(dps.get(0).get(i).getTimestamp(), avg / dps.size()));
+					output.add(dps.get(0).getTimestamp(i), avg / dps.size());
 				}
 			}
-			return output;
 		}
 
 		@Override
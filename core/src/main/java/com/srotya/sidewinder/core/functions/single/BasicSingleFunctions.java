@@ -15,137 +15,164 @@
  */
 package com.srotya.sidewinder.core.functions.single;
 
-import java.util.Iterator;
-import java.util.List;
-
 import com.srotya.sidewinder.core.analytics.MathUtils;
+import com.srotya.sidewinder.core.functions.AggregatableFunction;
 import com.srotya.sidewinder.core.functions.FunctionName;
 import com.srotya.sidewinder.core.functions.ReduceFunction;
+import com.srotya.sidewinder.core.functions.WindowAggregate;
 import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.Series;
 
 public class BasicSingleFunctions {
 
 	@FunctionName(alias = "sfirst", description = "Returns the first value in the series", type="single")
-	public static class FirstFunction extends ReduceFunction {
+	public static class FirstFunction extends ReduceFunction implements AggregatableFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			if (isFp) {
-				output.setValue(dataPoints.get(0).getValue());
-			} else {
-				output.setLongValue(dataPoints.get(0).getLongValue());
-			}
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			output.setLongValue(series.getLongValue(start));
+		}
+
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			output.setLongValue(aggregate.getFirst());
 		}
 
 	}
 
 	@FunctionName(alias = "slast", description = "Returns the last value in the series", type="single")
-	public static class LastFunction extends ReduceFunction {
+	public static class LastFunction extends ReduceFunction implements AggregatableFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			if (isFp) {
-				output.setValue(dataPoints.get(dataPoints.size() - 1).getValue());
-			} else {
-				output.setLongValue(dataPoints.get(dataPoints.size() - 1).getLongValue());
-			}
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			output.setLongValue(series.getLongValue(end - 1));
+		}
+
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			output.setLongValue(aggregate.getLast());
 		}
 
 	}
 
 	@FunctionName(alias = "smax", description = "Returns the largest value in the series", type="single")
-	public static class MaxFunction extends ReduceFunction {
+	public static class MaxFunction extends ReduceFunction implements AggregatableFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			if (isFp) {
-				double max = 0;
-				for (Iterator<DataPoint> iterator = dataPoints.iterator(); iterator.hasNext();) {
-					DataPoint dataPoint = iterator.next();
-					if (dataPoint.getValue() > max) {
-						max = dataPoint.getValue();
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			if (end <= start) {
+				return;
+			}
+			if (series.isFp()) {
+				double max = series.getValue(start);
+				for (int i = start; i < end; i++) {
+					if (series.getValue(i) > max) {
+						max = series.getValue(i);
 					}
 				}
 				output.setValue(max);
 			} else {
-				long max = 0;
-				for (Iterator<DataPoint> iterator = dataPoints.iterator(); iterator.hasNext();) {
-					DataPoint dataPoint = iterator.next();
-					if (dataPoint.getValue() > max) {
-						max = dataPoint.getLongValue();
+				long max = series.getLongValue(start);
+				for (int i = start; i < end; i++) {
+					if (series.getLongValue(i) > max) {
+						max = series.getLongValue(i);
 					}
 				}
 				output.setLongValue(max);
 			}
 		}
 
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			if (isFp) {
+				output.setValue(aggregate.getMaxDouble());
+			} else {
+				output.setLongValue(aggregate.getMax());
+			}
+		}
+
 	}
 
 	@FunctionName(alias = "smean", description = "Returns the average value of the series", type="single")
 	public static class MeanFunction extends SumFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			super.aggregateToSingle(dataPoints, output, isFp);
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			super.aggregateToSingle(series, start, end, output);
+			if (series.isFp()) {
+				output.setValue(output.getValue() / (end - start));
+			} else {
+				output.setLongValue(output.getLongValue() / (end - start));
+			}
+		}
+
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			super.aggregateToSingle(aggregate, isFp, output);
 			if (isFp) {
-				output.setValue(output.getValue() / dataPoints.size());
+				output.setValue(output.getValue() / aggregate.getCount());
 			} else {
-				output.setLongValue(output.getLongValue() / dataPoints.size());
+				output.setLongValue(output.getLongValue() / aggregate.getCount());
 			}
 		}
 
 	}
 
 	@FunctionName(alias = "smin", description = "Returns the smallest value in the series", type="single")
-	public static class MinFunction extends ReduceFunction {
+	public static class MinFunction extends ReduceFunction implements AggregatableFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			if (dataPoints.isEmpty()) {
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			if (end <= start) {
 				return;
 			}
-			if (isFp) {
-				double min = dataPoints.get(0).getValue();
-				for (Iterator<DataPoint> iterator = dataPoints.iterator(); iterator.hasNext();) {
-					DataPoint dataPoint = iterator.next();
-					if (dataPoint.getValue() < min) {
-						min = dataPoint.getValue();
+			if (series.isFp()) {
+				double min = series.getValue(start);
+				for (int i = start; i < end; i++) {
+					if (series.getValue(i) < min) {
+						min = series.getValue(i);
 					}
 				}
 				output.setValue(min);
 			} else {
-				long min = dataPoints.get(0).getLongValue();
-				for (Iterator<DataPoint> iterator = dataPoints.iterator(); iterator.hasNext();) {
-					DataPoint dataPoint = iterator.next();
-					if (dataPoint.getLongValue() < min) {
-						min = dataPoint.getLongValue();
+				long min = series.getLongValue(start);
+				for (int i = start; i < end; i++) {
+					if (series.getLongValue(i) < min) {
+						min = series.getLongValue(i);
 					}
 				}
 				output.setLongValue(min);
 			}
 		}
 
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			if (isFp) {
+				output.setValue(aggregate.getMinDouble());
+			} else {
+				output.setLongValue(aggregate.getMin());
+			}
+		}
+
 	}
 
 	@FunctionName(alias = "sstddev", description = "Returns the standard deviation value of the series", type="single")
-	public static class StdDeviationFunction extends ReduceFunction {
+	public static class StdDeviationFunction extends ReduceFunction implements AggregatableFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			if (!isFp) {
-				long[] ary = new long[dataPoints.size()];
-				for (int i = 0; i < dataPoints.size(); i++) {
-					DataPoint dataPoint = dataPoints.get(i);
-					ary[i] = dataPoint.getLongValue();
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			if (!series.isFp()) {
+				long[] ary = new long[end - start];
+				for (int i = start; i < end; i++) {
+					ary[i - start] = series.getLongValue(i);
 				}
 				long avg = MathUtils.mean(ary);
 				long standardDeviation = MathUtils.standardDeviation(ary, avg);
 				output.setLongValue(standardDeviation);
 			} else {
-				double[] ary = new double[dataPoints.size()];
-				for (int i = 0; i < dataPoints.size(); i++) {
-					DataPoint dataPoint = dataPoints.get(i);
-					ary[i] = dataPoint.getLongValue();
+				double[] ary = new double[end - start];
+				for (int i = start; i < end; i++) {
+					ary[i - start] = series.getValue(i);
 				}
 				double avg = MathUtils.mean(ary);
 				double standardDeviation = MathUtils.standardDeviation(ary, avg);
@@ -153,52 +180,82 @@ public class BasicSingleFunctions {
 			}
 		}
 
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			int count = aggregate.getCount();
+			if (isFp) {
+				output.setValue(Math.sqrt(aggregate.getDoubleM2() / count));
+			} else {
+				// same integer arithmetic as MathUtils on the materialized series
+				long avg = aggregate.getSum() / count;
+				long squareDeviations = aggregate.getSquareSum() - 2 * avg * aggregate.getSum()
+						+ count * avg * avg;
+				output.setLongValue((long) Math.sqrt(squareDeviations / count));
+			}
+		}
+
 	}
 
 	@FunctionName(alias = "ssum", description = "Returns the sum of all value in the series", type="single")
-	public static class SumFunction extends ReduceFunction {
+	public static class SumFunction extends ReduceFunction implements AggregatableFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			if (!isFp) {
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			if (!series.isFp()) {
 				long sum = 0;
-				for (Iterator<DataPoint> iterator = dataPoints.iterator(); iterator.hasNext();) {
-					DataPoint dataPoint = iterator.next();
-					sum += dataPoint.getLongValue();
+				for (int i = start; i < end; i++) {
+					sum += series.getLongValue(i);
 				}
 				output.setLongValue(sum);
 			} else {
 				double sum = 0;
-				for (Iterator<DataPoint> iterator = dataPoints.iterator(); iterator.hasNext();) {
-					DataPoint dataPoint = iterator.next();
-					sum += dataPoint.getValue();
+				for (int i = start; i < end; i++) {
+					sum += series.getValue(i);
 				}
 				output.setValue(sum);
 			}
 		}
 
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			if (!isFp) {
+				output.setLongValue(aggregate.getSum());
+			} else {
+				output.setValue(aggregate.getDoubleSum());
+			}
+		}
+
 	}
 
 	@FunctionName(alias = "srms", description = "Returns the Root Mean Squared value of the series", type="single")
-	public static class SRMSFunction extends ReduceFunction {
+	public static class SRMSFunction extends ReduceFunction implements AggregatableFunction {
 
 		@Override
-		public void aggregateToSingle(List<DataPoint> dataPoints, DataPoint output, boolean isFp) {
-			if (isFp) {
+		public void aggregateToSingle(Series series, int start, int end, DataPoint output) {
+			if (series.isFp()) {
 				double squaresSum = 0;
-				for (DataPoint dp : dataPoints) {
-					squaresSum += dp.getValue() * dp.getValue();
+				for (int i = start; i < end; i++) {
+					squaresSum += series.getValue(i) * series.getValue(i);
 				}
 				output.setValue(Math.sqrt(squaresSum));
 			} else {
 				long squaresSum = 0;
-				for (DataPoint dp : dataPoints) {
-					squaresSum += dp.getLongValue() * dp.getLongValue();
+				for (int i = start; i < end; i++) {
+					squaresSum += series.getLongValue(i) * series.getLongValue(i);
 				}
 				output.setValue((long) Math.sqrt(squaresSum));
 			}
 		}
 
+		@Override
+		public void aggregateToSingle(WindowAggregate aggregate, boolean isFp, DataPoint output) {
+			if (isFp) {
+				output.setValue(Math.sqrt(aggregate.getDoubleSquareSum()));
+			} else {
+				output.setValue((long) Math.sqrt(aggregate.getSquareSum()));
+			}
+		}
+
 	}
 
 }
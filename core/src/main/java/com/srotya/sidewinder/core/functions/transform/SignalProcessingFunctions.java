@@ -24,7 +24,6 @@ import org.apache.commons.math3.transform.TransformType;
 
 import com.srotya.sidewinder.core.functions.Function;
 import com.srotya.sidewinder.core.functions.FunctionName;
-import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.Series;
 
 public class SignalProcessingFunctions {
@@ -33,22 +32,31 @@ public class SignalProcessingFunctions {
 	public static class ForwardFFT implements Function {
 		@Override
 		public List<Series> apply(List<Series> t) {
-			FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
 			for (Series s : t) {
-				List<DataPoint> dataPoints = s.getDataPoints();
-				Complex[] transform = fft.transform(dpListToArray(dataPoints, s.isFp()), TransformType.FORWARD);
-				for (int i = 0; i < dataPoints.size(); i++) {
-					DataPoint dataPoint = dataPoints.get(i);
-					if (s.isFp()) {
-						dataPoint.setLongValue((long) transform[i].abs());
-					} else {
-						dataPoint.setValue(transform[i].abs());
-					}
-				}
+				apply(s);
 			}
 			return t;
 		}
 
+		@Override
+		public Series apply(Series s) {
+			FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+			Complex[] transform = fft.transform(seriesToArray(s), TransformType.FORWARD);
+			for (int i = 0; i < s.size(); i++) {
+				if (s.isFp()) {
+					s.setLongValue(i, (long) transform[i].abs());
+				} else {
+					s.setValue(i, transform[i].abs());
+				}
+			}
+			return s;
+		}
+
+		@Override
+		public boolean isSeriesLocal() {
+			return true;
+		}
+
 		@Override
 		public void init(Object[] args) throws Exception {
 		}
@@ -59,15 +67,14 @@ public class SignalProcessingFunctions {
 		}
 	}
 
-	public static double[] dpListToArray(List<DataPoint> dp, boolean isFp) {
-		int len = nextPowerOf2(dp.size());
+	public static double[] seriesToArray(Series series) {
+		int len = nextPowerOf2(series.size());
 		double[] ary = new double[(int) Math.pow(2, len)];
-		for (int i = 0; i < dp.size(); i++) {
-			DataPoint dataPoint = dp.get(i);
-			if (isFp) {
-				ary[i] = dataPoint.getValue();
+		for (int i = 0; i < series.size(); i++) {
+			if (series.isFp()) {
+				ary[i] = series.getValue(i);
 			} else {
-				ary[i] = dataPoint.getLongValue();
+				ary[i] = series.getLongValue(i);
 			}
 		}
 		return ary;
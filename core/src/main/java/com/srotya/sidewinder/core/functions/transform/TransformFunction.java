@@ -18,7 +18,6 @@ package com.srotya.sidewinder.core.functions.transform;
 import java.util.List;
 
 import com.srotya.sidewinder.core.functions.Function;
-import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.Series;
 
 public abstract class TransformFunction implements Function {
@@ -26,18 +25,28 @@ public abstract class TransformFunction implements Function {
 	@Override
 	public List<Series> apply(List<Series> series) {
 		for (Series s : series) {
-			List<DataPoint> dps = s.getDataPoints();
-			for (DataPoint dp : dps) {
-				if (s.isFp()) {
-					dp.setValue(transform(dp.getValue()));
-				} else {
-					dp.setLongValue(transform(dp.getLongValue()));
-				}
-			}
+			apply(s);
 		}
 		return series;
 	}
 
+	@Override
+	public Series apply(Series s) {
+		for (int i = 0; i < s.size(); i++) {
+			if (s.isFp()) {
+				s.setValue(i, transform(s.getValue(i)));
+			} else {
+				s.setLongValue(i, transform(s.getLongValue(i)));
+			}
+		}
+		return s;
+	}
+
+	@Override
+	public boolean isSeriesLocal() {
+		return true;
+	}
+
 	public abstract long transform(long value);
 
 	public abstract double transform(double value);
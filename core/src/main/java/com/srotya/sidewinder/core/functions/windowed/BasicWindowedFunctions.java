@@ -15,10 +15,8 @@
  */
 package com.srotya.sidewinder.core.functions.windowed;
 
-import java.util.List;
-
 import com.srotya.sidewinder.core.functions.FunctionName;
-import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.Series;
 
 public class BasicWindowedFunctions {
 
@@ -26,26 +24,30 @@ public class BasicWindowedFunctions {
 	public static class DerivativeFunction extends ReducingWindowedAggregator {
 
 		@Override
-		public List<DataPoint> aggregateAfterReduction(List<DataPoint> datapoints, boolean isFp) {
-			DataPoint origin = datapoints.get(datapoints.size() - 1);
-			int i = 0;
-			while (i < datapoints.size() - 1) {
-				if (!isFp) {
-					long val = (datapoints.get(i + 1).getLongValue() - datapoints.get(i).getLongValue())
+		public void aggregateAfterReduction(Series series) {
+			long origin = series.getLongValue(series.size() - 1);
+			int size = 0;
+			for (int i = 0; i + 1 < series.size(); i += 2) {
+				if (!series.isFp()) {
+					long val = (series.getLongValue(i + 1) - series.getLongValue(i))
 							/ (getTimeWindow() / 1000);
-					datapoints.get(i).setLongValue(val);
+					series.setLongValue(size, val);
 				} else {
-					double val = (datapoints.get(i + 1).getValue() - datapoints.get(i).getValue())
+					double val = (series.getValue(i + 1) - series.getValue(i))
 							/ (getTimeWindow() / 1000);
-					datapoints.get(i).setLongValue(Double.doubleToLongBits(val));
+					series.setValue(size, val);
 				}
-				datapoints.remove(i + 1);
-				i++;
+				series.setTimestamp(size++, series.getTimestamp(i));
+			}
+			if (series.size() % 2 == 1) {
+				// unpaired last window is kept as is
+				series.setLongValue(size, origin);
+				series.setTimestamp(size++, series.getTimestamp(series.size() - 1));
 			}
-			if (datapoints.get(datapoints.size() - 1).getLongValue() == origin.getLongValue()) {
-				datapoints.remove(datapoints.size() - 1);
+			series.truncate(size);
+			if (series.getLongValue(size - 1) == origin) {
+				series.truncate(size - 1);
 			}
-			return datapoints;
 		}
 
 	}
@@ -54,24 +56,28 @@ public class BasicWindowedFunctions {
 	public static class DiffFunction extends ReducingWindowedAggregator {
 
 		@Override
-		public List<DataPoint> aggregateAfterReduction(List<DataPoint> datapoints, boolean isFp) {
-			DataPoint origin = datapoints.get(datapoints.size() - 1);
-			int i = 0;
-			while (i < datapoints.size() - 1) {
-				if (!isFp) {
-					long val = (datapoints.get(i + 1).getLongValue() - datapoints.get(i).getLongValue());
-					datapoints.get(i).setLongValue(val);
+		public void aggregateAfterReduction(Series series) {
+			long origin = series.getLongValue(series.size() - 1);
+			int size = 0;
+			for (int i = 0; i + 1 < series.size(); i += 2) {
+				if (!series.isFp()) {
+					long val = (series.getLongValue(i + 1) - series.getLongValue(i));
+					series.setLongValue(size, val);
 				} else {
-					double val = (datapoints.get(i + 1).getValue() - datapoints.get(i).getValue());
-					datapoints.get(i).setLongValue(Double.doubleToLongBits(val));
+					double val = (series.getValue(i + 1) - series.getValue(i));
+					series.setValue(size, val);
 				}
-				datapoints.remove(i + 1);
-				i++;
+				series.setTimestamp(size++, series.getTimestamp(i));
+			}
+			if (series.size() % 2 == 1) {
+				// unpaired last window is kept as is
+				series.setLongValue(size, origin);
+				series.setTimestamp(size++, series.getTimestamp(series.size() - 1));
 			}
-			if (datapoints.get(datapoints.size() - 1).getLongValue() == origin.getLongValue()) {
-				datapoints.remove(datapoints.size() - 1);
+			series.truncate(size);
+			if (series.getLongValue(size - 1) == origin) {
+				series.truncate(size - 1);
 			}
-			return datapoints;
 		}
 
 	}
@@ -186,16 +192,15 @@ public class BasicWindowedFunctions {
 		@Override
 		public void init(Object[] args) throws Exception {
 			if (args.length > 1) {
-				args[1] = "stddev";
+				args[1] = "sstddev";
 			} else {
-				args = new Object[] { args[0], "stddev" };
+				args = new Object[] { args[0], "sstddev" };
 			}
 			super.init(args);
 		}
 
 		@Override
-		public List<DataPoint> aggregateAfterReduction(List<DataPoint> datapoints, boolean isFp) {
-			return datapoints;
+		public void aggregateAfterReduction(Series series) {
 		}
 
 	}
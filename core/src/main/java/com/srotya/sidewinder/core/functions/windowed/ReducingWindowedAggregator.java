@@ -15,15 +15,18 @@
  */
 package com.srotya.sidewinder.core.functions.windowed;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.SortedMap;
 
+import com.srotya.sidewinder.core.functions.AggregatableFunction;
 import com.srotya.sidewinder.core.functions.FunctionTable;
 import com.srotya.sidewinder.core.functions.ReduceFunction;
+import com.srotya.sidewinder.core.functions.WindowAggregate;
 import com.srotya.sidewinder.core.functions.WindowedFunction;
+import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.Series;
+import com.srotya.sidewinder.core.storage.TimeSeries;
 
 /**
  * @author ambud
@@ -57,23 +60,64 @@ public abstract class ReducingWindowedAggregator extends WindowedFunction {
 	}
 	
 	@Override
-	public final List<DataPoint> apply(SortedMap<Long, List<DataPoint>> map, boolean isFp) {
-		List<DataPoint> reducedDataPoints = new ArrayList<>();
-		for (Entry<Long, List<DataPoint>> entry : map.entrySet()) {
-			DataPoint aggregate = new DataPoint();
-			aggregator.aggregateToSingle(entry.getValue(), aggregate, isFp);
-			aggregate.setTimestamp(entry.getKey());
-			reducedDataPoints.add(aggregate);
+	public final void apply(Series input, int[] windowOffsets, int windowCount, Series output) {
+		DataPoint aggregate = new DataPoint();
+		output.ensureCapacity(windowCount);
+		for (int i = 0; i < windowCount; i++) {
+			int start = windowOffsets[i];
+			int end = windowOffsets[i + 1];
+			aggregate.setLongValue(0);
+			aggregator.aggregateToSingle(input, start, end, aggregate);
+			long timestamp = input.getTimestamp(start);
+			output.add((timestamp / getTimeWindow()) * getTimeWindow(), aggregate.getLongValue());
 		}
-		if (reducedDataPoints.size() > 0) {
-			return aggregateAfterReduction(reducedDataPoints, isFp);
-		} else {
-			return reducedDataPoints;
+		if (output.size() > 0) {
+			aggregateAfterReduction(output);
 		}
 	}
 
-	public List<DataPoint> aggregateAfterReduction(List<DataPoint> dataPoints, boolean isFp) {
-		return dataPoints;
+	/**
+	 * If the reduce function can be computed incrementally the points of the
+	 * series are folded into per window aggregates while they are decoded
+	 * instead of being materialized first
+	 */
+	@Override
+	public Series query(TimeSeries timeSeries, long startTime, long endTime, Predicate valuePredicate,
+			Series output) throws IOException {
+		if (!(aggregator instanceof AggregatableFunction)) {
+			return super.query(timeSeries, startTime, endTime, valuePredicate, output);
+		}
+		AggregatableFunction incremental = (AggregatableFunction) aggregator;
+		WindowAccumulator accumulator = new WindowAccumulator(getTimeWindow());
+		timeSeries.queryBatches(startTime, endTime, valuePredicate, accumulator);
+		if (accumulator.isEmpty()) {
+			return null;
+		}
+		List<WindowAggregate> windows = accumulator.getWindows();
+		DataPoint aggregate = new DataPoint();
+		output.ensureCapacity(windows.size());
+		for (WindowAggregate window : windows) {
+			aggregate.setLongValue(0);
+			incremental.aggregateToSingle(window, output.isFp(), aggregate);
+			output.add(window.getWindow(), aggregate.getLongValue());
+		}
+		aggregateAfterReduction(output);
+		return output;
+	}
+
+	/**
+	 * @return true if this aggregation is evaluated while points are decoded
+	 */
+	public boolean isPushDown() {
+		return aggregator instanceof AggregatableFunction;
+	}
+
+	/**
+	 * Post process the reduced windows in place
+	 * 
+	 * @param series
+	 */
+	public void aggregateAfterReduction(Series series) {
 	}
 
 	@Override
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.functions.windowed;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.srotya.sidewinder.core.functions.WindowAggregate;
+import com.srotya.sidewinder.core.storage.BatchConsumer;
+
+/**
+ * Folds decoded points into the {@link WindowAggregate} of their time window,
+ * so only one aggregate per window is held instead of the points of the
+ * series.
+ * 
+ * Points are usually decoded in time order and only the last window is
+ * checked; windows are only indexed once a point arrives out of order.
+ * 
+ * @author ambud
+ */
+public class WindowAccumulator implements BatchConsumer {
+
+	private long timeWindow;
+	private List<WindowAggregate> windows;
+	private Map<Long, WindowAggregate> index;
+	private WindowAggregate current;
+
+	/**
+	 * @param timeWindow
+	 *            window size in milliseconds
+	 */
+	public WindowAccumulator(long timeWindow) {
+		this.timeWindow = timeWindow;
+		this.windows = new ArrayList<>();
+	}
+
+	@Override
+	public void accept(long[] timestamps, long[] values, int count) {
+		for (int i = 0; i < count; i++) {
+			long window = (timestamps[i] / timeWindow) * timeWindow;
+			if (current == null || current.getWindow() != window) {
+				current = getOrCreate(window);
+			}
+			current.add(values[i]);
+		}
+	}
+
+	private WindowAggregate getOrCreate(long window) {
+		if (index == null) {
+			if (current == null || window > current.getWindow()) {
+				WindowAggregate aggregate = new WindowAggregate(window);
+				windows.add(aggregate);
+				return aggregate;
+			}
+			index = new HashMap<>();
+			for (WindowAggregate aggregate : windows) {
+				index.put(aggregate.getWindow(), aggregate);
+			}
+		}
+		WindowAggregate aggregate = index.get(window);
+		if (aggregate == null) {
+			aggregate = new WindowAggregate(window);
+			index.put(window, aggregate);
+			windows.add(aggregate);
+		}
+		return aggregate;
+	}
+
+	/**
+	 * @return aggregates of the windows with points in time order
+	 */
+	public List<WindowAggregate> getWindows() {
+		if (index != null) {
+			windows.sort(Comparator.comparingLong(WindowAggregate::getWindow));
+		}
+		return windows;
+	}
+
+	public boolean isEmpty() {
+		return windows.isEmpty();
+	}
+
+}
@@ -29,6 +29,16 @@ public class AndPredicate extends ComplexPredicate {
 		super(operators, (x, y)->x.and(y));
 	}
 
+	@Override
+	public boolean mayMatch(long min, long max) {
+		for (LongPredicate predicate : getPredicates()) {
+			if (predicate instanceof Predicate && !((Predicate) predicate).mayMatch(min, max)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return "AndOperator " + getPredicate() + "";
@@ -36,6 +36,25 @@ public class BetweenPredicate implements Predicate {
 		return value >= startTs && value <= endTs;
 	}
 
+	@Override
+	public boolean mayMatch(long min, long max) {
+		return max >= startTs && min <= endTs;
+	}
+
+	/**
+	 * @return the start value
+	 */
+	public long getStartTs() {
+		return startTs;
+	}
+
+	/**
+	 * @return the end value
+	 */
+	public long getEndTs() {
+		return endTs;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -28,8 +28,10 @@ import java.util.function.LongPredicate;
 public abstract class ComplexPredicate implements Predicate {
 
 	private LongPredicate predicate;
+	private List<LongPredicate> predicates;
 
 	public ComplexPredicate(List<LongPredicate> predicates, BinaryOperator<LongPredicate> logic) {
+		this.predicates = predicates;
 		predicate = predicates.stream().reduce(logic).get();
 	}
 
@@ -42,4 +44,11 @@ public abstract class ComplexPredicate implements Predicate {
 		return predicate;
 	}
 
+	/**
+	 * @return the combined predicates
+	 */
+	public List<LongPredicate> getPredicates() {
+		return predicates;
+	}
+
 }
@@ -35,4 +35,9 @@ public class GreaterThanEqualsPredicate implements Predicate {
 		return value >= rhs;
 	}
 
+	@Override
+	public boolean mayMatch(long min, long max) {
+		return max >= rhs;
+	}
+
 }
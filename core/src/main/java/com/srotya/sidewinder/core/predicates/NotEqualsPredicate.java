@@ -33,4 +33,9 @@ public class NotEqualsPredicate implements Predicate {
 		return value != rhs;
 	}
 
+	@Override
+	public boolean mayMatch(long min, long max) {
+		return min != rhs || max != rhs;
+	}
+
 }
@@ -29,6 +29,16 @@ public class OrPredicate extends ComplexPredicate {
 		super(predicates, (x, y) -> x.or(y));
 	}
 
+	@Override
+	public boolean mayMatch(long min, long max) {
+		for (LongPredicate predicate : getPredicates()) {
+			if (!(predicate instanceof Predicate) || ((Predicate) predicate).mayMatch(min, max)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		return "OrOperator " + getPredicate() + "";
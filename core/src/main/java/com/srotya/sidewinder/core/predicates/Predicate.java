@@ -37,4 +37,18 @@ import com.srotya.sidewinder.core.storage.DataPoint;
  */
 public interface Predicate extends LongPredicate {
 
+	/**
+	 * Used to skip data whose values are known to be within bounds, must only
+	 * return false if no value in the supplied range can match this predicate
+	 * 
+	 * @param min
+	 *            smallest value
+	 * @param max
+	 *            largest value
+	 * @return false if no value between min and max matches this predicate
+	 */
+	public default boolean mayMatch(long min, long max) {
+		return true;
+	}
+
 }
@@ -17,8 +17,11 @@ package com.srotya.sidewinder.core.rpc;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -29,6 +32,8 @@ import com.lmax.disruptor.EventTranslatorThreeArg;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.srotya.sidewinder.core.rpc.WriterServiceGrpc.WriterServiceImplBase;
+import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.SeriesHandles;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.TimeSeries;
 import com.srotya.sidewinder.core.storage.compression.Writer;
@@ -104,20 +109,13 @@ public class WriterServiceImpl extends WriterServiceImplBase {
 		Ack ack = null;
 		try {
 			List<Point> pointsList = request.getPointsList();
-			for (int i = 0; i < pointsList.size(); i++) {
-				Point point = pointsList.get(i);
-				if (disruptorEnable) {
+			if (disruptorEnable) {
+				for (int i = 0; i < pointsList.size(); i++) {
+					Point point = pointsList.get(i);
 					buffer.publishEvent(translator, point, point.getTimestamp(), null);
-				} else {
-					if (point.getFp()) {
-						engine.writeDataPoint(point.getDbName(), point.getMeasurementName(), point.getValueFieldName(),
-								new ArrayList<>(point.getTagsList()), point.getTimestamp(),
-								Double.longBitsToDouble(point.getValue()));
-					} else {
-						engine.writeDataPoint(point.getDbName(), point.getMeasurementName(), point.getValueFieldName(),
-								new ArrayList<>(point.getTagsList()), point.getTimestamp(), point.getValue());
-					}
 				}
+			} else {
+				engine.writeDataPoints(pointsList);
 			}
 			ack = Ack.newBuilder().setMessageId(request.getMessageId()).setResponseCode(200).build();
 		} catch (Exception e) {
@@ -149,6 +147,76 @@ public class WriterServiceImpl extends WriterServiceImplBase {
 		responseObserver.onCompleted();
 	}
 
+	@Override
+	public void registerSeries(SeriesRegistration request, StreamObserver<SeriesHandle> responseObserver) {
+		SeriesHandle handle;
+		try {
+			int h = engine.registerSeries(request.getDbName(), request.getMeasurementName(),
+					request.getValueFieldName(), new ArrayList<>(request.getTagsList()), request.getFp());
+			handle = SeriesHandle.newBuilder().setMessageId(request.getMessageId()).setResponseCode(200).setHandle(h)
+					.build();
+		} catch (IOException e) {
+			handle = SeriesHandle.newBuilder().setMessageId(request.getMessageId()).setResponseCode(400).build();
+		} catch (Exception e) {
+			handle = SeriesHandle.newBuilder().setMessageId(request.getMessageId()).setResponseCode(500).build();
+		}
+		responseObserver.onNext(handle);
+		responseObserver.onCompleted();
+	}
+
+	@Override
+	public void writeHandleBatch(HandleBatch request, StreamObserver<Ack> responseObserver) {
+		Ack ack;
+		int count = request.getHandlesCount();
+		if (count != request.getTimestampsCount() || count != request.getValuesCount()) {
+			ack = Ack.newBuilder().setMessageId(request.getMessageId()).setResponseCode(400).build();
+		} else {
+			try {
+				// resolve every handle before writing so an invalid handle
+				// rejects the whole batch instead of leaving it half written
+				SeriesHandles handles = engine.getSeriesHandles();
+				Map<TimeSeries, List<Integer>> seriesGroups = new IdentityHashMap<>();
+				for (int i = 0; i < count; i++) {
+					TimeSeries series = handles.get(request.getHandles(i));
+					if (series == null) {
+						throw StorageEngine.INVALID_HANDLE_EXCEPTION;
+					}
+					List<Integer> group = seriesGroups.get(series);
+					if (group == null) {
+						group = new ArrayList<>();
+						seriesGroups.put(series, group);
+					}
+					group.add(i);
+				}
+				// each series writes its points as one batch, the ack reports the
+				// points that weren't written so clients only retry those
+				int accepted = 0;
+				List<Integer> rejected = new ArrayList<>();
+				for (Entry<TimeSeries, List<Integer>> entry : seriesGroups.entrySet()) {
+					List<Integer> group = entry.getValue();
+					List<DataPoint> dps = new ArrayList<>(group.size());
+					for (int i : group) {
+						dps.add(new DataPoint(request.getTimestamps(i), request.getValues(i)));
+					}
+					accepted += entry.getKey().addDataPoints(TimeUnit.MILLISECONDS, dps,
+							(e, i) -> rejected.add(group.get(i)));
+				}
+				engine.getCounter().inc(accepted);
+				Collections.sort(rejected);
+				ack = Ack.newBuilder().setMessageId(request.getMessageId())
+						.setResponseCode(rejected.isEmpty() ? 200 : 500).setAccepted(accepted).addAllRejected(rejected)
+						.build();
+			} catch (IOException e) {
+				// invalid handle, client must register the series again
+				ack = Ack.newBuilder().setMessageId(request.getMessageId()).setResponseCode(400).build();
+			} catch (Exception e) {
+				ack = Ack.newBuilder().setMessageId(request.getMessageId()).setResponseCode(500).build();
+			}
+		}
+		responseObserver.onNext(ack);
+		responseObserver.onCompleted();
+	}
+
 	@Override
 	public StreamObserver<SingleData> writeDataPointStream(final StreamObserver<Ack> responseObserver) {
 		return new WriteStreamObserver(buffer, responseObserver);
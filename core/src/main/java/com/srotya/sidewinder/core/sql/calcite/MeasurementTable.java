@@ -16,6 +16,7 @@
 package com.srotya.sidewinder.core.sql.calcite;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,8 +43,10 @@ import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.type.SqlTypeName;
 
 import com.srotya.sidewinder.core.filters.Tag;
-import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.QueryContext;
+import com.srotya.sidewinder.core.storage.QueryExecutor;
 import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.TimeSeries;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 
 /**
@@ -109,9 +112,13 @@ public class MeasurementTable extends AbstractTable implements FilterableTable {
 				return new Enumerator<Object[]>() {
 
 					private LinkedHashMap<Reader, List<Tag>> readers;
-					private DataPoint dataPoint;
+					private long[] timestamps = new long[TimeSeries.READ_BATCH_SIZE];
+					private long[] values = new long[TimeSeries.READ_BATCH_SIZE];
+					private int batchSize;
+					private int batchIndex;
 					private Iterator<Entry<Reader, List<Tag>>> iterator;
 					private Entry<Reader, List<Tag>> next;
+					private QueryContext context;
 
 					@Override
 					public void reset() {
@@ -120,6 +127,9 @@ public class MeasurementTable extends AbstractTable implements FilterableTable {
 					@Override
 					public boolean moveNext() {
 						if (readers == null) {
+							QueryExecutor executor = engine.getQueryExecutor();
+							context = executor != null ? executor.newContext() : null;
+							QueryContext previous = context != null ? context.attach() : null;
 							try {
 								readers = new LinkedHashMap<>();
 								readers.putAll(engine.queryReadersWithMap(dbName, measurementName, fieldNames.get(0),
@@ -128,38 +138,46 @@ public class MeasurementTable extends AbstractTable implements FilterableTable {
 								if (iterator.hasNext()) {
 									next = iterator.next();
 								}
+							} catch (RuntimeException e) {
+								// aborted queries must fail instead of returning partial results
+								throw e;
 							} catch (Exception e) {
-								e.printStackTrace();
-								return false;
+								throw new RuntimeException("Failed to query measurement:" + dbName + ":"
+										+ measurementName, e);
+							} finally {
+								if (context != null) {
+									QueryContext.restore(previous);
+								}
 							}
 						}
-						if (next != null) {
+						batchIndex++;
+						while (batchIndex >= batchSize) {
+							if (next == null) {
+								return false;
+							}
+							// readers account the points they decode to the context
+							QueryContext previous = context != null ? context.attach() : null;
 							try {
-								dataPoint = next.getKey().readPair();
-								if (dataPoint == null) {
-									return moveNext();
-								}
+								batchSize = next.getKey().readBatch(timestamps, values, timestamps.length);
 							} catch (IOException e) {
-								if (iterator.hasNext()) {
-									next = iterator.next();
-								} else {
-									next = null;
-								}
-								if (next != null) {
-									return true;
-								} else {
-									return false;
+								throw new UncheckedIOException(e);
+							} finally {
+								if (context != null) {
+									QueryContext.restore(previous);
 								}
 							}
-							return true;
-						} else {
-							return false;
+							batchIndex = 0;
+							if (batchSize < 0) {
+								batchSize = 0;
+								next = iterator.hasNext() ? iterator.next() : null;
+							}
 						}
+						return true;
 					}
 
 					@Override
 					public Object[] current() {
-						return new Object[] { dataPoint.getLongValue(), dataPoint.getTimestamp() };
+						return new Object[] { values[batchIndex], timestamps[batchIndex] };
 						// if (next.getValue()) {
 						// // (dataPoint.getTags() != null) ? dataPoint.getTags().toString() : null,
 						// return new Object[] { (Double) dataPoint.getValue(), dataPoint.getTimestamp()
@@ -171,6 +189,9 @@ public class MeasurementTable extends AbstractTable implements FilterableTable {
 
 					@Override
 					public void close() {
+						if (context != null) {
+							context.cancel();
+						}
 						readers = null;
 					}
 				};
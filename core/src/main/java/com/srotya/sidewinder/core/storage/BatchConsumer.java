@@ -0,0 +1,35 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+/**
+ * Receives decoded points a batch at a time, the arrays are reused for the
+ * next batch so they must not be held on to.
+ * 
+ * @author ambud
+ */
+@FunctionalInterface
+public interface BatchConsumer {
+
+	/**
+	 * @param timestamps
+	 * @param values
+	 * @param count
+	 *            number of valid entries in the arrays
+	 */
+	public void accept(long[] timestamps, long[] values, int count);
+
+}
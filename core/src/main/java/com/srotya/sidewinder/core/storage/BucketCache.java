@@ -0,0 +1,359 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.srotya.sidewinder.core.predicates.Predicate;
+
+/**
+ * Least recently used cache of the decoded points of time buckets of
+ * {@link TimeSeries}, bounded by the total number of cached points.
+ * 
+ * Dashboards query the same time ranges over and over, buckets other than the
+ * newest one of a series rarely change so their points are kept decoded and
+ * only the newest bucket is decoded again on every query. A write to a bucket
+ * invalidates the cached points of that bucket only. Entries also carry the
+ * point count of the bucket they were decoded from and are dropped on lookup
+ * if the bucket no longer has that many points, so a write racing with a query
+ * can't leave stale points behind.
+ * 
+ * Entries are keyed by database, measurement and series id so they don't keep
+ * dropped series reachable; they must be invalidated when a series is dropped
+ * or its buckets are removed. The cache is split into segments by key, each
+ * with its own lock and an even share of the points, so concurrent queries
+ * don't contend on a single monitor.
+ * 
+ * Points are cached before any function is applied so an entry serves every
+ * query and aggregation over its bucket.
+ * 
+ * @author ambud
+ */
+public class BucketCache {
+
+	private static final int MAX_SEGMENTS = 16;
+	private static final long MIN_SEGMENT_POINTS = 65536;
+	private final Segment[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxPoints
+	 *            total number of points that can be cached
+	 */
+	public BucketCache(long maxPoints) {
+		if (maxPoints < 1) {
+			throw new IllegalArgumentException("Invalid bucket cache size:" + maxPoints);
+		}
+		int count = 1;
+		while (count < MAX_SEGMENTS && maxPoints / (count * 2) >= MIN_SEGMENT_POINTS) {
+			count *= 2;
+		}
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(maxPoints / count);
+		}
+	}
+
+	/**
+	 * @param conf
+	 * @return cache sized as configured or null if caching is disabled
+	 */
+	public static BucketCache create(Map<String, String> conf) {
+		long maxPoints = Long.parseLong(
+				conf.getOrDefault(StorageEngine.QUERY_CACHE_POINTS, StorageEngine.DEFAULT_QUERY_CACHE_POINTS));
+		if (maxPoints <= 0) {
+			return null;
+		}
+		return new BucketCache(maxPoints);
+	}
+
+	/**
+	 * @param series
+	 * @param tsBucket
+	 * @param count
+	 *            current number of points of the bucket
+	 * @return cached points of the bucket or null if they aren't cached or are
+	 *         stale
+	 */
+	public Entry get(TimeSeries series, int tsBucket, int count) {
+		Key key = new Key(series, tsBucket);
+		Entry entry = segmentFor(key).get(key, count);
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache the decoded points of a bucket, evicting the least recently used
+	 * buckets of its segment to make room for them
+	 * 
+	 * @param series
+	 * @param tsBucket
+	 * @param entry
+	 */
+	public void put(TimeSeries series, int tsBucket, Entry entry) {
+		Key key = new Key(series, tsBucket);
+		segmentFor(key).put(key, entry);
+	}
+
+	/**
+	 * Drop the cached points of a bucket, called when the bucket is written to
+	 * or removed
+	 * 
+	 * @param series
+	 * @param tsBucket
+	 */
+	public void invalidate(TimeSeries series, int tsBucket) {
+		Key key = new Key(series, tsBucket);
+		segmentFor(key).remove(key);
+	}
+
+	/**
+	 * Drop the cached points of all buckets of the supplied series, called when
+	 * the series are dropped
+	 * 
+	 * @param series
+	 */
+	public void invalidate(Collection<TimeSeries> series) {
+		if (series.isEmpty()) {
+			return;
+		}
+		Set<Key> seriesKeys = new HashSet<>();
+		for (TimeSeries ts : series) {
+			seriesKeys.add(new Key(ts, 0));
+		}
+		for (Segment segment : segments) {
+			segment.removeIf(seriesKeys);
+		}
+	}
+
+	private Segment segmentFor(Key key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (segments.length - 1)];
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public long getPoints() {
+		long points = 0;
+		for (Segment segment : segments) {
+			points += segment.getPoints();
+		}
+		return points;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Least recently used entries of the keys hashed to a segment
+	 * 
+	 * @author ambud
+	 */
+	private static final class Segment {
+
+		private final long maxPoints;
+		private final LinkedHashMap<Key, Entry> entries;
+		private long points;
+
+		private Segment(long maxPoints) {
+			this.maxPoints = maxPoints;
+			this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		}
+
+		private synchronized Entry get(Key key, int count) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.count != count) {
+				remove(key);
+				entry = null;
+			}
+			return entry;
+		}
+
+		private synchronized void put(Key key, Entry entry) {
+			if (entry.count > maxPoints) {
+				return;
+			}
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				points -= old.count;
+			}
+			points += entry.count;
+			Iterator<Entry> itr = entries.values().iterator();
+			while (points > maxPoints && itr.hasNext()) {
+				points -= itr.next().count;
+				itr.remove();
+			}
+		}
+
+		private synchronized void remove(Key key) {
+			Entry entry = entries.remove(key);
+			if (entry != null) {
+				points -= entry.count;
+			}
+		}
+
+		/**
+		 * @param seriesKeys
+		 *            keys of bucket 0 of the series to remove
+		 */
+		private synchronized void removeIf(Set<Key> seriesKeys) {
+			Iterator<Map.Entry<Key, Entry>> itr = entries.entrySet().iterator();
+			while (itr.hasNext()) {
+				Map.Entry<Key, Entry> next = itr.next();
+				if (seriesKeys.contains(next.getKey().withBucket(0))) {
+					points -= next.getValue().count;
+					itr.remove();
+				}
+			}
+		}
+
+		private synchronized int size() {
+			return entries.size();
+		}
+
+		private synchronized long getPoints() {
+			return points;
+		}
+
+	}
+
+	/**
+	 * Decoded points of a bucket in the order they were read from its writers
+	 * 
+	 * @author ambud
+	 */
+	public static final class Entry {
+
+		private final long[] timestamps;
+		private final long[] values;
+		private final int count;
+
+		public Entry(long[] timestamps, long[] values, int count) {
+			this.timestamps = timestamps;
+			this.values = values;
+			this.count = count;
+		}
+
+		/**
+		 * Pass the cached points in the supplied time range that match the value
+		 * predicate to the supplied consumer in batches
+		 * 
+		 * @param startTime
+		 * @param endTime
+		 * @param valuePredicate
+		 *            may be null
+		 * @param batch
+		 *            timestamp and value buffers the batches are copied to
+		 * @param consumer
+		 */
+		public void replay(long startTime, long endTime, Predicate valuePredicate, long[][] batch,
+				BatchConsumer consumer) {
+			long[] ts = batch[0];
+			long[] vals = batch[1];
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				long timestamp = timestamps[i];
+				if (timestamp < startTime || timestamp > endTime
+						|| (valuePredicate != null && !valuePredicate.test(values[i]))) {
+					continue;
+				}
+				ts[n] = timestamp;
+				vals[n] = values[i];
+				if (++n == ts.length) {
+					consumer.accept(ts, vals, n);
+					n = 0;
+				}
+			}
+			if (n > 0) {
+				consumer.accept(ts, vals, n);
+			}
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+	}
+
+	/**
+	 * Bucket of a series identified by its database, measurement and id
+	 */
+	private static final class Key {
+
+		private final String dbName;
+		private final String measurementName;
+		private final String seriesId;
+		private final int tsBucket;
+
+		private Key(TimeSeries series, int tsBucket) {
+			this(series.getMeasurement().getDbName(), series.getMeasurement().getMeasurementName(),
+					series.getSeriesId(), tsBucket);
+		}
+
+		private Key(String dbName, String measurementName, String seriesId, int tsBucket) {
+			this.dbName = dbName;
+			this.measurementName = measurementName;
+			this.seriesId = seriesId;
+			this.tsBucket = tsBucket;
+		}
+
+		private Key withBucket(int tsBucket) {
+			return new Key(dbName, measurementName, seriesId, tsBucket);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(dbName, measurementName, seriesId) * 31 + tsBucket;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return tsBucket == other.tsBucket && Objects.equals(seriesId, other.seriesId)
+					&& Objects.equals(measurementName, other.measurementName)
+					&& Objects.equals(dbName, other.dbName);
+		}
+
+	}
+
+}
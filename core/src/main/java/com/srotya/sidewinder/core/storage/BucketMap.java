@@ -0,0 +1,271 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.srotya.sidewinder.core.storage.compression.Writer;
+
+/**
+ * Sorted map of time bucket (primitive int) to the list of {@link Writer}s for
+ * that bucket.
+ * 
+ * Buckets are added and removed very rarely (once per time bucket per series)
+ * compared to how often they are looked up (once per data point) therefore
+ * this map is copy-on-write: mutations are synchronized and publish a new
+ * sorted array snapshot while lookups and range scans binary search the current
+ * snapshot without locking or allocating.
+ * 
+ * @author ambud
+ */
+public class BucketMap {
+
+	private static final Snapshot EMPTY = new Snapshot(new int[0], new Object[0]);
+	private volatile Snapshot snapshot;
+
+	public BucketMap() {
+		snapshot = EMPTY;
+	}
+
+	/**
+	 * @param bucket
+	 * @return writers for this bucket or null if the bucket doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Writer> get(int bucket) {
+		Snapshot s = snapshot;
+		int idx = Arrays.binarySearch(s.keys, bucket);
+		if (idx < 0) {
+			return null;
+		}
+		return (List<Writer>) s.values[idx];
+	}
+
+	/**
+	 * Add or replace writers for the supplied bucket
+	 * 
+	 * @param bucket
+	 * @param writers
+	 * @return previous writers for this bucket or null
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<Writer> put(int bucket, List<Writer> writers) {
+		Snapshot s = snapshot;
+		int idx = Arrays.binarySearch(s.keys, bucket);
+		if (idx >= 0) {
+			Object[] values = Arrays.copyOf(s.values, s.values.length);
+			values[idx] = writers;
+			snapshot = new Snapshot(s.keys, values);
+			return (List<Writer>) s.values[idx];
+		}
+		idx = -(idx + 1);
+		int[] keys = new int[s.keys.length + 1];
+		Object[] values = new Object[s.values.length + 1];
+		System.arraycopy(s.keys, 0, keys, 0, idx);
+		System.arraycopy(s.values, 0, values, 0, idx);
+		keys[idx] = bucket;
+		values[idx] = writers;
+		System.arraycopy(s.keys, idx, keys, idx + 1, s.keys.length - idx);
+		System.arraycopy(s.values, idx, values, idx + 1, s.values.length - idx);
+		snapshot = new Snapshot(keys, values);
+		return null;
+	}
+
+	/**
+	 * @param bucket
+	 * @return removed writers or null if the bucket doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<Writer> remove(int bucket) {
+		Snapshot s = snapshot;
+		int idx = Arrays.binarySearch(s.keys, bucket);
+		if (idx < 0) {
+			return null;
+		}
+		int[] keys = new int[s.keys.length - 1];
+		Object[] values = new Object[s.values.length - 1];
+		System.arraycopy(s.keys, 0, keys, 0, idx);
+		System.arraycopy(s.values, 0, values, 0, idx);
+		System.arraycopy(s.keys, idx + 1, keys, idx, s.keys.length - idx - 1);
+		System.arraycopy(s.values, idx + 1, values, idx, s.values.length - idx - 1);
+		snapshot = new Snapshot(keys, values);
+		return (List<Writer>) s.values[idx];
+	}
+
+	/**
+	 * Remove all buckets before the supplied bucket with a single snapshot swap
+	 * 
+	 * @param bucket
+	 * @return removed writer lists in ascending bucket order
+	 */
+	public synchronized List<List<Writer>> removeBefore(int bucket) {
+		Snapshot s = snapshot;
+		int idx = Arrays.binarySearch(s.keys, bucket);
+		if (idx < 0) {
+			idx = -(idx + 1);
+		}
+		if (idx == 0) {
+			return Collections.emptyList();
+		}
+		List<List<Writer>> removed = s.valueList(0, idx);
+		snapshot = new Snapshot(Arrays.copyOfRange(s.keys, idx, s.keys.length),
+				Arrays.copyOfRange(s.values, idx, s.values.length));
+		return removed;
+	}
+
+	/**
+	 * @return smallest bucket
+	 * @throws NoSuchElementException
+	 *             if the map is empty
+	 */
+	public int firstKey() {
+		int[] keys = snapshot.keys;
+		if (keys.length == 0) {
+			throw new NoSuchElementException();
+		}
+		return keys[0];
+	}
+
+	/**
+	 * @return largest bucket
+	 * @throws NoSuchElementException
+	 *             if the map is empty
+	 */
+	public int lastKey() {
+		int[] keys = snapshot.keys;
+		if (keys.length == 0) {
+			throw new NoSuchElementException();
+		}
+		return keys[keys.length - 1];
+	}
+
+	public int size() {
+		return snapshot.keys.length;
+	}
+
+	public boolean isEmpty() {
+		return snapshot.keys.length == 0;
+	}
+
+	/**
+	 * @return copy of the buckets in ascending order
+	 */
+	public int[] keys() {
+		int[] keys = snapshot.keys;
+		return Arrays.copyOf(keys, keys.length);
+	}
+
+	/**
+	 * @return writer lists of all buckets in ascending bucket order
+	 */
+	public List<List<Writer>> values() {
+		Snapshot s = snapshot;
+		return s.valueList(0, s.keys.length);
+	}
+
+	/**
+	 * Writer lists for buckets between the supplied bounds (both inclusive) in
+	 * ascending bucket order
+	 * 
+	 * @param fromBucket
+	 * @param toBucket
+	 * @return writer lists
+	 */
+	public List<List<Writer>> range(int fromBucket, int toBucket) {
+		Snapshot s = snapshot;
+		if (fromBucket > toBucket) {
+			return Collections.emptyList();
+		}
+		return s.valueList(s.rangeStart(fromBucket), s.rangeEnd(toBucket));
+	}
+
+	/**
+	 * Buckets between the supplied bounds (both inclusive) in ascending order
+	 * 
+	 * @param fromBucket
+	 * @param toBucket
+	 * @return buckets
+	 */
+	public int[] rangeKeys(int fromBucket, int toBucket) {
+		Snapshot s = snapshot;
+		if (fromBucket > toBucket) {
+			return new int[0];
+		}
+		return Arrays.copyOfRange(s.keys, s.rangeStart(fromBucket), s.rangeEnd(toBucket));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		Snapshot s = snapshot;
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < s.keys.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(s.keys[i]).append('=').append(s.values[i]);
+		}
+		return builder.append('}').toString();
+	}
+
+	private static final class Snapshot {
+
+		private final int[] keys;
+		private final Object[] values;
+
+		private Snapshot(int[] keys, Object[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<List<Writer>> valueList(int start, int end) {
+			List<List<Writer>> list = new ArrayList<>(Math.max(end - start, 0));
+			for (int i = start; i < end; i++) {
+				list.add((List<Writer>) values[i]);
+			}
+			return list;
+		}
+
+		/**
+		 * @param fromBucket
+		 * @return index of the first bucket not before the supplied bucket
+		 */
+		private int rangeStart(int fromBucket) {
+			int start = Arrays.binarySearch(keys, fromBucket);
+			return start < 0 ? -(start + 1) : start;
+		}
+
+		/**
+		 * @param toBucket
+		 * @return index after the last bucket not after the supplied bucket
+		 */
+		private int rangeEnd(int toBucket) {
+			int end = Arrays.binarySearch(keys, toBucket);
+			return end < 0 ? -(end + 1) : end + 1;
+		}
+
+	}
+
+}
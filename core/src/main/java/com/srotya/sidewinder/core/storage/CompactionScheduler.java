@@ -0,0 +1,186 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
+
+/**
+ * Compacts the series of a measurement in chunks without holding the
+ * measurement lock.
+ * 
+ * Chunks of series are compacted in parallel by up to the configured number of
+ * threads, each series only locks a bucket list while swapping its compacted
+ * writer in so writes and queries aren't stalled. Bytes read by compaction can
+ * be rate limited to bound the I/O it competes with ingestion for. Buffers
+ * freed by a compaction pass are cleaned up once at the end of the pass.
+ * 
+ * Series are compacted in order of their compaction priority, so series whose
+ * candidate buckets are queried often and fragmented into many writers don't
+ * wait behind idle ones.
+ * 
+ * @author ambud
+ */
+public class CompactionScheduler {
+
+	public static final String COMPACTION_THREADS = "compaction.threads";
+	public static final String DEFAULT_COMPACTION_THREADS = "1";
+	public static final String COMPACTION_RATE_LIMIT = "compaction.rate.limit";
+	public static final String DEFAULT_COMPACTION_RATE_LIMIT = "0";
+	public static final String COMPACTION_CHUNK_SIZE = "compaction.chunk.size";
+	public static final String DEFAULT_COMPACTION_CHUNK_SIZE = "64";
+	private static final Logger logger = Logger.getLogger(CompactionScheduler.class.getName());
+	private ExecutorService executor;
+	private IntConsumer throttle;
+	private int chunkSize;
+
+	/**
+	 * @param conf
+	 */
+	public CompactionScheduler(Map<String, String> conf) {
+		this(Integer.parseInt(conf.getOrDefault(COMPACTION_THREADS, DEFAULT_COMPACTION_THREADS)),
+				Long.parseLong(conf.getOrDefault(COMPACTION_RATE_LIMIT, DEFAULT_COMPACTION_RATE_LIMIT)),
+				Integer.parseInt(conf.getOrDefault(COMPACTION_CHUNK_SIZE, DEFAULT_COMPACTION_CHUNK_SIZE)));
+	}
+
+	/**
+	 * @param threads
+	 *            series are compacted on the calling thread if 1
+	 * @param bytesPerSecond
+	 *            bytes compaction may read per second, unlimited if 0
+	 * @param chunkSize
+	 *            number of series compacted by a single task
+	 */
+	public CompactionScheduler(int threads, long bytesPerSecond, int chunkSize) {
+		if (threads < 1 || chunkSize < 1 || bytesPerSecond < 0) {
+			throw new IllegalArgumentException("Invalid compaction threads:" + threads + " chunk size:" + chunkSize
+					+ " or rate limit:" + bytesPerSecond);
+		}
+		this.chunkSize = chunkSize;
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads, new BackgrounThreadFactory("compaction"));
+		}
+		if (bytesPerSecond > 0) {
+			RateLimiter limiter = RateLimiter.create(bytesPerSecond);
+			throttle = bytes -> limiter.acquire(Math.max(bytes, 1));
+		}
+		logger.info("Compaction threads:" + threads + " rate limit:" + bytesPerSecond + " chunk size:" + chunkSize);
+	}
+
+	/**
+	 * Compact all series of the supplied measurement
+	 *
+	 * @param measurement
+	 * @return ids of the buffers freed by compaction
+	 * @throws IOException
+	 */
+	public Set<String> compact(Measurement measurement) throws IOException {
+		List<TimeSeries> series = new ArrayList<>();
+		Map<TimeSeries, Long> priorities = new HashMap<>();
+		for (TimeSeries ts : measurement.getTimeSeries()) {
+			long priority = ts.getCompactionPriority();
+			if (priority > 0) {
+				series.add(ts);
+				priorities.put(ts, priority);
+			}
+		}
+		series.sort(Comparator.comparingLong((TimeSeries ts) -> priorities.get(ts)).reversed());
+		Set<String> cleanupList = ConcurrentHashMap.newKeySet();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < series.size(); i += chunkSize) {
+			List<TimeSeries> chunk = series.subList(i, Math.min(i + chunkSize, series.size()));
+			Runnable task = () -> compactChunk(measurement, chunk, cleanupList);
+			if (executor != null) {
+				futures.add(executor.submit(task));
+			} else {
+				task.run();
+			}
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while compacting:" + measurement.getMeasurementName(), e);
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+		if (cleanupList.size() > 0) {
+			logger.info("For measurement:" + measurement.getMeasurementName() + " cleaned=" + cleanupList.size()
+					+ " buffers");
+		}
+		measurement.getMalloc().cleanupBufferIds(cleanupList);
+		return cleanupList;
+	}
+
+	private void compactChunk(Measurement measurement, List<TimeSeries> chunk, Set<String> cleanupList) {
+		for (TimeSeries ts : chunk) {
+			try {
+				List<Writer> list = ts.compactThrottled(throttle);
+				if (list == null) {
+					continue;
+				}
+				for (Writer writer : list) {
+					cleanupList.add(writer.getBufferId());
+				}
+				logger.fine("Buffers compacting for time series:" + ts.getSeriesId());
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Error compacting series:" + ts.getSeriesId() + " measurement:"
+						+ measurement.getMeasurementName(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return unthrottled scheduler compacting on the calling thread, created
+	 *         on first use
+	 */
+	public static CompactionScheduler serial() {
+		return SerialHolder.SERIAL;
+	}
+
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private static class SerialHolder {
+
+		private static final CompactionScheduler SERIAL = new CompactionScheduler(1, 0,
+				Integer.parseInt(DEFAULT_COMPACTION_CHUNK_SIZE));
+
+	}
+
+}
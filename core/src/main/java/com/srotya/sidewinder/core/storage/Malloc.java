@@ -24,4 +24,34 @@ public interface Malloc {
 
 	public void close() throws IOException;
 
+	/**
+	 * @return size of buffers allocated when no size is requested
+	 */
+	public int getBufferSize();
+
+	/**
+	 * @return largest buffer size this allocator can serve
+	 */
+	public default int getMaxBufferSize() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return size (in seconds) of the time windows buffers are partitioned into
+	 *         files by or 0 if buffers aren't time partitioned
+	 */
+	public default int getPartitionWindow() {
+		return 0;
+	}
+
+	/**
+	 * Drop buffers of all time partitions that end at or before the supplied
+	 * bucket
+	 * 
+	 * @param tsBucket
+	 * @throws IOException
+	 */
+	public default void dropPartitionsBefore(int tsBucket) throws IOException {
+	}
+
 }
@@ -16,6 +16,7 @@
 package com.srotya.sidewinder.core.storage;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -25,16 +26,16 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 import com.srotya.sidewinder.core.filters.Tag;
 import com.srotya.sidewinder.core.filters.TagFilter;
+import com.srotya.sidewinder.core.functions.Function;
 import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.archival.TimeSeriesArchivalObject;
 import com.srotya.sidewinder.core.storage.compression.Reader;
@@ -50,6 +51,7 @@ public interface Measurement {
 	public static final String TAG_KV_SEPARATOR = "=";
 	public static final String SERIESID_SEPARATOR = "#";
 	public static final String USE_QUERY_POOL = "use.query.pool";
+	public static final int CREATION_LOCK_STRIPES = 64;
 	public static final String TAG_SEPARATOR = "^";
 
 	public void configure(Map<String, String> conf, StorageEngine engine, String dbName, String measurementName,
@@ -93,13 +95,68 @@ public interface Measurement {
 		}
 	}
 
+	/**
+	 * Encode sorted tags into a series key. If the tag index has a
+	 * {@link TagDictionary} each tag key and value is replaced by its dictionary
+	 * id (hex) otherwise the tag strings are concatenated as is. Ids are
+	 * assigned to tag keys and values that aren't in the dictionary yet, so this
+	 * must only be used by writes.
+	 * 
+	 * @param tagIndex
+	 * @param tags
+	 * @return series key
+	 * @throws IOException
+	 */
 	public default String encodeTagsToString(TagIndex tagIndex, List<String> tags) throws IOException {
-		StringBuilder builder = new StringBuilder(tags.size() * 5);
-		builder.append(tags.get(0));
-		for (int i = 1; i < tags.size(); i++) {
+		return encodeTagsToString(tagIndex, tags, true);
+	}
+
+	/**
+	 * Encode sorted tags into a series key
+	 * 
+	 * @param tagIndex
+	 * @param tags
+	 * @param assign
+	 *            assign ids to tag keys and values that aren't in the
+	 *            {@link TagDictionary} yet
+	 * @return series key or null if a tag isn't in the dictionary and assign is
+	 *         false
+	 * @throws IOException
+	 */
+	public default String encodeTagsToString(TagIndex tagIndex, List<String> tags, boolean assign)
+			throws IOException {
+		TagDictionary dictionary = tagIndex.getDictionary();
+		if (dictionary == null) {
+			StringBuilder builder = new StringBuilder(tags.size() * 5);
+			builder.append(tags.get(0));
+			for (int i = 1; i < tags.size(); i++) {
+				String tag = tags.get(i);
+				builder.append(TAG_SEPARATOR);
+				builder.append(tag);
+			}
+			return builder.toString();
+		}
+		StringBuilder builder = new StringBuilder(tags.size() * 6);
+		for (int i = 0; i < tags.size(); i++) {
 			String tag = tags.get(i);
-			builder.append(TAG_SEPARATOR);
-			builder.append(tag);
+			int idx = tag.indexOf(TAG_KV_SEPARATOR);
+			if (idx < 0) {
+				throw INDEX_REJECT;
+			}
+			String tagKey = tag.substring(0, idx);
+			String tagValue = tag.substring(idx + 1);
+			int keyId = assign ? dictionary.getOrAssign(tagKey) : dictionary.getId(tagKey);
+			int valueId = assign ? dictionary.getOrAssign(tagValue) : dictionary.getId(tagValue);
+			if (keyId < 0 || valueId < 0) {
+				// no series can have a tag that was never assigned an id
+				return null;
+			}
+			if (i > 0) {
+				builder.append(TAG_SEPARATOR);
+			}
+			builder.append(Integer.toHexString(keyId));
+			builder.append(TAG_KV_SEPARATOR);
+			builder.append(Integer.toHexString(valueId));
 		}
 		return builder.toString();
 	}
@@ -108,17 +165,44 @@ public interface Measurement {
 		return encodeTagsToString(index, tags);
 	}
 
+	/**
+	 * Series key for lookups, doesn't assign dictionary ids
+	 * 
+	 * @param tags
+	 * @param index
+	 * @return series key or null if no series can have the supplied tags
+	 * @throws IOException
+	 */
+	public default String findSeriesId(List<String> tags, TagIndex index) throws IOException {
+		return encodeTagsToString(index, tags, false);
+	}
+
 	public static List<Tag> decodeStringToTags(TagIndex tagIndex, String tagString) throws IOException {
 		List<Tag> tagList = new ArrayList<>();
 		if (tagString == null || tagString.isEmpty()) {
 			return tagList;
 		}
+		TagDictionary dictionary = tagIndex.getDictionary();
 		for (String tag : tagString.split("\\" + TAG_SEPARATOR)) {
 			String[] split = tag.split(TAG_KV_SEPARATOR);
 			if (split.length != 2) {
 				throw SEARCH_REJECT;
 			}
-			tagList.add(new Tag(split[0], split[1]));
+			if (dictionary == null) {
+				tagList.add(new Tag(split[0], split[1]));
+			} else {
+				String tagKey, tagValue;
+				try {
+					tagKey = dictionary.getValue(Integer.parseInt(split[0], 16));
+					tagValue = dictionary.getValue(Integer.parseInt(split[1], 16));
+				} catch (NumberFormatException e) {
+					throw SEARCH_REJECT;
+				}
+				if (tagKey == null || tagValue == null) {
+					throw SEARCH_REJECT;
+				}
+				tagList.add(new Tag(tagKey, tagValue));
+			}
 		}
 		return tagList;
 	}
@@ -140,22 +224,17 @@ public interface Measurement {
 	}
 
 	public default void collectGarbage(Archiver archiver) throws IOException {
+		int partitionWindow = getMalloc().getPartitionWindow();
+		if (partitionWindow > 0) {
+			collectExpiredPartitions(partitionWindow, archiver);
+			return;
+		}
 		runCleanupOperation("garbage collection", ts -> {
 			try {
 				List<Writer> collectedGarbage = ts.collectGarbage();
 				getLogger().fine("Collected garbage:" + collectedGarbage.size());
 				if (archiver != null && collectedGarbage != null) {
-					for (Writer writer : collectedGarbage) {
-						byte[] buf = Archiver.writerToByteArray(writer);
-						TimeSeriesArchivalObject archivalObject = new TimeSeriesArchivalObject(getDbName(),
-								getMeasurementName(), ts.getSeriesId(), writer.getTsBucket(), buf);
-						try {
-							archiver.archive(archivalObject);
-						} catch (ArchiveException e) {
-							getLogger().log(Level.SEVERE, "Series failed to archive, series:" + ts.getSeriesId()
-									+ " db:" + getDbName() + " m:" + getMeasurementName(), e);
-						}
-					}
+					archiveWriters(archiver, ts, collectedGarbage);
 				}
 				return collectedGarbage;
 			} catch (IOException e) {
@@ -164,14 +243,72 @@ public interface Measurement {
 		});
 	}
 
-	public default Set<String> compact() throws IOException {
-		return runCleanupOperation("compacting", ts -> {
+	public default void archiveWriters(Archiver archiver, TimeSeries ts, List<Writer> writers) {
+		for (Writer writer : writers) {
+			byte[] buf = Archiver.writerToByteArray(writer);
+			TimeSeriesArchivalObject archivalObject = new TimeSeriesArchivalObject(getDbName(), getMeasurementName(),
+					ts.getSeriesId(), writer.getTsBucket(), buf);
 			try {
-				return ts.compact();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
+				archiver.archive(archivalObject);
+			} catch (ArchiveException e) {
+				getLogger().log(Level.SEVERE, "Series failed to archive, series:" + ts.getSeriesId() + " db:"
+						+ getDbName() + " m:" + getMeasurementName(), e);
 			}
-		});
+		}
+	}
+
+	/**
+	 * Expire whole time partitions of a time partitioned {@link Malloc}: buckets
+	 * of expired partitions are dropped from every series in bulk and their
+	 * buffers are freed by the {@link Malloc} without tracking individual buffer
+	 * ids
+	 * 
+	 * @param partitionWindow
+	 * @param archiver
+	 * @throws IOException
+	 */
+	public default void collectExpiredPartitions(int partitionWindow, Archiver archiver) throws IOException {
+		long now = System.currentTimeMillis() / 1000;
+		getLock().lock();
+		try {
+			Collection<TimeSeries> series = getTimeSeries();
+			if (series.isEmpty()) {
+				return;
+			}
+			// data retained by any series of this measurement must be retained
+			long cutoff = Long.MAX_VALUE;
+			for (TimeSeries ts : series) {
+				cutoff = Math.min(cutoff, now - (long) ts.getRetentionBuckets() * ts.getTimeBucketSize());
+			}
+			if (cutoff <= Integer.MIN_VALUE) {
+				return;
+			}
+			int partitionCutoff = Math.floorDiv((int) cutoff, partitionWindow) * partitionWindow;
+			int removed = 0;
+			for (TimeSeries ts : series) {
+				List<Writer> writers = ts.removeBucketsBefore(partitionCutoff);
+				removed += writers.size();
+				if (archiver != null) {
+					archiveWriters(archiver, ts, writers);
+				}
+			}
+			getMalloc().dropPartitionsBefore(partitionCutoff);
+			getLogger().info("For measurement:" + getMeasurementName() + " expired partitions before:"
+					+ partitionCutoff + " removed=" + removed + " buffers");
+		} finally {
+			getLock().unlock();
+		}
+	}
+
+	/**
+	 * Compact all series of this measurement on the calling thread, see
+	 * {@link CompactionScheduler}
+	 * 
+	 * @return ids of the buffers freed by compaction
+	 * @throws IOException
+	 */
+	public default Set<String> compact() throws IOException {
+		return CompactionScheduler.serial().compact(this);
 	}
 
 	public default Set<String> runCleanupOperation(String operation,
@@ -209,10 +346,11 @@ public interface Measurement {
 
 	public default SeriesFieldMap getSeriesField(List<String> tags) throws IOException {
 		Collections.sort(tags);
-		String rowKey = constructSeriesId(tags, getTagIndex());
-		// check and create timeseries
-		SeriesFieldMap map = getSeriesFromKey(rowKey);
-		return map;
+		String rowKey = findSeriesId(tags, getTagIndex());
+		if (rowKey == null) {
+			return null;
+		}
+		return getSeriesFromKey(rowKey);
 	}
 
 	public default Set<String> getFieldsForMeasurement() {
@@ -250,6 +388,47 @@ public interface Measurement {
 
 	public default void queryDataPoints(String valueFieldNamePattern, long startTime, long endTime, TagFilter tagFilter,
 			Predicate valuePredicate, List<Series> resultMap) throws IOException {
+		queryDataPoints(valueFieldNamePattern, startTime, endTime, tagFilter, valuePredicate,
+				(Consumer<Series>) resultMap::add);
+	}
+
+	/**
+	 * Query the matching series and pass each series to the supplied output as
+	 * soon as it has been read, so the result doesn't have to be materialized
+	 * 
+	 * @param valueFieldNamePattern
+	 * @param startTime
+	 * @param endTime
+	 * @param tagFilter
+	 * @param valuePredicate
+	 * @param output
+	 *            called concurrently if the query pool is used, an
+	 *            {@link UncheckedIOException} thrown by it aborts the query
+	 * @throws IOException
+	 */
+	public default void queryDataPoints(String valueFieldNamePattern, long startTime, long endTime, TagFilter tagFilter,
+			Predicate valuePredicate, Consumer<Series> output) throws IOException {
+		queryDataPoints(valueFieldNamePattern, startTime, endTime, tagFilter, valuePredicate, null, output);
+	}
+
+	/**
+	 * Query the matching series, apply the supplied series local function to
+	 * each of them while it's read and pass the results to the supplied output
+	 * 
+	 * @param valueFieldNamePattern
+	 * @param startTime
+	 * @param endTime
+	 * @param tagFilter
+	 * @param valuePredicate
+	 * @param function
+	 *            series local function, may be null
+	 * @param output
+	 *            called concurrently if the query pool is used, an
+	 *            {@link UncheckedIOException} thrown by it aborts the query
+	 * @throws IOException
+	 */
+	public default void queryDataPoints(String valueFieldNamePattern, long startTime, long endTime, TagFilter tagFilter,
+			Predicate valuePredicate, Function function, Consumer<Series> output) throws IOException {
 		final Set<String> rowKeys;
 		if (tagFilter == null) {
 			rowKeys = getSeriesKeys();
@@ -281,27 +460,35 @@ public interface Measurement {
 				}
 			}
 		}
-		Stream<String> stream = outputKeys.stream();
-		if (useQueryPool()) {
-			stream = stream.parallel();
-		}
-		stream.forEach(entry -> {
+		QueryExecutor.Task<String> task = entry -> {
+			QueryContext.checkCurrent(0);
 			try {
 				List<String> valueFieldNames = fields.get(entry);
 				if (valueFieldNames == null) {
 					throw new NullPointerException(
 							"NPEfor:" + entry + " rowkeys:" + fields + " vfn:" + valueFieldNamePattern);
 				}
-				populateDataPoints(valueFieldNames, entry, startTime, endTime, valuePredicate, p, resultMap);
+				populateDataPoints(valueFieldNames, entry, startTime, endTime, valuePredicate, p, function, output);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} catch (QueryAbortedException e) {
+				throw e;
 			} catch (Exception e) {
 				getLogger().log(Level.SEVERE, "Failed to query data points", e);
 			}
-		});
+		};
+		QueryExecutor executor = getQueryExecutor();
+		if (useQueryPool() && executor != null) {
+			executor.forEach(outputKeys, task);
+		} else {
+			for (String entry : outputKeys) {
+				task.run(entry);
+			}
+		}
 	}
 
 	public default void populateDataPoints(List<String> valueFieldNames, String rowKey, long startTime, long endTime,
-			Predicate valuePredicate, Pattern p, List<Series> resultMap) throws IOException {
-		List<DataPoint> points = null;
+			Predicate valuePredicate, Pattern p, Function function, Consumer<Series> output) throws IOException {
 		List<Tag> seriesTags = decodeStringToTags(getTagIndex(), rowKey);
 		for (String valueFieldName : valueFieldNames) {
 			TimeSeries value = getSeriesFromKey(rowKey).get(valueFieldName);
@@ -309,12 +496,15 @@ public interface Measurement {
 				getLogger().severe("Invalid time series value " + rowKey + "\t" + "\t" + "\n\n");
 				return;
 			}
-			points = value.queryDataPoints(valueFieldName, startTime, endTime, valuePredicate);
-			if (points != null && points.size() > 0) {
-				Series seriesQueryOutput = new Series(getMeasurementName(), valueFieldName, seriesTags);
-				seriesQueryOutput.setFp(value.isFp());
-				seriesQueryOutput.setDataPoints(points);
-				resultMap.add(seriesQueryOutput);
+			Series seriesQueryOutput = new Series(getMeasurementName(), valueFieldName, seriesTags);
+			seriesQueryOutput.setFp(value.isFp());
+			if (function != null) {
+				seriesQueryOutput = function.query(value, startTime, endTime, valuePredicate, seriesQueryOutput);
+			} else {
+				value.querySeries(startTime, endTime, valuePredicate, seriesQueryOutput);
+			}
+			if (seriesQueryOutput != null && seriesQueryOutput.size() > 0) {
+				output.accept(seriesQueryOutput);
 			}
 		}
 	}
@@ -356,7 +546,10 @@ public interface Measurement {
 	public default Collection<TimeSeries> getTimeSeries() {
 		List<TimeSeries> series = new ArrayList<>();
 		for (SeriesFieldMap seriesFieldMap : getSeriesList()) {
-			series.addAll(seriesFieldMap.values());
+			// index of a series whose fields were never persisted
+			if (seriesFieldMap != null) {
+				series.addAll(seriesFieldMap.values());
+			}
 		}
 		return series;
 	}
@@ -370,7 +563,7 @@ public interface Measurement {
 
 	public Logger getLogger();
 
-	public SortedMap<String, List<Writer>> createNewBucketMap(String seriesId);
+	public BucketMap createNewBucketMap(String seriesId);
 
 	public ReentrantLock getLock();
 
@@ -380,6 +573,22 @@ public interface Measurement {
 
 	public Malloc getMalloc();
 
+	/**
+	 * @return cache of decoded time buckets of the series of this measurement,
+	 *         null if caching is disabled
+	 */
+	public default BucketCache getBucketCache() {
+		return null;
+	}
+
+	/**
+	 * @return pool the series of queries of this measurement run on, null if
+	 *         they run on the querying thread
+	 */
+	public default QueryExecutor getQueryExecutor() {
+		return null;
+	}
+
 	public default Collection<String> getTagValues(String tagKey) {
 		return getTagIndex().getTagValues(tagKey);
 	}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+/**
+ * Thrown when a query is cancelled or exceeds a limit of its
+ * {@link QueryContext}. Unchecked so that it can abort a query from within
+ * functions and consumers of points.
+ * 
+ * @author ambud
+ */
+public class QueryAbortedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public QueryAbortedException(String message) {
+		super(message);
+	}
+
+}
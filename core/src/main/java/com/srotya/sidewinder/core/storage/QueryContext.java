@@ -0,0 +1,195 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deadline, cancellation flag and budgets of a query: the number of points it
+ * may decode, including points its predicates filter out, and the number of
+ * compressed bytes it may decode.
+ * 
+ * The context of the running query is attached to the querying thread and to
+ * the pool threads working on the query, so that read loops and functions can
+ * check it without it being passed through every call. Exceeding a limit
+ * cancels the query on all of its threads and throws a
+ * {@link QueryAbortedException}.
+ * 
+ * @author ambud
+ */
+public class QueryContext {
+
+	public static final String QUERY_TIMEOUT = "query.timeout.ms";
+	public static final String DEFAULT_QUERY_TIMEOUT = "300000";
+	public static final String QUERY_MAX_POINTS = "query.max.points";
+	public static final String DEFAULT_QUERY_MAX_POINTS = "100000000";
+	public static final String QUERY_MAX_BYTES = "query.max.bytes";
+	public static final String DEFAULT_QUERY_MAX_BYTES = "0";
+	private static final ThreadLocal<QueryContext> CURRENT = new ThreadLocal<>();
+	private final long timeout;
+	private final long deadline;
+	private final long maxPoints;
+	private final long maxBytes;
+	private final AtomicLong points = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private volatile String abortReason;
+
+	/**
+	 * @param timeout
+	 *            in milliseconds, no deadline if 0
+	 * @param maxPoints
+	 *            unlimited if 0
+	 * @param maxBytes
+	 *            unlimited if 0
+	 */
+	public QueryContext(long timeout, long maxPoints, long maxBytes) {
+		if (timeout < 0 || maxPoints < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException(
+					"Invalid query timeout:" + timeout + " max points:" + maxPoints + " or max bytes:" + maxBytes);
+		}
+		this.timeout = timeout;
+		this.deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+		this.maxPoints = maxPoints;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return context of the query running on this thread, null if there is
+	 *         none
+	 */
+	public static QueryContext current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Make this the context of the current thread
+	 * 
+	 * @return context to restore once the thread stops working on this query
+	 */
+	public QueryContext attach() {
+		QueryContext previous = CURRENT.get();
+		CURRENT.set(this);
+		return previous;
+	}
+
+	/**
+	 * @param previous
+	 *            context returned by {@link #attach()}
+	 */
+	public static void restore(QueryContext previous) {
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+
+	/**
+	 * Check the context of the current thread, if any, after reading the
+	 * supplied number of points
+	 * 
+	 * @param points
+	 * @throws QueryAbortedException
+	 */
+	public static void checkCurrent(int points) throws QueryAbortedException {
+		QueryContext context = CURRENT.get();
+		if (context != null) {
+			context.addPoints(points);
+		}
+	}
+
+	/**
+	 * Cancel the query, its threads abort at their next check
+	 */
+	public void cancel() {
+		abort("Query was cancelled");
+	}
+
+	public boolean isCancelled() {
+		return abortReason != null;
+	}
+
+	/**
+	 * @throws QueryAbortedException
+	 *             if the query was cancelled or is past its deadline
+	 */
+	public void checkpoint() throws QueryAbortedException {
+		if (abortReason != null) {
+			throw new QueryAbortedException(abortReason);
+		}
+		if (deadline != 0 && System.nanoTime() - deadline > 0) {
+			throw abort("Query exceeded its timeout of " + timeout + "ms");
+		}
+	}
+
+	/**
+	 * Account for points decoded by the query
+	 * 
+	 * @param count
+	 * @throws QueryAbortedException
+	 *             if the query decoded more points than its budget
+	 */
+	public void addPoints(int count) throws QueryAbortedException {
+		long total = points.addAndGet(count);
+		if (maxPoints > 0 && total > maxPoints) {
+			throw abort("Query exceeded its budget of " + maxPoints + " points, narrow its time range or filters");
+		}
+		checkpoint();
+	}
+
+	/**
+	 * Account for compressed bytes decoded by the query
+	 * 
+	 * @param count
+	 * @throws QueryAbortedException
+	 *             if the query decoded more bytes than its budget
+	 */
+	public void addBytes(int count) throws QueryAbortedException {
+		long total = bytes.addAndGet(count);
+		if (maxBytes > 0 && total > maxBytes) {
+			throw abort("Query exceeded its budget of " + maxBytes + " bytes, narrow its time range or filters");
+		}
+		checkpoint();
+	}
+
+	/**
+	 * @param consumer
+	 * @return consumer that accounts for the points passed to the supplied one
+	 */
+	public BatchConsumer track(BatchConsumer consumer) {
+		return (timestamps, values, count) -> {
+			addPoints(count);
+			consumer.accept(timestamps, values, count);
+		};
+	}
+
+	private QueryAbortedException abort(String reason) {
+		if (abortReason == null) {
+			abortReason = reason;
+		}
+		return new QueryAbortedException(abortReason);
+	}
+
+	public long getPoints() {
+		return points.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+}
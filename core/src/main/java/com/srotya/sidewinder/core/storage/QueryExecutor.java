@@ -0,0 +1,267 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+import com.srotya.sidewinder.core.utils.BackgrounThreadFactory;
+
+/**
+ * Bounded thread pool that queries run their series on, shared by all queries
+ * of a {@link StorageEngine}.
+ * 
+ * A query uses at most the configured number of threads, one of them being the
+ * thread that runs the query. Each pool thread runs a single series of a query
+ * and then queues the query again behind the series of other queries, so
+ * concurrent queries take turns instead of the first large one holding all
+ * threads. Since the querying thread works through the series as well, a query
+ * completes even if the pool is saturated or its queue is full.
+ * 
+ * The {@link QueryContext} of the querying thread is attached to the pool
+ * threads while they run its items, so deadlines, cancellation and budgets
+ * apply to all threads of a query.
+ * 
+ * Queue depth, active threads, time spent queued, query latency and rejected
+ * tasks are reported through the supplied metric registry.
+ * 
+ * @author ambud
+ */
+public class QueryExecutor {
+
+	public static final String QUERY_THREADS = "query.threads";
+	public static final String DEFAULT_QUERY_THREADS = String.valueOf(Runtime.getRuntime().availableProcessors());
+	public static final String QUERY_PARALLELISM = "query.parallelism";
+	public static final String DEFAULT_QUERY_PARALLELISM = "4";
+	public static final String QUERY_QUEUE_SIZE = "query.queue.size";
+	public static final String DEFAULT_QUERY_QUEUE_SIZE = "1024";
+	private static final Logger logger = Logger.getLogger(QueryExecutor.class.getName());
+	private ThreadPoolExecutor executor;
+	private int parallelism;
+	private Timer latency;
+	private Timer queueTime;
+	private Meter rejected;
+	private long timeout;
+	private long maxPoints;
+	private long maxBytes;
+
+	/**
+	 * @param conf
+	 * @param registry
+	 *            to report metrics to, may be null
+	 */
+	public QueryExecutor(Map<String, String> conf, MetricRegistry registry) {
+		this(Integer.parseInt(conf.getOrDefault(QUERY_THREADS, DEFAULT_QUERY_THREADS)),
+				Integer.parseInt(conf.getOrDefault(QUERY_PARALLELISM, DEFAULT_QUERY_PARALLELISM)),
+				Integer.parseInt(conf.getOrDefault(QUERY_QUEUE_SIZE, DEFAULT_QUERY_QUEUE_SIZE)), registry);
+		timeout = Long.parseLong(conf.getOrDefault(QueryContext.QUERY_TIMEOUT, QueryContext.DEFAULT_QUERY_TIMEOUT));
+		maxPoints = Long
+				.parseLong(conf.getOrDefault(QueryContext.QUERY_MAX_POINTS, QueryContext.DEFAULT_QUERY_MAX_POINTS));
+		maxBytes = Long
+				.parseLong(conf.getOrDefault(QueryContext.QUERY_MAX_BYTES, QueryContext.DEFAULT_QUERY_MAX_BYTES));
+		// validate the limits on startup rather than on the first query
+		newContext();
+		logger.info("Query timeout:" + timeout + "ms max points:" + maxPoints + " max bytes:" + maxBytes);
+	}
+
+	/**
+	 * @param threads
+	 *            size of the pool
+	 * @param parallelism
+	 *            threads a single query can use including its own
+	 * @param queueSize
+	 *            number of tasks that can wait for a thread
+	 * @param registry
+	 *            to report metrics to, may be null. Queries have no limits.
+	 */
+	public QueryExecutor(int threads, int parallelism, int queueSize, MetricRegistry registry) {
+		if (threads < 1 || parallelism < 1 || queueSize < 1) {
+			throw new IllegalArgumentException("Invalid query threads:" + threads + " parallelism:" + parallelism
+					+ " or queue size:" + queueSize);
+		}
+		this.parallelism = parallelism;
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), new BackgrounThreadFactory("query"));
+		if (registry == null) {
+			registry = new MetricRegistry();
+		}
+		latency = registry.timer("latency");
+		queueTime = registry.timer("queue-time");
+		rejected = registry.meter("rejected");
+		// the registry outlives engines that are reconfigured
+		registry.remove("queue-depth");
+		registry.register("queue-depth", (Gauge<Integer>) () -> executor.getQueue().size());
+		registry.remove("active-threads");
+		registry.register("active-threads", (Gauge<Integer>) () -> executor.getActiveCount());
+		logger.info("Query threads:" + threads + " parallelism:" + parallelism + " queue size:" + queueSize);
+	}
+
+	/**
+	 * Run the supplied task for each item on the pool and the calling thread,
+	 * the first exception thrown by the task aborts the remaining items and is
+	 * rethrown once the items being run have completed
+	 * 
+	 * @param items
+	 * @param task
+	 * @throws IOException
+	 */
+	public <T> void forEach(Collection<T> items, Task<? super T> task) throws IOException {
+		if (items.isEmpty()) {
+			return;
+		}
+		Context time = latency.time();
+		try {
+			new Query<T>(new ArrayList<>(items), task).run();
+		} finally {
+			time.stop();
+		}
+	}
+
+	/**
+	 * @return context with the configured deadline and budgets for a new query
+	 */
+	public QueryContext newContext() {
+		return new QueryContext(timeout, maxPoints, maxBytes);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Work run for an item of a query
+	 * 
+	 * @author ambud
+	 */
+	@FunctionalInterface
+	public interface Task<T> {
+
+		public void run(T item) throws IOException;
+
+	}
+
+	private final class Query<T> {
+
+		private final List<T> items;
+		private final Task<? super T> task;
+		private final AtomicInteger next = new AtomicInteger();
+		private final CountDownLatch done;
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+		private final QueryContext context;
+
+		private Query(List<T> items, Task<? super T> task) {
+			this.items = items;
+			this.task = task;
+			this.context = QueryContext.current();
+			this.done = new CountDownLatch(items.size());
+		}
+
+		private void run() throws IOException {
+			for (int i = 1; i < Math.min(parallelism, items.size()); i++) {
+				submit();
+			}
+			while (runNext()) {
+			}
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, e);
+				throw new IOException("Interrupted while waiting for query to complete", e);
+			}
+			Throwable t = failure.get();
+			if (t == null) {
+				return;
+			} else if (t instanceof IOException) {
+				throw (IOException) t;
+			} else if (t instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) t).getCause();
+			} else if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new IOException(t);
+		}
+
+		private void submit() {
+			long submitted = System.nanoTime();
+			try {
+				executor.execute(() -> {
+					queueTime.update(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+					QueryContext previous = context != null ? context.attach() : null;
+					boolean ran;
+					try {
+						ran = runNext();
+					} finally {
+						if (context != null) {
+							QueryContext.restore(previous);
+						}
+					}
+					if (ran && next.get() < items.size()) {
+						submit();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the querying thread runs the items left over
+				rejected.mark();
+			}
+		}
+
+		/**
+		 * @return false if there are no items left
+		 */
+		private boolean runNext() {
+			int i = next.getAndIncrement();
+			if (i >= items.size()) {
+				return false;
+			}
+			try {
+				if (failure.get() == null) {
+					task.run(items.get(i));
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			} finally {
+				done.countDown();
+			}
+			return true;
+		}
+
+	}
+
+}
@@ -15,21 +15,39 @@
  */
 package com.srotya.sidewinder.core.storage;
 
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.srotya.sidewinder.core.filters.Tag;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
 /**
+ * Points of a series stored column wise in growable primitive arrays of
+ * timestamps and values, so query results and function outputs don't need an
+ * object per point. Like {@link DataPoint}, values are stored as long and
+ * floating point values as their long bits.
+ * 
  * @author ambud
  */
+@JsonAdapter(Series.SeriesTypeAdapter.class)
 public class Series implements Comparable<Series> {
 
+	private static final long[] EMPTY = new long[0];
 	private String measurementName;
 	private String valueFieldName;
 	private boolean isFp;
 	private List<Tag> tags;
-	private List<DataPoint> dataPoints;
+	private long[] timestamps = EMPTY;
+	private long[] values = EMPTY;
+	private int size;
 
 	public Series() {
 	}
@@ -45,11 +63,11 @@ public class Series implements Comparable<Series> {
 		this.measurementName = measurementName;
 		this.valueFieldName = valueFieldName;
 		this.tags = tags;
-		this.dataPoints = dataPoints;
+		setDataPoints(dataPoints);
 	}
 
 	public Series(List<DataPoint> value) {
-		dataPoints = value;
+		setDataPoints(value);
 	}
 
 	@Override
@@ -103,18 +121,164 @@ public class Series implements Comparable<Series> {
 	}
 
 	/**
+	 * Read only view of the points of this series, a {@link DataPoint} is
+	 * created for each accessed point so column accessors should be preferred
+	 * 
 	 * @return the dataPoints
 	 */
 	public List<DataPoint> getDataPoints() {
-		return dataPoints;
+		return new AbstractList<DataPoint>() {
+
+			@Override
+			public DataPoint get(int index) {
+				return new DataPoint(getTimestamp(index), getLongValue(index));
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
 	}
 
 	/**
+	 * Replace the points of this series with the supplied ones
+	 * 
 	 * @param dataPoints
 	 *            the dataPoints to set
 	 */
 	public void setDataPoints(List<DataPoint> dataPoints) {
-		this.dataPoints = dataPoints;
+		size = 0;
+		if (dataPoints == null) {
+			return;
+		}
+		ensureCapacity(dataPoints.size());
+		for (DataPoint dataPoint : dataPoints) {
+			add(dataPoint.getTimestamp(), dataPoint.getLongValue());
+		}
+	}
+
+	/**
+	 * Append a point
+	 * 
+	 * @param timestamp
+	 * @param value
+	 *            long bits for floating point values
+	 */
+	public void add(long timestamp, long value) {
+		if (size == timestamps.length) {
+			ensureCapacity(size + 1);
+		}
+		timestamps[size] = timestamp;
+		values[size++] = value;
+	}
+
+	/**
+	 * Append a floating point value
+	 * 
+	 * @param timestamp
+	 * @param value
+	 */
+	public void add(long timestamp, double value) {
+		add(timestamp, Double.doubleToLongBits(value));
+	}
+
+	/**
+	 * Append count points from the supplied arrays
+	 * 
+	 * @param timestamps
+	 * @param values
+	 * @param count
+	 */
+	public void add(long[] timestamps, long[] values, int count) {
+		ensureCapacity(size + count);
+		System.arraycopy(timestamps, 0, this.timestamps, size, count);
+		System.arraycopy(values, 0, this.values, size, count);
+		size += count;
+	}
+
+	/**
+	 * @param capacity
+	 *            number of points this series should be able to hold without
+	 *            growing
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > timestamps.length) {
+			int newCapacity = Math.max(capacity, Math.max(16, timestamps.length * 2));
+			timestamps = Arrays.copyOf(timestamps, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+	}
+
+	/**
+	 * Drop the points after the supplied number of points
+	 * 
+	 * @param size
+	 */
+	public void truncate(int size) {
+		if (size < this.size) {
+			this.size = size;
+		}
+	}
+
+	/**
+	 * @return number of points
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[checkIndex(index)];
+	}
+
+	public void setTimestamp(int index, long timestamp) {
+		timestamps[checkIndex(index)] = timestamp;
+	}
+
+	/**
+	 * @param index
+	 * @return value, long bits for floating point values
+	 */
+	public long getLongValue(int index) {
+		return values[checkIndex(index)];
+	}
+
+	public void setLongValue(int index, long value) {
+		values[checkIndex(index)] = value;
+	}
+
+	/**
+	 * @param index
+	 * @return value read as floating point
+	 */
+	public double getValue(int index) {
+		return Double.longBitsToDouble(values[checkIndex(index)]);
+	}
+
+	public void setValue(int index, double value) {
+		values[checkIndex(index)] = Double.doubleToLongBits(value);
+	}
+
+	/**
+	 * @return timestamp column, only the first {@link #size()} entries are valid
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * @return value column, only the first {@link #size()} entries are valid
+	 */
+	public long[] getValues() {
+		return values;
+	}
+
+	private int checkIndex(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index:" + index + " size:" + size);
+		}
+		return index;
 	}
 
 	/**
@@ -147,4 +311,129 @@ public class Series implements Comparable<Series> {
 		return toString().compareTo(o.toString());
 	}
 
+	/**
+	 * Streams the columns as a dataPoints list of {@link DataPoint}s, so JSON
+	 * responses keep their format without creating an object per point
+	 */
+	public static class SeriesTypeAdapter extends TypeAdapter<Series> {
+
+		@Override
+		public void write(JsonWriter out, Series series) throws IOException {
+			if (series == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			if (series.measurementName != null) {
+				out.name("measurementName").value(series.measurementName);
+			}
+			if (series.valueFieldName != null) {
+				out.name("valueFieldName").value(series.valueFieldName);
+			}
+			out.name("isFp").value(series.isFp);
+			if (series.tags != null) {
+				out.name("tags").beginArray();
+				for (Tag tag : series.tags) {
+					out.beginObject();
+					out.name("tagKey").value(tag.getTagKey());
+					out.name("tagValue").value(tag.getTagValue());
+					out.endObject();
+				}
+				out.endArray();
+			}
+			out.name("dataPoints").beginArray();
+			for (int i = 0; i < series.size; i++) {
+				out.beginObject();
+				out.name("timestamp").value(series.timestamps[i]);
+				out.name("value").value(series.values[i]);
+				out.endObject();
+			}
+			out.endArray();
+			out.endObject();
+		}
+
+		@Override
+		public Series read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			Series series = new Series();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "measurementName":
+					series.measurementName = in.nextString();
+					break;
+				case "valueFieldName":
+					series.valueFieldName = in.nextString();
+					break;
+				case "isFp":
+					series.isFp = in.nextBoolean();
+					break;
+				case "tags":
+					series.tags = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext()) {
+						series.tags.add(readTag(in));
+					}
+					in.endArray();
+					break;
+				case "dataPoints":
+					in.beginArray();
+					while (in.hasNext()) {
+						readDataPoint(in, series);
+					}
+					in.endArray();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return series;
+		}
+
+		private static Tag readTag(JsonReader in) throws IOException {
+			String tagKey = null;
+			String tagValue = null;
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "tagKey":
+					tagKey = in.nextString();
+					break;
+				case "tagValue":
+					tagValue = in.nextString();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return new Tag(tagKey, tagValue);
+		}
+
+		private static void readDataPoint(JsonReader in, Series series) throws IOException {
+			long timestamp = 0;
+			long value = 0;
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "timestamp":
+					timestamp = in.nextLong();
+					break;
+				case "value":
+					value = in.nextLong();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			series.add(timestamp, value);
+		}
+
+	}
+
 }
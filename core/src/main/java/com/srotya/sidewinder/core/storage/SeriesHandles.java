@@ -0,0 +1,108 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Registry of stable integer handles for {@link TimeSeries}.
+ * 
+ * Resolving a series by name requires sorting tags and building the series
+ * key on every write, a handle lets long lived writers resolve a series once
+ * and then append to it with a single array lookup.
+ * 
+ * Handles are never reused, once a series is invalidated (e.g. its
+ * measurement or database was dropped) its handle resolves to null and the
+ * writer must register the series again.
+ * 
+ * @author ambud
+ */
+public class SeriesHandles {
+
+	private volatile TimeSeries[] series;
+	private Map<TimeSeries, Integer> handleMap;
+	private int nextHandle;
+
+	public SeriesHandles() {
+		series = new TimeSeries[16];
+		handleMap = new IdentityHashMap<>();
+	}
+
+	/**
+	 * Register the supplied series, registering the same series again returns
+	 * the same handle
+	 *
+	 * @param timeSeries
+	 * @return handle
+	 */
+	public synchronized int register(TimeSeries timeSeries) {
+		Integer handle = handleMap.get(timeSeries);
+		if (handle != null) {
+			return handle;
+		}
+		int h = nextHandle++;
+		TimeSeries[] s = series;
+		if (h >= s.length) {
+			s = Arrays.copyOf(s, s.length * 2);
+		}
+		s[h] = timeSeries;
+		series = s;
+		handleMap.put(timeSeries, h);
+		return h;
+	}
+
+	/**
+	 * @param handle
+	 * @return series for this handle or null if the handle is invalid
+	 */
+	public TimeSeries get(int handle) {
+		TimeSeries[] s = series;
+		if (handle < 0 || handle >= s.length) {
+			return null;
+		}
+		return s[handle];
+	}
+
+	/**
+	 * Invalidate handles of the supplied series
+	 *
+	 * @param timeSeries
+	 */
+	public synchronized void invalidate(Collection<TimeSeries> timeSeries) {
+		// copy on write, readers resolve handles without holding the lock
+		TimeSeries[] s = null;
+		for (TimeSeries ts : timeSeries) {
+			Integer handle = handleMap.remove(ts);
+			if (handle != null) {
+				if (s == null) {
+					s = series.clone();
+				}
+				s[handle] = null;
+			}
+		}
+		if (s != null) {
+			series = s;
+		}
+	}
+
+	public synchronized int size() {
+		return handleMap.size();
+	}
+
+}
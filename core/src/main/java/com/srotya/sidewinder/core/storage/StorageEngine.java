@@ -17,6 +17,7 @@ package com.srotya.sidewinder.core.storage;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -26,6 +27,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -49,6 +52,7 @@ public interface StorageEngine {
 	public static RejectException FP_MISMATCH_EXCEPTION = new RejectException("Floating point mismatch");
 	public static RejectException INVALID_DATAPOINT_EXCEPTION = new RejectException(
 			"Datapoint is missing required values");
+	public static final RejectException INVALID_HANDLE_EXCEPTION = new RejectException("Invalid series handle");
 	public static final String DEFAULT_COMPRESSION_CODEC = "byzantine";
 	public static final String COMPRESSION_CODEC = "compression.codec";
 	public static final String COMPACTION_CODEC = "compaction.codec";
@@ -75,6 +79,16 @@ public interface StorageEngine {
 	public static final String DEFAULT_COMPACTION_ON_START = "false";
 	public static final String COMPACTION_RATIO = "compaction.ratio";
 	public static final String DEFAULT_COMPACTION_RATIO = "0.8";
+	public static final String LAZY_LOAD = "lazy.load";
+	public static final String DEFAULT_LAZY_LOAD = "false";
+	public static final String ADAPTIVE_BUFFER_ENABLED = "buffer.adaptive.enabled";
+	public static final String DEFAULT_ADAPTIVE_BUFFER_ENABLED = "false";
+	public static final String ADAPTIVE_BUFFER_MIN = "buffer.adaptive.min";
+	public static final String DEFAULT_ADAPTIVE_BUFFER_MIN = "256";
+	public static final String ADAPTIVE_BUFFER_MAX = "buffer.adaptive.max";
+	public static final String DEFAULT_ADAPTIVE_BUFFER_MAX = "1048576";
+	public static final String QUERY_CACHE_POINTS = "query.cache.points";
+	public static final String DEFAULT_QUERY_CACHE_POINTS = "1048576";
 
 	/**
 	 * @param conf
@@ -157,21 +171,81 @@ public interface StorageEngine {
 	public default List<Series> queryDataPoints(String dbName, String measurementPattern, String valueFieldPattern,
 			long startTime, long endTime, TagFilter tagFilter, Predicate valuePredicate, Function function)
 			throws IOException {
+		List<Series> resultList = Collections.synchronizedList(new ArrayList<>());
+		queryDataPoints(dbName, measurementPattern, valueFieldPattern, startTime, endTime, tagFilter, valuePredicate,
+				function, resultList::add);
+		return resultList;
+	}
+
+	/**
+	 * Query timeseries from the storage engine given the supplied attributes
+	 * and stream them to the supplied output.
+	 * 
+	 * Series are passed on as they are read with series local functions
+	 * applied to each of them, so memory used by a query is bounded by the
+	 * series being processed rather than by the size of the result. Only
+	 * functions that combine series need the complete result before producing
+	 * any output.
+	 * 
+	 * The query runs in the {@link QueryContext} of the calling thread or in a
+	 * new one with the limits configured for the {@link QueryExecutor}, and is
+	 * aborted with a {@link QueryAbortedException} once it is cancelled or
+	 * exceeds its deadline or budgets.
+	 * 
+	 * @param dbName
+	 * @param measurementPattern
+	 * @param valueFieldPattern
+	 * @param startTime
+	 * @param endTime
+	 * @param tagFilter
+	 * @param valuePredicate
+	 * @param function
+	 * @param output
+	 *            may be called concurrently
+	 * @throws IOException
+	 */
+	public default void queryDataPoints(String dbName, String measurementPattern, String valueFieldPattern,
+			long startTime, long endTime, TagFilter tagFilter, Predicate valuePredicate, Function function,
+			Consumer<Series> output) throws IOException {
 		if (!checkIfExists(dbName)) {
 			throw NOT_FOUND_EXCEPTION;
 		}
 		Set<String> measurementsLike = getMeasurementsLike(dbName, measurementPattern);
-		List<Series> resultList = Collections.synchronizedList(new ArrayList<>());
 		getLogger().finer(() -> "Querying points for:" + measurementsLike + " " + measurementPattern);
-		for (String measurement : measurementsLike) {
-			Measurement measurementObj = getDatabaseMap().get(dbName).get(measurement);
-			measurementObj.queryDataPoints(valueFieldPattern, startTime, endTime, tagFilter, valuePredicate,
-					resultList);
+		QueryContext context = QueryContext.current();
+		QueryExecutor executor = getQueryExecutor();
+		if (context == null && executor != null) {
+			context = executor.newContext();
 		}
-		if (function != null) {
-			resultList = function.apply(resultList);
+		QueryContext previous = context != null ? context.attach() : null;
+		try {
+			List<Series> resultList = null;
+			Function seriesFunction = null;
+			Consumer<Series> sink = output;
+			if (function != null) {
+				if (function.isSeriesLocal()) {
+					seriesFunction = function;
+				} else {
+					resultList = Collections.synchronizedList(new ArrayList<>());
+					sink = resultList::add;
+				}
+			}
+			for (String measurement : measurementsLike) {
+				Measurement measurementObj = getDatabaseMap().get(dbName).get(measurement);
+				measurementObj.queryDataPoints(valueFieldPattern, startTime, endTime, tagFilter, valuePredicate,
+						seriesFunction, sink);
+			}
+			if (resultList != null) {
+				QueryContext.checkCurrent(0);
+				for (Series series : function.apply(resultList)) {
+					output.accept(series);
+				}
+			}
+		} finally {
+			if (context != null) {
+				QueryContext.restore(previous);
+			}
 		}
-		return resultList;
 	}
 
 	public default List<Series> queryDataPoints(String dbName, String measurementPattern, String valueFieldPattern,
@@ -544,10 +618,8 @@ public interface StorageEngine {
 		if (!checkIfExists(dbName, measurementName)) {
 			return false;
 		}
-		// check and create timeseries
-		TimeSeries timeSeries = getDatabaseMap().get(dbName).get(measurementName).getSeriesField(tags)
-				.get(valueFieldName);
-		return timeSeries != null;
+		SeriesFieldMap seriesField = getDatabaseMap().get(dbName).get(measurementName).getSeriesField(tags);
+		return seriesField != null && seriesField.get(valueFieldName) != null;
 	}
 
 	/**
@@ -557,7 +629,7 @@ public interface StorageEngine {
 	 * @param measurementName
 	 * @param valueFieldName
 	 * @param tags
-	 * @return
+	 * @return timeseries or null if it doesn't exist
 	 * @throws IOException
 	 */
 	public default TimeSeries getTimeSeries(String dbName, String measurementName, String valueFieldName,
@@ -567,8 +639,11 @@ public interface StorageEngine {
 		}
 		// get timeseries
 		Measurement measurement = getDatabaseMap().get(dbName).get(measurementName);
-		TimeSeries timeSeries = measurement.getSeriesField(tags).get(valueFieldName);
-		return timeSeries;
+		SeriesFieldMap seriesField = measurement.getSeriesField(tags);
+		if (seriesField == null) {
+			return null;
+		}
+		return seriesField.get(valueFieldName);
 	}
 
 	/**
@@ -614,11 +689,172 @@ public interface StorageEngine {
 
 	public Counter getCounter();
 
+	/**
+	 * @return registry of series handles for this engine
+	 */
+	public SeriesHandles getSeriesHandles();
+
+	/**
+	 * @return cache of decoded time buckets shared by the series of this engine,
+	 *         null if caching is disabled
+	 */
+	public BucketCache getBucketCache();
+
+	/**
+	 * @return pool the series of queries run on
+	 */
+	public QueryExecutor getQueryExecutor();
+
+	/**
+	 * Register a series (creating it if needed) and return a handle that can be
+	 * used to write to it with {@link #writeDataPoint(int, long, long)} without
+	 * resolving the series by name on every write.
+	 * 
+	 * @param dbName
+	 * @param measurementName
+	 * @param valueFieldName
+	 * @param tags
+	 * @param fp
+	 * @return series handle
+	 * @throws IOException
+	 */
+	public default int registerSeries(String dbName, String measurementName, String valueFieldName,
+			List<String> tags, boolean fp) throws IOException {
+		StorageEngine.validateDataPoint(dbName, measurementName, valueFieldName, tags, TimeUnit.MILLISECONDS);
+		TimeSeries timeSeries = getOrCreateTimeSeries(dbName, measurementName, valueFieldName, tags,
+				getDefaultTimebucketSize(), fp);
+		if (timeSeries.isFp() != fp) {
+			throw FP_MISMATCH_EXCEPTION;
+		}
+		return getSeriesHandles().register(timeSeries);
+	}
+
+	/**
+	 * Write a data point to the series of the supplied handle
+	 * 
+	 * @param handle
+	 *            returned by
+	 *            {@link #registerSeries(String, String, String, List, boolean)}
+	 * @param timestamp
+	 * @param value
+	 *            long value or double bits if the series is floating point
+	 * @throws IOException
+	 *             {@link #INVALID_HANDLE_EXCEPTION} if the handle is unknown or
+	 *             its series was dropped
+	 */
+	public default void writeDataPoint(int handle, long timestamp, long value) throws IOException {
+		TimeSeries timeSeries = getSeriesHandles().get(handle);
+		if (timeSeries == null) {
+			throw INVALID_HANDLE_EXCEPTION;
+		}
+		timeSeries.addDataPoint(TimeUnit.MILLISECONDS, timestamp, value);
+		getCounter().inc();
+	}
+
 	public default void writeDataPoint(Point dp) throws IOException {
 		writeDataPoint(dp.getDbName(), dp.getMeasurementName(), dp.getValueFieldName(),
 				new ArrayList<>(dp.getTagsList()), dp.getTimestamp(), dp.getValue(), dp.getFp());
 	}
 
+	/**
+	 * Write a batch of data points. Points are grouped by
+	 * db/measurement/field/tags so that every {@link TimeSeries} is resolved only
+	 * once per batch, each group is then appended using
+	 * {@link TimeSeries#addDataPoints(TimeUnit, List, java.util.function.ObjIntConsumer)}.
+	 * 
+	 * Rejected data points don't prevent the remaining data points from being
+	 * written.
+	 * 
+	 * @param points
+	 * @throws IOException
+	 *             if any of the data points were rejected, thrown after all
+	 *             other data points have been written
+	 */
+	public default void writeDataPoints(List<Point> points) throws IOException {
+		writeDataPoints(points, null);
+	}
+
+	/**
+	 * Write a batch of data points, reporting every rejected data point to the
+	 * supplied callback
+	 * 
+	 * @param points
+	 * @param onReject
+	 *            called with each rejected data point and the reason, may be
+	 *            null
+	 * @throws IOException
+	 *             if any of the data points were rejected, thrown after all
+	 *             other data points have been written
+	 */
+	public default void writeDataPoints(List<Point> points, BiConsumer<Point, IOException> onReject)
+			throws IOException {
+		Map<List<Object>, List<Point>> seriesGroups = new LinkedHashMap<>();
+		for (Point point : points) {
+			// the same series may list its tags in any order
+			List<String> tags = new ArrayList<>(point.getTagsList());
+			Collections.sort(tags);
+			List<Object> key = Arrays.asList(point.getDbName(), point.getMeasurementName(),
+					point.getValueFieldName(), tags, point.getFp());
+			List<Point> group = seriesGroups.get(key);
+			if (group == null) {
+				group = new ArrayList<>();
+				seriesGroups.put(key, group);
+			}
+			group.add(point);
+		}
+		IOException rejection = null;
+		int rejected = 0;
+		for (List<Point> group : seriesGroups.values()) {
+			Point dp = group.get(0);
+			try {
+				StorageEngine.validateDataPoint(dp.getDbName(), dp.getMeasurementName(), dp.getValueFieldName(),
+						dp.getTagsList(), TimeUnit.MILLISECONDS);
+				TimeSeries timeSeries = getOrCreateTimeSeries(dp.getDbName(), dp.getMeasurementName(),
+						dp.getValueFieldName(), new ArrayList<>(dp.getTagsList()), getDefaultTimebucketSize(),
+						dp.getFp());
+				if (timeSeries.isFp() != dp.getFp()) {
+					// drop these datapoints, mixed series are not allowed
+					throw FP_MISMATCH_EXCEPTION;
+				}
+				List<DataPoint> dps = new ArrayList<>(group.size());
+				for (Point point : group) {
+					dps.add(new DataPoint(point.getTimestamp(), point.getValue()));
+				}
+				IOException[] runRejection = new IOException[1];
+				int written = timeSeries.addDataPoints(TimeUnit.MILLISECONDS, dps, (e, i) -> {
+					runRejection[0] = e;
+					if (onReject != null) {
+						onReject.accept(group.get(i), e);
+					}
+				});
+				getCounter().inc(written);
+				if (written < group.size()) {
+					rejected += group.size() - written;
+					if (rejection == null) {
+						rejection = runRejection[0];
+					}
+				}
+			} catch (IOException e) {
+				getLogger().fine(() -> "Rejected " + group.size() + " datapoints for:" + dp.getMeasurementName() + ":"
+						+ dp.getValueFieldName() + " " + dp.getTagsList() + " reason:" + e.getMessage());
+				rejected += group.size();
+				if (rejection == null) {
+					rejection = e;
+				}
+				if (onReject != null) {
+					for (Point point : group) {
+						onReject.accept(point, e);
+					}
+				}
+			}
+		}
+		if (rejection != null) {
+			throw new RejectException(
+					"Rejected " + rejected + " of " + points.size() + " datapoints:" + rejection.getMessage(),
+					rejection);
+		}
+	}
+
 	public Logger getLogger();
 
 }
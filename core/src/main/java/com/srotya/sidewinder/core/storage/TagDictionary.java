@@ -0,0 +1,178 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Per measurement dictionary mapping tag keys and tag values to int ids.
+ * 
+ * Series keys are encoded using these ids instead of the tag strings, so every
+ * distinct tag key and value string is held only once no matter how many series
+ * use it. Ids are assigned sequentially and never change; a persistent
+ * dictionary appends and syncs every new entry to its file before the id is
+ * handed out so that series keys referring to it can always be decoded after a
+ * restart or a crash. An entry torn by a crash while it was appended is
+ * truncated on load.
+ * 
+ * @author ambud
+ */
+public class TagDictionary {
+
+	private static final Logger logger = Logger.getLogger(TagDictionary.class.getName());
+	private Map<String, Integer> idMap;
+	private volatile String[] values;
+	private int size;
+	private FileOutputStream file;
+	private DataOutputStream out;
+
+	/**
+	 * Create an in-memory dictionary
+	 */
+	public TagDictionary() {
+		idMap = new ConcurrentHashMap<>();
+		values = new String[1024];
+	}
+
+	/**
+	 * Create a dictionary persisted to the supplied file, existing entries are
+	 * loaded
+	 *
+	 * @param dictionaryFile
+	 * @throws IOException
+	 */
+	public TagDictionary(File dictionaryFile) throws IOException {
+		this();
+		if (dictionaryFile.exists()) {
+			long valid = 0;
+			try (CountingInputStream counter = new CountingInputStream(
+					new BufferedInputStream(new FileInputStream(dictionaryFile)));
+					DataInputStream in = new DataInputStream(counter)) {
+				while (true) {
+					String value;
+					try {
+						value = in.readUTF();
+					} catch (EOFException | UTFDataFormatException e) {
+						break;
+					}
+					add(value);
+					valid = counter.getCount();
+				}
+			}
+			if (valid < dictionaryFile.length()) {
+				// drop the partial entry so that new entries aren't appended
+				// after it
+				logger.warning("Truncating tag dictionary:" + dictionaryFile.getAbsolutePath() + " from "
+						+ dictionaryFile.length() + " to " + valid + " bytes");
+				try (RandomAccessFile raf = new RandomAccessFile(dictionaryFile, "rw")) {
+					raf.setLength(valid);
+				}
+			}
+			logger.fine(() -> "Loaded tag dictionary:" + dictionaryFile.getAbsolutePath() + " entries:" + size);
+		}
+		file = new FileOutputStream(dictionaryFile, true);
+		out = new DataOutputStream(file);
+	}
+
+	/**
+	 * Get id for the supplied value, assigning a new one if this value isn't in
+	 * the dictionary yet
+	 *
+	 * @param value
+	 * @return id
+	 * @throws IOException
+	 */
+	public int getOrAssign(String value) throws IOException {
+		Integer id = idMap.get(value);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			if ((id = idMap.get(value)) == null) {
+				if (out != null) {
+					out.writeUTF(value);
+					out.flush();
+					// the id may be persisted in a series key right away
+					file.getFD().sync();
+				}
+				id = add(value);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @param value
+	 * @return id for the supplied value or -1 if it's not in this dictionary
+	 */
+	public int getId(String value) {
+		Integer id = idMap.get(value);
+		if (id == null) {
+			return -1;
+		}
+		return id;
+	}
+
+	/**
+	 * @param id
+	 * @return value for the supplied id or null if the id is unknown
+	 */
+	public String getValue(int id) {
+		String[] v = values;
+		if (id < 0 || id >= v.length) {
+			return null;
+		}
+		return v[id];
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			out.close();
+		}
+	}
+
+	private synchronized int add(String value) {
+		int id = size++;
+		String[] v = values;
+		if (id >= v.length) {
+			v = Arrays.copyOf(v, v.length * 2);
+		}
+		v[id] = value;
+		values = v;
+		idMap.put(value, id);
+		return id;
+	}
+
+}
@@ -49,4 +49,13 @@ public interface TagIndex {
 
 	public Collection<String> getTagValues(String tagKey);
 
+	/**
+	 * Dictionary used to encode tag keys and values in series keys
+	 * 
+	 * @return dictionary or null if this index uses string encoded series keys
+	 */
+	public default TagDictionary getDictionary() {
+		return null;
+	}
+
 }
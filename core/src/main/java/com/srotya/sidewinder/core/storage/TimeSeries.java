@@ -18,20 +18,25 @@ package com.srotya.sidewinder.core.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +47,7 @@ import com.srotya.sidewinder.core.storage.compression.CompressionFactory;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.RollOverException;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.ZoneMap;
 import com.srotya.sidewinder.core.utils.TimeUtils;
 
 /**
@@ -61,7 +67,11 @@ public class TimeSeries {
 	private static final int START_OFFSET = 2;
 
 	private static final Logger logger = Logger.getLogger(TimeSeries.class.getName());
-	private SortedMap<String, List<Writer>> bucketMap;
+	private static final ThreadLocal<ByteBuffer> COMPACTION_SCRATCH = new ThreadLocal<>();
+	public static final int READ_BATCH_SIZE = 1024;
+	private static final ThreadLocal<long[][]> READ_BATCH = ThreadLocal
+			.withInitial(() -> new long[2][READ_BATCH_SIZE]);
+	private BucketMap bucketMap;
 	private boolean fp;
 	private AtomicInteger retentionBuckets;
 	private String seriesId;
@@ -72,9 +82,22 @@ public class TimeSeries {
 	private int timeBucketSize;
 	// used for unit tests only
 	private int bucketCount;
-	private Map<String, List<Writer>> compactionCandidateSet;
+	private Map<Integer, List<Writer>> compactionCandidateSet;
+	// reads of compaction candidate buckets since they became candidates
+	private Map<Integer, AtomicInteger> candidateReads;
 	private boolean compactionEnabled;
 	private double compactionRatio;
+	private volatile List<Entry<String, BufferObject>> deferredBuffers;
+	// serializes compaction and garbage collection of this series
+	private final Object compactionLock = new Object();
+	private boolean adaptiveBuffers;
+	private int minBufferSize;
+	private int maxBufferSize;
+	private volatile int bufferSize;
+	private volatile boolean rolledOver;
+	private volatile Writer lastWriter;
+	private volatile int lastWriterSize;
+	private BucketCache bucketCache;
 
 	/**
 	 * @param measurement
@@ -99,39 +122,63 @@ public class TimeSeries {
 		setRetentionHours(metadata.getRetentionHours());
 		this.fp = fp;
 		bucketMap = measurement.createNewBucketMap(seriesId);
-		this.compactionCandidateSet = new HashMap<>();
+		bucketCache = measurement.getBucketCache();
+		this.compactionCandidateSet = new ConcurrentHashMap<>();
+		this.candidateReads = new ConcurrentHashMap<>();
 		compactionEnabled = Boolean.parseBoolean(
 				conf.getOrDefault(StorageEngine.COMPACTION_ENABLED, StorageEngine.DEFAULT_COMPACTION_ENABLED));
 		compactionRatio = Double
 				.parseDouble(conf.getOrDefault(StorageEngine.COMPACTION_RATIO, StorageEngine.DEFAULT_COMPACTION_RATIO));
+		adaptiveBuffers = Boolean.parseBoolean(conf.getOrDefault(StorageEngine.ADAPTIVE_BUFFER_ENABLED,
+				StorageEngine.DEFAULT_ADAPTIVE_BUFFER_ENABLED));
+		minBufferSize = Integer.parseInt(
+				conf.getOrDefault(StorageEngine.ADAPTIVE_BUFFER_MIN, StorageEngine.DEFAULT_ADAPTIVE_BUFFER_MIN));
+		maxBufferSize = Integer.parseInt(
+				conf.getOrDefault(StorageEngine.ADAPTIVE_BUFFER_MAX, StorageEngine.DEFAULT_ADAPTIVE_BUFFER_MAX));
+		if (adaptiveBuffers && minBufferSize > maxBufferSize) {
+			throw new IllegalArgumentException("Adaptive buffer min size can't be greater than max size");
+		}
 	}
 
 	public Writer getOrCreateSeriesBucket(TimeUnit unit, long timestamp) throws IOException {
-		String tsBucket = getTimeBucket(unit, timestamp, timeBucketSize);
-		List<Writer> list = bucketMap.get(tsBucket);
-		if (list == null) {
-			// potential opportunity to load bucket information from some other
-			// non-memory
-			// location
-			synchronized (bucketMap) {
-				if ((list = bucketMap.get(tsBucket)) == null) {
-					list = Collections.synchronizedList(new ArrayList<>());
-					createNewWriter(timestamp, tsBucket, list);
-					bucketMap.put(tsBucket, list);
-					logger.fine(() -> "Creating new time series bucket:" + seriesId + ",measurement:"
-							+ measurement.getMeasurementName());
+		loadDeferredBuckets();
+		int tsBucket = TimeUtils.getTimeBucket(unit, timestamp, timeBucketSize);
+		while (true) {
+			List<Writer> list = bucketMap.get(tsBucket);
+			if (list == null) {
+				// potential opportunity to load bucket information from some other
+				// non-memory
+				// location
+				synchronized (bucketMap) {
+					if ((list = bucketMap.get(tsBucket)) == null) {
+						list = new CopyOnWriteArrayList<>();
+						createNewWriter(timestamp, tsBucket, list);
+						bucketMap.put(tsBucket, list);
+						// drop points cached for a collected bucket of the same time
+						invalidateCachedBucket(tsBucket);
+						logger.fine(() -> "Creating new time series bucket:" + seriesId + ",measurement:"
+								+ measurement.getMeasurementName());
+					}
 				}
 			}
-		}
 
-		synchronized (list) {
-			Writer ans = list.get(list.size() - 1);
-			if (ans.isFull()) {
-				if ((ans = list.get(list.size() - 1)).isFull()) {
+			// bucket lists are copy-on-write, appends to the tail writer don't
+			// need the list lock which is only taken to roll over to a new writer
+			Writer ans = getTailWriter(list);
+			if (ans != null && !ans.isFull()) {
+				return ans;
+			}
+			synchronized (list) {
+				if (bucketMap.get(tsBucket) != list) {
+					// compaction published a replacement of this list, writers
+					// added to this one would be lost
+					continue;
+				}
+				if ((ans = getTailWriter(list)) == null || ans.isFull()) {
 					final Writer ansTmp = ans;
 					logger.fine(() -> "Requesting new writer for:" + seriesId + ",measurement:"
 							+ measurement.getMeasurementName() + " bucketcount:" + bucketCount + " pos:"
-							+ ansTmp.getPosition());
+							+ (ansTmp != null ? ansTmp.getPosition() : 0));
 					ans = createNewWriter(timestamp, tsBucket, list);
 					// if there are more than 2 buffers in the list then it is a
 					// candidate for
@@ -146,34 +193,99 @@ public class TimeSeries {
 						compactionCandidateSet.put(tsBucket, list);
 					}
 				}
+				return ans;
+				// Old code used for thread safety checks
+				// try {
+				// int idx = list.indexOf(ans);
+				// if (idx != (list.size() - 1)) {
+				// System.out.println("\n\nThread safety error\t" + idx + "\t" +
+				// list.size() +
+				// "\n\n");
+				// }
+				// } catch (Exception e) {
+				// logger.log(Level.SEVERE, "Create new:" + "\tList:" + list +
+				// "\tbucket:" +
+				// tsBucket + "\t" + bucketMap,
+				// e);
+				// throw e;
+				// }
 			}
-			return ans;
-			// Old code used for thread safety checks
-			// try {
-			// int idx = list.indexOf(ans);
-			// if (idx != (list.size() - 1)) {
-			// System.out.println("\n\nThread safety error\t" + idx + "\t" +
-			// list.size() +
-			// "\n\n");
-			// }
-			// } catch (Exception e) {
-			// logger.log(Level.SEVERE, "Create new:" + "\tList:" + list +
-			// "\tbucket:" +
-			// tsBucket + "\t" + bucketMap,
-			// e);
-			// throw e;
-			// }
 		}
 	}
 
-	public static String getTimeBucket(TimeUnit unit, long timestamp, int timeBucketSize) {
-		int bucket = TimeUtils.getTimeBucket(unit, timestamp, timeBucketSize);
-		String tsBucket = Integer.toHexString(bucket);
-		return tsBucket;
+	/**
+	 * Last writer of a bucket list. Lists are published with their writers and
+	 * only grow, compaction publishes a new list instead of shrinking one.
+	 * 
+	 * @param list
+	 * @return tail writer or null if the list is empty
+	 */
+	private static Writer getTailWriter(List<Writer> list) {
+		try {
+			return list.get(list.size() - 1);
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Time bucket keys are persisted by {@link Malloc} implementations as
+	 * unsigned hex strings
+	 * 
+	 * @param tsBucket
+	 * @return hex string representation of the time bucket
+	 */
+	public static String bucketToString(int tsBucket) {
+		return Integer.toHexString(tsBucket);
+	}
+
+	/**
+	 * @param tsBucket
+	 *            hex string representation of the time bucket
+	 * @return time bucket
+	 */
+	public static int stringToBucket(String tsBucket) {
+		return Integer.parseUnsignedInt(tsBucket, 16);
 	}
 
-	private Writer createNewWriter(long timestamp, String tsBucket, List<Writer> list) throws IOException {
-		BufferObject bufPair = measurement.getMalloc().createNewBuffer(seriesId, tsBucket);
+	/**
+	 * Size the next buffer of this series by how fast the previous one filled
+	 * up. Rolling over within a time bucket doubles the size; a time bucket
+	 * that ended with its only buffer less than a quarter full halves it.
+	 * 
+	 * @param list
+	 *            writers of the time bucket the buffer is for
+	 * @return buffer size
+	 */
+	private int nextBufferSize(List<Writer> list) {
+		Malloc malloc = measurement.getMalloc();
+		int max = Math.min(maxBufferSize, malloc.getMaxBufferSize());
+		int size = bufferSize;
+		if (size == 0) {
+			size = Math.max(minBufferSize, Math.min(malloc.getBufferSize(), max));
+		}
+		Writer last = lastWriter;
+		if (!list.isEmpty()) {
+			size = (int) Math.min(size * 2L, max);
+			rolledOver = true;
+		} else {
+			if (!rolledOver && last != null && last.getPosition() < lastWriterSize / 4) {
+				size = Math.max(size / 2, minBufferSize);
+			}
+			rolledOver = false;
+		}
+		bufferSize = size;
+		return size;
+	}
+
+	private Writer createNewWriter(long timestamp, int tsBucket, List<Writer> list) throws IOException {
+		BufferObject bufPair;
+		if (adaptiveBuffers) {
+			bufPair = measurement.getMalloc().createNewBuffer(seriesId, bucketToString(tsBucket),
+					nextBufferSize(list));
+		} else {
+			bufPair = measurement.getMalloc().createNewBuffer(seriesId, bucketToString(tsBucket));
+		}
 		bufPair.getBuf().put((byte) CompressionFactory.getIdByClass(compressionClass));
 		bufPair.getBuf().put((byte) list.size());
 		Writer writer;
@@ -184,6 +296,8 @@ public class TimeSeries {
 		writer.setHeaderTimestamp(timestamp);
 		list.add(writer);
 		bucketCount++;
+		lastWriterSize = bufPair.getBuf().limit();
+		lastWriter = writer;
 		logger.fine(() -> "Created new writer for:" + tsBucket + " timstamp:" + timestamp + " buckectInfo:"
 				+ bufPair.getBufferId());
 		return writer;
@@ -208,6 +322,8 @@ public class TimeSeries {
 	public void loadBucketMap(List<Entry<String, BufferObject>> bufferEntries) throws IOException {
 		Map<String, String> cacheConf = new HashMap<>(conf);
 		logger.fine(() -> "Scanning buffer for:" + seriesId);
+		// bucket lists are only published once all their writers are loaded
+		Map<Integer, List<Writer>> loaded = new HashMap<>();
 		for (Entry<String, BufferObject> entry : bufferEntries) {
 			ByteBuffer duplicate = entry.getValue().getBuf();
 			duplicate.rewind();
@@ -215,11 +331,11 @@ public class TimeSeries {
 			// if (!series.equalsIgnoreCase(seriesId)) {
 			// continue;
 			// }
-			String tsBucket = entry.getKey();
-			List<Writer> list = bucketMap.get(tsBucket);
+			int tsBucket = stringToBucket(entry.getKey());
+			List<Writer> list = loaded.get(tsBucket);
 			if (list == null) {
-				list = Collections.synchronizedList(new ArrayList<>());
-				bucketMap.put(tsBucket, list);
+				list = new ArrayList<>();
+				loaded.put(tsBucket, list);
 			}
 			ByteBuffer slice = duplicate.slice();
 			int codecId = (int) slice.get();
@@ -239,26 +355,109 @@ public class TimeSeries {
 			logger.fine(() -> "Loaded bucketmap:" + seriesId + "\t" + tsBucket + " bufferid:"
 					+ entry.getValue().getBufferId());
 		}
-		sortBucketMap();
+		for (Entry<Integer, List<Writer>> entry : loaded.entrySet()) {
+			int tsBucket = entry.getKey();
+			List<Writer> existing = bucketMap.get(tsBucket);
+			if (existing != null) {
+				entry.getValue().addAll(existing);
+			}
+			List<Writer> list = new CopyOnWriteArrayList<>(sortBucket(entry.getValue()));
+			bucketMap.put(tsBucket, list);
+			// #COMPACTHRESHOLD
+			if (compactionEnabled && list.size() > COMPACTION_THRESHOLD) {
+				compactionCandidateSet.put(tsBucket, list);
+			}
+		}
 	}
 
-	private void sortBucketMap() throws IOException {
-		for (Entry<String, List<Writer>> entry : bucketMap.entrySet()) {
-			Collections.sort(entry.getValue(), new Comparator<Writer>() {
+	/**
+	 * Defer loading of the supplied buffers until this series is first read or
+	 * written to (or {@link #loadDeferredBuckets()} is called), this lets a
+	 * measurement with a large number of mostly cold series start without
+	 * creating a {@link Writer} for every buffer on disk.
+	 * 
+	 * @param bufferEntries
+	 */
+	public void deferLoadBucketMap(List<Entry<String, BufferObject>> bufferEntries) {
+		deferredBuffers = bufferEntries;
+	}
 
-				@Override
-				public int compare(Writer o1, Writer o2) {
-					return Integer.compare((int) o1.getRawBytes().get(1), (int) o2.getRawBytes().get(1));
+	/**
+	 * Load buffers deferred by {@link #deferLoadBucketMap(List)} if they haven't
+	 * been loaded yet, buffers stay deferred if loading fails so that the
+	 * series isn't mistaken for an empty one
+	 * 
+	 * @throws IOException
+	 */
+	public void loadDeferredBuckets() throws IOException {
+		if (deferredBuffers == null) {
+			return;
+		}
+		synchronized (bucketMap) {
+			List<Entry<String, BufferObject>> bufferEntries = deferredBuffers;
+			if (bufferEntries == null) {
+				return;
+			}
+			try {
+				loadBucketMap(bufferEntries);
+			} catch (Exception e) {
+				// nothing can be written to a deferred series, drop the partially
+				// loaded buckets so that loading can be retried
+				for (int tsBucket : bucketMap.keys()) {
+					bucketMap.remove(tsBucket);
 				}
-			});
-			for (int i = 0; i < entry.getValue().size() - 1; i++) {
-				Writer writer = entry.getValue().get(i);
-				writer.makeReadOnly();
+				compactionCandidateSet.clear();
+				bucketCount = 0;
+				throw new IOException(
+						"Failed to load bucket map for:" + seriesId + ":" + measurement.getMeasurementName(), e);
 			}
-			// #COMPACTHRESHOLD
-			if (entry.getValue().size() > COMPACTION_THRESHOLD) {
-				compactionCandidateSet.put(entry.getKey(), entry.getValue());
+			deferredBuffers = null;
+		}
+	}
+
+	/**
+	 * @return true if this series has buffers that haven't been loaded yet
+	 */
+	public boolean isDeferred() {
+		return deferredBuffers != null;
+	}
+
+	/**
+	 * Sort the writers of a bucket by their index in the bucket list, all but the
+	 * last are read-only
+	 * 
+	 * @param list
+	 * @return the supplied list
+	 */
+	private static List<Writer> sortBucket(List<Writer> list) {
+		Collections.sort(list, new Comparator<Writer>() {
+
+			@Override
+			public int compare(Writer o1, Writer o2) {
+				return Integer.compare((int) o1.getRawBytes().get(1), (int) o2.getRawBytes().get(1));
 			}
+		});
+		for (int i = 0; i < list.size() - 1; i++) {
+			Writer writer = list.get(i);
+			writer.makeReadOnly();
+		}
+		return list;
+	}
+
+	/**
+	 * Publish a replacement of the writer list of a bucket, callers hold the
+	 * lock of the replaced list so that writers rolling over to a new writer
+	 * retry with the replacement
+	 * 
+	 * @param tsBucket
+	 * @param list
+	 *            replaced list
+	 * @param replacement
+	 */
+	private void replaceBucket(int tsBucket, List<Writer> list, List<Writer> replacement) {
+		bucketMap.put(tsBucket, replacement);
+		if (compactionCandidateSet.remove(tsBucket, list) && replacement.size() > COMPACTION_THRESHOLD) {
+			compactionCandidateSet.put(tsBucket, replacement);
 		}
 	}
 
@@ -280,6 +479,179 @@ public class TimeSeries {
 	 */
 	public List<DataPoint> queryDataPoints(String appendFieldValueName, long startTime, long endTime,
 			Predicate valuePredicate) throws IOException {
+		List<DataPoint> points = new ArrayList<>();
+		for (Reader reader : queryReaders(startTime, endTime, valuePredicate)) {
+			readerToDataPoints(points, reader);
+		}
+		return points;
+	}
+
+	/**
+	 * Query points of this series in the supplied time range into the columns
+	 * of the supplied series, without creating an object per point
+	 * 
+	 * @param startTime
+	 *            time range beginning
+	 * @param endTime
+	 *            time range end
+	 * @param valuePredicate
+	 *            pushed down filter for values
+	 * @param output
+	 *            series to append the points to
+	 * @throws IOException
+	 */
+	public void querySeries(long startTime, long endTime, Predicate valuePredicate, Series output)
+			throws IOException {
+		queryBatches(startTime, endTime, valuePredicate, output::add);
+	}
+
+	/**
+	 * Query points of this series in the supplied time range and pass them to
+	 * the supplied consumer in batches as they are decoded. Buckets other than
+	 * the newest one are served from the {@link BucketCache} if one is
+	 * configured. Decoded points, and cached points scanned on a cache hit, are
+	 * accounted to the {@link QueryContext} of the current thread if there is
+	 * one, whether or not they match the predicates.
+	 * 
+	 * @param startTime
+	 *            time range beginning
+	 * @param endTime
+	 *            time range end
+	 * @param valuePredicate
+	 *            pushed down filter for values
+	 * @param consumer
+	 * @throws IOException
+	 */
+	public void queryBatches(long startTime, long endTime, Predicate valuePredicate, BatchConsumer consumer)
+			throws IOException {
+		long[][] batch = READ_BATCH.get();
+		if (bucketCache == null) {
+			for (Reader reader : queryReaders(startTime, endTime, valuePredicate)) {
+				readBatches(reader, batch, consumer);
+			}
+			return;
+		}
+		if (startTime > endTime) {
+			// swap start and end times if they are off
+			startTime = startTime ^ endTime;
+			endTime = endTime ^ startTime;
+			startTime = startTime ^ endTime;
+		}
+		BetweenPredicate timeRangePredicate = new BetweenPredicate(startTime, endTime);
+		int[] buckets = scanBuckets(startTime, endTime);
+		int newestBucket = newestBucket();
+		for (int tsBucket : buckets) {
+			List<Writer> writers = bucketMap.get(tsBucket);
+			if (writers == null || !mayMatch(writers, startTime, endTime, valuePredicate)) {
+				continue;
+			}
+			if (tsBucket == newestBucket) {
+				// the newest bucket is still being written to, caching it would
+				// only churn the cache
+				for (Writer writer : writers) {
+					if (mayMatch(writer, startTime, endTime, valuePredicate)) {
+						readBatches(getReader(writer, timeRangePredicate, valuePredicate), batch, consumer);
+					}
+				}
+				continue;
+			}
+			BucketCache.Entry entry = bucketCache.get(this, tsBucket, getCount(writers));
+			if (entry == null) {
+				entry = decodeBucket(writers, batch);
+				if (entry.getCount() == getCount(writers)) {
+					bucketCache.put(this, tsBucket, entry);
+				}
+			} else {
+				// scanning the cached points replaces decoding them
+				QueryContext.checkCurrent(entry.getCount());
+			}
+			entry.replay(startTime, endTime, valuePredicate, batch, consumer);
+		}
+	}
+
+	private static void readBatches(Reader reader, long[][] batch, BatchConsumer consumer) throws IOException {
+		int n;
+		while ((n = reader.readBatch(batch[0], batch[1], READ_BATCH_SIZE)) >= 0) {
+			consumer.accept(batch[0], batch[1], n);
+		}
+	}
+
+	/**
+	 * Decode all points of a bucket so that they can be cached
+	 * 
+	 * @param writers
+	 *            of the bucket
+	 * @param batch
+	 *            buffers to decode through
+	 * @return decoded points
+	 * @throws IOException
+	 */
+	private static BucketCache.Entry decodeBucket(List<Writer> writers, long[][] batch) throws IOException {
+		long[] timestamps = new long[getCount(writers)];
+		long[] values = new long[timestamps.length];
+		int count = 0;
+		for (Writer writer : writers) {
+			Reader reader = getReader(writer, null, null);
+			int n;
+			while ((n = reader.readBatch(batch[0], batch[1], READ_BATCH_SIZE)) >= 0) {
+				QueryContext.checkCurrent(0);
+				if (count + n > timestamps.length) {
+					// the bucket was written to since its count was read
+					timestamps = Arrays.copyOf(timestamps, Math.max(timestamps.length * 2, count + n));
+					values = Arrays.copyOf(values, timestamps.length);
+				}
+				System.arraycopy(batch[0], 0, timestamps, count, n);
+				System.arraycopy(batch[1], 0, values, count, n);
+				count += n;
+			}
+		}
+		return new BucketCache.Entry(timestamps, values, count);
+	}
+
+	private static int getCount(List<Writer> writers) {
+		int count = 0;
+		for (Writer writer : writers) {
+			count += writer.getCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return newest bucket of this series, {@link Integer#MIN_VALUE} if there
+	 *         are no buckets
+	 */
+	private int newestBucket() {
+		try {
+			return bucketMap.lastKey();
+		} catch (NoSuchElementException e) {
+			return Integer.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Drop the cached points of the supplied bucket
+	 * 
+	 * @param tsBucket
+	 */
+	private void invalidateCachedBucket(int tsBucket) {
+		if (bucketCache != null) {
+			bucketCache.invalidate(this, tsBucket);
+		}
+	}
+
+	/**
+	 * Drop the cached points of the bucket a write landed in, the newest bucket
+	 * is never cached so writes to it don't need to touch the cache
+	 * 
+	 * @param tsBucket
+	 */
+	private void onBucketWrite(int tsBucket) {
+		if (bucketCache != null && tsBucket != newestBucket()) {
+			bucketCache.invalidate(this, tsBucket);
+		}
+	}
+
+	private List<Reader> queryReaders(long startTime, long endTime, Predicate valuePredicate) throws IOException {
 		if (startTime > endTime) {
 			// swap start and end times if they are off
 			startTime = startTime ^ endTime;
@@ -289,43 +661,104 @@ public class TimeSeries {
 		BetweenPredicate timeRangePredicate = new BetweenPredicate(startTime, endTime);
 		logger.fine(getSeriesId() + " " + bucketMap.size() + " " + bucketCount + " " + startTime + "  " + endTime + " "
 				+ valuePredicate + " " + timeRangePredicate + " diff:" + (endTime - startTime));
-		SortedMap<String, List<Writer>> series = correctTimeRangeScan(startTime, endTime);
+		List<List<Writer>> series = correctTimeRangeScan(startTime, endTime);
 		List<Reader> readers = new ArrayList<>();
-		for (List<Writer> writers : series.values()) {
+		for (List<Writer> writers : series) {
 			for (Writer writer : writers) {
-				readers.add(getReader(writer, timeRangePredicate, valuePredicate));
+				if (mayMatch(writer, startTime, endTime, valuePredicate)) {
+					readers.add(getReader(writer, timeRangePredicate, valuePredicate));
+				}
 			}
 		}
-		List<DataPoint> points = new ArrayList<>();
-		for (Reader reader : readers) {
-			readerToDataPoints(points, reader);
+		return readers;
+	}
+
+	/**
+	 * @param startTime
+	 * @param endTime
+	 * @return buckets that may hold points in the supplied time range
+	 */
+	private int[] scanBuckets(long startTime, long endTime) throws IOException {
+		loadDeferredBuckets();
+		int tsStartBucket = (int) Math.max((long) getScanBucket(startTime) - timeBucketSize, Integer.MIN_VALUE);
+		int tsEndBucket = getScanBucket(endTime);
+		int[] buckets = bucketMap.rangeKeys(tsStartBucket, tsEndBucket);
+		recordCandidateReads(buckets);
+		return buckets;
+	}
+
+	private List<List<Writer>> correctTimeRangeScan(long startTime, long endTime) throws IOException {
+		loadDeferredBuckets();
+		int tsStartBucket = (int) Math.max((long) getScanBucket(startTime) - timeBucketSize, Integer.MIN_VALUE);
+		int tsEndBucket = getScanBucket(endTime);
+		List<List<Writer>> series = bucketMap.range(tsStartBucket, tsEndBucket);
+		logger.fine(() -> "Series select size:" + series.size());
+		if (compactionEnabled && !compactionCandidateSet.isEmpty()) {
+			recordCandidateReads(bucketMap.rangeKeys(tsStartBucket, tsEndBucket));
 		}
-		return points;
+		return series;
 	}
 
-	private SortedMap<String, List<Writer>> correctTimeRangeScan(long startTime, long endTime) {
-		int tsStartBucket = TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, startTime, timeBucketSize) - timeBucketSize;
-		String startTsBucket = Integer.toHexString(tsStartBucket);
-		int tsEndBucket = TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, endTime, timeBucketSize);
-		String endTsBucket = Integer.toHexString(tsEndBucket);
-		if (startTsBucket.compareTo(bucketMap.firstKey()) < 0) {
-			startTsBucket = bucketMap.firstKey();
-			logger.finest(() -> "Corrected query startKey to:" + bucketMap.firstKey());
+	/**
+	 * Count a read of the supplied buckets that are compaction candidates
+	 * 
+	 * @param buckets
+	 *            scanned by a query
+	 */
+	private void recordCandidateReads(int[] buckets) {
+		// reads are only drained by compaction
+		if (!compactionEnabled || compactionCandidateSet.isEmpty()) {
+			return;
 		}
-		SortedMap<String, List<Writer>> series = null;
-		if (bucketMap.size() <= 1) {
-			series = bucketMap;
-		} else {
-			if (endTsBucket.compareTo(bucketMap.lastKey()) > 0) {
-				series = bucketMap.tailMap(startTsBucket);
-				logger.finest(() -> "Endkey exceeds last key, using tailmap instead");
-			} else {
-				endTsBucket = endTsBucket + Character.MAX_VALUE;
-				series = bucketMap.subMap(startTsBucket, endTsBucket);
+		for (int bucket : buckets) {
+			if (compactionCandidateSet.containsKey(bucket)) {
+				candidateReads.computeIfAbsent(bucket, b -> new AtomicInteger()).incrementAndGet();
 			}
 		}
-		logger.fine("Series select size:" + series.size());
-		return series;
+	}
+
+	/**
+	 * Compaction priority of a candidate bucket, buckets that are read often and
+	 * fragmented into many writers benefit the most from being compacted
+	 * 
+	 * @param tsBucket
+	 * @param writers
+	 * @return priority
+	 */
+	private long getCompactionPriority(int tsBucket, List<Writer> writers) {
+		AtomicInteger reads = candidateReads.get(tsBucket);
+		// the last writer isn't compacted
+		return (reads == null ? 1L : reads.get() + 1L) * Math.max(writers.size() - 1, 0);
+	}
+
+	/**
+	 * @return compaction priority of the highest priority candidate bucket of
+	 *         this series, 0 if there is nothing to compact
+	 */
+	public long getCompactionPriority() {
+		long priority = 0;
+		for (Entry<Integer, List<Writer>> entry : compactionCandidateSet.entrySet()) {
+			priority = Math.max(priority, getCompactionPriority(entry.getKey(), entry.getValue()));
+		}
+		return priority;
+	}
+
+	/**
+	 * Time bucket for a query bound, clamped to the int range so that open ended
+	 * queries (e.g. Long.MAX_VALUE) don't overflow
+	 * 
+	 * @param timestamp
+	 *            in milliseconds
+	 * @return time bucket
+	 */
+	private int getScanBucket(long timestamp) {
+		long seconds = timestamp / 1000;
+		if (seconds >= Integer.MAX_VALUE) {
+			return Integer.MAX_VALUE;
+		} else if (seconds <= Integer.MIN_VALUE) {
+			return Integer.MIN_VALUE;
+		}
+		return TimeUtils.getWindowFlooredNaturalTime((int) seconds, timeBucketSize);
 	}
 
 	public List<long[]> queryPoints(String appendFieldValueName, List<String> appendTags, long startTime, long endTime,
@@ -337,11 +770,13 @@ public class TimeSeries {
 			startTime = startTime ^ endTime;
 		}
 		BetweenPredicate timeRangePredicate = new BetweenPredicate(startTime, endTime);
-		SortedMap<String, List<Writer>> series = correctTimeRangeScan(startTime, endTime);
+		List<List<Writer>> series = correctTimeRangeScan(startTime, endTime);
 		List<Reader> readers = new ArrayList<>();
-		for (List<Writer> writers : series.values()) {
+		for (List<Writer> writers : series) {
 			for (Writer writer : writers) {
-				readers.add(getReader(writer, timeRangePredicate, valuePredicate));
+				if (mayMatch(writer, startTime, endTime, valuePredicate)) {
+					readers.add(getReader(writer, timeRangePredicate, valuePredicate));
+				}
 			}
 		}
 		List<long[]> points = new ArrayList<>();
@@ -353,6 +788,8 @@ public class TimeSeries {
 
 	/**
 	 * Get {@link Reader} with time and value filter predicates pushed-down to it.
+	 * The bytes of the writer are accounted to the {@link QueryContext} of the
+	 * current thread if there is one.
 	 * 
 	 * @param timePredicate
 	 * @param valuePredicate
@@ -361,6 +798,10 @@ public class TimeSeries {
 	 */
 	public static Reader getReader(Writer writer, Predicate timePredicate, Predicate valuePredicate)
 			throws IOException {
+		QueryContext context = QueryContext.current();
+		if (context != null) {
+			context.addBytes(writer.currentOffset());
+		}
 		Reader reader = writer.getReader();
 		reader.setTimePredicate(timePredicate);
 		reader.setValuePredicate(valuePredicate);
@@ -395,15 +836,90 @@ public class TimeSeries {
 		}
 		List<Reader> readers = new ArrayList<>();
 		BetweenPredicate timeRangePredicate = new BetweenPredicate(startTime, endTime);
-		SortedMap<String, List<Writer>> series = correctTimeRangeScan(startTime, endTime);
-		for (List<Writer> writers : series.values()) {
+		List<List<Writer>> series = correctTimeRangeScan(startTime, endTime);
+		for (List<Writer> writers : series) {
 			for (Writer writer : writers) {
-				readers.add(getReader(writer, timeRangePredicate, valuePredicate));
+				if (mayMatch(writer, startTime, endTime, valuePredicate)) {
+					readers.add(getReader(writer, timeRangePredicate, valuePredicate));
+				}
 			}
 		}
 		return readers;
 	}
 
+	/**
+	 * Summarize the points in the supplied time range matching the supplied value
+	 * predicate i.e. their count, min, max and sum.
+	 * 
+	 * Writers that can't be appended to anymore and are entirely inside the time
+	 * range are answered from their {@link ZoneMap} without being decoded,
+	 * writers that can't match are skipped and only the remaining ones are read.
+	 * 
+	 * @param startTime
+	 *            time range beginning
+	 * @param endTime
+	 *            time range end
+	 * @param valuePredicate
+	 *            pushed down filter for values
+	 * @return summary of the matching points
+	 * @throws IOException
+	 */
+	public ZoneMap querySummary(long startTime, long endTime, Predicate valuePredicate) throws IOException {
+		if (startTime > endTime) {
+			// swap start and end times if they are off
+			startTime = startTime ^ endTime;
+			endTime = endTime ^ startTime;
+			startTime = startTime ^ endTime;
+		}
+		ZoneMap summary = new ZoneMap();
+		BetweenPredicate timeRangePredicate = new BetweenPredicate(startTime, endTime);
+		List<List<Writer>> series = correctTimeRangeScan(startTime, endTime);
+		for (List<Writer> writers : series) {
+			for (Writer writer : writers) {
+				if (!mayMatch(writer, startTime, endTime, valuePredicate)) {
+					continue;
+				}
+				ZoneMap zoneMap = writer.getZoneMap();
+				if (zoneMap != null && valuePredicate == null && (writer.isReadOnly() || writer.isFull())
+						&& zoneMap.isCoveredBy(startTime, endTime)) {
+					summary.merge(zoneMap);
+					continue;
+				}
+				Reader reader = getReader(writer, timeRangePredicate, valuePredicate);
+				long[][] batch = READ_BATCH.get();
+				int n;
+				while ((n = reader.readBatch(batch[0], batch[1], READ_BATCH_SIZE)) >= 0) {
+					for (int i = 0; i < n; i++) {
+						summary.update(batch[0][i], batch[1][i]);
+					}
+				}
+			}
+		}
+		return summary;
+	}
+
+	/**
+	 * @param writer
+	 * @param startTime
+	 * @param endTime
+	 * @param valuePredicate
+	 * @return false if the {@link ZoneMap} of the writer rules out points in the
+	 *         time range matching the value predicate
+	 */
+	private static boolean mayMatch(Writer writer, long startTime, long endTime, Predicate valuePredicate) {
+		ZoneMap zoneMap = writer.getZoneMap();
+		return zoneMap == null || (zoneMap.overlaps(startTime, endTime) && zoneMap.mayMatch(valuePredicate));
+	}
+
+	private static boolean mayMatch(List<Writer> writers, long startTime, long endTime, Predicate valuePredicate) {
+		for (Writer writer : writers) {
+			if (mayMatch(writer, startTime, endTime, valuePredicate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Add data point with floating point value
 	 * 
@@ -419,6 +935,9 @@ public class TimeSeries {
 		Writer writer = getOrCreateSeriesBucket(unit, timestamp);
 		try {
 			writer.addValue(timestamp, value);
+			if (bucketCache != null) {
+				onBucketWrite(TimeUtils.getTimeBucket(unit, timestamp, timeBucketSize));
+			}
 		} catch (RollOverException e) {
 			addDataPoint(unit, timestamp, value);
 		} catch (NullPointerException e) {
@@ -441,6 +960,9 @@ public class TimeSeries {
 		Writer timeseriesBucket = getOrCreateSeriesBucket(unit, timestamp);
 		try {
 			timeseriesBucket.addValue(timestamp, value);
+			if (bucketCache != null) {
+				onBucketWrite(TimeUtils.getTimeBucket(unit, timestamp, timeBucketSize));
+			}
 		} catch (RollOverException e) {
 			addDataPoint(unit, timestamp, value);
 		} catch (NullPointerException e) {
@@ -448,21 +970,65 @@ public class TimeSeries {
 		}
 	}
 
-	public void addDataPoints(TimeUnit unit, List<DataPoint> dps) throws IOException {
-		Map<Writer, List<DataPoint>> dpMap = new HashMap<>();
-		for (DataPoint dp : dps) {
-			Writer writer = getOrCreateSeriesBucket(unit, dp.getTimestamp());
-			List<DataPoint> dpx;
-			if (!dpMap.containsKey(writer)) {
-				dpMap.put(writer, dpx = new ArrayList<>());
-			} else {
-				dpx = dpMap.get(writer);
+	/**
+	 * Add a batch of data points. Consecutive points that fall in the same time
+	 * bucket are written to the bucket's {@link Writer} as one run under a single
+	 * lock acquisition; if the writer rolls over the rest of the run continues on
+	 * a new writer. A run that can't be written doesn't prevent the remaining
+	 * runs from being written.
+	 * 
+	 * @param unit
+	 *            of time for the supplied timestamps
+	 * @param dps
+	 *            data points with value bits as long (see
+	 *            {@link DataPoint#getLongValue()})
+	 * @param onReject
+	 *            called with the reason and the index of each data point that
+	 *            wasn't written, may be null
+	 * @return number of data points written
+	 */
+	public int addDataPoints(TimeUnit unit, List<DataPoint> dps, ObjIntConsumer<IOException> onReject) {
+		int total = 0;
+		int start = 0;
+		while (start < dps.size()) {
+			int tsBucket = TimeUtils.getTimeBucket(unit, dps.get(start).getTimestamp(), timeBucketSize);
+			int end = start + 1;
+			while (end < dps.size()
+					&& TimeUtils.getTimeBucket(unit, dps.get(end).getTimestamp(), timeBucketSize) == tsBucket) {
+				end++;
 			}
-			dpx.add(dp);
-		}
-		for (Entry<Writer, List<DataPoint>> entry : dpMap.entrySet()) {
-			entry.getKey().write(entry.getValue());
+			List<DataPoint> run = dps.subList(start, end);
+			int written = 0;
+			int rejected = 0;
+			try {
+				while (written < run.size()) {
+					Writer writer = getOrCreateSeriesBucket(unit, run.get(written).getTimestamp());
+					int n = writer.write(run.subList(written, run.size()));
+					if (n > 0) {
+						written += n;
+						rejected = 0;
+					} else if (!writer.isFull() || ++rejected > 1) {
+						// a writer that takes no points must roll over and the
+						// new writer must take at least one
+						throw new RejectException("Failed to write " + (run.size() - written)
+								+ " datapoints to series:" + seriesId + " bucket:" + bucketToString(tsBucket));
+					}
+				}
+			} catch (IOException e) {
+				logger.fine(() -> "Rejected datapoints of series:" + seriesId + " bucket:" + bucketToString(tsBucket)
+						+ " reason:" + e.getMessage());
+				if (onReject != null) {
+					for (int i = start + written; i < end; i++) {
+						onReject.accept(e, i);
+					}
+				}
+			} finally {
+				onBucketWrite(tsBucket);
+			}
+			total += written;
+			start = end;
 		}
+		return total;
 	}
 
 	/**
@@ -489,38 +1055,16 @@ public class TimeSeries {
 			List<DataPoint> points, Writer writer, Predicate timePredicate, Predicate valuePredicate, boolean isFp)
 			throws IOException {
 		Reader reader = getReader(writer, timePredicate, valuePredicate);
-		DataPoint point = null;
-		while (true) {
-			try {
-				point = reader.readPair();
-				if (point != null) {
-					points.add(point);
-				}
-			} catch (IOException e) {
-				if (e instanceof RejectException) {
-				} else {
-					e.printStackTrace();
-				}
-				break;
-			}
-		}
+		readerToDataPoints(points, reader);
 		return points;
 	}
 
 	public static void readerToDataPoints(List<DataPoint> points, Reader reader) throws IOException {
-		DataPoint point = null;
-		while (true) {
-			try {
-				point = reader.readPair();
-				if (point != null) {
-					points.add(point);
-				}
-			} catch (IOException e) {
-				if (e instanceof RejectException) {
-				} else {
-					e.printStackTrace();
-				}
-				break;
+		long[][] batch = READ_BATCH.get();
+		int n;
+		while ((n = reader.readBatch(batch[0], batch[1], READ_BATCH_SIZE)) >= 0) {
+			for (int i = 0; i < n; i++) {
+				points.add(new DataPoint(batch[0][i], batch[1][i]));
 			}
 		}
 		if (reader.getCounter() != reader.getPairCount() || points.size() < reader.getCounter()) {
@@ -529,19 +1073,11 @@ public class TimeSeries {
 	}
 
 	public static void readerToPoints(List<long[]> points, Reader reader) throws IOException {
-		long[] point = null;
-		while (true) {
-			try {
-				point = reader.read();
-				if (point != null) {
-					points.add(point);
-				}
-			} catch (IOException e) {
-				if (e instanceof RejectException) {
-				} else {
-					logger.log(Level.SEVERE, "Non rejectexception while reading datapoints", e);
-				}
-				break;
+		long[][] batch = READ_BATCH.get();
+		int n;
+		while ((n = reader.readBatch(batch[0], batch[1], READ_BATCH_SIZE)) >= 0) {
+			for (int i = 0; i < n; i++) {
+				points.add(new long[] { batch[0][i], batch[1][i] });
 			}
 		}
 		if (reader.getCounter() != reader.getPairCount() || points.size() < reader.getCounter()) {
@@ -555,12 +1091,22 @@ public class TimeSeries {
 	 * @throws IOException
 	 */
 	public List<Writer> collectGarbage() throws IOException {
+		synchronized (compactionLock) {
+			return collectGarbageInternal();
+		}
+	}
+
+	private List<Writer> collectGarbageInternal() throws IOException {
+		loadDeferredBuckets();
 		List<Writer> gcedBuckets = new ArrayList<>();
 		logger.finer("Retention buckets:" + retentionBuckets.get());
 		while (bucketMap.size() > retentionBuckets.get()) {
 			int oldSize = bucketMap.size();
-			String key = bucketMap.firstKey();
+			int key = bucketMap.firstKey();
 			List<Writer> buckets = bucketMap.remove(key);
+			// writers of a collected bucket mustn't be compacted and freed again
+			compactionCandidateSet.remove(key);
+			invalidateCachedBucket(key);
 			for (Writer bucket : buckets) {
 				// bucket.close();
 				gcedBuckets.add(bucket);
@@ -577,6 +1123,42 @@ public class TimeSeries {
 		return gcedBuckets;
 	}
 
+	/**
+	 * Remove all buckets before the supplied bucket in bulk, used to expire time
+	 * partitions whose buffers are freed by the {@link Malloc} as a whole
+	 * 
+	 * @param tsBucket
+	 * @return removed writers
+	 */
+	public List<Writer> removeBucketsBefore(int tsBucket) {
+		List<Writer> removed = new ArrayList<>();
+		synchronized (compactionLock) {
+			synchronized (bucketMap) {
+				List<Entry<String, BufferObject>> deferred = deferredBuffers;
+				if (deferred != null) {
+					// avoid loading buffers only to drop them
+					List<Entry<String, BufferObject>> retained = new ArrayList<>();
+					for (Entry<String, BufferObject> entry : deferred) {
+						if (stringToBucket(entry.getKey()) >= tsBucket) {
+							retained.add(entry);
+						}
+					}
+					deferredBuffers = retained;
+				}
+				if (bucketCache != null && tsBucket > Integer.MIN_VALUE) {
+					for (int bucket : bucketMap.rangeKeys(Integer.MIN_VALUE, tsBucket - 1)) {
+						bucketCache.invalidate(this, bucket);
+					}
+				}
+				for (List<Writer> writers : bucketMap.removeBefore(tsBucket)) {
+					removed.addAll(writers);
+				}
+				compactionCandidateSet.keySet().removeIf(bucket -> bucket < tsBucket);
+			}
+		}
+		return removed;
+	}
+
 	/**
 	 * Update retention hours for this TimeSeries
 	 * 
@@ -601,23 +1183,33 @@ public class TimeSeries {
 
 	/**
 	 * @return the bucketMap
+	 * @throws IOException
 	 */
-	public SortedMap<String, Writer> getBucketMap() {
+	public SortedMap<String, Writer> getBucketMap() throws IOException {
+		loadDeferredBuckets();
 		SortedMap<String, Writer> map = new TreeMap<>();
-		for (Entry<String, List<Writer>> entry : bucketMap.entrySet()) {
-			List<Writer> value = entry.getValue();
+		for (int tsBucket : bucketMap.keys()) {
+			List<Writer> value = bucketMap.get(tsBucket);
 			for (int i = 0; i < value.size(); i++) {
 				Writer bucketEntry = value.get(i);
-				map.put(entry.getKey() + i, bucketEntry);
+				map.put(bucketToString(tsBucket) + i, bucketEntry);
 			}
 		}
 		return map;
 	}
 
-	public SortedMap<String, List<Writer>> getBucketRawMap() {
+	public BucketMap getBucketRawMap() throws IOException {
+		loadDeferredBuckets();
 		return bucketMap;
 	}
 
+	/**
+	 * @return measurement this series belongs to
+	 */
+	public Measurement getMeasurement() {
+		return measurement;
+	}
+
 	/**
 	 * @return the seriesId
 	 */
@@ -672,21 +1264,55 @@ public class TimeSeries {
 	 */
 	@SafeVarargs
 	public final List<Writer> compact(Consumer<List<Writer>>... functions) throws IOException {
+		return compactThrottled(null, functions);
+	}
+
+	/**
+	 * Compact this series, see {@link #compact(Consumer...)}. Only the bucket
+	 * list being swapped is locked, writes to and queries of this series carry on
+	 * while buckets are being compacted.
+	 * 
+	 * @param throttle
+	 *            called with the number of bytes about to be read before each
+	 *            bucket is compacted, may block to rate limit compaction; can be
+	 *            null
+	 * @param functions
+	 * @return returns null if nothing to compact or empty list if all compaction
+	 *         attempts fail
+	 * @throws IOException
+	 */
+	@SafeVarargs
+	public final List<Writer> compactThrottled(IntConsumer throttle, Consumer<List<Writer>>... functions)
+			throws IOException {
+		synchronized (compactionLock) {
+			return compactInternal(throttle, functions);
+		}
+	}
+
+	private List<Writer> compactInternal(IntConsumer throttle, Consumer<List<Writer>>[] functions)
+			throws IOException {
 		// this loop only executes if there are any candidate buffers in the set
 		// buckets should be moved out of the compaction set once they are
 		// compacted
 		// size check is to avoid unnecessary calls and exit fast
+		loadDeferredBuckets();
 		if (compactionCandidateSet.isEmpty()) {
 			return null;
 		}
 		List<Writer> compactedWriter = new ArrayList<>();
-		Iterator<Entry<String, List<Writer>>> iterator = compactionCandidateSet.entrySet().iterator();
+		candidateReads.keySet().retainAll(compactionCandidateSet.keySet());
+		// hot and fragmented buckets first
+		List<Entry<Integer, List<Writer>>> candidates = new ArrayList<>(compactionCandidateSet.entrySet());
+		candidates.sort(Comparator.comparingLong(
+				(Entry<Integer, List<Writer>> e) -> getCompactionPriority(e.getKey(), e.getValue())).reversed());
 		int id = CompressionFactory.getIdByClass(compactionClass);
-		while (iterator.hasNext()) {
-			// entry.getKey() gives tsBucket string
-			Entry<String, List<Writer>> entry = iterator.next();
+		for (Entry<Integer, List<Writer>> entry : candidates) {
+			// entry.getKey() gives tsBucket
 			// remove this entry from compaction set
-			iterator.remove();
+			if (!compactionCandidateSet.remove(entry.getKey(), entry.getValue())) {
+				continue;
+			}
+			candidateReads.remove(entry.getKey());
 			List<Writer> list = entry.getValue();
 			int listSize = list.size() - 1;
 			int pointCount = list.subList(0, listSize).stream().mapToInt(s -> s.getCount()).sum();
@@ -695,12 +1321,15 @@ public class TimeSeries {
 				logger.warning("Ignoring bucket for compaction, not enough bytes. THIS BUG SHOULD BE INVESTIGATED");
 				continue;
 			}
+			if (throttle != null) {
+				throttle.accept(total);
+			}
 			Writer writer = getWriterInstance(compactionClass);
 			int compactedPoints = 0;
 			double bufSize = total * compactionRatio;
 			logger.finer("Allocating buffer:" + total + " Vs. " + pointCount * 16 + " max compacted buffer:" + bufSize);
 			logger.finer("Getting sublist from:" + 0 + " to:" + (list.size() - 1));
-			ByteBuffer buf = ByteBuffer.allocate((int) bufSize);
+			ByteBuffer buf = getCompactionScratch((int) bufSize);
 			buf.put((byte) id);
 			// since this buffer will be the first one
 			buf.put(1, (byte) 0);
@@ -709,15 +1338,19 @@ public class TimeSeries {
 			// read the header timestamp
 			long timestamp = input.getHeaderTimestamp();
 			writer.setHeaderTimestamp(timestamp);
-			// read all but the last writer and insert into new temp writer
+			// read all but the last writer and insert into new temp writer, writers
+			// added by concurrent writes since are left out
 			try {
-				for (int i = 0; i < list.size() - 1; i++) {
+				long[][] batch = READ_BATCH.get();
+				for (int i = 0; i < listSize; i++) {
 					input = list.get(i);
 					Reader reader = input.getReader();
-					for (int k = 0; k < reader.getPairCount(); k++) {
-						long[] pair = reader.read();
-						writer.addValue(pair[0], pair[1]);
-						compactedPoints++;
+					int n;
+					while ((n = reader.readBatch(batch[0], batch[1], READ_BATCH_SIZE)) >= 0) {
+						for (int k = 0; k < n; k++) {
+							writer.addValue(batch[0][k], batch[1][k]);
+						}
+						compactedPoints += n;
 					}
 				}
 				writer.makeReadOnly();
@@ -731,14 +1364,16 @@ public class TimeSeries {
 			ByteBuffer rawBytes = writer.getRawBytes();
 			// limit how much data needs to be read from the buffer
 			rawBytes.limit(rawBytes.position());
-			// convert buffer length request to size of 2
-			int size = rawBytes.limit() + 1;
+			// convert buffer length request to size of 2, with room for the
+			// checkpoint the writer keeps at the end of its buffer
+			int size = writer.getRequiredBufferSize(rawBytes.limit()) + 1;
 			if (size % 2 != 0) {
 				size++;
 			}
 			rawBytes.rewind();
 			// create buffer in measurement
-			BufferObject newBuf = measurement.getMalloc().createNewBuffer(seriesId, entry.getKey(), size);
+			BufferObject newBuf = measurement.getMalloc().createNewBuffer(seriesId, bucketToString(entry.getKey()),
+					size);
 			logger.fine("Compacted buffer size:" + size + " vs " + total);
 			String bufferId = newBuf.getBufferId();
 			buf = newBuf.getBuf();
@@ -746,8 +1381,15 @@ public class TimeSeries {
 			buf.put(rawBytes);
 			writer.setBufferId(bufferId);
 			writer.configure(conf, buf, false, START_OFFSET, false);
+			// checkpoints the compacted points so reopening doesn't decode them
 			writer.makeReadOnly();
 			synchronized (list) {
+				if (bucketMap.get(entry.getKey()) != list) {
+					// the bucket was dropped or replaced while it was compacted
+					logger.warning("Bucket replaced during compaction, discarding compacted buffer:" + seriesId);
+					measurement.getMalloc().cleanupBufferIds(new HashSet<>(Arrays.asList(bufferId)));
+					continue;
+				}
 				if (functions != null) {
 					for (Consumer<List<Writer>> function : functions) {
 						function.accept(list);
@@ -756,13 +1398,17 @@ public class TimeSeries {
 				size = listSize - 1;
 				logger.finest("Compaction debug size differences size:" + size + " listSize:" + listSize + " curr:"
 						+ list.size());
-				for (int i = size; i >= 0; i--) {
-					compactedWriter.add(list.remove(i));
-				}
-				list.add(0, writer);
-				for (int i = 0; i < list.size(); i++) {
-					list.get(i).getRawBytes().put(1, (byte) i);
+				// readers see either the old or the compacted list, never a
+				// partially swapped one
+				List<Writer> compacted = new ArrayList<>(list.size() - size);
+				compacted.add(writer);
+				// writers added by concurrent writes since compaction started
+				compacted.addAll(list.subList(listSize, list.size()));
+				for (int i = 0; i < compacted.size(); i++) {
+					compacted.get(i).getRawBytes().put(1, (byte) i);
 				}
+				replaceBucket(entry.getKey(), list, new CopyOnWriteArrayList<>(compacted));
+				compactedWriter.addAll(list.subList(0, listSize));
 				// fix bucket count
 				bucketCount -= size;
 				logger.fine(
@@ -773,12 +1419,35 @@ public class TimeSeries {
 		return compactedWriter;
 	}
 
+	/**
+	 * Compacted data is only staged in this buffer before being copied to a
+	 * buffer from the {@link Malloc}, so the scratch buffer of the compacting
+	 * thread is reused instead of allocating one per bucket
+	 * 
+	 * @param size
+	 * @return zeroed buffer of the requested size
+	 */
+	private static ByteBuffer getCompactionScratch(int size) {
+		ByteBuffer scratch = COMPACTION_SCRATCH.get();
+		if (scratch == null || scratch.capacity() < size) {
+			scratch = ByteBuffer.allocate(Math.max(size, scratch == null ? 0 : scratch.capacity() * 2));
+			COMPACTION_SCRATCH.set(scratch);
+		} else {
+			Arrays.fill(scratch.array(), 0, size, (byte) 0);
+		}
+		ByteBuffer buf = scratch.duplicate();
+		buf.clear();
+		buf.limit(size);
+		return buf.slice();
+	}
+
 	/**
 	 * FOR UNIT TESTING ONLY
 	 * 
 	 * @return
 	 */
-	public int getBucketCount() {
+	public int getBucketCount() throws IOException {
+		loadDeferredBuckets();
 		return bucketCount;
 	}
 
@@ -787,7 +1456,8 @@ public class TimeSeries {
 	 * 
 	 * @return
 	 */
-	public Collection<List<Writer>> getCompactionSet() {
+	public Collection<List<Writer>> getCompactionSet() throws IOException {
+		loadDeferredBuckets();
 		return compactionCandidateSet.values();
 	}
 
@@ -800,26 +1470,42 @@ public class TimeSeries {
 	 * @throws InstantiationException
 	 * @throws IllegalAccessException
 	 */
-	public void replaceFirstBuckets(String bucket, List<Entry<Long, byte[]>> bufList)
+	public void replaceFirstBuckets(int bucket, List<Entry<Long, byte[]>> bufList)
 			throws IOException, InstantiationException, IllegalAccessException {
-		boolean wasEmpty = false;
-		List<Writer> list = bucketMap.get(bucket);
-		if (list == null) {
-			synchronized (bucketMap) {
-				list = Collections.synchronizedList(new ArrayList<>());
-				bucketMap.put(bucket, list);
-				wasEmpty = true;
+		loadDeferredBuckets();
+		while (true) {
+			List<Writer> list = bucketMap.get(bucket);
+			if (list == null) {
+				synchronized (bucketMap) {
+					if (bucketMap.get(bucket) == null) {
+						// published once the writers are inserted
+						list = new CopyOnWriteArrayList<>();
+						insertOrOverwriteWriters(bufList, true, list, bucket);
+						bucketMap.put(bucket, list);
+						invalidateCachedBucket(bucket);
+						return;
+					}
+				}
+				continue;
+			}
+			synchronized (list) {
+				if (bucketMap.get(bucket) != list) {
+					continue;
+				}
+				// insert writers to a copy of the list, readers see either the old
+				// or the new writers
+				List<Writer> replacement = new CopyOnWriteArrayList<>(list);
+				List<String> cleanupList = insertOrOverwriteWriters(bufList, false, replacement, bucket);
+				replaceBucket(bucket, list, replacement);
+				invalidateCachedBucket(bucket);
+				measurement.getMalloc().cleanupBufferIds(new HashSet<>(cleanupList));
+				return;
 			}
-		}
-		synchronized (list) {
-			// insert writers to list
-			List<String> cleanupList = insertOrOverwriteWriters(bufList, wasEmpty, list, bucket);
-			measurement.getMalloc().cleanupBufferIds(new HashSet<>(cleanupList));
 		}
 	}
 
 	private List<String> insertOrOverwriteWriters(List<Entry<Long, byte[]>> bufList, boolean wasEmpty,
-			List<Writer> list, String tsBucket) throws IOException, InstantiationException, IllegalAccessException {
+			List<Writer> list, int tsBucket) throws IOException, InstantiationException, IllegalAccessException {
 		List<String> garbageCollectWriters = new ArrayList<>();
 		if (!wasEmpty) {
 			if (bufList.size() >= list.size()) {
@@ -833,7 +1519,8 @@ public class TimeSeries {
 				garbageCollectWriters.add(removedWriter.getBufferId());
 			}
 			Entry<Long, byte[]> bs = bufList.get(i);
-			BufferObject bufPair = measurement.getMalloc().createNewBuffer(seriesId, tsBucket, bs.getValue().length);
+			BufferObject bufPair = measurement.getMalloc().createNewBuffer(seriesId, bucketToString(tsBucket),
+					bs.getValue().length);
 			ByteBuffer buf = bufPair.getBuf();
 			buf.put(bs.getValue());
 			buf.rewind();
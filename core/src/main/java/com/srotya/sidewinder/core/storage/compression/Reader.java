@@ -32,6 +32,23 @@ public interface Reader {
 	public DataPoint readPair() throws IOException;
 	
 	public long[] read() throws IOException;
+
+	/**
+	 * Decode the next pairs matching the time and value predicates into the
+	 * supplied arrays, without allocating or throwing at the end of the stream.
+	 * All decoded pairs, including the ones filtered out by the predicates, are
+	 * accounted to the {@link com.srotya.sidewinder.core.storage.QueryContext}
+	 * of the current thread if there is one.
+	 * 
+	 * @param timestamps
+	 * @param values
+	 * @param max
+	 *            maximum number of pairs to read, at most the length of the
+	 *            arrays
+	 * @return number of pairs read, -1 if the end of the stream was reached
+	 * @throws IOException
+	 */
+	public int readBatch(long[] timestamps, long[] values, int max) throws IOException;
 	
 	public int getCounter();
 	
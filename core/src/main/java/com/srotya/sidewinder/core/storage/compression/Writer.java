@@ -43,7 +43,15 @@ public interface Writer {
 
 	public void write(DataPoint dp) throws IOException;
 
-	public void write(List<DataPoint> dp) throws IOException;
+	/**
+	 * Write data points in order until this buffer is full.
+	 * 
+	 * @param dps
+	 * @return number of data points written, less than the number of supplied
+	 *         data points if this buffer rolled over
+	 * @throws IOException
+	 */
+	public int write(List<DataPoint> dps) throws IOException;
 
 	public Reader getReader() throws IOException;
 
@@ -83,4 +91,22 @@ public interface Writer {
 	@NotNull
 	public String getBufferId();
 
+	/**
+	 * @return summary of the points of this writer, null if this writer doesn't
+	 *         track one
+	 */
+	public default ZoneMap getZoneMap() {
+		return null;
+	}
+
+	/**
+	 * @param dataBytes
+	 *            encoded bytes of the points of a buffer
+	 * @return size of a buffer holding the supplied number of encoded bytes and
+	 *         the state this writer keeps at the end of its buffer
+	 */
+	public default int getRequiredBufferSize(int dataBytes) {
+		return dataBytes;
+	}
+
 }
\ No newline at end of file
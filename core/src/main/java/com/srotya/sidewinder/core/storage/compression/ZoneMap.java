@@ -0,0 +1,285 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.compression;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.srotya.sidewinder.core.predicates.Predicate;
+
+/**
+ * Summary of the points of a {@link Writer}: count, time bounds and value
+ * bounds and sums.
+ * 
+ * Writers don't know if their values are floating point, so value bounds and
+ * sums are kept both for the raw long value (which is what {@link Predicate}s
+ * test) and for the value read as a double.
+ * 
+ * Queries use the bounds to skip writers that can't contain a matching point
+ * and answer count, min, max and sum of writers that are entirely inside the
+ * queried time range without decoding them.
+ * 
+ * A summary isn't thread-safe, writers update a private summary and publish
+ * its fields with {@link #publishTo(AtomicLongArray)} for queries to read.
+ * 
+ * @author ambud
+ */
+public class ZoneMap {
+
+	public static final int SERIALIZED_SIZE = Long.BYTES * 8;
+	public static final int PUBLISHED_FIELDS = 9;
+	private int count;
+	private long minTimestamp = Long.MAX_VALUE;
+	private long maxTimestamp = Long.MIN_VALUE;
+	private long minValue = Long.MAX_VALUE;
+	private long maxValue = Long.MIN_VALUE;
+	private long sum;
+	private double minDouble = Double.POSITIVE_INFINITY;
+	private double maxDouble = Double.NEGATIVE_INFINITY;
+	private double doubleSum;
+
+	/**
+	 * Add a point to this summary
+	 * 
+	 * @param timestamp
+	 * @param value
+	 */
+	public void update(long timestamp, long value) {
+		minTimestamp = Math.min(minTimestamp, timestamp);
+		maxTimestamp = Math.max(maxTimestamp, timestamp);
+		minValue = Math.min(minValue, value);
+		maxValue = Math.max(maxValue, value);
+		sum += value;
+		double d = Double.longBitsToDouble(value);
+		minDouble = Math.min(minDouble, d);
+		maxDouble = Math.max(maxDouble, d);
+		doubleSum += d;
+		count++;
+	}
+
+	/**
+	 * Add the points of the supplied summary to this summary
+	 * 
+	 * @param other
+	 */
+	public void merge(ZoneMap other) {
+		if (other.count == 0) {
+			return;
+		}
+		minTimestamp = Math.min(minTimestamp, other.minTimestamp);
+		maxTimestamp = Math.max(maxTimestamp, other.maxTimestamp);
+		minValue = Math.min(minValue, other.minValue);
+		maxValue = Math.max(maxValue, other.maxValue);
+		sum += other.sum;
+		minDouble = Math.min(minDouble, other.minDouble);
+		maxDouble = Math.max(maxDouble, other.maxDouble);
+		doubleSum += other.doubleSum;
+		count += other.count;
+	}
+
+	/**
+	 * @return copy of this summary
+	 */
+	public ZoneMap copy() {
+		ZoneMap copy = new ZoneMap();
+		copy.merge(this);
+		return copy;
+	}
+
+	/**
+	 * @param startTime
+	 * @param endTime
+	 * @return false if no point of this summary is in the supplied time range
+	 */
+	public boolean overlaps(long startTime, long endTime) {
+		return count > 0 && minTimestamp <= endTime && maxTimestamp >= startTime;
+	}
+
+	/**
+	 * @param startTime
+	 * @param endTime
+	 * @return true if all points of this summary are in the supplied time range
+	 */
+	public boolean isCoveredBy(long startTime, long endTime) {
+		return count == 0 || (minTimestamp >= startTime && maxTimestamp <= endTime);
+	}
+
+	/**
+	 * @param valuePredicate
+	 *            may be null
+	 * @return false if no point of this summary can match the supplied predicate
+	 */
+	public boolean mayMatch(Predicate valuePredicate) {
+		return count > 0 && (valuePredicate == null || valuePredicate.mayMatch(minValue, maxValue));
+	}
+
+	/**
+	 * Write this summary to the supplied buffer at the supplied offset
+	 * 
+	 * @param buf
+	 * @param offset
+	 */
+	public void writeTo(ByteBuffer buf, int offset) {
+		buf.putLong(offset, minTimestamp);
+		buf.putLong(offset + 8, maxTimestamp);
+		buf.putLong(offset + 16, minValue);
+		buf.putLong(offset + 24, maxValue);
+		buf.putLong(offset + 32, sum);
+		buf.putDouble(offset + 40, minDouble);
+		buf.putDouble(offset + 48, maxDouble);
+		buf.putDouble(offset + 56, doubleSum);
+	}
+
+	/**
+	 * Read a summary of the supplied number of points written by
+	 * {@link #writeTo(ByteBuffer, int)}
+	 * 
+	 * @param buf
+	 * @param offset
+	 * @param count
+	 * @return summary
+	 */
+	public static ZoneMap readFrom(ByteBuffer buf, int offset, int count) {
+		ZoneMap zoneMap = new ZoneMap();
+		if (count == 0) {
+			return zoneMap;
+		}
+		zoneMap.count = count;
+		zoneMap.minTimestamp = buf.getLong(offset);
+		zoneMap.maxTimestamp = buf.getLong(offset + 8);
+		zoneMap.minValue = buf.getLong(offset + 16);
+		zoneMap.maxValue = buf.getLong(offset + 24);
+		zoneMap.sum = buf.getLong(offset + 32);
+		zoneMap.minDouble = buf.getDouble(offset + 40);
+		zoneMap.maxDouble = buf.getDouble(offset + 48);
+		zoneMap.doubleSum = buf.getDouble(offset + 56);
+		return zoneMap;
+	}
+
+	/**
+	 * Publish the fields of this summary to the supplied array of
+	 * {@link #PUBLISHED_FIELDS} slots, only slots that changed are written.
+	 * Readers see the published fields once they observe a volatile write made
+	 * after this call.
+	 * 
+	 * @param fields
+	 */
+	public void publishTo(AtomicLongArray fields) {
+		publish(fields, 0, count);
+		publish(fields, 1, minTimestamp);
+		publish(fields, 2, maxTimestamp);
+		publish(fields, 3, minValue);
+		publish(fields, 4, maxValue);
+		publish(fields, 5, sum);
+		publish(fields, 6, Double.doubleToRawLongBits(minDouble));
+		publish(fields, 7, Double.doubleToRawLongBits(maxDouble));
+		publish(fields, 8, Double.doubleToRawLongBits(doubleSum));
+	}
+
+	private static void publish(AtomicLongArray fields, int i, long value) {
+		if (fields.get(i) != value) {
+			fields.lazySet(i, value);
+		}
+	}
+
+	/**
+	 * Read a summary published by {@link #publishTo(AtomicLongArray)}
+	 * 
+	 * @param fields
+	 * @return summary
+	 */
+	public static ZoneMap readFrom(AtomicLongArray fields) {
+		ZoneMap zoneMap = new ZoneMap();
+		int count = (int) fields.get(0);
+		if (count == 0) {
+			return zoneMap;
+		}
+		zoneMap.count = count;
+		zoneMap.minTimestamp = fields.get(1);
+		zoneMap.maxTimestamp = fields.get(2);
+		zoneMap.minValue = fields.get(3);
+		zoneMap.maxValue = fields.get(4);
+		zoneMap.sum = fields.get(5);
+		zoneMap.minDouble = Double.longBitsToDouble(fields.get(6));
+		zoneMap.maxDouble = Double.longBitsToDouble(fields.get(7));
+		zoneMap.doubleSum = Double.longBitsToDouble(fields.get(8));
+		return zoneMap;
+	}
+
+	/**
+	 * @return hash of the fields of this summary
+	 */
+	public long hash() {
+		long hash = count;
+		hash = hash * 31 + minTimestamp;
+		hash = hash * 31 + maxTimestamp;
+		hash = hash * 31 + minValue;
+		hash = hash * 31 + maxValue;
+		hash = hash * 31 + sum;
+		hash = hash * 31 + Double.doubleToLongBits(minDouble);
+		hash = hash * 31 + Double.doubleToLongBits(maxDouble);
+		hash = hash * 31 + Double.doubleToLongBits(doubleSum);
+		return hash;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getMinTimestamp() {
+		return minTimestamp;
+	}
+
+	public long getMaxTimestamp() {
+		return maxTimestamp;
+	}
+
+	public long getMinValue() {
+		return minValue;
+	}
+
+	public long getMaxValue() {
+		return maxValue;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public double getMinDouble() {
+		return minDouble;
+	}
+
+	public double getMaxDouble() {
+		return maxDouble;
+	}
+
+	public double getDoubleSum() {
+		return doubleSum;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ZoneMap [count=" + count + ", minTimestamp=" + minTimestamp + ", maxTimestamp=" + maxTimestamp
+				+ ", minValue=" + minValue + ", maxValue=" + maxValue + ", sum=" + sum + "]";
+	}
+
+}
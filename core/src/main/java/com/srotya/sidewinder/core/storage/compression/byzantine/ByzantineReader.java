@@ -19,8 +19,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 
+import com.srotya.sidewinder.core.predicates.BetweenPredicate;
 import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.QueryContext;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.utils.ByteUtils;
 
@@ -37,6 +39,8 @@ public class ByzantineReader implements Reader {
 	private Predicate valuePredicate;
 	private ByteBuffer buf;
 	private long prevValue;
+	private ByzantineWriter source;
+	private long endTime = Long.MAX_VALUE;
 
 	public ByzantineReader(ByteBuffer buf, int startOffset) {
 		buf.position(startOffset);
@@ -45,10 +49,59 @@ public class ByzantineReader implements Reader {
 		prevTs = buf.getLong();
 	}
 
+	/**
+	 * Reader over the first count pairs of the buffer, used to read a buffer
+	 * that may be concurrently appended to since the count stored in the buffer
+	 * may be ahead of the data visible to this thread
+	 * 
+	 * @param buf
+	 * @param startOffset
+	 * @param count
+	 */
+	public ByzantineReader(ByteBuffer buf, int startOffset, int count) {
+		this(buf, startOffset);
+		this.count = count;
+	}
+
+	/**
+	 * Resume decoding from a checkpoint of the writer's state instead of
+	 * decoding all pairs preceding it
+	 * 
+	 * @param position
+	 *            buffer position of the pair following the checkpoint
+	 * @param counter
+	 *            number of pairs preceding the checkpoint
+	 * @param prevTs
+	 * @param delta
+	 * @param prevValue
+	 */
+	void resume(int position, int counter, long prevTs, long delta, long prevValue) {
+		buf.position(position);
+		this.counter = counter;
+		this.prevTs = prevTs;
+		this.delta = delta;
+		this.prevValue = prevValue;
+	}
+
 	public int getCounter() {
 		return counter;
 	}
 
+	/**
+	 * @param source
+	 *            writer of the buffer, used to seek to time ranges
+	 */
+	void setSource(ByzantineWriter source) {
+		this.source = source;
+	}
+
+	/**
+	 * @return buffer position of the next pair
+	 */
+	int getPosition() {
+		return buf.position();
+	}
+
 	@Override
 	public DataPoint readPair() throws IOException {
 		DataPoint dp = null;
@@ -56,6 +109,11 @@ public class ByzantineReader implements Reader {
 			uncompressAndReadTimestamp();
 			uncompressAndReadValue();
 			counter++;
+			if (prevTs > endTime) {
+				// points are in time order, the remaining ones are past the range
+				counter = count;
+				throw EOS_EXCEPTION;
+			}
 			if (timePredicate != null && !timePredicate.test(prevTs)) {
 				return null;
 			}
@@ -78,6 +136,11 @@ public class ByzantineReader implements Reader {
 			uncompressAndReadTimestamp();
 			uncompressAndReadValue();
 			counter++;
+			if (prevTs > endTime) {
+				// points are in time order, the remaining ones are past the range
+				counter = count;
+				throw EOS_EXCEPTION;
+			}
 			if (timePredicate != null && !timePredicate.test(prevTs)) {
 				return null;
 			}
@@ -92,6 +155,34 @@ public class ByzantineReader implements Reader {
 		}
 	}
 
+	@Override
+	public int readBatch(long[] timestamps, long[] values, int max) {
+		int n = 0;
+		int decoded = 0;
+		while (n < max && counter < count) {
+			uncompressAndReadTimestamp();
+			uncompressAndReadValue();
+			counter++;
+			decoded++;
+			if (prevTs > endTime) {
+				// points are in time order, the remaining ones are past the range
+				counter = count;
+				break;
+			}
+			if (timePredicate != null && !timePredicate.test(prevTs)) {
+				continue;
+			}
+			if (valuePredicate != null && !valuePredicate.test(prevValue)) {
+				continue;
+			}
+			timestamps[n] = prevTs;
+			values[n++] = prevValue;
+		}
+		// filtered points cost the query as much as the returned ones
+		QueryContext.checkCurrent(decoded);
+		return n == 0 && counter >= count ? -1 : n;
+	}
+
 	public void uncompressAndReadValue() {
 		byte flag = buf.get();
 		if (flag == (byte) 0) {
@@ -131,6 +222,19 @@ public class ByzantineReader implements Reader {
 	@Override
 	public void setTimePredicate(Predicate timePredicate) {
 		this.timePredicate = timePredicate;
+		if (source == null || counter > 0 || !(timePredicate instanceof BetweenPredicate)) {
+			return;
+		}
+		try {
+			SeekIndex index = source.getSeekIndex();
+			if (source.isOrdered()) {
+				BetweenPredicate range = (BetweenPredicate) timePredicate;
+				endTime = range.getEndTs();
+				index.seek(this, range.getStartTs());
+			}
+		} catch (IOException e) {
+			// decode from the start of the buffer
+		}
 	}
 
 	@Override
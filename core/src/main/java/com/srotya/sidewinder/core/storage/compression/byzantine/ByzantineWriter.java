@@ -20,23 +20,75 @@ import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.compression.Codec;
+import com.srotya.sidewinder.core.storage.compression.RollOverException;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.ZoneMap;
 
 /**
  * A simple delta-of-delta timeseries compression with XOR value compression
  * 
+ * Appends are serialized by a writer-only lock (or no lock at all for single
+ * threaded writers), readers never lock. After every append the writer
+ * publishes the committed point count and buffer position as a single
+ * volatile long; readers snapshot it and only decode the bytes it covers, so
+ * a concurrent append can never be observed half written.
+ * 
+ * The last {@link #TRAILER_SIZE} bytes of the buffer are reserved for a
+ * checkpoint of the encoder's tail state (count, position, previous
+ * timestamp, delta and value). The checkpoint is written when the buffer is
+ * made read-only or fills up and every {@link #CHECKPOINT_INTERVAL} points so
+ * that reopening a buffer doesn't have to decode all of it; only points
+ * appended after the last checkpoint are decoded. Buffers without a valid
+ * checkpoint (e.g. written by older versions) are decoded in full.
+ * 
+ * The writer keeps a {@link ZoneMap} of its points. Buffers of at least
+ * {@link #ZONE_MAP_MIN_BUFFER_SIZE} bytes reserve {@link ZoneMap#SERIALIZED_SIZE}
+ * bytes in front of the trailer to checkpoint it along with the encoder state,
+ * smaller buffers are cheap to decode and rebuild it by decoding in full when
+ * reopened. The zone map is only updated by the writing thread, its fields are
+ * published before appended points are committed so that queries never see
+ * bounds older than the points they can read. Only fields that changed are
+ * published and queries build their snapshot of them, appends don't copy the
+ * zone map.
+ * 
+ * Readers with a time range seek using a {@link SeekIndex} of the decoder state
+ * every {@link #SEEK_INTERVAL} points and stop decoding once they pass the end
+ * of the range, as long as the points of the buffer are in time order. The
+ * checkpoint doesn't record the order of the points before it, so a buffer
+ * resumed from it isn't treated as ordered until the first seek has decoded it
+ * in full. The index is built by decoding the buffer on the first seek and kept
+ * in a cache
+ * shared by all writers that is bounded to {@link #SEEK_INDEX_CACHE_ENTRIES}
+ * entries, evicted indexes are rebuilt when needed again.
+ * 
  * @author ambud
  */
 @Codec(id = 1, name = "byzantine")
 public class ByzantineWriter implements Writer {
 
-	private Lock read;
+	public static final int TRAILER_SIZE = 40;
+	public static final int ZONE_MAP_MIN_BUFFER_SIZE = 1024;
+	public static final int SEEK_INTERVAL = 128;
+	public static final int CHECKPOINT_INTERVAL = 1024;
+	public static final String SEEK_INDEX_CACHE_ENTRIES_PROPERTY = "byzantine.seek.cache.entries";
+	public static final int SEEK_INDEX_CACHE_ENTRIES = Integer
+			.parseInt(System.getProperty(SEEK_INDEX_CACHE_ENTRIES_PROPERTY, String.valueOf(1 << 20)));
+	private static final int TRAILER_MAGIC = 0x42595a54;
+	private static final Cache<ByzantineWriter, SeekIndex> SEEK_INDEX_CACHE = CacheBuilder.newBuilder()
+			.weakKeys().maximumWeight(SEEK_INDEX_CACHE_ENTRIES)
+			.weigher((ByzantineWriter writer, SeekIndex index) -> index.size() + 1).build();
 	private Lock write;
+	// committed count (high 32 bits) and buffer position (low 32 bits)
+	private volatile long committed;
 	private long prevTs;
 	private long tsDelta;
 	private int count;
@@ -45,8 +97,18 @@ public class ByzantineWriter implements Writer {
 	private boolean readOnly;
 	private volatile boolean full;
 	private int startOffset;
+	private int trailerOffset;
+	// offset of the persisted zone map, -1 if the buffer is too small
+	private int zoneMapOffset;
+	// end of the encoded data
+	private int dataLimit;
 	private String tsBucket;
 	private String bufferId;
+	private ZoneMap zoneMap = new ZoneMap();
+	private final AtomicLongArray publishedZoneMap = new AtomicLongArray(ZoneMap.PUBLISHED_FIELDS);
+	private volatile boolean ordered = true;
+	// order of the points before the recovered checkpoint is unknown
+	private volatile boolean orderUnchecked;
 
 	public ByzantineWriter() {
 	}
@@ -60,10 +122,9 @@ public class ByzantineWriter implements Writer {
 	protected ByzantineWriter(long headerTimestamp, byte[] buf) {
 		this();
 		this.buf = ByteBuffer.allocateDirect(buf.length);
+		setTrailerOffsets();
 		setHeaderTimestamp(headerTimestamp);
-		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-		read = lock.readLock();
-		write = lock.writeLock();
+		write = new ReentrantLock();
 	}
 
 	@Override
@@ -71,59 +132,189 @@ public class ByzantineWriter implements Writer {
 			throws IOException {
 		this.startOffset = startOffset;
 		if (isLocking) {
-			ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-			read = lock.readLock();
-			write = lock.writeLock();
+			write = new ReentrantLock();
 		} else {
-			read = new NoLock();
 			write = new NoLock();
 		}
 		this.buf = buf;
+		setTrailerOffsets();
 		this.buf.position(startOffset);
 		if (isNew) {
 			this.buf.putInt(0);
 		} else {
 			forwardCursorToEnd();
 		}
+		commit();
+	}
+
+	private void setTrailerOffsets() {
+		trailerOffset = buf.limit() - TRAILER_SIZE;
+		if (buf.limit() >= ZONE_MAP_MIN_BUFFER_SIZE) {
+			zoneMapOffset = trailerOffset - ZoneMap.SERIALIZED_SIZE;
+			dataLimit = zoneMapOffset;
+		} else {
+			zoneMapOffset = -1;
+			dataLimit = trailerOffset;
+		}
 	}
 
 	private void forwardCursorToEnd() throws IOException {
 		ByzantineReader reader = new ByzantineReader(buf, startOffset);
 		count = reader.getPairCount();
-		for (int i = 0; i < count; i++) {
-			reader.readPair();
+		ZoneMap zoneMap = new ZoneMap();
+		boolean resumed = false;
+		if (zoneMapOffset >= 0 && isTrailerValid()) {
+			resumed = true;
+			int i = buf.getInt(trailerOffset + 4);
+			reader.resume(buf.getInt(trailerOffset + 8), i, buf.getLong(trailerOffset + 12),
+					buf.getLong(trailerOffset + 20), buf.getLong(trailerOffset + 28));
+			zoneMap = ZoneMap.readFrom(buf, zoneMapOffset, i);
 		}
+		ordered = decode(reader, zoneMap, null);
+		// order of the points before the checkpoint is checked by the first seek
+		orderUnchecked = resumed && ordered;
+		this.zoneMap = zoneMap;
+		SEEK_INDEX_CACHE.invalidate(this);
 		tsDelta = reader.getDelta();
 		prevTs = reader.getPrevTs();
 		prevValue = reader.getPrevValue();
 	}
 
+	/**
+	 * Decode the remaining pairs of the supplied reader
+	 * 
+	 * @param reader
+	 * @param zoneMap
+	 *            to add the decoded pairs to, may be null
+	 * @param index
+	 *            to add the decoder state to, may be null
+	 * @return false if the decoded timestamps are out of order
+	 * @throws IOException
+	 */
+	private static boolean decode(ByzantineReader reader, ZoneMap zoneMap, SeekIndex index) throws IOException {
+		boolean inOrder = true;
+		long[] timestamps = new long[SEEK_INTERVAL];
+		long[] values = new long[SEEK_INTERVAL];
+		long prev = reader.getPrevTs();
+		int n;
+		// batches end on seek interval boundaries
+		while ((n = reader.readBatch(timestamps, values,
+				SEEK_INTERVAL - reader.getCounter() % SEEK_INTERVAL)) >= 0) {
+			for (int i = 0; i < n; i++) {
+				if (timestamps[i] < prev) {
+					inOrder = false;
+				}
+				prev = timestamps[i];
+				if (zoneMap != null) {
+					zoneMap.update(timestamps[i], values[i]);
+				}
+			}
+			if (index != null && reader.getCounter() % SEEK_INTERVAL == 0) {
+				index.add(reader.getCounter(), reader.getPosition(), reader.getPrevTs(), reader.getDelta(),
+						reader.getPrevValue());
+			}
+		}
+		return inOrder;
+	}
+
+	/**
+	 * Index of the committed points, decodes the points committed since the
+	 * index was last extended or the whole buffer if it isn't cached or the
+	 * order of its points isn't known yet
+	 * 
+	 * @return seek index
+	 * @throws IOException
+	 */
+	SeekIndex getSeekIndex() throws IOException {
+		long c = committed;
+		int committedCount = (int) (c >>> 32);
+		SeekIndex index;
+		try {
+			index = SEEK_INDEX_CACHE.get(this, SeekIndex::new);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		if (!orderUnchecked && index.getIndexedCount() + SEEK_INTERVAL > committedCount) {
+			return index;
+		}
+		synchronized (index) {
+			if (orderUnchecked && index.size() > 0) {
+				// extending the index wouldn't decode the points before it
+				if (!decode(committedReader(c), null, null)) {
+					ordered = false;
+				}
+				orderUnchecked = false;
+			}
+			if (orderUnchecked || index.getIndexedCount() + SEEK_INTERVAL <= committedCount) {
+				ByzantineReader reader = committedReader(c);
+				index.resumeFromLast(reader);
+				if (!decode(reader, null, index)) {
+					ordered = false;
+				}
+				orderUnchecked = false;
+				// update the weight of the extended index
+				SEEK_INDEX_CACHE.put(this, index);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @param c
+	 *            committed count and position
+	 * @return reader of the supplied committed points
+	 */
+	private ByzantineReader committedReader(long c) {
+		ByteBuffer rbuf = buf.duplicate();
+		rbuf.rewind();
+		rbuf.limit((int) c);
+		return new ByzantineReader(rbuf, startOffset, (int) (c >>> 32));
+	}
+
+	/**
+	 * @return true if timestamps of the points of this buffer are in order
+	 */
+	boolean isOrdered() {
+		return ordered && !orderUnchecked;
+	}
+
 	@Override
 	public void write(DataPoint dp) throws IOException {
 		try {
 			write.lock();
 			writeDataPoint(dp.getTimestamp(), dp.getLongValue());
+			commit();
 		} finally {
 			write.unlock();
 		}
 	}
 
 	@Override
-	public void write(List<DataPoint> dps) throws IOException {
+	public int write(List<DataPoint> dps) throws IOException {
+		int written = 0;
 		write.lock();
 		try {
 			for (Iterator<DataPoint> itr = dps.iterator(); itr.hasNext();) {
 				DataPoint dp = itr.next();
 				writeDataPoint(dp.getTimestamp(), dp.getLongValue());
+				written++;
 			}
+		} catch (RollOverException e) {
+			// remaining points must be written to a new buffer by the caller
 		} finally {
+			if (written > 0) {
+				commit();
+			}
 			write.unlock();
 		}
+		return written;
 	}
 
 	/**
+	 * Append a point, it's visible to readers once the caller commits
 	 * 
-	 * @param dp
+	 * @param timestamp
+	 * @param value
 	 * @throws IOException
 	 */
 	private void writeDataPoint(long timestamp, long value) throws IOException {
@@ -131,10 +322,79 @@ public class ByzantineWriter implements Writer {
 			throw WRITE_REJECT_EXCEPTION;
 		}
 		checkAndExpandBuffer();
+		if (timestamp < prevTs) {
+			ordered = false;
+		}
 		compressAndWriteTimestamp(buf, timestamp);
 		compressAndWriteValue(buf, value);
+		zoneMap.update(timestamp, value);
 		count++;
 		updateCount();
+		if (count % CHECKPOINT_INTERVAL == 0) {
+			writeTrailer();
+		}
+	}
+
+	/**
+	 * Checkpoint the tail state of the encoder to the trailer of the buffer
+	 */
+	private void writeTrailer() {
+		int position = buf.position();
+		if (dataLimit < startOffset || position > dataLimit || buf.isReadOnly()) {
+			// data already extends into the trailer e.g. exact sized buffers
+			return;
+		}
+		buf.putInt(trailerOffset + 4, count);
+		buf.putInt(trailerOffset + 8, position);
+		buf.putLong(trailerOffset + 12, prevTs);
+		buf.putLong(trailerOffset + 20, tsDelta);
+		buf.putLong(trailerOffset + 28, prevValue);
+		long zoneMapHash = 0;
+		if (zoneMapOffset >= 0) {
+			zoneMap.writeTo(buf, zoneMapOffset);
+			zoneMapHash = zoneMap.hash();
+		}
+		buf.putInt(trailerOffset + 36, trailerChecksum(count, position, prevTs, tsDelta, prevValue, zoneMapHash));
+		buf.putInt(trailerOffset, TRAILER_MAGIC);
+	}
+
+	/**
+	 * @return true if the trailer holds a checkpoint consistent with the
+	 *         header of this buffer
+	 */
+	private boolean isTrailerValid() {
+		if (dataLimit < startOffset + 12 || buf.getInt(trailerOffset) != TRAILER_MAGIC) {
+			return false;
+		}
+		int tCount = buf.getInt(trailerOffset + 4);
+		int position = buf.getInt(trailerOffset + 8);
+		if (tCount < 0 || tCount > buf.getInt(startOffset) || position < startOffset + 12
+				|| position > dataLimit) {
+			return false;
+		}
+		long zoneMapHash = zoneMapOffset >= 0 ? ZoneMap.readFrom(buf, zoneMapOffset, tCount).hash() : 0;
+		return buf.getInt(trailerOffset + 36) == trailerChecksum(tCount, position, buf.getLong(trailerOffset + 12),
+				buf.getLong(trailerOffset + 20), buf.getLong(trailerOffset + 28), zoneMapHash);
+	}
+
+	private int trailerChecksum(int count, int position, long prevTs, long delta, long prevValue,
+			long zoneMapHash) {
+		long hash = getHeaderTimestamp();
+		hash = hash * 31 + count;
+		hash = hash * 31 + position;
+		hash = hash * 31 + prevTs;
+		hash = hash * 31 + delta;
+		hash = hash * 31 + prevValue;
+		hash = hash * 31 + zoneMapHash;
+		return (int) (hash ^ (hash >>> 32)) ^ TRAILER_MAGIC;
+	}
+
+	/**
+	 * Publish count and position of the appended data to readers
+	 */
+	private void commit() {
+		zoneMap.publishTo(publishedZoneMap);
+		committed = ((long) count << 32) | buf.position();
 	}
 
 	private void compressAndWriteValue(ByteBuffer tBuf, long value) {
@@ -158,7 +418,10 @@ public class ByzantineWriter implements Writer {
 	}
 
 	private void checkAndExpandBuffer() throws IOException {
-		if (buf.remaining() < 20 || buf.isReadOnly()) {
+		if (dataLimit - buf.position() < 20 || buf.isReadOnly()) {
+			if (!full) {
+				writeTrailer();
+			}
 			full = true;
 			throw BUF_ROLLOVER_EXCEPTION;
 		}
@@ -194,12 +457,8 @@ public class ByzantineWriter implements Writer {
 	}
 
 	public ByzantineReader getReader() throws IOException {
-		ByzantineReader reader = null;
-		read.lock();
-		ByteBuffer rbuf = buf.duplicate();
-		rbuf.rewind();
-		reader = new ByzantineReader(rbuf, startOffset);
-		read.unlock();
+		ByzantineReader reader = committedReader(committed);
+		reader.setSource(this);
 		return reader;
 	}
 
@@ -208,6 +467,7 @@ public class ByzantineWriter implements Writer {
 		try {
 			write.lock();
 			writeDataPoint(timestamp, value);
+			commit();
 		} finally {
 			write.unlock();
 		}
@@ -215,16 +475,13 @@ public class ByzantineWriter implements Writer {
 
 	@Override
 	public double getCompressionRatio() {
-		double ratio = 0;
-		read.lock();
-		ratio = ((double) count * Long.BYTES * 2) / buf.position();
-		read.unlock();
-		return ratio;
+		long c = committed;
+		return ((double) (c >>> 32) * Long.BYTES * 2) / (int) c;
 	}
 
 	@Override
 	public int getPosition() {
-		return buf.position();
+		return (int) committed;
 	}
 
 	@Override
@@ -232,6 +489,7 @@ public class ByzantineWriter implements Writer {
 		if (prevTs == 0) {
 			prevTs = timestamp;
 			buf.putLong(timestamp);
+			commit();
 		}
 	}
 
@@ -240,13 +498,6 @@ public class ByzantineWriter implements Writer {
 		return buf.getLong(4 + startOffset);
 	}
 
-	/**
-	 * @return the read
-	 */
-	protected Lock getReadLock() {
-		return read;
-	}
-
 	/**
 	 * @return the write
 	 */
@@ -272,7 +523,7 @@ public class ByzantineWriter implements Writer {
 	 * @return the count
 	 */
 	public int getCount() {
-		return count;
+		return (int) (committed >>> 32);
 	}
 
 	/**
@@ -291,45 +542,51 @@ public class ByzantineWriter implements Writer {
 
 	@Override
 	public ByteBuffer getRawBytes() {
-		read.lock();
 		ByteBuffer b = buf.duplicate();
-		read.unlock();
+		b.position((int) committed);
 		return b;
 	}
 
 	@Override
 	public void bootstrap(ByteBuffer buf) throws IOException {
 		write.lock();
-		this.buf.rewind();
-		buf.rewind();
-		if (this.buf.limit() < buf.limit()) {
-			throw BUF_ROLLOVER_EXCEPTION;
+		try {
+			this.buf.rewind();
+			buf.rewind();
+			if (this.buf.limit() < buf.limit()) {
+				throw BUF_ROLLOVER_EXCEPTION;
+			}
+			this.buf.put(buf);
+			this.buf.rewind();
+			forwardCursorToEnd();
+			commit();
+		} finally {
+			write.unlock();
 		}
-		this.buf.put(buf);
-		this.buf.rewind();
-		forwardCursorToEnd();
-		write.unlock();
 	}
 
 	@Override
 	public void setCounter(int count) {
 		this.count = count;
+		commit();
 	}
 
 	@Override
 	public void makeReadOnly() {
 		write.lock();
-		readOnly = true;
-		write.unlock();
+		try {
+			if (!readOnly) {
+				writeTrailer();
+			}
+			readOnly = true;
+		} finally {
+			write.unlock();
+		}
 	}
 
 	@Override
 	public int currentOffset() {
-		int offset = 0;
-		read.lock();
-		offset = buf.position();
-		read.unlock();
-		return offset;
+		return (int) committed;
 	}
 
 	@Override
@@ -367,4 +624,23 @@ public class ByzantineWriter implements Writer {
 		return readOnly;
 	}
 
+	/**
+	 * Summary of at least the committed points, bounds may already include
+	 * points that are being appended
+	 */
+	@Override
+	public ZoneMap getZoneMap() {
+		return ZoneMap.readFrom(publishedZoneMap);
+	}
+
+	/**
+	 * Room for the zone map and the trailer so that the checkpoint can be
+	 * written, buffers under {@link #ZONE_MAP_MIN_BUFFER_SIZE} bytes leave the
+	 * zone map room unused
+	 */
+	@Override
+	public int getRequiredBufferSize(int dataBytes) {
+		return dataBytes + ZoneMap.SERIALIZED_SIZE + TRAILER_SIZE;
+	}
+
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.compression.byzantine;
+
+import java.util.Arrays;
+
+/**
+ * Sparse in-memory index of decoder states of a {@link ByzantineWriter}
+ * buffer, an entry is added every {@link ByzantineWriter#SEEK_INTERVAL}
+ * points so readers can resume decoding close to the start of a time range
+ * instead of from the start of the buffer.
+ * 
+ * Indexes are built lazily by the first reader seeking into a buffer and
+ * extended by later readers once more points were committed, entries are only
+ * appended while holding the index monitor. Readers never lock and only look
+ * at the entries published before the count they read.
+ * 
+ * @author ambud
+ */
+class SeekIndex {
+
+	private static final int ENTRY_SIZE = 5;
+	private volatile long[] entries;
+	private volatile int size;
+
+	public SeekIndex() {
+		entries = new long[ENTRY_SIZE * 8];
+	}
+
+	/**
+	 * Add the decoder state after the supplied number of points
+	 * 
+	 * @param count
+	 * @param position
+	 * @param prevTs
+	 * @param delta
+	 * @param prevValue
+	 */
+	public void add(int count, int position, long prevTs, long delta, long prevValue) {
+		long[] e = entries;
+		int offset = size * ENTRY_SIZE;
+		if (offset + ENTRY_SIZE > e.length) {
+			e = Arrays.copyOf(e, e.length * 2);
+		}
+		e[offset] = count;
+		e[offset + 1] = position;
+		e[offset + 2] = prevTs;
+		e[offset + 3] = delta;
+		e[offset + 4] = prevValue;
+		entries = e;
+		size++;
+	}
+
+	/**
+	 * Seek the supplied reader to the last entry whose timestamp is before the
+	 * supplied timestamp, timestamps must be in order
+	 * 
+	 * @param reader
+	 * @param timestamp
+	 * @return true if the reader was moved
+	 */
+	public boolean seek(ByzantineReader reader, long timestamp) {
+		int s = size;
+		long[] e = entries;
+		// entries of points appended after the reader was created are ignored
+		while (s > 0 && e[(s - 1) * ENTRY_SIZE] > reader.getPairCount()) {
+			s--;
+		}
+		int low = 0;
+		int high = s - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (e[mid * ENTRY_SIZE + 2] < timestamp) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (found < 0) {
+			return false;
+		}
+		int offset = found * ENTRY_SIZE;
+		reader.resume((int) e[offset + 1], (int) e[offset], e[offset + 2], e[offset + 3], e[offset + 4]);
+		return true;
+	}
+
+	/**
+	 * @return number of points covered by the last entry, 0 if empty
+	 */
+	public int getIndexedCount() {
+		int s = size;
+		if (s == 0) {
+			return 0;
+		}
+		return (int) entries[(s - 1) * ENTRY_SIZE];
+	}
+
+	/**
+	 * Resume the supplied reader from the last entry of this index
+	 * 
+	 * @param reader
+	 */
+	public void resumeFromLast(ByzantineReader reader) {
+		int s = size;
+		if (s == 0) {
+			return;
+		}
+		long[] e = entries;
+		int offset = (s - 1) * ENTRY_SIZE;
+		reader.resume((int) e[offset + 1], (int) e[offset], e[offset + 2], e[offset + 3], e[offset + 4]);
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
@@ -40,6 +40,25 @@ public class GorillaDecompressor {
 		return new long[] { storedTimestamp, storedVal };
 	}
 
+    /**
+     * Decode the next pair in place, see {@link #getTimestamp()} and
+     * {@link #getValue()}
+     *
+     * @return false if series is done
+     */
+    public boolean readNext() {
+        next();
+        return !endOfStream;
+    }
+
+    public long getTimestamp() {
+        return storedTimestamp;
+    }
+
+    public long getValue() {
+        return storedVal;
+    }
+
     /**
      * Returns the next pair in the time series, if available.
      *
@@ -21,6 +21,7 @@ import java.security.NoSuchAlgorithmException;
 
 import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.QueryContext;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 
 public class GorillaReader implements Reader {
@@ -46,13 +47,13 @@ public class GorillaReader implements Reader {
 	public DataPoint readPair() throws IOException {
 		if (counter < count) {
 			DataPoint pair = decompressor.readPair();
+			counter++;
 			if (timePredicate != null && !timePredicate.test(pair.getTimestamp())) {
 				return null;
 			}
 			if (valuePredicate != null && !valuePredicate.test(pair.getLongValue())) {
 				return null;
 			}
-			counter++;
 			return pair;
 		} else {
 			throw EOS_EXCEPTION;
@@ -63,6 +64,7 @@ public class GorillaReader implements Reader {
 	public long[] read() throws IOException {
 		if (counter < count) {
 			long[] pair = decompressor.read();
+			counter++;
 			if (timePredicate != null && !timePredicate.test(pair[0])) {
 				return null;
 			}
@@ -75,6 +77,33 @@ public class GorillaReader implements Reader {
 		}
 	}
 
+	@Override
+	public int readBatch(long[] timestamps, long[] values, int max) throws IOException {
+		int n = 0;
+		int decoded = 0;
+		while (n < max && counter < count) {
+			if (!decompressor.readNext()) {
+				counter = count;
+				break;
+			}
+			counter++;
+			decoded++;
+			long ts = decompressor.getTimestamp();
+			long value = decompressor.getValue();
+			if (timePredicate != null && !timePredicate.test(ts)) {
+				continue;
+			}
+			if (valuePredicate != null && !valuePredicate.test(value)) {
+				continue;
+			}
+			timestamps[n] = ts;
+			values[n++] = value;
+		}
+		// filtered points cost the query as much as the returned ones
+		QueryContext.checkCurrent(decoded);
+		return n == 0 && counter >= count ? -1 : n;
+	}
+
 	@Override
 	public int getCounter() {
 		return counter;
@@ -25,6 +25,7 @@ import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.compression.Codec;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.ZoneMap;
 import com.srotya.sidewinder.core.utils.ByteUtils;
 
 @Codec(id = 4, name = "gorilla")
@@ -42,6 +43,9 @@ public class GorillaWriter implements Writer {
 	private int startOffset;
 	private int position;
 	private int checkSumLocaltion;
+	private ZoneMap summary = new ZoneMap();
+	// published once points are readable
+	private volatile ZoneMap zoneMap = new ZoneMap();
 
 	@Override
 	public void configure(Map<String, String> conf, ByteBuffer buf, boolean isNew, int startOffset, boolean isLocking)
@@ -55,6 +59,8 @@ public class GorillaWriter implements Writer {
 			// forward to the end
 			position = buf.getInt();
 			// forwardToEnd();
+			// summary is computed from the buffer when first requested
+			zoneMap = null;
 		} else {
 			buf.putInt(0);
 			buf.putInt(0);
@@ -72,6 +78,7 @@ public class GorillaWriter implements Writer {
 	@Override
 	public void addValue(long timestamp, long value) throws IOException {
 		compressor.addValue(timestamp, value);
+		summary.update(timestamp, value);
 		counter++;
 	}
 
@@ -84,21 +91,23 @@ public class GorillaWriter implements Writer {
 	@Override
 	public void addValue(long timestamp, double value) throws IOException {
 		compressor.addValue(timestamp, value);
+		summary.update(timestamp, Double.doubleToLongBits(value));
 		counter++;
 	}
 
 	@Override
 	public void write(DataPoint dp) throws IOException {
 		compressor.addValue(dp.getTimestamp(), dp.getLongValue());
+		summary.update(dp.getTimestamp(), dp.getLongValue());
 		counter++;
 	}
 
 	@Override
-	public void write(List<DataPoint> dp) throws IOException {
-		for (DataPoint d : dp) {
+	public int write(List<DataPoint> dps) throws IOException {
+		for (DataPoint d : dps) {
 			write(d);
-			counter++;
 		}
+		return dps.size();
 	}
 
 	@Override
@@ -134,6 +143,7 @@ public class GorillaWriter implements Writer {
 		// this writer is always readonly
 		if (compressor != null) {
 			compressor.close();
+			zoneMap = summary.copy();
 			updateCount();
 			// compute md5 and store
 			try {
@@ -216,4 +226,32 @@ public class GorillaWriter implements Writer {
 		return bufferId;
 	}
 
+	/**
+	 * Summary of a reopened buffer is computed by decoding it once, the buffer
+	 * is read-only so it's never invalidated
+	 */
+	@Override
+	public ZoneMap getZoneMap() {
+		ZoneMap zoneMap = this.zoneMap;
+		if (zoneMap == null) {
+			zoneMap = new ZoneMap();
+			try {
+				Reader reader = getReader();
+				long[] timestamps = new long[1024];
+				long[] values = new long[1024];
+				int n;
+				while ((n = reader.readBatch(timestamps, values, timestamps.length)) >= 0) {
+					for (int i = 0; i < n; i++) {
+						zoneMap.update(timestamps[i], values[i]);
+					}
+				}
+			} catch (IOException e) {
+				// don't skip this buffer if it can't be summarized
+				return null;
+			}
+			this.zoneMap = zoneMap;
+		}
+		return zoneMap;
+	}
+
 }
@@ -24,30 +24,56 @@ import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.BufferObject;
 import com.srotya.sidewinder.core.storage.Malloc;
+import com.srotya.sidewinder.core.storage.QueryContext;
 import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.TagDictionary;
+import com.srotya.sidewinder.core.storage.TimeSeries;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
 /**
+ * Allocates buffers from memory mapped data files of a measurement.
+ * 
+ * Every allocation is recorded in the ptr file as a fixed width binary record:
+ * tombstone flag, series id (from the series dictionary), data file id, time
+ * bucket, position in the data file and size. Records can therefore be sliced
+ * in parallel on recovery and garbage collected buffers are removed by
+ * flipping their tombstone flag in place; tombstoned records are dropped when
+ * the ptr file is next loaded. Ptr files in the legacy text line format are
+ * migrated on load.
+ * 
+ * Regions of garbage collected buffers are tracked as free extents and reused
+ * for new buffers of the same size. Extents freed by a cleanup only become
+ * available once the query timeout has passed so that queries still reading
+ * the old buffers aren't handed overwritten data. Data files without any live buffers (other
+ * than the active file) are deleted.
+ * 
  * @author ambud
  */
 public class DiskMalloc implements Malloc {
@@ -55,6 +81,13 @@ public class DiskMalloc implements Malloc {
 	protected static boolean debug = false;
 	private static final int PTR_INCREMENT = 1048576;
 	private static final String SEPARATOR = ")";
+	private static final int PTR_MAGIC = 0xD15C0F7E;
+	private static final int PTR_VERSION = 2;
+	private static final int PTR_COUNT_OFFSET = 8;
+	private static final int PTR_HEADER_SIZE = 16;
+	private static final int PTR_RECORD_SIZE = 32;
+	private static final byte TOMBSTONE = 1;
+	private static final byte[] ZEROS = new byte[4096];
 	private static final Logger logger = Logger.getLogger(DiskMalloc.class.getName());
 	// 100MB default buffer increment size
 	private static final int DEFAULT_FILE_INCREMENT = 1048576;
@@ -64,30 +97,34 @@ public class DiskMalloc implements Malloc {
 	public static final String CONF_MEASUREMENT_FILE_MAX = "malloc.file.max";
 	public static final String CONF_MEASUREMENT_INCREMENT_SIZE = "malloc.buf.increment";
 	public static final String CONF_MEASUREMENT_FILE_INCREMENT = "malloc.file.increment";
+	public static final String CONF_MEASUREMENT_PARTITION_WINDOW = "malloc.partition.window";
 	private ReentrantLock lock;
 	private int ptrFileIncrement;
-	private int itr;
 	private int fileMapIncrement;
 	private int increment;
-	private int curr;
 	private int fcnt;
-	private MappedByteBuffer memoryMappedBuffer;
+	private int partitionWindow;
+	// partition -> data file currently being allocated from
+	private Map<Integer, DataFile> activeFiles = new HashMap<>();
 	private String measurementName;
 	private long maxFileSize;
-	private String filename;
-	private RandomAccessFile rafActiveFile;
 	private String dataDirectory;
-	private long offset;
 	private MappedByteBuffer ptrBuf;
 	private RandomAccessFile rafPtr;
 	private File ptrFile;
-	
+	private TagDictionary seriesDictionary;
 	private volatile int ptrCounter;
 	private boolean enableMetricsCapture;
 	private Counter metricsBufferSize;
 	private Counter metricsBufferResize;
 	private Counter metricsFileRotation;
 	private Counter metricsBufferCounter;
+	private Counter metricsBufferReuse;
+	// buffer size -> free extents as (file id, position)
+	private Map<Integer, ArrayDeque<long[]>> freeExtents = new HashMap<>();
+	// extents freed by a cleanup in the order they can be reused
+	private ArrayDeque<PendingExtent> pendingExtents = new ArrayDeque<>();
+	private long releaseDelay;
 	private Map<String, WeakReference<MappedByteBuffer>> oldBufferReferences;
 
 	@Override
@@ -108,6 +145,16 @@ public class DiskMalloc implements Malloc {
 		if (fileMapIncrement >= maxFileSize) {
 			throw new IllegalArgumentException("File increment can't be greater than or equal to file size");
 		}
+		this.partitionWindow = Integer.parseInt(conf.getOrDefault(CONF_MEASUREMENT_PARTITION_WINDOW, "0"));
+		if (partitionWindow < 0) {
+			throw new IllegalArgumentException("Partition window can't be negative");
+		}
+		// freed extents are reused once queries reading them have timed out
+		this.releaseDelay = Long
+				.parseLong(conf.getOrDefault(QueryContext.QUERY_TIMEOUT, QueryContext.DEFAULT_QUERY_TIMEOUT));
+		if (releaseDelay <= 0) {
+			releaseDelay = Long.parseLong(QueryContext.DEFAULT_QUERY_TIMEOUT);
+		}
 		this.ptrFile = new File(getPtrPath());
 		this.ptrFileIncrement = Integer
 				.parseInt(conf.getOrDefault(CONF_MALLOC_PTRFILE_INCREMENT, String.valueOf(PTR_INCREMENT)));
@@ -119,6 +166,7 @@ public class DiskMalloc implements Malloc {
 			metricsBufferResize = r.counter("buffer-resize");
 			metricsFileRotation = r.counter("file-rotation");
 			metricsBufferCounter = r.counter("buffer-counter");
+			metricsBufferReuse = r.counter("buffer-reuse");
 		}
 		if (debug) {
 			oldBufferReferences = new ConcurrentHashMap<>();
@@ -133,56 +181,52 @@ public class DiskMalloc implements Malloc {
 	@Override
 	public BufferObject createNewBuffer(String seriesId, String tsBucket, int newSize) throws IOException {
 		logger.fine("Seriesid:" + seriesId + " requesting buffer of size:" + newSize);
-		if (rafActiveFile == null) {
-			lock.lock();
-			if (rafActiveFile == null) {
-				filename = dataDirectory + "/data-" + String.format("%012d", fcnt) + ".dat";
-				rafActiveFile = new RandomAccessFile(filename, "rwd");
-				offset = 0;
-				logger.info("Creating new datafile for measurement:" + filename);
-				memoryMappedBuffer = rafActiveFile.getChannel().map(MapMode.READ_WRITE, 0, fileMapIncrement);
-				fcnt++;
-				if (enableMetricsCapture) {
-					metricsFileRotation.inc();
-				}
+		int partition = partitionOf(TimeSeries.stringToBucket(tsBucket));
+		if (partitionWindow == 0) {
+			// extents aren't reused across time partitions, partitions are freed as a whole
+			BufferObject reused = allocateFromFreeExtent(seriesId, tsBucket, newSize);
+			if (reused != null) {
+				return reused;
 			}
-			lock.unlock();
 		}
 		lock.lock();
 		try {
-			if (curr + newSize < 0 || curr + newSize > memoryMappedBuffer.remaining() + 1) {
-				curr = 0;
-				itr++;
-				offset = (((long) (fileMapIncrement)) * itr);
+			DataFile file = activeFiles.get(partition);
+			if (file == null) {
+				file = newDataFile(partition);
+			}
+			if (file.curr + newSize < 0 || file.curr + newSize > file.map.remaining() + 1) {
+				file.curr = 0;
+				file.itr++;
+				file.offset = (((long) (fileMapIncrement)) * file.itr);
 				// close the current data file, increment the filename by 1 so
 				// that
 				// a new data file will be created next time a buffer is
 				// requested
-				if (offset >= maxFileSize) {
-					itr = 0;
+				if (file.offset >= maxFileSize) {
 					logger.info("Rotating datafile for measurement:" + measurementName + " closing active file:"
-							+ filename);
-					rafActiveFile.close();
-					rafActiveFile = null;
-					return createNewBuffer(seriesId, tsBucket, newSize);
-				}
-				// used for GC testing and debugging
-				if (oldBufferReferences != null) {
-					oldBufferReferences.put(filename, new WeakReference<MappedByteBuffer>(memoryMappedBuffer));
-				}
-				memoryMappedBuffer = rafActiveFile.getChannel().map(MapMode.READ_WRITE, offset, fileMapIncrement);
-				logger.fine("Buffer expansion:" + offset + "\t\t" + curr);
-				if (enableMetricsCapture) {
-					metricsBufferResize.inc();
-					metricsBufferSize.inc(fileMapIncrement);
+							+ file.filename);
+					file.raf.close();
+					file = newDataFile(partition);
+				} else {
+					// used for GC testing and debugging
+					if (oldBufferReferences != null) {
+						oldBufferReferences.put(file.filename, new WeakReference<MappedByteBuffer>(file.map));
+					}
+					file.map = file.raf.getChannel().map(MapMode.READ_WRITE, file.offset, fileMapIncrement);
+					logger.fine("Buffer expansion:" + file.offset + "\t\t" + file.curr);
+					if (enableMetricsCapture) {
+						metricsBufferResize.inc();
+						metricsBufferSize.inc(fileMapIncrement);
+					}
 				}
 			}
-			String ptrKey = appendBufferPointersToDisk(seriesId, filename, curr, offset, newSize);
-			MiscUtils.writeStringToBuffer(tsBucket, memoryMappedBuffer);
-			ByteBuffer buf = memoryMappedBuffer.slice();
+			String ptrKey = appendBufferPointersToDisk(seriesId, tsBucket, file.fileId, file.offset + file.curr,
+					newSize);
+			ByteBuffer buf = file.map.slice();
 			buf.limit(newSize);
-			curr = curr + newSize;
-			memoryMappedBuffer.position(curr);
+			file.curr = file.curr + newSize;
+			file.map.position(file.curr);
 			logger.fine("Position:" + buf.position() + "\t" + buf.limit() + "\t" + buf.capacity());
 			if (enableMetricsCapture) {
 				metricsBufferCounter.inc();
@@ -191,7 +235,181 @@ public class DiskMalloc implements Malloc {
 		} finally {
 			lock.unlock();
 		}
+	}
+
+	@Override
+	public int getBufferSize() {
+		return increment;
+	}
+
+	@Override
+	public int getMaxBufferSize() {
+		// a buffer must fit in a single mapped window of the data file
+		return fileMapIncrement;
+	}
+
+	private DataFile newDataFile(int partition) throws IOException {
+		DataFile file = new DataFile();
+		file.fileId = fcnt++;
+		file.filename = dataDirectory + "/" + dataFileName(file.fileId);
+		file.raf = new RandomAccessFile(file.filename, "rwd");
+		logger.info("Creating new datafile for measurement:" + file.filename + " partition:" + partition);
+		file.map = file.raf.getChannel().map(MapMode.READ_WRITE, 0, fileMapIncrement);
+		if (enableMetricsCapture) {
+			metricsFileRotation.inc();
+		}
+		activeFiles.put(partition, file);
+		return file;
+	}
+
+	/**
+	 * @param tsBucket
+	 * @return start of the time partition of the supplied bucket, all buckets
+	 *         share one partition if buffers aren't time partitioned
+	 */
+	private int partitionOf(int tsBucket) {
+		if (partitionWindow == 0) {
+			return 0;
+		}
+		return Math.floorDiv(tsBucket, partitionWindow) * partitionWindow;
+	}
 
+	@Override
+	public int getPartitionWindow() {
+		return partitionWindow;
+	}
+
+	/**
+	 * Drop buffers of all time partitions that end at or before the supplied
+	 * bucket, data files that only contain such buffers are deleted
+	 * 
+	 * @param tsBucket
+	 * @throws IOException
+	 */
+	@Override
+	public void dropPartitionsBefore(int tsBucket) throws IOException {
+		if (partitionWindow == 0) {
+			return;
+		}
+		lock.lock();
+		try {
+			Set<Integer> expiredFiles = new HashSet<>();
+			Set<Integer> liveFiles = new HashSet<>();
+			int dropped = 0;
+			for (int i = 0; i < ptrCounter; i++) {
+				int record = recordOffset(i);
+				if (ptrBuf.get(record) == TOMBSTONE) {
+					continue;
+				}
+				int fileId = ptrBuf.getInt(record + 8);
+				if ((long) partitionOf(ptrBuf.getInt(record + 12)) + partitionWindow <= tsBucket) {
+					ptrBuf.put(record, TOMBSTONE);
+					expiredFiles.add(fileId);
+					dropped++;
+					if (enableMetricsCapture) {
+						metricsBufferCounter.dec();
+					}
+				} else {
+					liveFiles.add(fileId);
+				}
+			}
+			for (Iterator<Entry<Integer, DataFile>> itr = activeFiles.entrySet().iterator(); itr.hasNext();) {
+				Entry<Integer, DataFile> entry = itr.next();
+				if ((long) entry.getKey() + partitionWindow <= tsBucket) {
+					entry.getValue().raf.close();
+					expiredFiles.add(entry.getValue().fileId);
+					itr.remove();
+				} else {
+					liveFiles.add(entry.getValue().fileId);
+				}
+			}
+			// files written before partitioning was enabled may mix partitions
+			expiredFiles.removeAll(liveFiles);
+			for (Integer fileId : expiredFiles) {
+				File file = new File(dataDirectory + "/" + dataFileName(fileId));
+				logger.info("GC: Deleting expired partition data file:" + file.getName());
+				if (file.delete() && enableMetricsCapture) {
+					metricsFileRotation.dec();
+				}
+			}
+			logger.info("GC: Dropped " + dropped + " buffers and " + expiredFiles.size()
+					+ " data files of partitions before:" + tsBucket + " for measurement:" + measurementName);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private BufferObject allocateFromFreeExtent(String seriesId, String tsBucket, int size) throws IOException {
+		lock.lock();
+		try {
+			releaseExpiredExtents();
+			ArrayDeque<long[]> extents = freeExtents.get(size);
+			while (extents != null && !extents.isEmpty()) {
+				long[] extent = extents.poll();
+				File file = new File(dataDirectory + "/" + dataFileName((int) extent[0]));
+				if (!file.exists()) {
+					continue;
+				}
+				MappedByteBuffer buf;
+				try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					buf = raf.getChannel().map(MapMode.READ_WRITE, extent[1], size);
+				}
+				// stale data of the previous buffer must not be mistaken for valid data
+				for (int i = 0; i < size; i += ZEROS.length) {
+					buf.put(ZEROS, 0, Math.min(ZEROS.length, size - i));
+				}
+				buf.rewind();
+				String ptrKey = appendBufferPointersToDisk(seriesId, tsBucket, (int) extent[0], extent[1], size);
+				logger.fine("Reusing free extent of:" + file.getName() + " position:" + extent[1] + " size:" + size);
+				if (enableMetricsCapture) {
+					metricsBufferCounter.inc();
+					metricsBufferReuse.inc();
+				}
+				return new BufferObject(ptrKey, buf);
+			}
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param record
+	 * @return region of the buffer of this record as (file id, position, size)
+	 */
+	private long[] extentOf(int record) {
+		return new long[] { ptrBuf.getInt(record + 8), ptrBuf.getLong(record + 16), ptrBuf.getInt(record + 24) };
+	}
+
+	/**
+	 * @param fileId
+	 * @param position
+	 * @return key identifying the region starting at the supplied position of a
+	 *         data file, data files are smaller than 2GB
+	 */
+	private static long extentKey(int fileId, long position) {
+		return ((long) fileId << 32) | position;
+	}
+
+	/**
+	 * Move extents whose quarantine has passed to the free lists
+	 */
+	private void releaseExpiredExtents() {
+		long now = System.nanoTime();
+		PendingExtent next;
+		while ((next = pendingExtents.peek()) != null && now - next.deadline >= 0) {
+			pendingExtents.poll();
+			addFreeExtent(next.extent);
+		}
+	}
+
+	private void addFreeExtent(long[] extent) {
+		ArrayDeque<long[]> deque = freeExtents.get((int) extent[2]);
+		if (deque == null) {
+			deque = new ArrayDeque<>();
+			freeExtents.put((int) extent[2], deque);
+		}
+		deque.add(extent);
 	}
 
 	@Override
@@ -238,72 +456,222 @@ public class DiskMalloc implements Malloc {
 	private void sliceMappedBuffersForBuckets(Map<String, MappedByteBuffer> bufferMap,
 			Map<String, List<Entry<String, BufferObject>>> seriesBuffers) throws IOException {
 		ptrCounter = 0;
-		initializePtrFile();
-		for (int i = 0; i < ptrCounter; i++) {
-			String line = MiscUtils.getStringFromBuffer(ptrBuf);
-			String[] splits = line.split("\\" + SEPARATOR);
-			logger.finer("reading line:" + Arrays.toString(splits));
-			String fileName = splits[1];
-			int positionOffset = Integer.parseInt(splits[3]);
-			String seriesId = splits[0];
-			int pointer = Integer.parseInt(splits[2]);
-			int size = Integer.parseInt(splits[4]);
+		initializePtrFile(bufferMap);
+		int count = ptrCounter;
+		ByteBuffer records = ptrBuf.duplicate();
+		String[] seriesIds = new String[count];
+		BufferObject[] buffers = new BufferObject[count];
+		// records are fixed width therefore can be sliced independently
+		IntStream.range(0, count).parallel().forEach(i -> {
+			int record = recordOffset(i);
+			String fileName = dataFileName(records.getInt(record + 8));
 			MappedByteBuffer buf = bufferMap.get(fileName);
-			int position = positionOffset + pointer;
-			buf.position(position);
-			String tsBucket = MiscUtils.getStringFromBuffer(buf);
-			ByteBuffer slice = buf.slice();
-			slice.limit(size);
-			List<Entry<String, BufferObject>> list = seriesBuffers.get(seriesId);
+			if (buf == null) {
+				logger.severe("Missing data file:" + fileName + " for buffer:" + i + " measurement:" + measurementName);
+				return;
+			}
+			ByteBuffer slice = buf.duplicate();
+			slice.position((int) records.getLong(record + 16));
+			slice = slice.slice();
+			slice.limit(records.getInt(record + 24));
+			seriesIds[i] = seriesDictionary.getValue(records.getInt(record + 4));
+			buffers[i] = new BufferObject(String.valueOf(i), slice);
+		});
+		for (int i = 0; i < count; i++) {
+			if (buffers[i] == null) {
+				continue;
+			}
+			List<Entry<String, BufferObject>> list = seriesBuffers.get(seriesIds[i]);
 			if (list == null) {
 				list = new ArrayList<>();
-				seriesBuffers.put(seriesId, list);
+				seriesBuffers.put(seriesIds[i], list);
 			}
-			list.add(new AbstractMap.SimpleEntry<>(tsBucket, new BufferObject(line, slice)));
+			String tsBucket = TimeSeries.bucketToString(records.getInt(recordOffset(i) + 12));
+			list.add(new AbstractMap.SimpleEntry<>(tsBucket, buffers[i]));
 		}
 	}
 
-	private void initializePtrFile() throws FileNotFoundException, IOException {
+	private void initializePtrFile(Map<String, MappedByteBuffer> bufferMap) throws FileNotFoundException, IOException {
+		seriesDictionary = new TagDictionary(new File(getSeriesDictionaryPath()));
 		if (ptrFile.exists()) {
 			rafPtr = new RandomAccessFile(ptrFile, "rwd");
 			ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, ptrFile.length());
-			ptrCounter = ptrBuf.getInt();
+			if (ptrFile.length() < PTR_HEADER_SIZE || ptrBuf.getInt(0) != PTR_MAGIC) {
+				migrateLegacyPtrFile(bufferMap);
+			} else if (ptrBuf.getInt(4) != PTR_VERSION) {
+				throw new IOException("Unsupported ptr file version:" + ptrBuf.getInt(4) + " for measurement:"
+						+ measurementName);
+			}
+			ptrCounter = ptrBuf.getInt(PTR_COUNT_OFFSET);
 			logger.fine(
 					"Ptr file exists, will load " + ptrCounter + " series entries, file length:" + ptrFile.length());
+			removeTombstones(bufferMap);
 		} else {
 			rafPtr = new RandomAccessFile(ptrFile, "rwd");
-			ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, ptrFileIncrement);
-			ptrBuf.putInt(ptrCounter);
+			ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0,
+					Math.max(ptrFileIncrement, PTR_HEADER_SIZE + PTR_RECORD_SIZE));
+			ptrBuf.putInt(0, PTR_MAGIC);
+			ptrBuf.putInt(4, PTR_VERSION);
+			ptrBuf.putInt(PTR_COUNT_OFFSET, ptrCounter);
 			logger.info("Ptr file is missing, creating one");
 		}
 	}
 
-	protected String appendBufferPointersToDisk(String seriesId, String filename, int curr, long offset, int size)
+	/**
+	 * Convert a ptr file of text lines (seriesId)file)pointer)offset)size) to
+	 * binary records, the time bucket of the legacy format is stored in the data
+	 * file in front of each buffer
+	 * 
+	 * @param bufferMap
+	 * @throws IOException
+	 */
+	private void migrateLegacyPtrFile(Map<String, MappedByteBuffer> bufferMap) throws IOException {
+		int legacyCount = ptrBuf.getInt(0);
+		logger.info("Migrating ptr file with " + legacyCount + " entries to binary format for measurement:"
+				+ measurementName);
+		ByteBuffer records = ByteBuffer.allocate(PTR_HEADER_SIZE + legacyCount * PTR_RECORD_SIZE);
+		ByteBuffer legacy = ptrBuf.duplicate();
+		legacy.position(Integer.BYTES);
+		int count = 0;
+		for (int i = 0; i < legacyCount; i++) {
+			String line = MiscUtils.getStringFromBuffer(legacy);
+			String[] splits = line.split("\\" + SEPARATOR);
+			MappedByteBuffer buf = bufferMap.get(splits[1]);
+			if (buf == null) {
+				logger.severe("Dropping buffer of missing data file:" + line + " measurement:" + measurementName);
+				continue;
+			}
+			ByteBuffer header = buf.duplicate();
+			header.position(Integer.parseInt(splits[3]) + Integer.parseInt(splits[2]));
+			String tsBucket = MiscUtils.getStringFromBuffer(header);
+			putRecord(records, count++, seriesDictionary.getOrAssign(splits[0]), dataFileId(splits[1]),
+					TimeSeries.stringToBucket(tsBucket), header.position(), Integer.parseInt(splits[4]));
+		}
+		rewritePtrFile(records, count);
+	}
+
+	/**
+	 * Drop tombstoned records from the ptr file
+	 * 
+	 * @throws IOException
+	 */
+	private void removeTombstones(Map<String, MappedByteBuffer> bufferMap) throws IOException {
+		int live = 0;
+		Set<Long> liveExtents = new HashSet<>();
+		for (int i = 0; i < ptrCounter; i++) {
+			int record = recordOffset(i);
+			if (ptrBuf.get(record) != TOMBSTONE) {
+				live++;
+				liveExtents.add(extentKey(ptrBuf.getInt(record + 8), ptrBuf.getLong(record + 16)));
+			}
+		}
+		if (live == ptrCounter) {
+			return;
+		}
+		// nothing can be reading tombstoned buffers after a restart, however an
+		// extent that was reused is owned by a live record and the data file of
+		// a tombstone may have been deleted, its id is reused by new data files
+		Set<Long> freed = new HashSet<>();
+		for (int i = 0; i < ptrCounter; i++) {
+			int record = recordOffset(i);
+			if (ptrBuf.get(record) == TOMBSTONE) {
+				int fileId = ptrBuf.getInt(record + 8);
+				Long key = extentKey(fileId, ptrBuf.getLong(record + 16));
+				if (bufferMap.containsKey(dataFileName(fileId)) && !liveExtents.contains(key) && freed.add(key)) {
+					addFreeExtent(extentOf(record));
+				}
+			}
+		}
+		ByteBuffer records = ByteBuffer.allocate(PTR_HEADER_SIZE + live * PTR_RECORD_SIZE);
+		int count = 0;
+		for (int i = 0; i < ptrCounter; i++) {
+			int record = recordOffset(i);
+			if (ptrBuf.get(record) != TOMBSTONE) {
+				ByteBuffer src = ptrBuf.duplicate();
+				src.position(record);
+				src.limit(record + PTR_RECORD_SIZE);
+				records.position(recordOffset(count++));
+				records.put(src);
+			}
+		}
+		logger.info("Removed " + (ptrCounter - live) + " tombstones from ptr file for measurement:"
+				+ measurementName);
+		rewritePtrFile(records, count);
+	}
+
+	/**
+	 * Atomically replace the ptr file with the supplied records
+	 * 
+	 * @param records
+	 * @param count
+	 * @throws IOException
+	 */
+	private void rewritePtrFile(ByteBuffer records, int count) throws IOException {
+		records.putInt(0, PTR_MAGIC);
+		records.putInt(4, PTR_VERSION);
+		records.putInt(PTR_COUNT_OFFSET, count);
+		records.position(0);
+		records.limit(recordOffset(count));
+		File tmp = new File(getPtrPath() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			raf.setLength(0);
+			while (records.hasRemaining()) {
+				raf.getChannel().write(records);
+			}
+			raf.getChannel().force(true);
+		}
+		rafPtr.close();
+		Files.move(tmp.toPath(), ptrFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		rafPtr = new RandomAccessFile(ptrFile, "rwd");
+		ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, recordOffset(count) + ptrFileIncrement);
+		ptrCounter = count;
+	}
+
+	private static void putRecord(ByteBuffer buf, int index, int seriesIdx, int fileId, int tsBucket, long position,
+			int size) {
+		int record = recordOffset(index);
+		buf.put(record, (byte) 0);
+		buf.putInt(record + 4, seriesIdx);
+		buf.putInt(record + 8, fileId);
+		buf.putInt(record + 12, tsBucket);
+		buf.putLong(record + 16, position);
+		buf.putInt(record + 24, size);
+	}
+
+	private static int recordOffset(int index) {
+		return PTR_HEADER_SIZE + index * PTR_RECORD_SIZE;
+	}
+
+	private static String dataFileName(int fileId) {
+		return "data-" + String.format("%012d", fileId) + ".dat";
+	}
+
+	private static int dataFileId(String fileName) {
+		return Integer.parseInt(fileName.replace("data-", "").replace(".dat", ""));
+	}
+
+	protected String appendBufferPointersToDisk(String seriesId, String tsBucket, int fileId, long position, int size)
 			throws IOException {
 		lock.lock();
 		try {
-			String[] split = filename.split("/");
-			String line = seriesId + SEPARATOR + split[split.length - 1] + SEPARATOR + curr + SEPARATOR + offset
-					+ SEPARATOR + size;
-			logger.fine("Measurement(" + measurementName + ")Appending pointer information to ptr file:" + line);
+			int seriesIdx = seriesDictionary.getOrAssign(seriesId);
+			int record = recordOffset(ptrCounter);
 			// resize
-			byte[] bytes = line.getBytes();
-			if (ptrBuf.remaining() < bytes.length + Short.BYTES) {
-				logger.fine("Need to resize ptrbuf because ptrBufRem:" + ptrBuf.remaining() + " line:" + bytes.length);
-				int pos = ptrBuf.position();
-				int newSize = pos + ptrFileIncrement;
+			if (ptrBuf.capacity() < record + PTR_RECORD_SIZE) {
+				int newSize = record + Math.max(ptrFileIncrement, PTR_RECORD_SIZE);
+				logger.fine("Need to resize ptrbuf because ptrBufCapacity:" + ptrBuf.capacity());
 				ptrBuf.force();
 				ptrBuf = rafPtr.getChannel().map(MapMode.READ_WRITE, 0, newSize);
-				// BUGFIX: missing pointer reset caused PTR file corruption
-				ptrBuf.position(pos);
-				logger.info("Resizing ptr file:" + ptrBuf.getInt(0) + " ptrcount:" + ptrCounter + " inc:"
-						+ ptrFileIncrement + " position:" + pos);
+				logger.info("Resizing ptr file:" + ptrBuf.getInt(PTR_COUNT_OFFSET) + " ptrcount:" + ptrCounter
+						+ " inc:" + ptrFileIncrement + " size:" + newSize);
 			}
-			MiscUtils.writeStringToBuffer(line, ptrBuf);
-			ptrBuf.putInt(0, ++ptrCounter);
-			logger.fine("Measurement(" + measurementName + ")Appending pointer information to ptr file:" + line
-					+ " pos:" + ptrBuf.position());
-			return line;
+			putRecord(ptrBuf, ptrCounter, seriesIdx, fileId, TimeSeries.stringToBucket(tsBucket), position, size);
+			// count is updated after the record so that a partial record is never read
+			ptrBuf.putInt(PTR_COUNT_OFFSET, ++ptrCounter);
+			logger.fine("Measurement(" + measurementName + ")Appended pointer information to ptr file:" + seriesId
+					+ " file:" + fileId + " position:" + position + " size:" + size);
+			return String.valueOf(ptrCounter - 1);
 		} finally {
 			lock.unlock();
 		}
@@ -312,14 +680,13 @@ public class DiskMalloc implements Malloc {
 	public void close() throws IOException {
 		lock.lock();
 		try {
-			if (memoryMappedBuffer != null) {
-				memoryMappedBuffer.force();
-			}
-			if (rafActiveFile != null) {
-				rafActiveFile.close();
+			for (DataFile file : activeFiles.values()) {
+				file.map.force();
+				file.raf.close();
 			}
 			ptrBuf.force();
 			rafPtr.close();
+			seriesDictionary.close();
 			logger.info("Closing measurement:" + measurementName);
 		} finally {
 			lock.unlock();
@@ -330,66 +697,58 @@ public class DiskMalloc implements Malloc {
 	public void cleanupBufferIds(Set<String> cleanupList) throws IOException {
 		lock.lock();
 		try {
+			releaseExpiredExtents();
 			if (cleanupList.isEmpty()) {
 				return;
 			}
-			Map<String, Integer> fileSet = new HashMap<>();
-			ByteBuffer duplicate = ptrBuf.duplicate();
-			duplicate.rewind();
-			ByteBuffer temp = ByteBuffer.allocate(duplicate.capacity());
-			temp.putInt(0);
-			int tmpCounter = 0;
-			duplicate.getInt();
-			for (int i = 0; i < ptrCounter; i++) {
-				String line = MiscUtils.getStringFromBuffer(duplicate);
-				if (line.isEmpty()) {
-					throw new IOException("Empty line in ptrbuffer, ptr buffer is likely corrupt");
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(releaseDelay);
+			for (String bufferId : cleanupList) {
+				int index = -1;
+				try {
+					index = Integer.parseInt(bufferId);
+				} catch (NumberFormatException e) {
 				}
-				if (!cleanupList.contains(line)) {
-					MiscUtils.writeStringToBuffer(line, temp);
-					try {
-						String filename = line.split("\\" + SEPARATOR)[1];
-						Integer count = fileSet.get(filename);
-						if (count == null) {
-							count = 0;
-						}
-						count = count + 1;
-						fileSet.put(filename, count);
-					} catch (ArrayIndexOutOfBoundsException e) {
-						logger.severe("AOBException for buffer-cleanup:" + line + "=" + i + "=" + ptrCounter);
-						throw e;
-					}
-					tmpCounter++;
-					logger.fine("Rewriting line:" + line + " to ptr file for measurement:" + measurementName);
-				} else {
-					logger.fine("Removing line:" + line + " from ptr file due to garbage collection for measurement:"
+				if (index < 0 || index >= ptrCounter) {
+					logger.warning("Invalid buffer id:" + bufferId + " for measurement:" + measurementName);
+					continue;
+				}
+				int record = recordOffset(index);
+				if (ptrBuf.get(record) != TOMBSTONE) {
+					ptrBuf.put(record, TOMBSTONE);
+					pendingExtents.add(new PendingExtent(deadline, extentOf(record)));
+					logger.fine("Tombstoned buffer:" + bufferId + " due to garbage collection for measurement:"
 							+ measurementName);
 					if (enableMetricsCapture) {
 						metricsBufferCounter.dec();
 					}
 				}
 			}
-			// rewrite buffers
-
-			// BUGFIX: without the buffer marker; the position was moved to the end of the
-			// buffer causing buffer to contain empty lines which errored out since this
-			// file is suppose to contain sequential binary data
-			int mark = temp.position();
-			temp.putInt(0, tmpCounter);
-			ptrBuf.rewind();
-			temp.rewind();
-			temp.limit(mark);
-			ptrBuf.put(temp);
-			logger.fine("Swapped ptr buffers: " + "Counter:" + tmpCounter + " total:" + ptrBuf.getInt(0) + " before:"
-					+ ptrCounter + " pos:" + ptrBuf.position());
-			ptrCounter = tmpCounter;
-
+			Map<String, Integer> fileSet = new HashMap<>();
+			for (int i = 0; i < ptrCounter; i++) {
+				int record = recordOffset(i);
+				if (ptrBuf.get(record) != TOMBSTONE) {
+					String filename = dataFileName(ptrBuf.getInt(record + 8));
+					Integer count = fileSet.get(filename);
+					if (count == null) {
+						count = 0;
+					}
+					fileSet.put(filename, count + 1);
+				}
+			}
 			for (Entry<String, Integer> entry : fileSet.entrySet()) {
 				logger.info("file stats:" + entry.getKey() + " bufs:" + entry.getValue());
 			}
 
+			// the active file is still being allocated from even if it has no live buffers
+			for (DataFile file : activeFiles.values()) {
+				fileSet.putIfAbsent(dataFileName(file.fileId), 0);
+			}
 			// check and delete data files
 			deleteFilesExcept(fileSet.keySet());
+			for (ArrayDeque<long[]> deque : freeExtents.values()) {
+				deque.removeIf(extent -> !fileSet.containsKey(dataFileName((int) extent[0])));
+			}
+			pendingExtents.removeIf(pending -> !fileSet.containsKey(dataFileName((int) pending.extent[0])));
 		} finally {
 			lock.unlock();
 		}
@@ -426,7 +785,42 @@ public class DiskMalloc implements Malloc {
 		return dataDirectory + "/.ptr";
 	}
 
+	private String getSeriesDictionaryPath() {
+		return dataDirectory + "/.series";
+	}
+
 	public Map<String, WeakReference<MappedByteBuffer>> getOldBufferReferences() {
 		return oldBufferReferences;
 	}
+
+	/**
+	 * Data file currently being allocated from
+	 */
+	private static final class DataFile {
+
+		private int fileId;
+		private String filename;
+		private RandomAccessFile raf;
+		private MappedByteBuffer map;
+		private long offset;
+		private int itr;
+		private int curr;
+
+	}
+
+	/**
+	 * Extent of a garbage collected buffer that running queries may still be
+	 * reading
+	 */
+	private static final class PendingExtent {
+
+		private final long deadline;
+		private final long[] extent;
+
+		private PendingExtent(long deadline, long[] extent) {
+			this.deadline = deadline;
+			this.extent = extent;
+		}
+
+	}
 }
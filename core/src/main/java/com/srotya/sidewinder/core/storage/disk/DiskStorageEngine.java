@@ -37,9 +37,13 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.gson.Gson;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.Archiver;
+import com.srotya.sidewinder.core.storage.BucketCache;
+import com.srotya.sidewinder.core.storage.CompactionScheduler;
 import com.srotya.sidewinder.core.storage.DBMetadata;
 import com.srotya.sidewinder.core.storage.Measurement;
+import com.srotya.sidewinder.core.storage.QueryExecutor;
 import com.srotya.sidewinder.core.storage.SeriesFieldMap;
+import com.srotya.sidewinder.core.storage.SeriesHandles;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.TimeSeries;
 import com.srotya.sidewinder.core.storage.archival.NoneArchiver;
@@ -66,14 +70,22 @@ public class DiskStorageEngine implements StorageEngine {
 	private String[] dataDirs;
 	private String baseIndexDirectory;
 	private ScheduledExecutorService bgTaskPool;
+	private CompactionScheduler compactionScheduler;
 	private Counter metricsDbCounter;
 	private Counter metricsMeasurementCounter;
 	private Counter metricsWriteCounter;
+	private SeriesHandles seriesHandles;
+	private BucketCache bucketCache;
+	private QueryExecutor queryExecutor;
 
 	@Override
 	public void configure(Map<String, String> conf, ScheduledExecutorService bgTaskPool) throws IOException {
 		this.conf = conf;
 		this.bgTaskPool = bgTaskPool;
+		this.seriesHandles = new SeriesHandles();
+		this.bucketCache = BucketCache.create(conf);
+		this.queryExecutor = new QueryExecutor(conf,
+				MetricsRegistryService.getInstance(this, bgTaskPool).getInstance("query"));
 		this.defaultRetentionHours = Integer
 				.parseInt(conf.getOrDefault(RETENTION_HOURS, String.valueOf(DEFAULT_RETENTION_HOURS)));
 		logger.info("Setting default timeseries retention hours policy to:" + defaultRetentionHours);
@@ -120,12 +132,13 @@ public class DiskStorageEngine implements StorageEngine {
 			}
 			if (Boolean.parseBoolean(conf.getOrDefault(StorageEngine.COMPACTION_ENABLED, "false"))) {
 				logger.info("Compaction is enabled");
+				compactionScheduler = new CompactionScheduler(conf);
 				bgTaskPool.scheduleAtFixedRate(() -> {
 					for (Entry<String, Map<String, Measurement>> measurementMap : databaseMap.entrySet()) {
 						for (Entry<String, Measurement> measurementEntry : measurementMap.getValue().entrySet()) {
 							Measurement value = measurementEntry.getValue();
 							try {
-								value.compact();
+								compactionScheduler.compact(value);
 							} catch (Exception e) {
 								logger.log(Level.SEVERE,
 										"Failed compaction for measurement:" + value.getMeasurementName(), e);
@@ -411,6 +424,10 @@ public class DiskStorageEngine implements StorageEngine {
 		synchronized (databaseMap) {
 			Map<String, Measurement> remove = databaseMap.remove(dbName);
 			for (Measurement measurement : remove.values()) {
+				seriesHandles.invalidate(measurement.getTimeSeries());
+				if (bucketCache != null) {
+					bucketCache.invalidate(measurement.getTimeSeries());
+				}
 				measurement.close();
 			}
 			boolean result = MiscUtils.delete(new File(dbDirectoryPath(dbName)));
@@ -430,7 +447,13 @@ public class DiskStorageEngine implements StorageEngine {
 	public void dropMeasurement(String dbName, String measurementName) throws Exception {
 		Map<String, Measurement> map = databaseMap.get(dbName);
 		synchronized (databaseMap) {
-			map.remove(measurementName);
+			Measurement remove = map.remove(measurementName);
+			if (remove != null) {
+				seriesHandles.invalidate(remove.getTimeSeries());
+				if (bucketCache != null) {
+					bucketCache.invalidate(remove.getTimeSeries());
+				}
+			}
 			metricsMeasurementCounter.dec();
 		}
 	}
@@ -448,6 +471,10 @@ public class DiskStorageEngine implements StorageEngine {
 				}
 			}
 		}
+		if (compactionScheduler != null) {
+			compactionScheduler.close();
+		}
+		queryExecutor.close();
 		System.gc();
 	}
 
@@ -476,6 +503,21 @@ public class DiskStorageEngine implements StorageEngine {
 		return metricsWriteCounter;
 	}
 
+	@Override
+	public SeriesHandles getSeriesHandles() {
+		return seriesHandles;
+	}
+
+	@Override
+	public BucketCache getBucketCache() {
+		return bucketCache;
+	}
+
+	@Override
+	public QueryExecutor getQueryExecutor() {
+		return queryExecutor;
+	}
+
 	@Override
 	public Logger getLogger() {
 		return logger;
@@ -42,6 +42,7 @@ import com.srotya.sidewinder.core.filters.SimpleTagFilter;
 import com.srotya.sidewinder.core.filters.TagFilter;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.SeriesFieldMap;
+import com.srotya.sidewinder.core.storage.TagDictionary;
 import com.srotya.sidewinder.core.storage.TagIndex;
 
 /**
@@ -61,6 +62,7 @@ public class MappedBitmapTagIndex implements TagIndex {
 	private RandomAccessFile revRaf;
 	private MappedByteBuffer rev;
 	private PersistentMeasurement measurement;
+	private TagDictionary dictionary;
 
 	public MappedBitmapTagIndex(String indexDir, String measurementName, PersistentMeasurement measurement)
 			throws IOException {
@@ -78,6 +80,14 @@ public class MappedBitmapTagIndex implements TagIndex {
 	}
 
 	protected void loadTagIndex() throws IOException {
+		File dictionaryFile = new File(indexPath + ".dict");
+		if (revIndex.exists() && !dictionaryFile.exists()) {
+			// index created before tag dictionaries, keep string encoded series keys
+			logger.info("Tag dictionary is missing for existing index; using string series keys:"
+					+ revIndex.getAbsolutePath());
+		} else {
+			dictionary = new TagDictionary(dictionaryFile);
+		}
 		if (!revIndex.exists()) {
 			revRaf = new RandomAccessFile(revIndex, "rwd");
 			rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, INCREMENT_SIZE);
@@ -237,6 +247,9 @@ public class MappedBitmapTagIndex implements TagIndex {
 	public void close() throws IOException {
 		rev.force();
 		revRaf.close();
+		if (dictionary != null) {
+			dictionary.close();
+		}
 	}
 
 	public MutableRoaringBitmap getBitMapForTag(String tagKey, String tagValue) {
@@ -268,26 +281,28 @@ public class MappedBitmapTagIndex implements TagIndex {
 			}
 		}
 
-		if (!rowKeySet.contains(rowIndex)) {
-			boolean add = rowKeySet.checkedAdd(rowIndex);
-			if (add) {
-				if (enableMetrics) {
-					metricIndexRow.inc();
-				}
-				synchronized (rowKeyIndex) {
-					byte[] str = (tagKey + " " + tagValue + " " + rowIndex).getBytes();
-					if (rev.remaining() < str.length + Integer.BYTES) {
-						// resize buffer
-						int temp = rev.position();
-						rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, rev.capacity() + INCREMENT_SIZE);
-						rev.position(temp);
-					}
-					rev.putInt(str.length);
-					rev.put(str);
-					rev.putInt(0, rev.position());
-					logger.finest(() -> "Not found row index entry in bitmap for:" + tagKey + " with tagValue:"
-							+ tagValue + " on rowIndex:" + rowIndex);
+		boolean add;
+		// series of different creation stripes may share tag values
+		synchronized (rowKeySet) {
+			add = !rowKeySet.contains(rowIndex) && rowKeySet.checkedAdd(rowIndex);
+		}
+		if (add) {
+			if (enableMetrics) {
+				metricIndexRow.inc();
+			}
+			synchronized (rowKeyIndex) {
+				byte[] str = (tagKey + " " + tagValue + " " + rowIndex).getBytes();
+				if (rev.remaining() < str.length + Integer.BYTES) {
+					// resize buffer
+					int temp = rev.position();
+					rev = revRaf.getChannel().map(MapMode.READ_WRITE, 0, rev.capacity() + INCREMENT_SIZE);
+					rev.position(temp);
 				}
+				rev.putInt(str.length);
+				rev.put(str);
+				rev.putInt(0, rev.position());
+				logger.finest(() -> "Not found row index entry in bitmap for:" + tagKey + " with tagValue:"
+						+ tagValue + " on rowIndex:" + rowIndex);
 			}
 		}
 	}
@@ -319,6 +334,11 @@ public class MappedBitmapTagIndex implements TagIndex {
 		return rowKeys;
 	}
 
+	@Override
+	public TagDictionary getDictionary() {
+		return dictionary;
+	}
+
 	@Override
 	public Collection<String> getTagValues(String tagKey) {
 		SortedMap<String, MutableRoaringBitmap> map = rowKeyIndex.get(tagKey);
@@ -19,7 +19,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -28,23 +27,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Striped;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
+import com.srotya.sidewinder.core.storage.BucketCache;
+import com.srotya.sidewinder.core.storage.BucketMap;
 import com.srotya.sidewinder.core.storage.BufferObject;
 import com.srotya.sidewinder.core.storage.DBMetadata;
 import com.srotya.sidewinder.core.storage.Malloc;
 import com.srotya.sidewinder.core.storage.Measurement;
+import com.srotya.sidewinder.core.storage.QueryExecutor;
 import com.srotya.sidewinder.core.storage.SeriesFieldMap;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.TagIndex;
@@ -62,7 +65,8 @@ public class PersistentMeasurement implements Measurement {
 	private ReentrantLock lock = new ReentrantLock(false);
 	private ReentrantLock mallocLock = new ReentrantLock(false);
 	private Map<String, Integer> seriesMap;
-	private List<SeriesFieldMap> seriesList;
+	private SeriesList seriesList;
+	private Striped<Lock> creationLocks = Striped.lock(CREATION_LOCK_STRIPES);
 	private TagIndex tagIndex;
 	private String compressionCodec;
 	private String compactionCodec;
@@ -78,7 +82,12 @@ public class PersistentMeasurement implements Measurement {
 	private boolean useQueryPool;
 	private String measurementName;
 	private Malloc malloc;
+	private BucketCache bucketCache;
+	private QueryExecutor queryExecutor;
 	private boolean compactOnStart;
+	private boolean lazyLoad;
+	private ScheduledExecutorService bgTaskPool;
+	private Future<?> warmup;
 
 	@Override
 	public void configure(Map<String, String> conf, StorageEngine engine, String dbName, String measurementName,
@@ -86,6 +95,11 @@ public class PersistentMeasurement implements Measurement {
 			throws IOException {
 		this.dbName = dbName;
 		this.measurementName = measurementName;
+		this.bgTaskPool = bgTaskPool;
+		if (engine != null) {
+			this.bucketCache = engine.getBucketCache();
+			this.queryExecutor = engine.getQueryExecutor();
+		}
 		enableMetricsMonitoring(engine, bgTaskPool);
 		this.conf = conf;
 		this.useQueryPool = Boolean.parseBoolean(conf.getOrDefault(USE_QUERY_POOL, "true"));
@@ -103,13 +117,15 @@ public class PersistentMeasurement implements Measurement {
 		// this.seriesMap = (Map<String, Integer>)
 		// DBMaker.memoryDirectDB().make().hashMap(measurementName).create();
 		this.seriesMap = new ConcurrentHashMap<>(100_000);
-		this.seriesList = new ArrayList<>(100_000);
+		this.seriesList = new SeriesList(100_000);
 		this.compressionCodec = conf.getOrDefault(StorageEngine.COMPRESSION_CODEC,
 				StorageEngine.DEFAULT_COMPRESSION_CODEC);
 		this.compactionCodec = conf.getOrDefault(StorageEngine.COMPACTION_CODEC,
 				StorageEngine.DEFAULT_COMPACTION_CODEC);
 		this.compactOnStart = Boolean.parseBoolean(
 				conf.getOrDefault(StorageEngine.COMPACTION_ON_START, StorageEngine.DEFAULT_COMPACTION_ON_START));
+		this.lazyLoad = Boolean
+				.parseBoolean(conf.getOrDefault(StorageEngine.LAZY_LOAD, StorageEngine.DEFAULT_LAZY_LOAD));
 		this.measurementName = measurementName;
 		this.prMetadata = new PrintWriter(new FileOutputStream(new File(getMetadataPath()), true));
 		// this.tagIndex = new MappedSetTagIndex(this.indexDirectory, measurementName,
@@ -144,14 +160,17 @@ public class PersistentMeasurement implements Measurement {
 		String seriesId = constructSeriesId(tags, tagIndex);
 		int index = 0;
 		SeriesFieldMap seriesFieldMap = getSeriesFromKey(seriesId);
+		// creation is striped by series so that a burst of new series isn't
+		// serialized per measurement or blocked by garbage collection and
+		// compaction which hold the measurement lock
+		Lock lock = creationLocks.get(seriesId);
 		if (seriesFieldMap == null) {
 			lock.lock();
 			try {
 				if ((seriesFieldMap = getSeriesFromKey(seriesId)) == null) {
-					index = seriesList.size();
-					Measurement.indexRowKey(tagIndex, index, tags);
 					seriesFieldMap = new SeriesFieldMap(seriesId);
-					seriesList.add(seriesFieldMap);
+					index = seriesList.append(seriesFieldMap);
+					Measurement.indexRowKey(tagIndex, index, tags);
 					seriesMap.put(seriesId, index);
 					if (enableMetricsCapture) {
 						metricsTimeSeriesCounter.inc();
@@ -249,8 +268,8 @@ public class PersistentMeasurement implements Measurement {
 			if (seriesIdx == null) {
 				seriesIdx = Integer.parseInt(split[3], 16);
 				m = new SeriesFieldMap(seriesId);
+				seriesList.set(seriesIdx, m);
 				seriesMap.put(seriesId, seriesIdx);
-				seriesList.add(seriesIdx, m);
 			} else {
 				m = seriesList.get(seriesIdx);
 			}
@@ -286,6 +305,11 @@ public class PersistentMeasurement implements Measurement {
 			SeriesFieldMap ts = seriesList.get(seriesId);
 			List<Entry<String, BufferObject>> list = entry.getValue();
 			if (list != null) {
+				if (lazyLoad) {
+					// writers are created when the series is first accessed or by warm up
+					ts.get(split[1]).deferLoadBucketMap(list);
+					continue;
+				}
 				try {
 					ts.get(split[1]).loadBucketMap(list);
 				} catch (Exception e) {
@@ -296,10 +320,42 @@ public class PersistentMeasurement implements Measurement {
 		}
 		if (compactOnStart) {
 			compact();
+		} else if (lazyLoad && bgTaskPool != null) {
+			warmup = bgTaskPool.submit(() -> warmupSeries());
 		}
 		logger.info("Loaded measurement:" + measurementName);
 	}
 
+	/**
+	 * Load deferred buckets of all series in the background so that series not
+	 * accessed since startup don't pay the loading cost on their first query
+	 */
+	private void warmupSeries() {
+		long start = System.currentTimeMillis();
+		int count = 0;
+		// series created after startup have nothing to load
+		int size = seriesList.size();
+		for (int i = 0; i < size; i++) {
+			if (Thread.currentThread().isInterrupted()) {
+				logger.info("Warm up interrupted for measurement:" + measurementName);
+				return;
+			}
+			for (TimeSeries series : seriesList.get(i).values()) {
+				if (series.isDeferred()) {
+					try {
+						series.loadDeferredBuckets();
+						count++;
+					} catch (IOException e) {
+						// the buffers stay deferred, readers and writers of the series get the error
+						logger.log(Level.SEVERE, "Failed to warm up series of measurement:" + measurementName, e);
+					}
+				}
+			}
+		}
+		logger.info("Warmed up " + count + " series for measurement:" + measurementName + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
 	@Override
 	public String getMeasurementName() {
 		return measurementName;
@@ -317,6 +373,9 @@ public class PersistentMeasurement implements Measurement {
 
 	@Override
 	public void close() throws IOException {
+		if (warmup != null) {
+			warmup.cancel(true);
+		}
 		malloc.close();
 		tagIndex.close();
 		prMetadata.close();
@@ -333,8 +392,8 @@ public class PersistentMeasurement implements Measurement {
 	}
 
 	@Override
-	public SortedMap<String, List<Writer>> createNewBucketMap(String seriesId) {
-		return new ConcurrentSkipListMap<>();
+	public BucketMap createNewBucketMap(String seriesId) {
+		return new BucketMap();
 	}
 
 	@Override
@@ -372,6 +431,16 @@ public class PersistentMeasurement implements Measurement {
 		return malloc;
 	}
 
+	@Override
+	public BucketCache getBucketCache() {
+		return bucketCache;
+	}
+
+	@Override
+	public QueryExecutor getQueryExecutor() {
+		return queryExecutor;
+	}
+
 	@Override
 	public Collection<SeriesFieldMap> getSeriesList() {
 		return seriesList;
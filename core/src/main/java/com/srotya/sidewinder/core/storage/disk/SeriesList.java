@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import com.srotya.sidewinder.core.storage.SeriesFieldMap;
+
+/**
+ * Append only list of the series of a measurement, indexed by the row index
+ * used by the tag index.
+ * 
+ * Reads never lock; appends only lock to assign the index and publish the
+ * entry, so series creation of different series can run in parallel and isn't
+ * blocked by queries or cleanup iterating this list.
+ * 
+ * @author ambud
+ */
+class SeriesList extends AbstractList<SeriesFieldMap> {
+
+	private volatile SeriesFieldMap[] entries;
+	private volatile int size;
+
+	public SeriesList(int initialCapacity) {
+		entries = new SeriesFieldMap[Math.max(initialCapacity, 16)];
+	}
+
+	@Override
+	public SeriesFieldMap get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index:" + index + " size:" + size);
+		}
+		return entries[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Append the supplied entry
+	 *
+	 * @param entry
+	 * @return index of the entry
+	 */
+	public synchronized int append(SeriesFieldMap entry) {
+		int index = size;
+		set(index, entry);
+		return index;
+	}
+
+	@Override
+	public boolean add(SeriesFieldMap entry) {
+		append(entry);
+		return true;
+	}
+
+	/**
+	 * Entries are recovered in index order, inserting at an index only places
+	 * the entry there
+	 */
+	@Override
+	public void add(int index, SeriesFieldMap entry) {
+		set(index, entry);
+	}
+
+	@Override
+	public synchronized SeriesFieldMap set(int index, SeriesFieldMap entry) {
+		SeriesFieldMap[] e = entries;
+		if (index >= e.length) {
+			e = Arrays.copyOf(e, Math.max(e.length * 2, index + 1));
+		}
+		SeriesFieldMap previous = e[index];
+		e[index] = entry;
+		entries = e;
+		if (index >= size) {
+			size = index + 1;
+		}
+		return previous;
+	}
+
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.mem;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.srotya.sidewinder.core.storage.BufferObject;
+
+/**
+ * Size class slab allocator for off-heap buffers.
+ * 
+ * Buffers are carved out of large direct memory arenas in power of 2 size
+ * classes instead of allocating a direct buffer per request, so direct memory
+ * is allocated a few arenas at a time. Released buffers go back to the free
+ * list of their size class and are zeroed outside of the pool lock when
+ * reused. Arenas whose slots are all free are dropped from the pool so that
+ * their memory is reclaimed once no reader holds a buffer of them anymore.
+ * Callers must only release buffers that are no longer being read, buffers that
+ * may still be read can be released after a delay. Requests larger than an
+ * arena are allocated directly and not pooled.
+ * 
+ * @author ambud
+ */
+public class BufferPool {
+
+	public static final String CONF_ARENA_SIZE = "malloc.arena.size";
+	public static final int DEFAULT_ARENA_SIZE = 4 * 1024 * 1024;
+	private static final int MIN_CLASS_SHIFT = 6;
+	private static final byte[] ZEROS = new byte[4096];
+	private static final Logger logger = Logger.getLogger(BufferPool.class.getName());
+	private int arenaSize;
+	private List<Arena> arenas;
+	private Arena arena;
+	private ArrayDeque<ByteBuffer>[] freeLists;
+	private Map<String, ByteBuffer> allocated;
+	private Map<ByteBuffer, Arena> slotArenas;
+	private PriorityQueue<DeferredRelease> deferred;
+	private long idCounter;
+	private long usedBytes;
+	private long freeBytes;
+	private Counter metricsArenaBytes;
+	private Counter metricsUsedBytes;
+	private Counter metricsFreeBytes;
+	private Counter metricsBufferReuse;
+
+	/**
+	 * @param arenaSize
+	 * @param registry
+	 *            to register pool metrics with, may be null
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(int arenaSize, MetricRegistry registry) {
+		if (arenaSize < (1 << MIN_CLASS_SHIFT)) {
+			throw new IllegalArgumentException("Arena size must be at least:" + (1 << MIN_CLASS_SHIFT));
+		}
+		this.arenaSize = arenaSize;
+		this.arenas = new ArrayList<>();
+		this.freeLists = new ArrayDeque[32];
+		this.allocated = new HashMap<>();
+		// slots are looked up by identity, buffers with equal contents are equal
+		this.slotArenas = new IdentityHashMap<>();
+		this.deferred = new PriorityQueue<>((d1, d2) -> Long.signum(d1.deadline - d2.deadline));
+		if (registry != null) {
+			metricsArenaBytes = registry.counter("arena-bytes");
+			metricsUsedBytes = registry.counter("arena-used-bytes");
+			metricsFreeBytes = registry.counter("arena-free-bytes");
+			metricsBufferReuse = registry.counter("buffer-reuse");
+		}
+	}
+
+	/**
+	 * Allocate a buffer of the supplied size
+	 *
+	 * @param idPrefix
+	 *            prefix of the id of this buffer
+	 * @param size
+	 * @return buffer
+	 */
+	public BufferObject allocate(String idPrefix, int size) {
+		String bufferId;
+		ByteBuffer slot = null;
+		boolean reused = false;
+		synchronized (this) {
+			releaseExpired();
+			bufferId = idPrefix + "\t" + idCounter++;
+			if (size > arenaSize) {
+				return new BufferObject(bufferId, ByteBuffer.allocateDirect(size));
+			}
+			int sizeClass = sizeClass(size);
+			ArrayDeque<ByteBuffer> freeList = freeLists[sizeClass];
+			if (freeList != null && (slot = freeList.poll()) != null) {
+				reused = true;
+				freeBytes -= slot.capacity();
+				if (metricsBufferReuse != null) {
+					metricsBufferReuse.inc();
+					metricsFreeBytes.dec(slot.capacity());
+				}
+			} else {
+				slot = carve(1 << (sizeClass + MIN_CLASS_SHIFT));
+			}
+			slotArenas.get(slot).live++;
+			allocated.put(bufferId, slot);
+			usedBytes += slot.capacity();
+			if (metricsUsedBytes != null) {
+				metricsUsedBytes.inc(slot.capacity());
+			}
+		}
+		ByteBuffer buf = slot.duplicate();
+		if (reused) {
+			// the slot isn't reachable through the pool until it's released
+			// again so it's zeroed without holding the pool lock
+			buf.clear();
+			while (buf.hasRemaining()) {
+				buf.put(ZEROS, 0, Math.min(ZEROS.length, buf.remaining()));
+			}
+		}
+		buf.clear();
+		buf.limit(size);
+		return new BufferObject(bufferId, buf.slice());
+	}
+
+	/**
+	 * Return the supplied buffers to the free lists, ids not allocated from this
+	 * pool are ignored
+	 *
+	 * @param bufferIds
+	 */
+	public synchronized void release(Collection<String> bufferIds) {
+		releaseExpired();
+		releaseNow(bufferIds);
+	}
+
+	/**
+	 * Return the supplied buffers to the free lists once the supplied delay has
+	 * passed, e.g. buffers of dropped series that running queries may still be
+	 * reading
+	 * 
+	 * @param bufferIds
+	 * @param delayMillis
+	 */
+	public synchronized void releaseAfter(Collection<String> bufferIds, long delayMillis) {
+		releaseExpired();
+		deferred.add(new DeferredRelease(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis),
+				new ArrayList<>(bufferIds)));
+	}
+
+	private void releaseExpired() {
+		long now = System.nanoTime();
+		DeferredRelease next;
+		while ((next = deferred.peek()) != null && now - next.deadline >= 0) {
+			deferred.poll();
+			releaseNow(next.bufferIds);
+		}
+	}
+
+	private void releaseNow(Collection<String> bufferIds) {
+		for (String bufferId : bufferIds) {
+			ByteBuffer slot = allocated.remove(bufferId);
+			if (slot == null) {
+				continue;
+			}
+			int sizeClass = sizeClass(slot.capacity());
+			if (freeLists[sizeClass] == null) {
+				freeLists[sizeClass] = new ArrayDeque<>();
+			}
+			freeLists[sizeClass].add(slot);
+			usedBytes -= slot.capacity();
+			freeBytes += slot.capacity();
+			if (metricsUsedBytes != null) {
+				metricsUsedBytes.dec(slot.capacity());
+				metricsFreeBytes.inc(slot.capacity());
+			}
+			Arena owner = slotArenas.get(slot);
+			if (--owner.live == 0 && owner != arena) {
+				retire(owner);
+			}
+		}
+	}
+
+	/**
+	 * Drop an arena all of whose slots are free
+	 * 
+	 * @param owner
+	 */
+	private void retire(Arena owner) {
+		long bytes = 0;
+		for (ArrayDeque<ByteBuffer> freeList : freeLists) {
+			if (freeList == null) {
+				continue;
+			}
+			for (Iterator<ByteBuffer> itr = freeList.iterator(); itr.hasNext();) {
+				ByteBuffer slot = itr.next();
+				if (slotArenas.get(slot) == owner) {
+					itr.remove();
+					slotArenas.remove(slot);
+					bytes += slot.capacity();
+				}
+			}
+		}
+		arenas.remove(owner);
+		freeBytes -= bytes;
+		if (metricsArenaBytes != null) {
+			metricsArenaBytes.dec(arenaSize);
+			metricsFreeBytes.dec(bytes);
+		}
+		logger.fine("Released arena, arenas left:" + arenas.size());
+	}
+
+	private ByteBuffer carve(int slotSize) {
+		if (arena == null || arena.buf.remaining() < slotSize) {
+			if (arena != null && arena.live == 0) {
+				retire(arena);
+			}
+			arena = new Arena(ByteBuffer.allocateDirect(arenaSize));
+			arenas.add(arena);
+			logger.fine("Allocated arena:" + arenas.size() + " of size:" + arenaSize);
+			if (metricsArenaBytes != null) {
+				metricsArenaBytes.inc(arenaSize);
+			}
+		}
+		ByteBuffer buf = arena.buf;
+		ByteBuffer slot = buf.duplicate();
+		slot.limit(buf.position() + slotSize);
+		buf.position(buf.position() + slotSize);
+		slot = slot.slice();
+		slotArenas.put(slot, arena);
+		return slot;
+	}
+
+	private static int sizeClass(int size) {
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+		return Math.max(bits - MIN_CLASS_SHIFT, 0);
+	}
+
+	public synchronized int getArenaCount() {
+		return arenas.size();
+	}
+
+	/**
+	 * @return bytes of slots held by live buffers
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return bytes of slots on free lists
+	 */
+	public synchronized long getFreeBytes() {
+		return freeBytes;
+	}
+
+	private static final class Arena {
+
+		private final ByteBuffer buf;
+		// slots of this arena held by live buffers
+		private int live;
+
+		private Arena(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+	}
+
+	private static final class DeferredRelease {
+
+		private final long deadline;
+		private final Collection<String> bufferIds;
+
+		private DeferredRelease(long deadline, Collection<String> bufferIds) {
+			this.deadline = deadline;
+			this.bufferIds = bufferIds;
+		}
+
+	}
+
+}
@@ -17,7 +17,6 @@ package com.srotya.sidewinder.core.storage.mem;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -27,12 +26,15 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import com.srotya.sidewinder.core.storage.BufferObject;
 import com.srotya.sidewinder.core.storage.Malloc;
+import com.srotya.sidewinder.core.storage.QueryContext;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 
 public class MemMalloc implements Malloc {
 
 	private int size;
 	private List<String> cleanupCallback;
+	private BufferPool pool;
+	private long releaseDelay;
 
 	public MemMalloc() {
 	}
@@ -46,17 +48,30 @@ public class MemMalloc implements Malloc {
 	}
 
 	public BufferObject createNewBuffer(String seriesId, String tsBucket, int newSize) throws IOException {
-		ByteBuffer allocateDirect = ByteBuffer.allocateDirect(newSize);
-		return new BufferObject(seriesId + "\t" + tsBucket, allocateDirect);
+		return pool.allocate(seriesId + "\t" + tsBucket, newSize);
 	}
 
 	@Override
 	public void cleanupBufferIds(Set<String> cleanupSet) throws IOException {
+		// queries running now may still be reading the collected buffers
+		pool.releaseAfter(cleanupSet, releaseDelay);
 		if (cleanupCallback != null) {
 			cleanupCallback.addAll(cleanupSet);
 		}
 	}
 
+	/**
+	 * Return all buffers of a dropped measurement to the pool once queries that
+	 * may still be reading them have ended
+	 * 
+	 * @param bufferIds
+	 *            buffers of the series of the measurement
+	 * @param delayMillis
+	 */
+	public void releaseAll(Set<String> bufferIds, long delayMillis) {
+		pool.releaseAfter(bufferIds, delayMillis);
+	}
+
 	@Override
 	public Map<String, List<Entry<String, BufferObject>>> seriesBufferMap() throws FileNotFoundException, IOException {
 		return null;
@@ -66,12 +81,29 @@ public class MemMalloc implements Malloc {
 	public void configure(Map<String, String> conf, String dataDirectory, String measurementName, StorageEngine engine,
 			ScheduledExecutorService bgTaskPool, ReentrantLock lock) {
 		this.size = Integer.parseInt(conf.getOrDefault("buffer.size", "1024"));
+		this.releaseDelay = Long
+				.parseLong(conf.getOrDefault(QueryContext.QUERY_TIMEOUT, QueryContext.DEFAULT_QUERY_TIMEOUT));
+		if (releaseDelay <= 0) {
+			releaseDelay = Long.parseLong(QueryContext.DEFAULT_QUERY_TIMEOUT);
+		}
+		if (engine instanceof MemStorageEngine && ((MemStorageEngine) engine).getBufferPool() != null) {
+			this.pool = ((MemStorageEngine) engine).getBufferPool();
+		} else {
+			this.pool = new BufferPool(Integer.parseInt(
+					conf.getOrDefault(BufferPool.CONF_ARENA_SIZE, String.valueOf(BufferPool.DEFAULT_ARENA_SIZE))),
+					null);
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
 	}
 
+	@Override
+	public int getBufferSize() {
+		return size;
+	}
+
 	public List<String> getCleanupCallback() {
 		return cleanupCallback;
 	}
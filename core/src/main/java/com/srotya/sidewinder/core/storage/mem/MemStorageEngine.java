@@ -16,6 +16,7 @@
 package com.srotya.sidewinder.core.storage.mem;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -30,9 +31,14 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.Archiver;
+import com.srotya.sidewinder.core.storage.BucketCache;
+import com.srotya.sidewinder.core.storage.CompactionScheduler;
 import com.srotya.sidewinder.core.storage.DBMetadata;
 import com.srotya.sidewinder.core.storage.Measurement;
+import com.srotya.sidewinder.core.storage.QueryContext;
+import com.srotya.sidewinder.core.storage.QueryExecutor;
 import com.srotya.sidewinder.core.storage.SeriesFieldMap;
+import com.srotya.sidewinder.core.storage.SeriesHandles;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.TimeSeries;
 import com.srotya.sidewinder.core.storage.archival.NoneArchiver;
@@ -70,16 +76,26 @@ public class MemStorageEngine implements StorageEngine {
 	private Archiver archiver;
 	private Map<String, String> conf;
 	private ScheduledExecutorService bgTaskPool;
+	private CompactionScheduler compactionScheduler;
 
 	// monitoring metrics
 	private Counter metricsDbCounter;
 	private Counter metricsMeasurementCounter;
 	private Counter metricsWriteCounter;
+	private SeriesHandles seriesHandles;
+	private BucketCache bucketCache;
+	private QueryExecutor queryExecutor;
+	private BufferPool bufferPool;
+	private long releaseDelay;
 
 	@Override
 	public void configure(Map<String, String> conf, ScheduledExecutorService bgTaskPool) throws IOException {
 		this.conf = conf;
 		this.bgTaskPool = bgTaskPool;
+		this.seriesHandles = new SeriesHandles();
+		this.bucketCache = BucketCache.create(conf);
+		this.queryExecutor = new QueryExecutor(conf,
+				MetricsRegistryService.getInstance(this, bgTaskPool).getInstance("query"));
 		this.defaultRetentionHours = Integer
 				.parseInt(conf.getOrDefault(RETENTION_HOURS, String.valueOf(DEFAULT_RETENTION_HOURS)));
 		logger.info("Setting default timeseries retention hours policy to:" + defaultRetentionHours);
@@ -112,12 +128,13 @@ public class MemStorageEngine implements StorageEngine {
 					Integer.parseInt(conf.getOrDefault(GC_DELAY, DEFAULT_GC_DELAY)), TimeUnit.SECONDS);
 			if (Boolean.parseBoolean(conf.getOrDefault(StorageEngine.COMPACTION_ENABLED, "false"))) {
 				logger.info("Compaction is enabled");
+				compactionScheduler = new CompactionScheduler(conf);
 				bgTaskPool.scheduleAtFixedRate(() -> {
 					for (Entry<String, Map<String, Measurement>> measurementMap : databaseMap.entrySet()) {
 						for (Entry<String, Measurement> measurementEntry : measurementMap.getValue().entrySet()) {
 							Measurement value = measurementEntry.getValue();
 							try {
-								value.compact();
+								compactionScheduler.compact(value);
 							} catch (Exception e) {
 								logger.log(Level.SEVERE,
 										"Failed compaction for measurement:" + value.getMeasurementName(), e);
@@ -132,6 +149,17 @@ public class MemStorageEngine implements StorageEngine {
 			}
 		}
 		enableMetricsService();
+		bufferPool = new BufferPool(
+				Integer.parseInt(
+						conf.getOrDefault(BufferPool.CONF_ARENA_SIZE, String.valueOf(BufferPool.DEFAULT_ARENA_SIZE))),
+				MetricsRegistryService.getInstance(this, bgTaskPool).getInstance("memoryops"));
+		// buffers of dropped series are reused once queries reading them have
+		// timed out
+		releaseDelay = Long
+				.parseLong(conf.getOrDefault(QueryContext.QUERY_TIMEOUT, QueryContext.DEFAULT_QUERY_TIMEOUT));
+		if (releaseDelay <= 0) {
+			releaseDelay = Long.parseLong(QueryContext.DEFAULT_QUERY_TIMEOUT);
+		}
 	}
 
 	public void enableMetricsService() {
@@ -278,16 +306,53 @@ public class MemStorageEngine implements StorageEngine {
 
 	@Override
 	public void dropDatabase(String dbName) throws Exception {
-		databaseMap.remove(dbName);
+		Map<String, Measurement> remove = databaseMap.remove(dbName);
+		if (remove != null) {
+			for (Measurement measurement : remove.values()) {
+				seriesHandles.invalidate(measurement.getTimeSeries());
+				if (bucketCache != null) {
+					bucketCache.invalidate(measurement.getTimeSeries());
+				}
+				releaseBuffers(measurement);
+			}
+		}
 		metricsDbCounter.dec();
 	}
 
 	@Override
 	public void dropMeasurement(String dbName, String measurementName) throws Exception {
-		databaseMap.get(dbName).remove(measurementName);
+		Measurement remove = databaseMap.get(dbName).remove(measurementName);
+		if (remove != null) {
+			seriesHandles.invalidate(remove.getTimeSeries());
+			if (bucketCache != null) {
+				bucketCache.invalidate(remove.getTimeSeries());
+			}
+			releaseBuffers(remove);
+		}
 		metricsMeasurementCounter.dec();
 	}
 
+	/**
+	 * Return the buffers of a dropped measurement to the {@link BufferPool}
+	 * 
+	 * @param measurement
+	 * @throws IOException
+	 */
+	private void releaseBuffers(Measurement measurement) throws IOException {
+		if (!(measurement.getMalloc() instanceof MemMalloc)) {
+			return;
+		}
+		Set<String> bufferIds = new HashSet<>();
+		for (TimeSeries series : measurement.getTimeSeries()) {
+			for (List<Writer> writers : series.getBucketRawMap().values()) {
+				for (Writer writer : writers) {
+					bufferIds.add(writer.getBufferId());
+				}
+			}
+		}
+		((MemMalloc) measurement.getMalloc()).releaseAll(bufferIds, releaseDelay);
+	}
+
 	/**
 	 * Function for unit testing
 	 * 
@@ -305,6 +370,10 @@ public class MemStorageEngine implements StorageEngine {
 
 	@Override
 	public void disconnect() throws IOException {
+		if (compactionScheduler != null) {
+			compactionScheduler.close();
+		}
+		queryExecutor.close();
 	}
 
 	public Map<String, DBMetadata> getDbMetadataMap() {
@@ -331,6 +400,28 @@ public class MemStorageEngine implements StorageEngine {
 		return metricsWriteCounter;
 	}
 
+	@Override
+	public SeriesHandles getSeriesHandles() {
+		return seriesHandles;
+	}
+
+	@Override
+	public BucketCache getBucketCache() {
+		return bucketCache;
+	}
+
+	@Override
+	public QueryExecutor getQueryExecutor() {
+		return queryExecutor;
+	}
+
+	/**
+	 * @return buffer pool shared by all measurements of this engine
+	 */
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
 	@Override
 	public Logger getLogger() {
 		return logger;
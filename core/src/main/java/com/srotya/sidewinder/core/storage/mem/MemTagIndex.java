@@ -16,8 +16,8 @@
 package com.srotya.sidewinder.core.storage.mem;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -27,26 +27,38 @@ import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.srotya.sidewinder.core.filters.ComplexTagFilter;
 import com.srotya.sidewinder.core.filters.ComplexTagFilter.ComplexFilterType;
 import com.srotya.sidewinder.core.filters.SimpleTagFilter;
 import com.srotya.sidewinder.core.filters.TagFilter;
+import com.srotya.sidewinder.core.storage.TagDictionary;
 import com.srotya.sidewinder.core.storage.TagIndex;
 
 /**
  * Tag hash lookup table + Tag inverted index
  * 
+ * Row keys are assigned int ids by an in-memory {@link TagDictionary} and each
+ * tag value keeps a bitmap of the ids of its rows, as
+ * {@link com.srotya.sidewinder.core.storage.disk.MappedBitmapTagIndex} does, so
+ * a row key is held once instead of once per tag of the row.
+ * 
  * @author ambud
  */
 public class MemTagIndex implements TagIndex {
 
-	private Map<String, SortedMap<String, Set<String>>> rowKeyIndex;
+	private Map<String, SortedMap<String, MutableRoaringBitmap>> rowKeyIndex;
 	private Counter metricIndexRow;
+	private TagDictionary dictionary;
+	private TagDictionary rowKeys;
 
 	public MemTagIndex(MetricRegistry registry) {
 		rowKeyIndex = new ConcurrentHashMap<>();
+		dictionary = new TagDictionary();
+		rowKeys = new TagDictionary();
 		if (registry != null) {
 			metricIndexRow = registry.counter("index-row");
 		}
@@ -64,37 +76,52 @@ public class MemTagIndex implements TagIndex {
 	 * @param rowKey
 	 */
 	public void index(String tagKey, String tagValue, String rowKey) {
-		SortedMap<String, Set<String>> map = rowKeyIndex.get(tagKey);
+		int rowIndex;
+		try {
+			rowIndex = rowKeys.getOrAssign(rowKey);
+		} catch (IOException e) {
+			// in-memory dictionaries don't do I/O
+			throw new UncheckedIOException(e);
+		}
+		SortedMap<String, MutableRoaringBitmap> map = rowKeyIndex.get(tagKey);
 
 		if (map == null) {
-			map = new ConcurrentSkipListMap<>();
-			rowKeyIndex.put(tagKey, map);
+			synchronized (rowKeyIndex) {
+				if ((map = rowKeyIndex.get(tagKey)) == null) {
+					map = new ConcurrentSkipListMap<>();
+					rowKeyIndex.put(tagKey, map);
+				}
+			}
 		}
 
-		Set<String> rowKeySet = map.get(tagValue);
+		MutableRoaringBitmap rowKeySet = map.get(tagValue);
 		if (rowKeySet == null) {
-			synchronized (rowKeyIndex) {
+			synchronized (map) {
 				if ((rowKeySet = map.get(tagValue)) == null) {
-					rowKeySet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+					rowKeySet = new MutableRoaringBitmap();
 					map.put(tagValue, rowKeySet);
 				}
 			}
 		}
-		if (!rowKeySet.contains(rowKey)) {
-			rowKeySet.add(rowKey);
-			if (metricIndexRow != null) {
-				metricIndexRow.inc();
-			}
+		boolean add;
+		synchronized (rowKeySet) {
+			add = rowKeySet.checkedAdd(rowIndex);
+		}
+		if (add && metricIndexRow != null) {
+			metricIndexRow.inc();
 		}
 	}
 
 	public Set<String> searchRowKeysForTag(String tagKey, String tagValue) {
-		Map<String, Set<String>> map = rowKeyIndex.get(tagKey);
+		Map<String, MutableRoaringBitmap> map = rowKeyIndex.get(tagKey);
 		if (map == null) {
 			return null;
-		} else {
-			return map.get(tagValue);
 		}
+		MutableRoaringBitmap rows = map.get(tagValue);
+		if (rows == null) {
+			return null;
+		}
+		return toRowKeys(copy(rows));
 	}
 
 	@Override
@@ -108,20 +135,37 @@ public class MemTagIndex implements TagIndex {
 
 	@Override
 	public void index(String tag, String value, int rowIndex) throws IOException {
-		// not implemented
+		// row ids are assigned by this index
 		throw new UnsupportedOperationException();
 	}
 
 	@Override
 	public Set<String> searchRowKeysForTagFilter(TagFilter tagFilterTree) {
-		return evalFilterForTags(tagFilterTree);
+		MutableRoaringBitmap rows = evalFilterForTags(tagFilterTree);
+		if (rows == null) {
+			return null;
+		}
+		return toRowKeys(rows);
 	}
 
-	public Set<String> evalFilterForTags(TagFilter filterTree) {
+	private Set<String> toRowKeys(MutableRoaringBitmap rows) {
+		Set<String> set = new HashSet<>(rows.getCardinality());
+		for (Iterator<Integer> iterator = rows.iterator(); iterator.hasNext();) {
+			set.add(rowKeys.getValue(iterator.next()));
+		}
+		return set;
+	}
+
+	/**
+	 * @param filterTree
+	 * @return ids of the matching rows, a copy that may be modified by the
+	 *         caller or null if no row can match
+	 */
+	public MutableRoaringBitmap evalFilterForTags(TagFilter filterTree) {
 		// either it's a simple tag filter or a complex tag filter
 		if (filterTree instanceof SimpleTagFilter) {
 			SimpleTagFilter simpleFilter = (SimpleTagFilter) filterTree;
-			SortedMap<String, Set<String>> sortedMap = rowKeyIndex.get(simpleFilter.getTagKey());
+			SortedMap<String, MutableRoaringBitmap> sortedMap = rowKeyIndex.get(simpleFilter.getTagKey());
 			if (sortedMap == null) {
 				return null;
 			}
@@ -130,28 +174,28 @@ public class MemTagIndex implements TagIndex {
 			// if it's a complex tag filter then get individual units of return
 			ComplexTagFilter complexFilter = (ComplexTagFilter) filterTree;
 			List<TagFilter> filters = complexFilter.getFilters();
-			Set<String> set = new HashSet<>();
+			MutableRoaringBitmap set = new MutableRoaringBitmap();
 			ComplexFilterType type = complexFilter.getType();
 			for (TagFilter tagFilter : filters) {
-				Set<String> r = evalFilterForTags(tagFilter);
+				MutableRoaringBitmap r = evalFilterForTags(tagFilter);
 				if (r == null) {
 					// no match found from evaluation of this filter
 					if (type == ComplexFilterType.AND) {
 						// if filter condition is AND then short circuit terminate the evaluation
-						return set = new HashSet<>();
+						return set = new MutableRoaringBitmap();
 					} else {
 						// if filter condition is OR then continue evaluation
 						continue;
 					}
 				} else if (set.isEmpty()) {
-					set.addAll(r);
+					set.or(r);
 				}
 				switch (type) {
 				case AND:
-					set.retainAll(r);
+					set.and(r);
 					break;
 				case OR:
-					set.addAll(r);
+					set.or(r);
 					break;
 				}
 			}
@@ -159,34 +203,36 @@ public class MemTagIndex implements TagIndex {
 		}
 	}
 
-	private Set<String> evalSimpleTagFilter(SimpleTagFilter simpleFilter, SortedMap<String, Set<String>> map) {
+	private MutableRoaringBitmap evalSimpleTagFilter(SimpleTagFilter simpleFilter,
+			SortedMap<String, MutableRoaringBitmap> map) {
 		switch (simpleFilter.getFilterType()) {
 		case EQUALS:
-			return map.get(simpleFilter.getComparedValue());
+			MutableRoaringBitmap rows = map.get(simpleFilter.getComparedValue());
+			return rows == null ? null : copy(rows);
 		case GREATER_THAN:
-			SortedMap<String, Set<String>> tailMap = map.tailMap(simpleFilter.getComparedValue());
+			SortedMap<String, MutableRoaringBitmap> tailMap = map.tailMap(simpleFilter.getComparedValue());
 			if (tailMap == null || tailMap.isEmpty()) {
 				return null;
 			}
-			Iterator<Set<String>> iterator = tailMap.values().iterator();
+			Iterator<MutableRoaringBitmap> iterator = tailMap.values().iterator();
 			// skip the first one since the condition is greater than
 			iterator.next();
 			return combineMaps(iterator);
 		case LESS_THAN:
-			SortedMap<String, Set<String>> headMap = map.headMap(simpleFilter.getComparedValue());
+			SortedMap<String, MutableRoaringBitmap> headMap = map.headMap(simpleFilter.getComparedValue());
 			if (headMap == null || headMap.isEmpty()) {
 				return null;
 			}
 			return combineMaps(headMap.values().iterator());
 		case GREATER_THAN_EQUALS:
-			SortedMap<String, Set<String>> tailMap1 = map.tailMap(simpleFilter.getComparedValue());
+			SortedMap<String, MutableRoaringBitmap> tailMap1 = map.tailMap(simpleFilter.getComparedValue());
 			if (tailMap1 == null || tailMap1.isEmpty()) {
 				return null;
 			}
-			Iterator<Set<String>> iterator1 = tailMap1.values().iterator();
+			Iterator<MutableRoaringBitmap> iterator1 = tailMap1.values().iterator();
 			return combineMaps(iterator1);
 		case LESS_THAN_EQUALS:
-			SortedMap<String, Set<String>> headMap1 = map
+			SortedMap<String, MutableRoaringBitmap> headMap1 = map
 					.headMap(simpleFilter.getComparedValue() + Character.MAX_VALUE);
 			if (headMap1 == null || headMap1.isEmpty()) {
 				return null;
@@ -196,17 +242,36 @@ public class MemTagIndex implements TagIndex {
 		return null;
 	}
 
-	private Set<String> combineMaps(Iterator<Set<String>> itr) {
-		Set<String> uberSet = new HashSet<>();
+	private MutableRoaringBitmap combineMaps(Iterator<MutableRoaringBitmap> itr) {
+		MutableRoaringBitmap resultMap = new MutableRoaringBitmap();
 		while (itr.hasNext()) {
-			uberSet.addAll(itr.next());
+			MutableRoaringBitmap m = itr.next();
+			synchronized (m) {
+				resultMap.or(m);
+			}
+		}
+		return resultMap;
+	}
+
+	/**
+	 * @param rows
+	 * @return copy of the supplied bitmap, bitmaps are modified by concurrent
+	 *         writes
+	 */
+	private static MutableRoaringBitmap copy(MutableRoaringBitmap rows) {
+		synchronized (rows) {
+			return rows.clone();
 		}
-		return uberSet;
+	}
+
+	@Override
+	public TagDictionary getDictionary() {
+		return dictionary;
 	}
 
 	@Override
 	public Collection<String> getTagValues(String tagKey) {
-		SortedMap<String, Set<String>> map = rowKeyIndex.get(tagKey);
+		SortedMap<String, MutableRoaringBitmap> map = rowKeyIndex.get(tagKey);
 		if (map != null) {
 			return map.keySet();
 		} else {
@@ -21,22 +21,24 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
+import com.google.common.util.concurrent.Striped;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
+import com.srotya.sidewinder.core.storage.BucketCache;
+import com.srotya.sidewinder.core.storage.BucketMap;
 import com.srotya.sidewinder.core.storage.DBMetadata;
 import com.srotya.sidewinder.core.storage.Malloc;
 import com.srotya.sidewinder.core.storage.Measurement;
+import com.srotya.sidewinder.core.storage.QueryExecutor;
 import com.srotya.sidewinder.core.storage.SeriesFieldMap;
 import com.srotya.sidewinder.core.storage.StorageEngine;
 import com.srotya.sidewinder.core.storage.TagIndex;
 import com.srotya.sidewinder.core.storage.TimeSeries;
-import com.srotya.sidewinder.core.storage.compression.Writer;
 
 /**
  * @author ambud
@@ -45,6 +47,7 @@ public class MemoryMeasurement implements Measurement {
 
 	private static Logger logger = Logger.getLogger(MemoryMeasurement.class.getName());
 	private ReentrantLock lock = new ReentrantLock(false);
+	private Striped<Lock> creationLocks = Striped.lock(CREATION_LOCK_STRIPES);
 	private String measurementName;
 	private DBMetadata metadata;
 	private Map<String, SeriesFieldMap> seriesMap;
@@ -54,6 +57,8 @@ public class MemoryMeasurement implements Measurement {
 	private boolean useQueryPool;
 	private String dbName;
 	private Malloc malloc;
+	private BucketCache bucketCache;
+	private QueryExecutor queryExecutor;
 
 	@Override
 	public void configure(Map<String, String> conf, StorageEngine engine, String dbName, String measurementName,
@@ -62,6 +67,10 @@ public class MemoryMeasurement implements Measurement {
 		this.dbName = dbName;
 		this.measurementName = measurementName;
 		this.metadata = metadata;
+		if (engine != null) {
+			this.bucketCache = engine.getBucketCache();
+			this.queryExecutor = engine.getQueryExecutor();
+		}
 		this.tagIndex = new MemTagIndex(MetricsRegistryService.getInstance(engine, bgTaskPool).getInstance("request"));
 		this.seriesMap = new ConcurrentHashMap<>();
 		this.compressionCodec = conf.getOrDefault(StorageEngine.COMPRESSION_CODEC,
@@ -92,27 +101,36 @@ public class MemoryMeasurement implements Measurement {
 		Collections.sort(tags);
 		String seriesId = constructSeriesId(tags, tagIndex);
 		SeriesFieldMap seriesFieldMap = getSeriesFromKey(seriesId);
+		// creation is striped by series so that it isn't blocked by garbage
+		// collection and compaction which hold the measurement lock
+		Lock lock = creationLocks.get(seriesId);
 		if (seriesFieldMap == null) {
 			lock.lock();
-			if ((seriesFieldMap = getSeriesFromKey(seriesId)) == null) {
-				Measurement.indexRowKey(tagIndex, seriesId, tags);
-				seriesFieldMap = new SeriesFieldMap(seriesId);
-				seriesMap.put(seriesId, seriesFieldMap);
+			try {
+				if ((seriesFieldMap = getSeriesFromKey(seriesId)) == null) {
+					Measurement.indexRowKey(tagIndex, seriesId, tags);
+					seriesFieldMap = new SeriesFieldMap(seriesId);
+					seriesMap.put(seriesId, seriesFieldMap);
+				}
+			} finally {
+				lock.unlock();
 			}
-			lock.unlock();
 		}
 		TimeSeries series = seriesFieldMap.get(valueFieldName);
 		if (series == null) {
 			lock.lock();
-			if ((series = seriesFieldMap.get(valueFieldName)) == null) {
-				String seriesId2 = seriesId + SERIESID_SEPARATOR + valueFieldName;
-				series = new TimeSeries(this, compressionCodec, compactionCodec, seriesId2, timeBucketSize, metadata,
-						fp, conf);
-				seriesFieldMap.addSeries(valueFieldName, series);
-				logger.fine("Created new timeseries:" + seriesFieldMap + " for measurement:" + measurementName + "\t"
-						+ seriesId + "\t" + metadata.getRetentionHours() + "\t" + seriesMap.size());
+			try {
+				if ((series = seriesFieldMap.get(valueFieldName)) == null) {
+					String seriesId2 = seriesId + SERIESID_SEPARATOR + valueFieldName;
+					series = new TimeSeries(this, compressionCodec, compactionCodec, seriesId2, timeBucketSize,
+							metadata, fp, conf);
+					seriesFieldMap.addSeries(valueFieldName, series);
+					logger.fine("Created new timeseries:" + seriesFieldMap + " for measurement:" + measurementName
+							+ "\t" + seriesId + "\t" + metadata.getRetentionHours() + "\t" + seriesMap.size());
+				}
+			} finally {
+				lock.unlock();
 			}
-			lock.unlock();
 		}
 
 		return series;
@@ -140,8 +158,8 @@ public class MemoryMeasurement implements Measurement {
 	}
 
 	@Override
-	public SortedMap<String, List<Writer>> createNewBucketMap(String seriesId) {
-		return new ConcurrentSkipListMap<>();
+	public BucketMap createNewBucketMap(String seriesId) {
+		return new BucketMap();
 	}
 
 	@Override
@@ -174,6 +192,16 @@ public class MemoryMeasurement implements Measurement {
 		return malloc;
 	}
 
+	@Override
+	public BucketCache getBucketCache() {
+		return bucketCache;
+	}
+
+	@Override
+	public QueryExecutor getQueryExecutor() {
+		return queryExecutor;
+	}
+
 	@Override
 	public Collection<SeriesFieldMap> getSeriesList() {
 		return seriesMap.values();
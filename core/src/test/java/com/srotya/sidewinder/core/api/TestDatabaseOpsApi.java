@@ -16,10 +16,16 @@
 package com.srotya.sidewinder.core.api;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -27,6 +33,8 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.srotya.sidewinder.core.rpc.Point;
 import com.srotya.sidewinder.core.rpc.Point.Builder;
+import com.srotya.sidewinder.core.storage.QueryAbortedException;
+import com.srotya.sidewinder.core.storage.Series;
 import com.srotya.sidewinder.core.storage.mem.MemStorageEngine;
 
 /**
@@ -51,21 +59,71 @@ public class TestDatabaseOpsApi {
 		engine.writeDataPoint(dp.build());
 
 		DatabaseOpsApi api = new DatabaseOpsApi(engine);
-		String querySeries = api.querySeries("test1",
-				"2000-12-10T10:10:10<cpu.value.host=1|te=2&vm=1<2020-12-10T10:10:10");
+		String querySeries = query(api, "2000-12-10T10:10:10<cpu.value.host=1|te=2&vm=1<2020-12-10T10:10:10");
 		JsonArray results = new Gson().fromJson(querySeries, JsonArray.class);
 		assertEquals(1, results.size());
 
-		querySeries = api.querySeries("test1", "2000-12-10T10:10:10<cpu.value.host=2<2020-12-10T10:10:10");
+		querySeries = query(api, "2000-12-10T10:10:10<cpu.value.host=2<2020-12-10T10:10:10");
 		results = new Gson().fromJson(querySeries, JsonArray.class);
 		assertEquals(0, results.size());
 
-		querySeries = api.querySeries("test1", "2000-12-10T10:10:10<cpu.value.vm=1<2020-12-10T10:10:10");
+		querySeries = query(api, "2000-12-10T10:10:10<cpu.value.vm=1<2020-12-10T10:10:10");
 		results = new Gson().fromJson(querySeries, JsonArray.class);
 		assertEquals(1, results.size());
 
 		System.out.println(results);
 	}
 
+	@Test
+	public void testStreamingError() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new SeriesStreamingOutput(output -> {
+			output.accept(new Series());
+			throw new QueryAbortedException("Query timed out");
+		}).write(os);
+		// the array is terminated with the error instead of being truncated
+		JsonArray results = new Gson().fromJson(new String(os.toByteArray(), StandardCharsets.UTF_8),
+				JsonArray.class);
+		assertEquals(2, results.size());
+		assertEquals("Query timed out",
+				results.get(1).getAsJsonObject().get(SeriesStreamingOutput.ERROR).getAsString());
+	}
+
+	@Test
+	public void testStreamingClientGone() {
+		AtomicInteger writes = new AtomicInteger();
+		OutputStream os = new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				writes.incrementAndGet();
+				throw new IOException("closed");
+			}
+		};
+		try {
+			new SeriesStreamingOutput(output -> {
+				try {
+					while (true) {
+						output.accept(new Series());
+					}
+				} catch (UncheckedIOException e) {
+					// as query threads of the QueryExecutor report it
+					throw e.getCause();
+				}
+			}).write(os);
+			fail("Output failure must be rethrown");
+		} catch (IOException e) {
+			assertEquals("closed", e.getMessage());
+		}
+		// no error element is written to the closed stream
+		assertEquals(1, writes.get());
+	}
+
+	private static String query(DatabaseOpsApi api, String query) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		api.querySeries("test1", query).write(os);
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
 
 }
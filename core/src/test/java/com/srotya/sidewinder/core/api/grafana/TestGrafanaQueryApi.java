@@ -0,0 +1,79 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.api.grafana;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.rpc.Point;
+import com.srotya.sidewinder.core.rpc.Point.Builder;
+import com.srotya.sidewinder.core.storage.mem.MemStorageEngine;
+
+/**
+ * @author ambud
+ */
+public class TestGrafanaQueryApi {
+
+	@Test
+	public void testParallelTargets() throws Exception {
+		MemStorageEngine engine = new MemStorageEngine();
+		engine.configure(new HashMap<>(), null);
+		engine.connect();
+		long ts = 1497720452566L;
+		for (int m = 0; m < 6; m++) {
+			for (int i = 0; i < 100; i++) {
+				Builder dp = Point.newBuilder();
+				dp.setDbName("test");
+				dp.setFp(false);
+				dp.setValue(i);
+				dp.setMeasurementName("m" + m);
+				dp.setTimestamp(ts + i * 1000L);
+				dp.addAllTags(Arrays.asList("host=1"));
+				dp.setValueFieldName("value");
+				engine.writeDataPoint(dp.build());
+			}
+		}
+		Map<String, String> conf = new HashMap<>();
+		conf.put(GrafanaQueryApi.QUERY_THREADS, "3");
+		conf.put(GrafanaQueryApi.QUERY_PARALLELISM, "2");
+		GrafanaQueryApi api = new GrafanaQueryApi(engine, conf);
+		int[] order = new int[] { 5, 3, 0, 4, 1, 2 };
+		StringBuilder targets = new StringBuilder();
+		for (int m : order) {
+			if (targets.length() > 0) {
+				targets.append(",");
+			}
+			targets.append("{\"target\":\"m" + m + "\",\"filters\":[{}],\"correlate\":false,\"field\":\"value\"}");
+		}
+		String query = "{\"range\":{\"from\":\"2017-06-01T00:00:00.000Z\",\"to\":\"2017-07-01T00:00:00.000Z\"},"
+				+ "\"targets\":[" + targets + "]}";
+		List<Target> output = api.query("test", query);
+		// results are in the order of the targets
+		assertEquals(order.length, output.size());
+		for (int i = 0; i < order.length; i++) {
+			assertTrue(output.get(i).getTarget(), output.get(i).getTarget().startsWith("m" + order[i] + "-value"));
+			assertEquals(100, output.get(i).getDatapoints().size());
+		}
+	}
+
+}
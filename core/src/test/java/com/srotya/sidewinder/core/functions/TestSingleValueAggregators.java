@@ -170,6 +170,7 @@ public class TestSingleValueAggregators {
 			dps.add(MiscUtils.buildDataPoint(ts, l));
 		}
 		series.setFp(false);
+		series.setDataPoints(dps);
 		result = sva.apply(series);
 
 		assertEquals(15, result.getDataPoints().get(0).getLongValue(), 0.01);
@@ -196,9 +197,32 @@ public class TestSingleValueAggregators {
 			dps.add(MiscUtils.buildDataPoint(ts, l));
 		}
 		series.setFp(false);
+		series.setDataPoints(dps);
 		result = sva.apply(series);
 
 		assertEquals(3, result.getDataPoints().get(0).getLongValue(), 0.01);
 	}
 
+	@Test
+	public void testStdDeviationPrecision() {
+		// large values with a small spread
+		double[] values = { 1e9 + 0.1, 1e9 + 0.2, 1e9 + 0.3, 1e9 + 0.4 };
+		List<DataPoint> dps = new ArrayList<>();
+		WindowAggregate aggregate = new WindowAggregate(0);
+		long ts = System.currentTimeMillis();
+		for (double d : values) {
+			dps.add(MiscUtils.buildDataPoint(ts, d));
+			aggregate.add(Double.doubleToLongBits(d));
+		}
+		StdDeviationFunction f = new StdDeviationFunction();
+		Series series = new Series();
+		series.setFp(true);
+		series.setDataPoints(dps);
+		double materialized = f.apply(series).getDataPoints().get(0).getValue();
+		assertEquals(Math.sqrt(0.0125), materialized, 1e-6);
+		DataPoint output = new DataPoint();
+		f.aggregateToSingle(aggregate, true, output);
+		assertEquals(materialized, output.getValue(), 1e-6);
+	}
+
 }
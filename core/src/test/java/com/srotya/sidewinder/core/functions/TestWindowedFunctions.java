@@ -203,4 +203,24 @@ public class TestWindowedFunctions {
 		System.out.println(result.getDataPoints().get(0).getValue() * 1000 + "\t" + ts);
 	}
 
+	@Test
+	public void testUnorderedWindows() throws Exception {
+		long ts = 1486617120000L;
+		long[] offsets = { 70_000, 10_000, 80_000, 20_000, 5_000 };
+		long[] values = { 7, 1, 8, 2, 3 };
+		Series series = new Series();
+		series.setFp(false);
+		for (int i = 0; i < offsets.length; i++) {
+			series.add(ts + offsets[i], values[i]);
+		}
+		ReducingWindowedAggregator rwa = new WindowedMin();
+		rwa.init(new Object[] { 60 });
+		Series result = rwa.apply(series);
+		assertEquals(2, result.size());
+		assertEquals(1, result.getLongValue(0));
+		assertEquals(7, result.getLongValue(1));
+		assertTrue(result.getTimestamp(0) < result.getTimestamp(1));
+		assertEquals(0, result.getTimestamp(1) % 60_000);
+	}
+
 }
@@ -140,4 +140,55 @@ public class TestGRPWriterServiceImpl {
 		assertEquals(1L, result.iterator().next().getDataPoints().iterator().next().getLongValue());
 	}
 
+	@Test
+	public void testHandleWrites() throws Exception {
+		WriterServiceBlockingStub client = WriterServiceGrpc.newBlockingStub(channel);
+		long sts = 1497720452566L;
+
+		String dbName = "test4";
+		String measurementName = "cpu";
+		SeriesHandle handle = client.registerSeries(SeriesRegistration.newBuilder().setMessageId(sts).setDbName(dbName)
+				.setMeasurementName(measurementName).setValueFieldName("usage").addTags("host=1").setFp(false).build());
+		assertEquals(200, handle.getResponseCode());
+		SeriesHandle handle2 = client.registerSeries(SeriesRegistration.newBuilder().setMessageId(sts)
+				.setDbName(dbName).setMeasurementName(measurementName).setValueFieldName("usage").addTags("host=1")
+				.setFp(false).build());
+		assertEquals(handle.getHandle(), handle2.getHandle());
+
+		Ack ack = client.writeHandleBatch(HandleBatch.newBuilder().setMessageId(sts).addHandles(handle.getHandle())
+				.addHandles(handle.getHandle()).addTimestamps(sts).addTimestamps(sts + 1).addValues(1L).addValues(2L)
+				.build());
+		assertEquals(200, ack.getResponseCode());
+		assertEquals(2, ack.getAccepted());
+		assertEquals(0, ack.getRejectedCount());
+		List<Series> result = engine.queryDataPoints(dbName, measurementName, "usage", sts, sts + 1, null);
+		assertEquals(1, result.size());
+		assertEquals(2, result.iterator().next().getDataPoints().size());
+		assertEquals(2L, result.iterator().next().getDataPoints().get(1).getLongValue());
+
+		// mismatched columns
+		ack = client.writeHandleBatch(
+				HandleBatch.newBuilder().setMessageId(sts).addHandles(handle.getHandle()).addTimestamps(sts).build());
+		assertEquals(400, ack.getResponseCode());
+
+		// dropped series must invalidate the handle
+		engine.dropMeasurement(dbName, measurementName);
+		ack = client.writeHandleBatch(HandleBatch.newBuilder().setMessageId(sts).addHandles(handle.getHandle())
+				.addTimestamps(sts).addValues(1L).build());
+		assertEquals(400, ack.getResponseCode());
+
+		// a single invalid handle must reject the whole batch
+		SeriesHandle handle3 = client.registerSeries(SeriesRegistration.newBuilder().setMessageId(sts)
+				.setDbName(dbName).setMeasurementName("mem").setValueFieldName("usage").addTags("host=1")
+				.setFp(false).build());
+		assertEquals(200, handle3.getResponseCode());
+		ack = client.writeHandleBatch(HandleBatch.newBuilder().setMessageId(sts).addHandles(handle3.getHandle())
+				.addHandles(handle.getHandle()).addTimestamps(sts).addTimestamps(sts).addValues(1L).addValues(1L)
+				.build());
+		assertEquals(400, ack.getResponseCode());
+		assertEquals(0, ack.getAccepted());
+		result = engine.queryDataPoints(dbName, "mem", "usage", sts, sts + 1, null);
+		assertEquals(0, result.size());
+	}
+
 }
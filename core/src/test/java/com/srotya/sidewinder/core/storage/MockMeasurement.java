@@ -22,13 +22,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
-import com.srotya.sidewinder.core.storage.compression.Writer;
 import com.srotya.sidewinder.core.storage.mem.MemMalloc;
 
 /**
@@ -97,8 +94,8 @@ public class MockMeasurement implements Measurement {
 	}
 
 	@Override
-	public SortedMap<String, List<Writer>> createNewBucketMap(String seriesId) {
-		return new ConcurrentSkipListMap<>();
+	public BucketMap createNewBucketMap(String seriesId) {
+		return new BucketMap();
 	}
 
 	public void cleanupBufferIds(Set<String> cleanupList) {
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.predicates.GreaterThanPredicate;
+
+/**
+ * @author ambud
+ */
+public class TestBucketCache {
+
+	private static BucketCache.Entry entry(int count) {
+		long[] timestamps = new long[count];
+		long[] values = new long[count];
+		for (int i = 0; i < count; i++) {
+			timestamps[i] = i;
+			values[i] = i * 2;
+		}
+		return new BucketCache.Entry(timestamps, values, count);
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		TimeSeries series = new TimeSeries(new MockMeasurement(1024), "byzantine", "byzantine", "s1", 4096,
+				new DBMetadata(28), false, new HashMap<>());
+		BucketCache cache = new BucketCache(100);
+		cache.put(series, 1, entry(40));
+		cache.put(series, 2, entry(40));
+		assertNotNull(cache.get(series, 1, 40));
+		// least recently used bucket 2 makes room for bucket 3
+		cache.put(series, 3, entry(40));
+		assertEquals(2, cache.size());
+		assertEquals(80, cache.getPoints());
+		assertNull(cache.get(series, 2, 40));
+		assertNotNull(cache.get(series, 1, 40));
+		// entries larger than the cache aren't cached
+		cache.put(series, 4, entry(101));
+		assertEquals(2, cache.size());
+		// stale entries are dropped on lookup
+		assertNull(cache.get(series, 3, 41));
+		assertEquals(1, cache.size());
+		cache.invalidate(series, 1);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getPoints());
+	}
+
+	@Test
+	public void testSeriesInvalidation() throws Exception {
+		MockMeasurement measurement = new MockMeasurement(1024);
+		TimeSeries s1 = new TimeSeries(measurement, "byzantine", "byzantine", "s1", 4096, new DBMetadata(28), false,
+				new HashMap<>());
+		TimeSeries s2 = new TimeSeries(measurement, "byzantine", "byzantine", "s2", 4096, new DBMetadata(28), false,
+				new HashMap<>());
+		BucketCache cache = new BucketCache(1 << 20);
+		for (int i = 0; i < 100; i++) {
+			cache.put(s1, i, entry(10));
+			cache.put(s2, i, entry(10));
+		}
+		assertEquals(200, cache.size());
+		assertEquals(2000, cache.getPoints());
+		// entries are keyed by series id, not by instance
+		TimeSeries copy = new TimeSeries(measurement, "byzantine", "byzantine", "s1", 4096, new DBMetadata(28),
+				false, new HashMap<>());
+		assertNotNull(cache.get(copy, 1, 10));
+		cache.invalidate(Arrays.asList(copy));
+		assertEquals(100, cache.size());
+		assertNull(cache.get(s1, 1, 10));
+		assertNotNull(cache.get(s2, 1, 10));
+	}
+
+	@Test
+	public void testReplay() {
+		BucketCache.Entry entry = entry(3000);
+		long[][] batch = new long[][] { new long[TimeSeries.READ_BATCH_SIZE],
+				new long[TimeSeries.READ_BATCH_SIZE] };
+		Series series = new Series();
+		entry.replay(1000, 2999, new GreaterThanPredicate(3000), batch, series::add);
+		assertEquals(1499, series.size());
+		assertEquals(1501, series.getTimestamp(0));
+		assertEquals(3002, series.getLongValue(0));
+	}
+
+}
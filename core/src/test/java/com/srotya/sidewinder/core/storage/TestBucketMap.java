@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.compression.Writer;
+
+/**
+ * @author ambud
+ */
+public class TestBucketMap {
+
+	@Test
+	public void testPutGetRemove() {
+		BucketMap map = new BucketMap();
+		assertTrue(map.isEmpty());
+		List<Writer> l1 = new ArrayList<>();
+		List<Writer> l2 = new ArrayList<>();
+		List<Writer> l3 = new ArrayList<>();
+		map.put(8192, l3);
+		map.put(0, l1);
+		map.put(4096, l2);
+		assertEquals(3, map.size());
+		assertArrayEquals(new int[] { 0, 4096, 8192 }, map.keys());
+		assertEquals(0, map.firstKey());
+		assertEquals(8192, map.lastKey());
+		assertTrue(l2 == map.get(4096));
+		assertNull(map.get(100));
+		assertTrue(l1 == map.remove(0));
+		assertNull(map.remove(0));
+		assertEquals(4096, map.firstKey());
+		assertEquals(2, map.values().size());
+		assertTrue(l3 == map.values().get(1));
+	}
+
+	@Test
+	public void testRange() {
+		BucketMap map = new BucketMap();
+		for (int i = -2; i < 10; i++) {
+			map.put(i * 4096, new ArrayList<>());
+		}
+		// negative buckets must sort numerically unlike hex strings
+		assertEquals(-2 * 4096, map.firstKey());
+		assertEquals(12, map.range(Integer.MIN_VALUE, Integer.MAX_VALUE).size());
+		assertEquals(3, map.range(0, 4096 * 2).size());
+		assertEquals(2, map.range(1, 4096 * 2).size());
+		assertEquals(1, map.range(4096 * 9, Integer.MAX_VALUE).size());
+		assertEquals(0, map.range(4096 * 10, Integer.MAX_VALUE).size());
+		assertEquals(0, map.range(4096, 0).size());
+		assertTrue(map.range(4096, 4096).get(0) == map.get(4096));
+	}
+
+	@Test
+	public void testRemoveBefore() {
+		BucketMap map = new BucketMap();
+		for (int i = 0; i < 10; i++) {
+			map.put(i * 4096, new ArrayList<>());
+		}
+		assertEquals(0, map.removeBefore(0).size());
+		List<List<Writer>> removed = map.removeBefore(4096 * 3 + 1);
+		assertEquals(4, removed.size());
+		assertTrue(removed.get(3) != map.get(4096 * 4));
+		assertEquals(4096 * 4, map.firstKey());
+		assertEquals(6, map.size());
+		assertEquals(6, map.removeBefore(Integer.MAX_VALUE).size());
+		assertTrue(map.isEmpty());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testEmptyFirstKey() {
+		new BucketMap().firstKey();
+	}
+
+}
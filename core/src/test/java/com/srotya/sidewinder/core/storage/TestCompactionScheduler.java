@@ -0,0 +1,122 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.mem.MemoryMeasurement;
+
+/**
+ * @author ambud
+ */
+public class TestCompactionScheduler {
+
+	@Test
+	public void testParallelCompaction() throws Exception {
+		final long ts = 1484788896586L;
+		Map<String, String> conf = new HashMap<>();
+		conf.put("buffer.size", "1024");
+		conf.put(StorageEngine.COMPACTION_ENABLED, "true");
+		conf.put(StorageEngine.COMPACTION_RATIO, "1.2");
+		Measurement m = new MemoryMeasurement();
+		m.configure(conf, null, "test", "m1", null, null, new DBMetadata(28), null);
+		final int SERIES = 20;
+		final int LIMIT = 2000;
+		List<TimeSeries> series = new ArrayList<>();
+		for (int s = 0; s < SERIES; s++) {
+			TimeSeries t = m.getOrCreateTimeSeries("value", new ArrayList<>(Arrays.asList("host=h" + s)), 4096, false,
+					conf);
+			for (int i = 0; i < LIMIT; i++) {
+				t.addDataPoint(TimeUnit.MILLISECONDS, ts + i, i);
+			}
+			assertEquals(1, t.getCompactionSet().size());
+			series.add(t);
+		}
+		// compaction mustn't block writes to the buckets being compacted
+		AtomicBoolean failed = new AtomicBoolean(false);
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = LIMIT; i < LIMIT * 2; i++) {
+					for (TimeSeries t : series) {
+						t.addDataPoint(TimeUnit.MILLISECONDS, ts + i, i);
+					}
+				}
+			} catch (IOException e) {
+				failed.set(true);
+			}
+		});
+		CompactionScheduler scheduler = new CompactionScheduler(4, 100 * 1024 * 1024, 3);
+		m.getLock().lock();
+		try {
+			writer.start();
+			Set<String> cleaned = scheduler.compact(m);
+			assertTrue(cleaned.size() >= SERIES);
+			writer.join();
+		} finally {
+			m.getLock().unlock();
+			scheduler.close();
+		}
+		assertTrue(!failed.get());
+		for (TimeSeries t : series) {
+			List<DataPoint> dps = t.queryDataPoints("", ts, ts + LIMIT * 2, null);
+			assertEquals(LIMIT * 2, dps.size());
+			for (int i = 0; i < LIMIT * 2; i++) {
+				assertEquals(ts + i, dps.get(i).getTimestamp());
+				assertEquals(i, dps.get(i).getLongValue());
+			}
+		}
+	}
+
+	@Test
+	public void testRateLimit() throws Exception {
+		final long ts = 1484788896586L;
+		Map<String, String> conf = new HashMap<>();
+		conf.put("buffer.size", "1024");
+		conf.put(StorageEngine.COMPACTION_ENABLED, "true");
+		conf.put(StorageEngine.COMPACTION_RATIO, "1.2");
+		Measurement m = new MemoryMeasurement();
+		m.configure(conf, null, "test", "m1", null, null, new DBMetadata(28), null);
+		for (int s = 0; s < 4; s++) {
+			TimeSeries t = m.getOrCreateTimeSeries("value", new ArrayList<>(Arrays.asList("host=h" + s)), 4096, false,
+					conf);
+			for (int i = 0; i < 2000; i++) {
+				t.addDataPoint(TimeUnit.MILLISECONDS, ts + i, i);
+			}
+		}
+		// each series reads a little over 2KB
+		CompactionScheduler scheduler = new CompactionScheduler(
+				Collections.singletonMap(CompactionScheduler.COMPACTION_RATE_LIMIT, "4096"));
+		long start = System.currentTimeMillis();
+		assertTrue(scheduler.compact(m).size() > 0);
+		assertTrue(System.currentTimeMillis() - start >= 1000);
+		scheduler.close();
+	}
+
+}
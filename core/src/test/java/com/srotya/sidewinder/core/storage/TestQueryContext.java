@@ -0,0 +1,125 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author ambud
+ */
+public class TestQueryContext {
+
+	@Test
+	public void testBudgets() {
+		QueryContext context = new QueryContext(0, 100, 1000);
+		context.addPoints(100);
+		context.addBytes(1000);
+		try {
+			context.addPoints(1);
+			fail("Query should exceed its point budget");
+		} catch (QueryAbortedException e) {
+			assertEquals("Query exceeded its budget of 100 points, narrow its time range or filters", e.getMessage());
+		}
+		// other threads of the query stop at their next check
+		assertTrue(context.isCancelled());
+		try {
+			context.checkpoint();
+			fail("Query should be aborted");
+		} catch (QueryAbortedException e) {
+			assertTrue(e.getMessage().contains("100 points"));
+		}
+		context = new QueryContext(0, 0, 10);
+		context.addPoints(Integer.MAX_VALUE);
+		try {
+			context.addBytes(11);
+			fail("Query should exceed its byte budget");
+		} catch (QueryAbortedException e) {
+			assertTrue(e.getMessage().contains("10 bytes"));
+		}
+	}
+
+	@Test
+	public void testDeadline() throws InterruptedException {
+		QueryContext context = new QueryContext(10, 0, 0);
+		context.checkpoint();
+		Thread.sleep(20);
+		try {
+			context.checkpoint();
+			fail("Query should exceed its deadline");
+		} catch (QueryAbortedException e) {
+			assertEquals("Query exceeded its timeout of 10ms", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testCurrent() throws Exception {
+		// no checks without a context
+		QueryContext.checkCurrent(Integer.MAX_VALUE);
+		QueryContext context = new QueryContext(0, 10, 0);
+		QueryContext previous = context.attach();
+		try {
+			QueryContext.checkCurrent(5);
+			assertEquals(5, context.getPoints());
+			List<Integer> items = new ArrayList<>(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8));
+			AtomicInteger checked = new AtomicInteger();
+			QueryExecutor executor = new QueryExecutor(4, 4, 16, null);
+			try {
+				// the context is attached to the pool threads running the query
+				executor.forEach(items, i -> {
+					assertTrue(QueryContext.current() == context);
+					QueryContext.checkCurrent(1);
+					checked.incrementAndGet();
+				});
+				fail("Query should exceed its point budget");
+			} catch (QueryAbortedException e) {
+				assertTrue(checked.get() <= 5);
+			} finally {
+				executor.close();
+			}
+		} finally {
+			QueryContext.restore(previous);
+		}
+		assertTrue(QueryContext.current() == null);
+	}
+
+	@Test
+	public void testCancel() {
+		QueryContext context = new QueryContext(TimeUnit.MINUTES.toMillis(1), 0, 0);
+		List<Integer> batches = new ArrayList<>();
+		BatchConsumer consumer = context.track((timestamps, values, count) -> batches.add(count));
+		consumer.accept(new long[4], new long[4], 4);
+		context.cancel();
+		try {
+			consumer.accept(new long[4], new long[4], 4);
+			fail("Query should have been cancelled");
+		} catch (QueryAbortedException e) {
+			assertEquals("Query was cancelled", e.getMessage());
+		}
+		assertEquals(Arrays.asList(4), batches);
+		assertEquals(8, context.getPoints());
+	}
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * @author ambud
+ */
+public class TestQueryExecutor {
+
+	@Test
+	public void testForEach() throws IOException {
+		MetricRegistry registry = new MetricRegistry();
+		QueryExecutor executor = new QueryExecutor(4, 3, 16, registry);
+		List<Integer> items = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			items.add(i);
+		}
+		Set<Integer> seen = ConcurrentHashMap.newKeySet();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		executor.forEach(items, i -> {
+			int r = running.incrementAndGet();
+			maxRunning.accumulateAndGet(r, Math::max);
+			assertTrue(seen.add(i));
+			running.decrementAndGet();
+		});
+		assertEquals(1000, seen.size());
+		// a query never runs on more threads than its parallelism
+		assertTrue(maxRunning.get() <= 3);
+		assertEquals(1, registry.timer("latency").getCount());
+		executor.close();
+	}
+
+	@Test
+	public void testFailure() throws IOException {
+		QueryExecutor executor = new QueryExecutor(2, 2, 16, null);
+		AtomicInteger count = new AtomicInteger();
+		try {
+			executor.forEach(Collections.nCopies(100, 1), i -> {
+				if (count.incrementAndGet() == 10) {
+					throw new IOException("abort");
+				}
+			});
+			fail("Query must fail");
+		} catch (IOException e) {
+			assertEquals("abort", e.getMessage());
+		}
+		// items after the failure are skipped
+		assertTrue(count.get() < 100);
+		executor.close();
+	}
+
+	@Test
+	public void testSaturatedPool() throws Exception {
+		QueryExecutor executor = new QueryExecutor(1, 4, 1, null);
+		CountDownLatch blocked = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread other = new Thread(() -> {
+			try {
+				// blocks its own thread and the only pool thread
+				executor.forEach(Collections.nCopies(2, 1), i -> {
+					blocked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			} catch (IOException e) {
+			}
+		});
+		other.start();
+		blocked.await();
+		// the only pool thread is busy, the query still completes on this thread
+		AtomicInteger count = new AtomicInteger();
+		executor.forEach(Collections.nCopies(50, 1), i -> count.incrementAndGet());
+		assertEquals(50, count.get());
+		release.countDown();
+		other.join();
+		executor.close();
+	}
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.filters.Tag;
+import com.srotya.sidewinder.core.storage.mem.MemTagIndex;
+import com.srotya.sidewinder.core.storage.mem.MemoryMeasurement;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * @author ambud
+ */
+public class TestTagDictionary {
+
+	@Test
+	public void testAssignAndLookup() throws IOException {
+		TagDictionary dictionary = new TagDictionary();
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(i, dictionary.getOrAssign("value" + i));
+		}
+		assertEquals(10, dictionary.getOrAssign("value10"));
+		assertEquals(5000, dictionary.size());
+		assertEquals("value4999", dictionary.getValue(4999));
+		assertEquals(-1, dictionary.getId("missing"));
+		assertNull(dictionary.getValue(5000));
+		assertNull(dictionary.getValue(-1));
+	}
+
+	@Test
+	public void testPersistence() throws IOException {
+		File file = new File("target/dictionary/test.dict");
+		MiscUtils.delete(file.getParentFile());
+		file.getParentFile().mkdirs();
+		TagDictionary dictionary = new TagDictionary(file);
+		dictionary.getOrAssign("host");
+		dictionary.getOrAssign("server1");
+		dictionary.close();
+
+		dictionary = new TagDictionary(file);
+		assertEquals(2, dictionary.size());
+		assertEquals(1, dictionary.getId("server1"));
+		assertEquals(2, dictionary.getOrAssign("dc"));
+		dictionary.close();
+
+		dictionary = new TagDictionary(file);
+		assertEquals("dc", dictionary.getValue(2));
+		dictionary.close();
+	}
+
+	@Test
+	public void testTornEntry() throws IOException {
+		File file = new File("target/dictionary/torn.dict");
+		MiscUtils.delete(file.getParentFile());
+		file.getParentFile().mkdirs();
+		TagDictionary dictionary = new TagDictionary(file);
+		dictionary.getOrAssign("host");
+		dictionary.getOrAssign("server1");
+		dictionary.close();
+		long length = file.length();
+		// entry of 10 bytes cut short by a crash
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write(new byte[] { 0, 10, 'a', 'b' });
+		}
+
+		dictionary = new TagDictionary(file);
+		assertEquals(2, dictionary.size());
+		assertEquals(length, file.length());
+		assertEquals(2, dictionary.getOrAssign("dc"));
+		dictionary.close();
+
+		dictionary = new TagDictionary(file);
+		assertEquals(3, dictionary.size());
+		assertEquals("dc", dictionary.getValue(2));
+		dictionary.close();
+	}
+
+	@Test
+	public void testEncodeDecodeTags() throws IOException {
+		MemTagIndex index = new MemTagIndex(null);
+		Measurement measurement = new MemoryMeasurement();
+		List<String> tags = Arrays.asList("host=server1", "value=1", "zone=1");
+		String key = measurement.encodeTagsToString(index, tags);
+		assertEquals("0=1^2=3^4=3", key);
+		List<Tag> decoded = Measurement.decodeStringToTags(index, key);
+		assertEquals(Arrays.asList(new Tag("host", "server1"), new Tag("value", "1"), new Tag("zone", "1")),
+				decoded);
+		// lookups don't assign ids to unknown tags
+		assertEquals(key, measurement.findSeriesId(tags, index));
+		assertNull(measurement.findSeriesId(Arrays.asList("host=server2"), index));
+		assertEquals(5, index.getDictionary().size());
+	}
+
+}
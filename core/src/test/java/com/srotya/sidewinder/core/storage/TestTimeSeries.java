@@ -28,7 +28,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -36,8 +35,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 
+import com.srotya.sidewinder.core.predicates.GreaterThanEqualsPredicate;
+import com.srotya.sidewinder.core.predicates.GreaterThanPredicate;
+import com.srotya.sidewinder.core.predicates.LessThanEqualsPredicate;
+import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.ZoneMap;
 import com.srotya.sidewinder.core.storage.mem.MemMalloc;
 
 /**
@@ -223,6 +227,32 @@ public class TestTimeSeries {
 		// }
 	}
 
+	@Test
+	public void testDeferredLoadFailure() throws IOException {
+		MockMeasurement measurement = new MockMeasurement(1024);
+		DBMetadata metadata = new DBMetadata(28);
+		TimeSeries ts = new TimeSeries(measurement, compression, compaction, "test12313", 4096 * 10, metadata, false,
+				conf);
+		List<Entry<String, BufferObject>> entries = new ArrayList<>();
+		// a buffer without an id can't be loaded
+		entries.add(new AbstractMap.SimpleEntry<>(TimeSeries.bucketToString(0),
+				new BufferObject(null, ByteBuffer.allocate(1024))));
+		ts.deferLoadBucketMap(entries);
+		long t = 1497720442566L;
+		try {
+			ts.addDataPoint(TimeUnit.MILLISECONDS, t, 1);
+			fail("Write to a series that failed to load must fail");
+		} catch (IOException e) {
+		}
+		try {
+			ts.queryDataPoints("", 0, Long.MAX_VALUE, null);
+			fail("Query of a series that failed to load must fail");
+		} catch (IOException e) {
+		}
+		// the buffers stay deferred instead of the series looking empty
+		assertTrue(ts.isDeferred());
+	}
+
 	@Test
 	public void testReadWriteSingle() throws IOException {
 		Map<String, String> conf = new HashMap<>();
@@ -294,12 +324,16 @@ public class TestTimeSeries {
 			assertEquals("Bad ts:" + i, curr + i * 1000, dp.getTimestamp());
 			assertEquals(dp.getValue(), i * 1.1, 0.001);
 		}
-		SortedMap<String, List<Writer>> bucketRawMap = series.getBucketRawMap();
+		BucketMap bucketRawMap = series.getBucketRawMap();
 		assertEquals(1, bucketRawMap.size());
 		int size = bucketRawMap.values().iterator().next().size();
 		assertTrue(series.getCompactionSet().size() < size);
 		assertTrue(size > 2);
+		List<Writer> uncompacted = bucketRawMap.values().get(0);
 		series.compact();
+		// compaction publishes a new list, readers of the old one still see all
+		// of its writers
+		assertEquals(size, uncompacted.size());
 		ts = System.nanoTime();
 		dataPoints = series.queryDataPoints(valueFieldName, curr - 1000, curr + 10000 * 1000 + 1, null);
 		ts = System.nanoTime() - ts;
@@ -342,7 +376,7 @@ public class TestTimeSeries {
 			series.addDataPoint(TimeUnit.MILLISECONDS, curr + i * 1000, i * 1.1);
 		}
 
-		SortedMap<String, List<Writer>> bucketRawMap = series.getBucketRawMap();
+		BucketMap bucketRawMap = series.getBucketRawMap();
 		assertEquals(1, bucketRawMap.size());
 		int size = bucketRawMap.values().iterator().next().size();
 		assertTrue(series.getCompactionSet().size() < size);
@@ -389,7 +423,7 @@ public class TestTimeSeries {
 	// series.addDataPoint(TimeUnit.MILLISECONDS, curr + i * 1000, i * 1.1);
 	// }
 	//
-	// SortedMap<String, List<Writer>> bucketRawMap = series.getBucketRawMap();
+	// BucketMap bucketRawMap = series.getBucketRawMap();
 	// assertEquals(1, bucketRawMap.size());
 	// int size = bucketRawMap.values().iterator().next().size();
 	// assertTrue(series.getCompactionSet().size() < size);
@@ -432,7 +466,7 @@ public class TestTimeSeries {
 		for (int i = 1; i <= 10000; i++) {
 			series.addDataPoint(TimeUnit.MILLISECONDS, curr + i * 1000, i * 1.1);
 		}
-		SortedMap<String, List<Writer>> bucketRawMap = series.getBucketRawMap();
+		BucketMap bucketRawMap = series.getBucketRawMap();
 		int size = bucketRawMap.values().iterator().next().size();
 		assertTrue(series.getCompactionSet().size() < size);
 		assertTrue(size > 2);
@@ -504,9 +538,9 @@ public class TestTimeSeries {
 		Thread.sleep(1000);
 		control.set(false);
 		assertEquals(2, series.getBucketRawMap().size());
-		for (Entry<String, List<Writer>> entry : series.getBucketRawMap().entrySet()) {
-			for (int i = 0; i < entry.getValue().size() - 1; i++) {
-				Writer writer = entry.getValue().get(i);
+		for (List<Writer> writers : series.getBucketRawMap().values()) {
+			for (int i = 0; i < writers.size() - 1; i++) {
+				Writer writer = writers.get(i);
 				assertTrue(writer.isFull());
 			}
 		}
@@ -541,7 +575,7 @@ public class TestTimeSeries {
 			assertEquals("Bad ts:" + i, curr + i * 1000, dp.getTimestamp());
 			assertEquals(dp.getValue(), i * 1.1, 0.001);
 		}
-		SortedMap<String, List<Writer>> bucketRawMap = series.getBucketRawMap();
+		BucketMap bucketRawMap = series.getBucketRawMap();
 		assertEquals(1, bucketRawMap.size());
 		int size = bucketRawMap.values().iterator().next().size();
 		assertTrue(series.getCompactionSet().size() < size);
@@ -585,4 +619,207 @@ public class TestTimeSeries {
 		assertTrue(!bool.get());
 	}
 
+
+	@Test
+	public void testAdaptiveBufferSizing() throws IOException {
+		Measurement measurement = new MockMeasurement(1024);
+		HashMap<String, String> conf = new HashMap<>();
+		conf.put(StorageEngine.ADAPTIVE_BUFFER_ENABLED, "true");
+		conf.put(StorageEngine.ADAPTIVE_BUFFER_MIN, "256");
+		conf.put(StorageEngine.ADAPTIVE_BUFFER_MAX, "4096");
+		DBMetadata metadata = new DBMetadata(24);
+		TimeSeries series = new TimeSeries(measurement, compression, compaction, "43232", 4096, metadata, true, conf);
+		// hot series, buffers grow geometrically up to the max size
+		long ts = 1497720452566L;
+		for (int i = 0; i < 3000; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, ts + i, i * 1.1);
+		}
+		List<Writer> writers = series.getBucketRawMap().values().get(0);
+		assertTrue(writers.size() > 4);
+		int[] expected = new int[] { 1024, 2048, 4096, 4096 };
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], writers.get(i).getRawBytes().limit());
+		}
+		assertEquals(3000, series.queryDataPoints("", ts, ts + 3000, null).size());
+
+		// sparse series, buffers shrink down to the min size
+		series = new TimeSeries(measurement, compression, compaction, "43233", 4096, metadata, true, conf);
+		for (int i = 0; i < 6; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, ts + i * 4096_000L, i);
+		}
+		List<List<Writer>> buckets = series.getBucketRawMap().values();
+		assertEquals(6, buckets.size());
+		expected = new int[] { 1024, 512, 256, 256, 256, 256 };
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(1, buckets.get(i).size());
+			assertEquals(expected[i], buckets.get(i).get(0).getRawBytes().limit());
+		}
+	}
+
+	@Test
+	public void testCompactionPriority() throws IOException {
+		MockMeasurement measurement = new MockMeasurement(1024);
+		HashMap<String, String> conf = new HashMap<>();
+		conf.put("compaction.enabled", "true");
+		conf.put("compaction.ratio", "1.2");
+		TimeSeries series = new TimeSeries(measurement, compression, compaction, "43232", 4096,
+				new DBMetadata(28), false, conf);
+		assertEquals(0, series.getCompactionPriority());
+		long cold = 1497720452566L;
+		long hot = cold + 4096_000L * 2;
+		for (int i = 0; i < 3000; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, cold + i, i);
+			series.addDataPoint(TimeUnit.MILLISECONDS, hot + i, i);
+		}
+		List<List<Writer>> buckets = series.getBucketRawMap().values();
+		assertEquals(2, series.getCompactionSet().size());
+		List<Writer> hotList = buckets.get(1);
+		assertEquals(buckets.get(0).size() - 1, series.getCompactionPriority());
+		for (int i = 0; i < 5; i++) {
+			series.queryDataPoints("", hot, hot + 3000, null);
+		}
+		assertEquals(6 * (hotList.size() - 1), series.getCompactionPriority());
+		List<List<Writer>> order = new ArrayList<>();
+		series.compact(l -> order.add(l));
+		assertEquals(2, order.size());
+		assertTrue(order.get(0) == hotList);
+		assertEquals(0, series.getCompactionPriority());
+
+		// reads aren't tracked if compaction is disabled
+		conf.put("compaction.enabled", "false");
+		series = new TimeSeries(measurement, compression, compaction, "43233", 4096, new DBMetadata(28), false,
+				conf);
+		for (int i = 0; i < 3000; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, hot + i, i);
+		}
+		series.queryDataPoints("", hot, hot + 3000, null);
+		assertEquals(0, series.getCompactionSet().size());
+		assertEquals(0, series.getCompactionPriority());
+	}
+
+	@Test
+	public void testZoneMapPruning() throws IOException {
+		MockMeasurement measurement = new MockMeasurement(1024);
+		TimeSeries series = new TimeSeries(measurement, compression, compaction, "43233", 4096,
+				new DBMetadata(28), false, new HashMap<>());
+		long ts = 1497720452566L;
+		for (int i = 0; i < 3000; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, ts + i, i);
+		}
+		List<Writer> writers = series.getBucketRawMap().values().get(0);
+		assertTrue(writers.size() > 2);
+		// only the writers holding the time range are read
+		assertEquals(1, series.queryReader("", null, ts, ts + 10, null).size());
+		// or values matching the predicate
+		long max = writers.get(0).getZoneMap().getMaxValue();
+		assertEquals(1, series.queryReader("", null, ts, ts + 3000, new LessThanEqualsPredicate(max)).size());
+		assertEquals(0, series.queryReader("", null, ts, ts + 3000, new GreaterThanPredicate(3000)).size());
+		assertEquals(max + 1,
+				series.queryDataPoints("", ts, ts + 3000, new LessThanEqualsPredicate(max)).size());
+
+		ZoneMap summary = series.querySummary(ts, ts + 3000, null);
+		assertEquals(3000, summary.getCount());
+		assertEquals(0, summary.getMinValue());
+		assertEquals(2999, summary.getMaxValue());
+		assertEquals(2999L * 3000 / 2, summary.getSum());
+		summary = series.querySummary(ts + 100, ts + 199, new GreaterThanEqualsPredicate(150));
+		assertEquals(50, summary.getCount());
+		assertEquals(150, summary.getMinTimestamp() - ts);
+		assertEquals((150 + 199) * 25, summary.getSum());
+	}
+
+	@Test
+	public void testPointBudgetCountsFilteredPoints() throws IOException {
+		MockMeasurement measurement = new MockMeasurement(1024);
+		TimeSeries series = new TimeSeries(measurement, compression, compaction, "43235", 4096,
+				new DBMetadata(28), false, new HashMap<>());
+		long ts = 1497720452566L;
+		for (int i = 0; i < 3000; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, ts + i, i);
+		}
+		// zone maps can't prune this predicate, every point is decoded
+		Predicate last = value -> value == 2999;
+		QueryContext context = new QueryContext(0, 3000, 0);
+		QueryContext previous = context.attach();
+		try {
+			Series result = new Series();
+			series.querySeries(ts, ts + 3000, last, result);
+			assertEquals(1, result.size());
+			assertEquals(3000, context.getPoints());
+		} finally {
+			QueryContext.restore(previous);
+		}
+
+		context = new QueryContext(0, 1000, 0);
+		previous = context.attach();
+		try {
+			series.querySeries(ts, ts + 3000, last, new Series());
+			fail("Filtered points must count towards the point budget");
+		} catch (QueryAbortedException e) {
+			assertTrue(e.getMessage().contains("1000 points"));
+		} finally {
+			QueryContext.restore(previous);
+		}
+	}
+
+	private static void assertPoints(List<DataPoint> expected, Series actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getTimestamp(), actual.getTimestamp(i));
+			assertEquals(expected.get(i).getLongValue(), actual.getLongValue(i));
+		}
+	}
+
+	@Test
+	public void testBucketCache() throws IOException {
+		BucketCache cache = new BucketCache(100_000);
+		MockMeasurement measurement = new MockMeasurement(1024) {
+			@Override
+			public BucketCache getBucketCache() {
+				return cache;
+			}
+		};
+		TimeSeries series = new TimeSeries(measurement, compression, compaction, "43234", 4096,
+				new DBMetadata(28), false, new HashMap<>());
+		long ts = 1497720452566L;
+		// three buckets of 4096 seconds with a point every second
+		for (int i = 0; i < 4096 * 3; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, ts + i * 1000L, i);
+		}
+		long end = ts + 4096 * 3 * 1000L;
+		List<DataPoint> expected = series.queryDataPoints("", ts, end, null);
+		Series result = new Series();
+		series.querySeries(ts, end, null, result);
+		assertPoints(expected, result);
+		// the newest bucket isn't cached
+		assertEquals(series.getBucketRawMap().size() - 1, cache.size());
+		assertEquals(0, cache.getHits());
+
+		result = new Series();
+		series.querySeries(ts, end, null, result);
+		assertPoints(expected, result);
+		assertEquals(cache.size(), cache.getHits());
+
+		// cached buckets are filtered by time range and value
+		long start = ts + 1000 * 1000L;
+		expected = series.queryDataPoints("", start, start + 5000 * 1000L, new GreaterThanPredicate(3000));
+		result = new Series();
+		series.querySeries(start, start + 5000 * 1000L, new GreaterThanPredicate(3000), result);
+		assertPoints(expected, result);
+
+		// a write only invalidates the bucket it lands in
+		int size = cache.size();
+		series.addDataPoint(TimeUnit.MILLISECONDS, ts + 500, -1);
+		assertEquals(size - 1, cache.size());
+		result = new Series();
+		series.querySeries(ts, end, new LessThanEqualsPredicate(-1), result);
+		assertEquals(1, result.size());
+		assertEquals(ts + 500, result.getTimestamp(0));
+		assertEquals(size, cache.size());
+
+		// removed buckets are dropped from the cache
+		series.removeBucketsBefore(series.getBucketRawMap().lastKey());
+		assertEquals(0, cache.size());
+	}
+
 }
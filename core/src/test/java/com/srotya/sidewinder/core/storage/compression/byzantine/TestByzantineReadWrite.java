@@ -20,22 +20,30 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import com.srotya.sidewinder.core.predicates.BetweenPredicate;
 import com.srotya.sidewinder.core.predicates.GreaterThanEqualsPredicate;
+import com.srotya.sidewinder.core.predicates.GreaterThanPredicate;
+import com.srotya.sidewinder.core.storage.DBMetadata;
 import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.MockMeasurement;
 import com.srotya.sidewinder.core.storage.RejectException;
+import com.srotya.sidewinder.core.storage.TimeSeries;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 import com.srotya.sidewinder.core.storage.compression.RollOverException;
 import com.srotya.sidewinder.core.storage.compression.Writer;
+import com.srotya.sidewinder.core.storage.compression.ZoneMap;
 import com.srotya.sidewinder.core.utils.MiscUtils;
 
 /**
@@ -69,7 +77,6 @@ public class TestByzantineReadWrite {
 		assertEquals(0, writer.getCount());
 		assertEquals(0, writer.getDelta());
 		assertEquals(0, writer.getPrevTs());
-		assertNotNull(writer.getReadLock());
 		assertNotNull(writer.getWriteLock());
 
 		long ts = System.currentTimeMillis();
@@ -78,7 +85,6 @@ public class TestByzantineReadWrite {
 		assertEquals(1024, writer.getBuf().capacity());
 		assertEquals(0, writer.getDelta());
 		assertEquals(ts, writer.getPrevTs());
-		assertNotNull(writer.getReadLock());
 		assertNotNull(writer.getWriteLock());
 	}
 
@@ -240,6 +246,50 @@ public class TestByzantineReadWrite {
 		assertEquals(LIMIT * THREAD_COUNT, reader.getPairCount());
 	}
 
+	@Test
+	public void testConcurrentReadersDuringWrites() throws Exception {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+		Writer writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		final long ts = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ts);
+		final int LIMIT = 50000;
+		final AtomicInteger failures = new AtomicInteger();
+		ExecutorService es = Executors.newFixedThreadPool(3);
+		for (int j = 0; j < 2; j++) {
+			es.submit(() -> {
+				int last = 0;
+				while (last < LIMIT) {
+					try {
+						// every snapshot must be a fully written prefix of the series
+						Reader reader = writer.getReader();
+						int count = reader.getPairCount();
+						for (int i = 0; i < count; i++) {
+							long[] pair = reader.read();
+							if (pair[0] != ts + i * 10 || pair[1] != i) {
+								failures.incrementAndGet();
+							}
+						}
+						if (count < last) {
+							failures.incrementAndGet();
+						}
+						last = count;
+					} catch (Exception e) {
+						failures.incrementAndGet();
+						return;
+					}
+				}
+			});
+		}
+		for (int i = 0; i < LIMIT; i++) {
+			writer.addValue(ts + i * 10, i);
+		}
+		es.shutdown();
+		assertTrue(es.awaitTermination(100, TimeUnit.SECONDS));
+		assertEquals(0, failures.get());
+		assertEquals(LIMIT, writer.getReader().getPairCount());
+	}
+
 	@Test
 	public void testWriteReadNoLock() throws IOException {
 		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1000);
@@ -363,6 +413,319 @@ public class TestByzantineReadWrite {
 		}
 	}
 
+	@Test
+	public void testCheckpointRecovery() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		int limit = ByzantineWriter.CHECKPOINT_INTERVAL * 3 + 100;
+		for (int i = 0; i < limit; i++) {
+			writer.addValue(ots + i * 1000, i);
+		}
+		int trailer = buf.limit() - ByzantineWriter.TRAILER_SIZE;
+		// periodic checkpoint lags the points appended since
+		assertEquals(ByzantineWriter.CHECKPOINT_INTERVAL * 3, buf.getInt(trailer + 4));
+
+		// recovery from a stale checkpoint only decodes the points after it
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, startOffset, true);
+		assertEquals(limit, writer.getCount());
+		assertEquals(ots + (limit - 1) * 1000, writer.getPrevTs());
+		assertEquals(1000, writer.getDelta());
+		assertEquals(limit - 1, writer.getPrevValue());
+		writer.addValue(ots + limit * 1000, limit);
+		writer.makeReadOnly();
+		assertEquals(limit + 1, buf.getInt(trailer + 4));
+		assertEquals(writer.getPosition(), buf.getInt(trailer + 8));
+
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, startOffset, true);
+		assertEquals(limit + 1, writer.getCount());
+		writer.addValue(ots + (limit + 1) * 1000, limit + 1);
+		Reader reader = writer.getReader();
+		for (int i = 0; i < limit + 2; i++) {
+			DataPoint pair = reader.readPair();
+			assertEquals(ots + i * 1000, pair.getTimestamp());
+			assertEquals(i, pair.getLongValue());
+		}
+
+		// a corrupt checkpoint falls back to decoding the whole buffer
+		buf.putLong(trailer + 12, 0);
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, startOffset, true);
+		assertEquals(limit + 2, writer.getCount());
+		assertEquals(ots + (limit + 1) * 1000, writer.getPrevTs());
+		assertEquals(limit + 1, writer.getPrevValue());
+	}
+
+	@Test
+	public void testZoneMapRecovery() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		int limit = ByzantineWriter.CHECKPOINT_INTERVAL * 2 + 10;
+		for (int i = 0; i < limit; i++) {
+			writer.addValue(ots + i * 1000, i - 100);
+		}
+		ZoneMap zoneMap = writer.getZoneMap();
+		assertEquals(limit, zoneMap.getCount());
+		assertEquals(ots, zoneMap.getMinTimestamp());
+		assertEquals(ots + (limit - 1) * 1000, zoneMap.getMaxTimestamp());
+		assertEquals(-100, zoneMap.getMinValue());
+		assertEquals(limit - 101, zoneMap.getMaxValue());
+		assertEquals((long) limit * (limit - 1) / 2 - 100L * limit, zoneMap.getSum());
+		assertTrue(zoneMap.mayMatch(new GreaterThanPredicate(limit - 102)));
+		assertTrue(!zoneMap.mayMatch(new GreaterThanPredicate(limit - 101)));
+		assertTrue(!zoneMap.mayMatch(new BetweenPredicate(-1000, -101)));
+
+		// points after the checkpoint are added to the checkpointed zone map
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, startOffset, true);
+		assertEquals(zoneMap.hash(), writer.getZoneMap().hash());
+
+		// small buffers don't persist the zone map and rebuild it in full
+		buf = ByteBuffer.allocateDirect(512);
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		writer.setHeaderTimestamp(ots);
+		for (int i = 0; i < 10; i++) {
+			writer.addValue(ots + i, i * 1.5);
+		}
+		writer.makeReadOnly();
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, startOffset, true);
+		zoneMap = writer.getZoneMap();
+		assertEquals(10, zoneMap.getCount());
+		assertEquals(13.5, zoneMap.getMaxDouble(), 0);
+		assertEquals(67.5, zoneMap.getDoubleSum(), 0);
+	}
+
+	@Test
+	public void testZoneMapSnapshot() throws Exception {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		int limit = 50000;
+		AtomicBoolean failed = new AtomicBoolean();
+		Thread reader = new Thread(() -> {
+			int count;
+			while ((count = writer.getCount()) < limit) {
+				// bounds published with the points a query can read
+				ZoneMap zoneMap = writer.getZoneMap();
+				if (zoneMap.getCount() < count || (count > 0 && zoneMap.getMaxTimestamp() < ots + count - 1)) {
+					failed.set(true);
+					return;
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < limit; i++) {
+			writer.addValue(ots + i, i);
+		}
+		reader.join();
+		assertTrue(!failed.get());
+		ZoneMap zoneMap = writer.getZoneMap();
+		writer.write(Arrays.asList(new DataPoint(ots + limit, limit), new DataPoint(ots + limit + 1, limit + 1)));
+		// published summaries aren't modified by later writes
+		assertEquals(limit, zoneMap.getCount());
+		assertEquals(limit + 2, writer.getZoneMap().getCount());
+		assertEquals(ots + limit + 1, writer.getZoneMap().getMaxTimestamp());
+	}
+
+	@Test
+	public void testSeekAndEarlyTermination() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		int limit = ByzantineWriter.CHECKPOINT_INTERVAL * 4 + 10;
+		for (int i = 0; i < limit; i++) {
+			writer.addValue(ots + i * 1000, i);
+		}
+		assertSeek(writer, ots, 2000, 2100);
+
+		// index of a buffer resumed from a checkpoint is built on first use
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, startOffset, true);
+		assertSeek(writer, ots, 2000, 2100);
+		assertSeek(writer, ots, 0, 10);
+
+		// out of order points are decoded from the start
+		writer.addValue(ots, limit);
+		Reader reader = writer.getReader();
+		reader.setTimePredicate(new BetweenPredicate(ots + 2000 * 1000, ots + 2100 * 1000));
+		assertEquals(0, reader.getCounter());
+		List<long[]> points = new ArrayList<>();
+		try {
+			while (true) {
+				long[] pair = reader.read();
+				if (pair != null) {
+					points.add(pair);
+				}
+			}
+		} catch (RejectException e) {
+		}
+		assertEquals(101, points.size());
+		assertEquals(limit + 1, reader.getCounter());
+	}
+
+	@Test
+	public void testLazySeekIndex() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		int limit = ByzantineWriter.SEEK_INTERVAL * 4 + 10;
+		for (int i = 0; i < limit; i++) {
+			writer.addValue(ots + i * 1000, i);
+		}
+		SeekIndex index = writer.getSeekIndex();
+		assertEquals(4, index.size());
+		assertEquals(ByzantineWriter.SEEK_INTERVAL * 4, index.getIndexedCount());
+
+		// points committed after the index was built extend it
+		for (int i = limit; i < limit * 2; i++) {
+			writer.addValue(ots + i * 1000, i);
+		}
+		assertEquals(index, writer.getSeekIndex());
+		assertEquals(limit * 2 / ByzantineWriter.SEEK_INTERVAL, index.size());
+		assertSeek(writer, ots, limit + 100, limit + 200);
+	}
+
+	@Test
+	public void testOrderAfterCheckpointRecovery() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		// fewer points than a seek interval, one of them out of order
+		for (int i = 0; i < 50; i++) {
+			writer.addValue(i == 5 ? ots + 45500 : ots + i * 1000, i);
+		}
+		writer.makeReadOnly();
+
+		// the checkpoint covers all points, none are decoded on recovery
+		writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, startOffset, true);
+		assertEquals(50, writer.getCount());
+		Reader reader = writer.getReader();
+		reader.setTimePredicate(new BetweenPredicate(ots, ots + 20 * 1000));
+		List<long[]> points = new ArrayList<>();
+		try {
+			while (true) {
+				long[] pair = reader.read();
+				if (pair != null) {
+					points.add(pair);
+				}
+			}
+		} catch (RejectException e) {
+		}
+		assertEquals(20, points.size());
+		assertEquals(20, points.get(points.size() - 1)[1]);
+		assertTrue(!writer.isOrdered());
+	}
+
+	@Test
+	public void testCompactedBufferRecovery() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put("compaction.enabled", "true");
+		conf.put("use.query.pool", "false");
+		conf.put("compaction.ratio", "1.1");
+		TimeSeries series = new TimeSeries(new MockMeasurement(1024), "byzantine", "byzantine", "compacted", 409600,
+				new DBMetadata(28), false, conf);
+		long ots = 1497720652566L;
+		for (int i = 0; i < 10000; i++) {
+			series.addDataPoint(TimeUnit.MILLISECONDS, ots + i * 1000, (long) i);
+		}
+		series.compact();
+		List<Writer> writers = series.getBucketRawMap().values().get(0);
+		assertEquals(2, writers.size());
+		ByzantineWriter compacted = (ByzantineWriter) writers.get(0);
+		int count = compacted.getCount();
+
+		// compacted buffers have room for the checkpoint of all their points
+		ByteBuffer buf = compacted.getRawBytes();
+		int trailer = buf.limit() - ByzantineWriter.TRAILER_SIZE;
+		assertEquals(count, buf.getInt(trailer + 4));
+		assertEquals(compacted.getPosition(), buf.getInt(trailer + 8));
+
+		// reopening resumes from the checkpoint, order of the points before it is
+		// only known once a seek decodes them
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, false, 2, true);
+		assertEquals(count, writer.getCount());
+		assertEquals(ots + (count - 1) * 1000, writer.getPrevTs());
+		assertEquals(count - 1, writer.getPrevValue());
+		assertTrue(!writer.isOrdered());
+		Reader reader = writer.getReader();
+		for (int i = 0; i < count; i++) {
+			DataPoint pair = reader.readPair();
+			assertEquals(ots + i * 1000, pair.getTimestamp());
+			assertEquals(i, pair.getLongValue());
+		}
+	}
+
+	private void assertSeek(ByzantineWriter writer, long ots, int start, int end) throws IOException {
+		Reader reader = writer.getReader();
+		reader.setTimePredicate(new BetweenPredicate(ots + start * 1000, ots + end * 1000));
+		int seeked = reader.getCounter();
+		assertTrue(seeked <= start && seeked > start - ByzantineWriter.SEEK_INTERVAL - 1);
+		int decoded = 0;
+		List<long[]> points = new ArrayList<>();
+		try {
+			while (true) {
+				long[] pair = reader.read();
+				decoded++;
+				if (pair != null) {
+					points.add(pair);
+				}
+			}
+		} catch (RejectException e) {
+		}
+		assertEquals(end - start + 1, points.size());
+		assertEquals(ots + start * 1000, points.get(0)[0]);
+		assertEquals(end, points.get(points.size() - 1)[1]);
+		// no points past the first one after the range are decoded
+		assertEquals(end + 1 - seeked, decoded);
+	}
+
+	@Test
+	public void testReadBatch() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+		ByzantineWriter writer = new ByzantineWriter();
+		writer.configure(new HashMap<>(), buf, true, startOffset, true);
+		long ots = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ots);
+		for (int i = 0; i < 1000; i++) {
+			writer.addValue(ots + i * 1000, i);
+		}
+		Reader reader = writer.getReader();
+		reader.setValuePredicate(new GreaterThanEqualsPredicate(500));
+		long[] timestamps = new long[300];
+		long[] values = new long[300];
+		assertEquals(300, reader.readBatch(timestamps, values, 300));
+		assertEquals(ots + 500 * 1000, timestamps[0]);
+		assertEquals(799, values[299]);
+		assertEquals(200, reader.readBatch(timestamps, values, 300));
+		assertEquals(999, values[199]);
+		assertEquals(-1, reader.readBatch(timestamps, values, 300));
+
+		// stops at the end of the time range
+		reader = writer.getReader();
+		reader.setTimePredicate(new BetweenPredicate(ots, ots + 9 * 1000));
+		assertEquals(10, reader.readBatch(timestamps, values, 300));
+		assertEquals(-1, reader.readBatch(timestamps, values, 300));
+	}
+
 	@Test
 	public void testBufferFull() throws IOException {
 		ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
@@ -23,6 +23,7 @@ import java.util.HashMap;
 
 import org.junit.Test;
 
+import com.srotya.sidewinder.core.predicates.GreaterThanEqualsPredicate;
 import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.compression.Reader;
 
@@ -64,6 +65,29 @@ public class TestGorillaCompression {
 		}
 	}
 
+	@Test
+	public void testReadBatch() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		GorillaWriter writer = new GorillaWriter();
+		writer.configure(new HashMap<>(), buf, true, 0, false);
+		long ts = System.currentTimeMillis();
+		writer.setHeaderTimestamp(ts);
+		for (int i = 0; i < 100; i++) {
+			writer.addValue(ts + i * 100, i);
+		}
+		writer.makeReadOnly();
+		Reader reader = writer.getReader();
+		reader.setValuePredicate(new GreaterThanEqualsPredicate(10));
+		long[] timestamps = new long[64];
+		long[] values = new long[64];
+		assertEquals(64, reader.readBatch(timestamps, values, 64));
+		assertEquals(ts + 1000, timestamps[0]);
+		assertEquals(10, values[0]);
+		assertEquals(26, reader.readBatch(timestamps, values, 64));
+		assertEquals(99, values[25]);
+		assertEquals(-1, reader.readBatch(timestamps, values, 64));
+	}
+
 	@Test
 	public void testCompressUncompressFloating() throws IOException {
 		ByteBuffer buf = ByteBuffer.allocate(1024);
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.BufferObject;
+import com.srotya.sidewinder.core.storage.QueryContext;
+import com.srotya.sidewinder.core.utils.MiscUtils;
+
+/**
+ * @author ambud
+ */
+public class TestDiskMalloc {
+
+	private DiskMalloc newMalloc(String directory) throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_INCREMENT, String.valueOf(1024 * 1024));
+		conf.put(DiskMalloc.CONF_MALLOC_PTRFILE_INCREMENT, String.valueOf(256));
+		conf.put(QueryContext.QUERY_TIMEOUT, "200");
+		DiskMalloc malloc = new DiskMalloc();
+		malloc.configure(conf, directory, "m1", null, null, new ReentrantLock());
+		return malloc;
+	}
+
+	@Test
+	public void testAllocateAndRecover() throws IOException {
+		MiscUtils.delete(new File("target/malloc1"));
+		new File("target/malloc1/m1").mkdirs();
+		DiskMalloc malloc = newMalloc("target/malloc1");
+		assertTrue(malloc.seriesBufferMap().isEmpty());
+		for (int i = 0; i < 100; i++) {
+			BufferObject buf = malloc.createNewBuffer("series" + (i % 2), Integer.toHexString(i * 4096), 1024);
+			assertEquals(String.valueOf(i), buf.getBufferId());
+			assertEquals(1024, buf.getBuf().limit());
+			buf.getBuf().putInt(0, i);
+		}
+		malloc.close();
+
+		malloc = newMalloc("target/malloc1");
+		Map<String, List<Entry<String, BufferObject>>> map = malloc.seriesBufferMap();
+		assertEquals(2, map.size());
+		assertEquals(50, map.get("series0").size());
+		for (Entry<String, BufferObject> entry : map.get("series1")) {
+			int i = entry.getValue().getBuf().getInt(0);
+			assertEquals(1, i % 2);
+			assertEquals(Integer.toHexString(i * 4096), entry.getKey());
+			assertEquals(String.valueOf(i), entry.getValue().getBufferId());
+			assertEquals(1024, entry.getValue().getBuf().limit());
+		}
+		malloc.close();
+	}
+
+	@Test
+	public void testTombstones() throws IOException {
+		MiscUtils.delete(new File("target/malloc2"));
+		new File("target/malloc2/m1").mkdirs();
+		DiskMalloc malloc = newMalloc("target/malloc2");
+		malloc.seriesBufferMap();
+		for (int i = 0; i < 10; i++) {
+			malloc.createNewBuffer("series", Integer.toHexString(i), 1024).getBuf().putInt(0, i);
+		}
+		malloc.cleanupBufferIds(new HashSet<>(Arrays.asList("0", "5", "invalid", "100")));
+		// tombstoning again is a no-op
+		malloc.cleanupBufferIds(new HashSet<>(Arrays.asList("5")));
+		malloc.close();
+
+		malloc = newMalloc("target/malloc2");
+		List<Entry<String, BufferObject>> list = malloc.seriesBufferMap().get("series");
+		assertEquals(8, list.size());
+		for (int i = 0; i < list.size(); i++) {
+			int value = list.get(i).getValue().getBuf().getInt(0);
+			assertTrue(value != 0 && value != 5);
+			// tombstones are dropped on load and buffer ids are reassigned
+			assertEquals(String.valueOf(i), list.get(i).getValue().getBufferId());
+		}
+		BufferObject buf = malloc.createNewBuffer("series", "a", 1024);
+		assertEquals("8", buf.getBufferId());
+		malloc.close();
+	}
+
+	@Test
+	public void testFreeExtentReuse() throws Exception {
+		MiscUtils.delete(new File("target/malloc4"));
+		new File("target/malloc4/m1").mkdirs();
+		DiskMalloc malloc = newMalloc("target/malloc4");
+		malloc.seriesBufferMap();
+		List<BufferObject> buffers = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			BufferObject buf = malloc.createNewBuffer("series", Integer.toHexString(i), 1024);
+			buf.getBuf().putInt(0, i + 1);
+			buffers.add(buf);
+		}
+		malloc.cleanupBufferIds(new HashSet<>(Arrays.asList("2")));
+		// freed extents are quarantined for the query timeout, other cleanups
+		// don't release them
+		malloc.cleanupBufferIds(new HashSet<>());
+		BufferObject buf = malloc.createNewBuffer("series", "a", 1024);
+		assertEquals(0, buf.getBuf().getInt(0));
+		buf.getBuf().putInt(0, 100);
+		assertEquals(3, buffers.get(2).getBuf().getInt(0));
+
+		Thread.sleep(300);
+		// different size can't reuse the extent
+		malloc.createNewBuffer("series", "b", 2048);
+		buf = malloc.createNewBuffer("series", "c", 1024);
+		assertEquals(0, buf.getBuf().getInt(0));
+		buf.getBuf().putInt(0, 200);
+		assertEquals(200, buffers.get(2).getBuf().getInt(0));
+		malloc.close();
+
+		malloc = newMalloc("target/malloc4");
+		Map<String, List<Entry<String, BufferObject>>> map = malloc.seriesBufferMap();
+		assertEquals(12, map.get("series").size());
+		Map<String, Integer> values = new HashMap<>();
+		for (Entry<String, BufferObject> entry : map.get("series")) {
+			values.put(entry.getKey(), entry.getValue().getBuf().getInt(0));
+		}
+		assertEquals(200, (int) values.get("c"));
+		// the tombstone of the reused extent must not free it again
+		buf = malloc.createNewBuffer("series", "d", 1024);
+		buf.getBuf().putInt(0, 300);
+		for (Entry<String, BufferObject> entry : map.get("series")) {
+			assertEquals(values.get(entry.getKey()), Integer.valueOf(entry.getValue().getBuf().getInt(0)));
+		}
+		malloc.close();
+
+		malloc = newMalloc("target/malloc4");
+		map = malloc.seriesBufferMap();
+		assertEquals(13, map.get("series").size());
+		for (Entry<String, BufferObject> entry : map.get("series")) {
+			if (entry.getKey().equals("d")) {
+				assertEquals(300, entry.getValue().getBuf().getInt(0));
+			} else {
+				assertEquals(values.get(entry.getKey()), Integer.valueOf(entry.getValue().getBuf().getInt(0)));
+			}
+		}
+		malloc.close();
+	}
+
+	@Test
+	public void testDataFileDeletion() throws IOException {
+		MiscUtils.delete(new File("target/malloc5"));
+		new File("target/malloc5/m1").mkdirs();
+		Map<String, String> conf = new HashMap<>();
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_INCREMENT, String.valueOf(4096));
+		conf.put(DiskMalloc.CONF_MEASUREMENT_FILE_MAX, String.valueOf(8192));
+		DiskMalloc malloc = new DiskMalloc();
+		malloc.configure(conf, "target/malloc5", "m1", null, null, new ReentrantLock());
+		malloc.seriesBufferMap();
+		Set<String> ids = new HashSet<>();
+		for (int i = 0; i < 12; i++) {
+			ids.add(malloc.createNewBuffer("series", Integer.toHexString(i), 1024).getBufferId());
+		}
+		File[] files = new File("target/malloc5/m1").listFiles((dir, name) -> name.endsWith(".dat"));
+		assertTrue(files.length > 1);
+		malloc.cleanupBufferIds(ids);
+		// only the active data file is retained
+		files = new File("target/malloc5/m1").listFiles((dir, name) -> name.endsWith(".dat"));
+		assertEquals(1, files.length);
+		malloc.createNewBuffer("series", "a", 1024);
+		malloc.close();
+	}
+
+	@Test
+	public void testLegacyPtrFileMigration() throws IOException {
+		MiscUtils.delete(new File("target/malloc3"));
+		new File("target/malloc3/m1").mkdirs();
+		String dataFile = "data-" + String.format("%012d", 0) + ".dat";
+		try (RandomAccessFile raf = new RandomAccessFile("target/malloc3/m1/" + dataFile, "rw")) {
+			MappedByteBuffer data = raf.getChannel().map(MapMode.READ_WRITE, 0, 4096);
+			try (RandomAccessFile ptr = new RandomAccessFile("target/malloc3/m1/.ptr", "rw")) {
+				MappedByteBuffer ptrBuf = ptr.getChannel().map(MapMode.READ_WRITE, 0, 1024);
+				ptrBuf.putInt(3);
+				for (int i = 0; i < 3; i++) {
+					int curr = i * 1024;
+					MiscUtils.writeStringToBuffer("series" + i + ")" + dataFile + ")" + curr + ")0)1024", ptrBuf);
+					data.position(curr);
+					MiscUtils.writeStringToBuffer(Integer.toHexString(i + 10), data);
+					data.putInt(i);
+				}
+				ptrBuf.force();
+			}
+			data.force();
+		}
+
+		DiskMalloc malloc = newMalloc("target/malloc3");
+		Map<String, List<Entry<String, BufferObject>>> map = malloc.seriesBufferMap();
+		assertEquals(3, map.size());
+		for (int i = 0; i < 3; i++) {
+			Entry<String, BufferObject> entry = map.get("series" + i).get(0);
+			assertEquals(Integer.toHexString(i + 10), entry.getKey());
+			ByteBuffer buf = entry.getValue().getBuf();
+			assertEquals(i, buf.getInt(0));
+		}
+		malloc.createNewBuffer("series3", "1", 1024);
+		malloc.close();
+
+		malloc = newMalloc("target/malloc3");
+		map = malloc.seriesBufferMap();
+		assertEquals(4, map.size());
+		assertEquals(2, map.get("series2").get(0).getValue().getBuf().getInt(0));
+		malloc.close();
+	}
+
+}
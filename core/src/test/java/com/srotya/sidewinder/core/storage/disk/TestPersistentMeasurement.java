@@ -40,6 +40,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.srotya.sidewinder.core.filters.SimpleTagFilter;
+import com.srotya.sidewinder.core.filters.SimpleTagFilter.FilterType;
 import com.srotya.sidewinder.core.filters.Tag;
 import com.srotya.sidewinder.core.monitoring.MetricsRegistryService;
 import com.srotya.sidewinder.core.storage.DBMetadata;
@@ -165,6 +167,91 @@ public class TestPersistentMeasurement {
 		m.close();
 	}
 
+	@Test
+	public void testLazyLoadRecovery() throws Exception {
+		long ts = System.currentTimeMillis();
+		MiscUtils.delete(new File("target/db133/"));
+		List<String> tags = Arrays.asList("test=1", "test=2");
+		PersistentMeasurement m = new PersistentMeasurement();
+		Map<String, String> map = new HashMap<>();
+		map.put("disk.compression.class", ByzantineWriter.class.getName());
+		map.put("malloc.file.max", String.valueOf(2 * 1024 * 1024));
+		m.configure(map, null, DBNAME, "m1", "target/db133/index", "target/db133/data", metadata, bgTaskPool);
+		int LIMIT = 10000;
+		for (int i = 0; i < LIMIT; i++) {
+			m.getOrCreateTimeSeries("value1", tags, 4096, false, map).addDataPoint(TimeUnit.MILLISECONDS,
+					ts + i * 1000, 1L);
+			m.getOrCreateTimeSeries("value2", tags, 4096, false, map).addDataPoint(TimeUnit.MILLISECONDS,
+					ts + i * 1000, 2L);
+		}
+		m.close();
+
+		map.put(StorageEngine.LAZY_LOAD, "true");
+		m = new PersistentMeasurement();
+		// no background pool, buckets must only be loaded on access
+		m.configure(map, null, DBNAME, "m1", "target/db133/index", "target/db133/data", metadata, null);
+		TimeSeries series1 = m.getOrCreateTimeSeries("value1", tags, 4096, false, map);
+		TimeSeries series2 = m.getOrCreateTimeSeries("value2", tags, 4096, false, map);
+		assertTrue(series1.isDeferred());
+		assertTrue(series2.isDeferred());
+		List<Series> resultMap = new ArrayList<>();
+		m.queryDataPoints("value1", ts, ts + 1000 * LIMIT, null, null, resultMap);
+		assertEquals(LIMIT, resultMap.iterator().next().getDataPoints().size());
+		assertTrue(!series1.isDeferred());
+		assertTrue(series2.isDeferred());
+		series2.addDataPoint(TimeUnit.MILLISECONDS, ts + LIMIT * 1000, 2L);
+		assertTrue(!series2.isDeferred());
+		resultMap.clear();
+		m.queryDataPoints("value2", ts, ts + 1000 * LIMIT, null, null, resultMap);
+		assertEquals(LIMIT + 1, resultMap.iterator().next().getDataPoints().size());
+		m.close();
+
+		m = new PersistentMeasurement();
+		m.configure(map, null, DBNAME, "m1", "target/db133/index", "target/db133/data", metadata, bgTaskPool);
+		series1 = m.getOrCreateTimeSeries("value1", tags, 4096, false, map);
+		for (int i = 0; i < 100 && series1.isDeferred(); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue("Warm up must load deferred series", !series1.isDeferred());
+		m.close();
+	}
+
+	@Test
+	public void testPartitionedGarbageCollection() throws Exception {
+		MiscUtils.delete(new File("target/db135/"));
+		List<String> tags = Arrays.asList("test=1", "test=2");
+		PersistentMeasurement m = new PersistentMeasurement();
+		Map<String, String> map = new HashMap<>();
+		map.put(DiskMalloc.CONF_MEASUREMENT_PARTITION_WINDOW, String.valueOf(4096 * 4));
+		map.put(DiskMalloc.CONF_MEASUREMENT_INCREMENT_SIZE, String.valueOf(1024));
+		m.configure(map, null, DBNAME, "m1", "target/db135/index", "target/db135/data", metadata, bgTaskPool);
+		// metadata retention is 28 hours
+		long now = System.currentTimeMillis();
+		long old = now - TimeUnit.HOURS.toMillis(72);
+		for (int i = 0; i < 1000; i++) {
+			for (int s = 0; s < 10; s++) {
+				TimeSeries t = m.getOrCreateTimeSeries("value" + s, tags, 4096, false, map);
+				t.addDataPoint(TimeUnit.MILLISECONDS, old + i * 60_000, 1L);
+				t.addDataPoint(TimeUnit.MILLISECONDS, now - i * 1000, 1L);
+			}
+		}
+		File dataDir = new File("target/db135/data/m1");
+		int files = dataDir.listFiles((dir, name) -> name.endsWith(".dat")).length;
+		m.collectGarbage(null);
+		assertTrue(dataDir.listFiles((dir, name) -> name.endsWith(".dat")).length < files);
+		List<Series> resultMap = new ArrayList<>();
+		m.queryDataPoints("value0", old, now, null, null, resultMap);
+		assertEquals(1000, resultMap.iterator().next().getDataPoints().size());
+		m.close();
+
+		m = new PersistentMeasurement();
+		m.configure(map, null, DBNAME, "m1", "target/db135/index", "target/db135/data", metadata, bgTaskPool);
+		resultMap.clear();
+		m.queryDataPoints("value1", old, now, null, null, resultMap);
+		assertEquals(1000, resultMap.iterator().next().getDataPoints().size());
+		m.close();
+	}
+
 	@Test
 	public void testDataPointsRecoveryPTR() throws Exception {
 		long ts = System.currentTimeMillis();
@@ -260,7 +347,7 @@ public class TestPersistentMeasurement {
 		TimeSeries series = m.getTimeSeries().iterator().next();
 		assertEquals(1, series.getBucketRawMap().size());
 		assertEquals(3, series.getBucketCount());
-		assertEquals(3, series.getBucketRawMap().entrySet().iterator().next().getValue().size());
+		assertEquals(3, series.getBucketRawMap().values().iterator().next().size());
 		assertEquals(1, series.getCompactionSet().size());
 		int maxDp = series.getBucketRawMap().values().stream().flatMap(v -> v.stream()).mapToInt(l -> l.getCount())
 				.max().getAsInt();
@@ -274,7 +361,7 @@ public class TestPersistentMeasurement {
 		}
 		m.compact();
 		assertEquals(2, series.getBucketCount());
-		assertEquals(2, series.getBucketRawMap().entrySet().iterator().next().getValue().size());
+		assertEquals(2, series.getBucketRawMap().values().iterator().next().size());
 		assertEquals(0, series.getCompactionSet().size());
 		assertTrue(maxDp <= series.getBucketRawMap().values().stream().flatMap(v -> v.stream())
 				.mapToInt(l -> l.getCount()).max().getAsInt());
@@ -301,7 +388,7 @@ public class TestPersistentMeasurement {
 			TimeSeries t = m.getOrCreateTimeSeries("value1", tags, 1024, false, map);
 			t.addDataPoint(TimeUnit.MILLISECONDS, LIMIT + ts + i, i * 1.2);
 		}
-		series.getBucketRawMap().entrySet().iterator().next().getValue().stream()
+		series.getBucketRawMap().values().iterator().next().stream()
 				.map(v -> "" + v.getCount() + ":" + v.isReadOnly() + ":" + (int) v.getRawBytes().get(1))
 				.forEach(System.out::println);
 		// test recovery again
@@ -505,4 +592,48 @@ public class TestPersistentMeasurement {
 		}
 	}
 
+	@Test
+	public void testConcurrentSeriesCreation() throws Exception {
+		MiscUtils.delete(new File("target/db51/"));
+		PersistentMeasurement m = new PersistentMeasurement();
+		Map<String, String> map = new HashMap<>();
+		map.put("malloc.file.max", String.valueOf(2 * 1024 * 1024));
+		m.configure(map, null, DBNAME, "m1", "target/db51/index", "target/db51/data", metadata, bgTaskPool);
+		final int THREADS = 8;
+		final int SERIES = 200;
+		ExecutorService es = Executors.newFixedThreadPool(THREADS);
+		AtomicBoolean failed = new AtomicBoolean(false);
+		// cleanup holding the measurement lock mustn't block series creation
+		m.getLock().lock();
+		try {
+			for (int i = 0; i < THREADS; i++) {
+				final int t = i;
+				es.submit(() -> {
+					try {
+						for (int j = 0; j < SERIES; j++) {
+							TimeSeries ts = m.getOrCreateTimeSeries("value",
+									new ArrayList<>(Arrays.asList("host=h" + (j % 20), "thread=t" + t, "id=" + j)),
+									4096, false, map);
+							ts.addDataPoint(TimeUnit.MILLISECONDS, System.currentTimeMillis(), j);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						failed.set(true);
+					}
+				});
+			}
+			es.shutdown();
+			assertTrue(es.awaitTermination(30, TimeUnit.SECONDS));
+		} finally {
+			m.getLock().unlock();
+		}
+		assertTrue(!failed.get());
+		assertEquals(THREADS * SERIES, m.getSeriesKeys().size());
+		assertEquals(THREADS * SERIES, m.getTimeSeries().size());
+		assertEquals(SERIES, m.getTagFilteredRowKeys(new SimpleTagFilter(FilterType.EQUALS, "thread", "t3")).size());
+		assertEquals(THREADS * SERIES / 20,
+				m.getTagFilteredRowKeys(new SimpleTagFilter(FilterType.EQUALS, "host", "h7")).size());
+		m.close();
+	}
+
 }
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2017 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.mem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.BufferObject;
+
+/**
+ * @author ambud
+ */
+public class TestBufferPool {
+
+	@Test
+	public void testSizeClasses() {
+		BufferPool pool = new BufferPool(4096, null);
+		BufferObject b1 = pool.allocate("s1\t10", 100);
+		BufferObject b2 = pool.allocate("s1\t10", 100);
+		assertNotEquals(b1.getBufferId(), b2.getBufferId());
+		assertEquals(100, b1.getBuf().capacity());
+		assertEquals(256, pool.getUsedBytes());
+		pool.allocate("s2\t10", 10);
+		assertEquals(320, pool.getUsedBytes());
+		assertEquals(1, pool.getArenaCount());
+		// larger than an arena, not pooled
+		BufferObject large = pool.allocate("s3\t10", 8192);
+		assertEquals(8192, large.getBuf().capacity());
+		assertEquals(320, pool.getUsedBytes());
+		for (int i = 0; i < 2; i++) {
+			pool.allocate("s4\t10", 2048);
+		}
+		assertEquals(2, pool.getArenaCount());
+	}
+
+	@Test
+	public void testReuse() {
+		BufferPool pool = new BufferPool(4096, null);
+		BufferObject b1 = pool.allocate("s1\t10", 1024);
+		ByteBuffer buf = b1.getBuf();
+		while (buf.hasRemaining()) {
+			buf.put((byte) 1);
+		}
+		pool.release(Arrays.asList(b1.getBufferId(), "unknown"));
+		assertEquals(0, pool.getUsedBytes());
+		assertEquals(1024, pool.getFreeBytes());
+		BufferObject b2 = pool.allocate("s1\t10", 1000);
+		assertEquals(0, pool.getFreeBytes());
+		assertEquals(1000, b2.getBuf().capacity());
+		while (b2.getBuf().hasRemaining()) {
+			assertEquals(0, b2.getBuf().get());
+		}
+		assertEquals(1, pool.getArenaCount());
+	}
+
+	@Test
+	public void testArenaRelease() {
+		BufferPool pool = new BufferPool(4096, null);
+		List<String> first = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			first.add(pool.allocate("s1\t10", 1024).getBufferId());
+		}
+		BufferObject second = pool.allocate("s1\t10", 1024);
+		assertEquals(2, pool.getArenaCount());
+		pool.release(first.subList(0, 3));
+		assertEquals(2, pool.getArenaCount());
+		// arenas are dropped once all of their slots are free
+		pool.release(first.subList(3, 4));
+		assertEquals(1, pool.getArenaCount());
+		assertEquals(0, pool.getFreeBytes());
+		assertEquals(1024, pool.getUsedBytes());
+		// the current arena is kept
+		pool.release(Arrays.asList(second.getBufferId()));
+		assertEquals(1, pool.getArenaCount());
+		assertEquals(1024, pool.getFreeBytes());
+	}
+
+	@Test
+	public void testReleaseAfter() throws InterruptedException {
+		BufferPool pool = new BufferPool(4096, null);
+		BufferObject b1 = pool.allocate("s1\t10", 1024);
+		BufferObject b2 = pool.allocate("s1\t10", 1024);
+		pool.releaseAfter(Arrays.asList(b1.getBufferId()), TimeUnit.MINUTES.toMillis(1));
+		pool.releaseAfter(Arrays.asList(b2.getBufferId()), 1);
+		Thread.sleep(10);
+		pool.release(Collections.emptyList());
+		assertEquals(1024, pool.getUsedBytes());
+		assertEquals(1024, pool.getFreeBytes());
+	}
+
+	@Test
+	public void testMallocQuarantine() throws IOException {
+		MemMalloc malloc = new MemMalloc();
+		malloc.configure(new HashMap<>(), null, "m1", null, null, null);
+		BufferObject b1 = malloc.createNewBuffer("s1", "10", 1024);
+		BufferObject b2 = malloc.createNewBuffer("s1", "10", 1024);
+		malloc.cleanupBufferIds(new HashSet<>(Arrays.asList(b1.getBufferId())));
+		// b1 may still be read so it mustn't be handed out yet
+		BufferObject b3 = malloc.createNewBuffer("s1", "10", 1024);
+		b1.getBuf().put(0, (byte) 1);
+		assertEquals(0, b3.getBuf().get(0));
+		malloc.cleanupBufferIds(new HashSet<>(Arrays.asList(b2.getBufferId())));
+		b1.getBuf().put(0, (byte) 1);
+		BufferObject b4 = malloc.createNewBuffer("s1", "10", 1024);
+		assertEquals(0, b4.getBuf().get(0));
+		// b4 reuses and zeroes the slot of b1
+		assertEquals(0, b1.getBuf().get(0));
+	}
+
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,8 +32,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -49,12 +50,19 @@ import com.srotya.sidewinder.core.filters.SimpleTagFilter;
 import com.srotya.sidewinder.core.filters.TagFilter;
 import com.srotya.sidewinder.core.filters.ComplexTagFilter.ComplexFilterType;
 import com.srotya.sidewinder.core.filters.SimpleTagFilter.FilterType;
+import com.srotya.sidewinder.core.functions.Function;
+import com.srotya.sidewinder.core.functions.windowed.BasicWindowedFunctions.WindowedMean;
+import com.srotya.sidewinder.core.functions.windowed.BasicWindowedFunctions.WindowedStdDev;
+import com.srotya.sidewinder.core.functions.windowed.ReducingWindowedAggregator;
 import com.srotya.sidewinder.core.predicates.BetweenPredicate;
 import com.srotya.sidewinder.core.predicates.Predicate;
 import com.srotya.sidewinder.core.rpc.Point;
+import com.srotya.sidewinder.core.storage.BucketMap;
 import com.srotya.sidewinder.core.storage.DataPoint;
 import com.srotya.sidewinder.core.storage.ItemNotFoundException;
 import com.srotya.sidewinder.core.storage.Measurement;
+import com.srotya.sidewinder.core.storage.QueryAbortedException;
+import com.srotya.sidewinder.core.storage.QueryContext;
 import com.srotya.sidewinder.core.storage.RejectException;
 import com.srotya.sidewinder.core.storage.Series;
 import com.srotya.sidewinder.core.storage.StorageEngine;
@@ -267,6 +275,212 @@ public class TestMemStorageEngine {
 		assertEquals(0, engine.getOrCreateMeasurement("test", "cpu").getTimeSeries().size());
 	}
 
+	@Test
+	public void testQueryBudget() throws Exception {
+		StorageEngine engine = new MemStorageEngine();
+		Map<String, String> conf = new HashMap<>(this.conf);
+		conf.put(QueryContext.QUERY_MAX_POINTS, "250");
+		engine.configure(conf, bgTasks);
+		long ts = 1497720452566L;
+		for (int s = 0; s < 5; s++) {
+			for (int i = 0; i < 100; i++) {
+				engine.writeDataPoint(MiscUtils.buildDataPoint("test3", "cpu", "value", Arrays.asList("host=h" + s),
+						ts + i * 1000, i));
+			}
+		}
+		try {
+			engine.queryDataPoints("test3", "cpu", "value", ts, ts + 100_000, null);
+			fail("Query should exceed its point budget");
+		} catch (QueryAbortedException e) {
+			assertTrue(e.getMessage().contains("250 points"));
+		}
+		// budgets are per query
+		List<Series> series = engine.queryDataPoints("test3", "cpu", "value", ts, ts + 100_000,
+				new SimpleTagFilter(FilterType.EQUALS, "host", "h1"));
+		assertEquals(1, series.size());
+		assertEquals(100, series.get(0).size());
+		assertTrue(QueryContext.current() == null);
+
+		// a cancelled query stops at its next check
+		QueryContext context = engine.getQueryExecutor().newContext();
+		context.cancel();
+		QueryContext previous = context.attach();
+		try {
+			engine.queryDataPoints("test3", "cpu", "value", ts, ts + 100_000, null);
+			fail("Query should have been cancelled");
+		} catch (QueryAbortedException e) {
+			assertEquals("Query was cancelled", e.getMessage());
+		} finally {
+			QueryContext.restore(previous);
+		}
+	}
+
+	@Test
+	public void testStreamingQuery() throws Exception {
+		StorageEngine engine = new MemStorageEngine();
+		engine.configure(conf, bgTasks);
+		long ts = 1497720452566L;
+		for (int s = 0; s < 5; s++) {
+			for (int i = 0; i < 100; i++) {
+				engine.writeDataPoint(MiscUtils.buildDataPoint("test2", "cpu", "value", Arrays.asList("host=h" + s),
+						ts + i * 1000, i));
+			}
+		}
+		Function function = MiscUtils.createFunctionChain(new String[] { "ssum" }, 0);
+		assertTrue(function.isSeriesLocal());
+		List<Series> output = Collections.synchronizedList(new ArrayList<>());
+		engine.queryDataPoints("test2", "cpu", "value", ts, ts + 100_000, null, null, function, output::add);
+		assertEquals(5, output.size());
+		for (Series series : output) {
+			assertEquals(1, series.size());
+			assertEquals(4950, series.getLongValue(0));
+		}
+
+		// functions combining series are applied to the complete result
+		function = MiscUtils.createFunctionChain(new String[] { "ms-addition" }, 0);
+		assertTrue(!function.isSeriesLocal());
+		output.clear();
+		engine.queryDataPoints("test2", "cpu", "value", ts, ts + 100_000, null, null, function, output::add);
+		assertEquals(1, output.size());
+		assertEquals(100, output.get(0).size());
+		assertEquals(5 * 99, output.get(0).getLongValue(99));
+
+		// an output failure aborts the query
+		try {
+			engine.queryDataPoints("test2", "cpu", "value", ts, ts + 100_000, null, null, null, series -> {
+				throw new UncheckedIOException(new IOException("closed"));
+			});
+			fail("Output failure must abort the query");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testWindowedPushDown() throws Exception {
+		StorageEngine engine = new MemStorageEngine();
+		engine.configure(conf, bgTasks);
+		long ts = 1497720452566L;
+		Random rand = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			// every tenth point is written out of order
+			long t = i % 10 == 9 ? ts + rand.nextInt(2000) * 1000 : ts + i * 1000;
+			engine.writeDataPoint(MiscUtils.buildDataPoint("test3", "cpu", "value", Arrays.asList("host=h1"), t,
+					rand.nextInt(1000) - 500));
+			engine.writeDataPoint(MiscUtils.buildDP("test3", "cpu", "fvalue", Arrays.asList("host=h1"), t,
+					Double.doubleToLongBits(rand.nextDouble()), true));
+		}
+		for (String field : new String[] { "value", "fvalue" }) {
+			for (String chain : new String[] { "first,60,sfirst", "last,60,slast", "max,60,smax", "min,60,smin",
+					"mean,60,smean", "integral,60,ssum", "rms,60,srms", "stddev,60,sstddev", "mean,60,smean=>add,2",
+					"derivative,60,smax", "diff,30,ssum" }) {
+				String[] parts = chain.split("=>");
+				Function function = MiscUtils.createFunctionChain(parts, 0);
+				Series raw = engine.queryDataPoints("test3", "cpu", field, ts, ts + 2_000_000, null).get(0);
+				Series expected = MiscUtils.createFunctionChain(parts, 0).apply(Arrays.asList(raw)).get(0);
+				List<Series> result = engine.queryDataPoints("test3", "cpu", field, ts, ts + 2_000_000, null,
+						null, function);
+				assertEquals(chain, 1, result.size());
+				Series actual = result.get(0);
+				assertEquals(chain, expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					assertEquals(chain, expected.getTimestamp(i), actual.getTimestamp(i));
+					if (field.equals("fvalue") && chain.contains("sstddev")) {
+						// two pass on the materialized series, Welford's method while decoding
+						assertEquals(chain, expected.getValue(i), actual.getValue(i), 1e-9);
+					} else {
+						assertEquals(chain, expected.getLongValue(i), actual.getLongValue(i));
+					}
+				}
+			}
+		}
+		ReducingWindowedAggregator mean = new WindowedMean();
+		mean.init(new Object[] { 60 });
+		assertTrue(mean.isPushDown());
+		ReducingWindowedAggregator stddev = new WindowedStdDev();
+		stddev.init(new Object[] { 60 });
+		assertTrue(stddev.isPushDown());
+	}
+
+	@Test
+	public void testWriteDataPoints() throws IOException, ItemNotFoundException {
+		StorageEngine engine = new MemStorageEngine();
+		engine.configure(conf, bgTasks);
+		long ts = System.currentTimeMillis();
+		List<Point> points = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			// interleave two series and span multiple time buckets
+			points.add(MiscUtils.buildDataPoint("test", "cpu", "value", Arrays.asList("test=1"), ts + i * 60000, i));
+			// tag order of a series may differ between its points
+			points.add(MiscUtils.buildDataPoint("test", "cpu", "value",
+					i % 2 == 0 ? Arrays.asList("test=2", "host=1") : Arrays.asList("host=1", "test=2"), ts + i * 60000,
+					i));
+		}
+		engine.writeDataPoints(points);
+		assertEquals(2, engine.getOrCreateMeasurement("test", "cpu").getSeriesKeys().size());
+		List<Series> queryDataPoints = engine.queryDataPoints("test", "cpu", "value", ts, ts + 1000 * 60000, null,
+				null);
+		assertEquals(2, queryDataPoints.size());
+		for (Series series : queryDataPoints) {
+			List<DataPoint> dps = series.getDataPoints();
+			assertEquals(1000, dps.size());
+			for (int i = 0; i < dps.size(); i++) {
+				assertEquals(ts + i * 60000, dps.get(i).getTimestamp());
+				assertEquals(i, dps.get(i).getLongValue());
+			}
+		}
+
+		// a rejected series must not prevent the rest of the batch from being written
+		points = Arrays.asList(
+				MiscUtils.buildDataPoint("test", "cpu", "value", Arrays.asList("test=1"), ts + 1000 * 60000, 1.1),
+				MiscUtils.buildDataPoint("test", "cpu", "value", Arrays.asList("test=3"), ts, 3));
+		try {
+			engine.writeDataPoints(points);
+			fail("Floating point value must be rejected for a non-fp series");
+		} catch (RejectException e) {
+		}
+		assertEquals(3, engine.getOrCreateMeasurement("test", "cpu").getSeriesKeys().size());
+		queryDataPoints = engine.queryDataPoints("test", "cpu", "value", ts, ts + 1000 * 60000, null, null);
+		int total = 0;
+		for (Series series : queryDataPoints) {
+			total += series.getDataPoints().size();
+		}
+		assertEquals(2001, total);
+	}
+
+	@Test
+	public void testWriteDataPointsPartialFailure() throws IOException {
+		StorageEngine engine = new MemStorageEngine();
+		engine.configure(conf, bgTasks);
+		long ts = System.currentTimeMillis();
+		List<String> tags = Arrays.asList("test=1");
+		engine.writeDataPoint(MiscUtils.buildDataPoint("test", "cpu", "value", tags, ts, 1));
+		TimeSeries series = engine.getOrCreateTimeSeries("test", "cpu", "value", new ArrayList<>(tags),
+				engine.getDefaultTimebucketSize(), false);
+		// writes to the first bucket are rejected
+		series.getBucketRawMap().values().get(0).get(0).makeReadOnly();
+		long later = ts + engine.getDefaultTimebucketSize() * 2000L;
+		List<Point> points = Arrays.asList(MiscUtils.buildDataPoint("test", "cpu", "value", tags, ts + 1, 2),
+				MiscUtils.buildDataPoint("test", "cpu", "value", tags, later, 3),
+				MiscUtils.buildDataPoint("test", "cpu", "value", tags, later + 1, 4),
+				MiscUtils.buildDataPoint("test", "cpu", "value", tags, ts + 2, 5));
+		long count = engine.getCounter().getCount();
+		List<Point> rejected = new ArrayList<>();
+		try {
+			engine.writeDataPoints(points, (point, e) -> rejected.add(point));
+			fail("Writes to a read only bucket must be rejected");
+		} catch (RejectException e) {
+		}
+		// only the points that weren't written are rejected
+		assertEquals(2, rejected.size());
+		assertEquals(ts + 1, rejected.get(0).getTimestamp());
+		assertEquals(ts + 2, rejected.get(1).getTimestamp());
+		assertEquals(count + 2, engine.getCounter().getCount());
+		List<DataPoint> dps = series.queryDataPoints("value", later, later + 1, null);
+		assertEquals(2, dps.size());
+		assertEquals(3, dps.get(0).getLongValue());
+		assertEquals(1, series.queryDataPoints("value", ts, ts + 2, null).size());
+	}
+
 	@Test
 	public void testGetMeasurementsLike() throws Exception {
 		StorageEngine engine = new MemStorageEngine();
@@ -447,6 +661,26 @@ public class TestMemStorageEngine {
 		assertEquals(0, engine.getAllMeasurementsForDb(dbName).size());
 	}
 
+	@Test
+	public void testDropReleasesBuffers() throws Exception {
+		MemStorageEngine engine = new MemStorageEngine();
+		Map<String, String> conf = new HashMap<>();
+		conf.put(QueryContext.QUERY_TIMEOUT, "1");
+		engine.configure(conf, bgTasks);
+		long ts = System.currentTimeMillis();
+		for (int s = 0; s < 10; s++) {
+			engine.writeDataPoint(MiscUtils.buildDataPoint("test4", "cpu", "value", Arrays.asList("host=h" + s), ts, s));
+		}
+		BufferPool pool = engine.getBufferPool();
+		assertTrue(pool.getUsedBytes() > 0);
+		engine.dropMeasurement("test4", "cpu");
+		// released once queries that may read them have timed out
+		Thread.sleep(10);
+		pool.release(Collections.emptyList());
+		assertEquals(0, pool.getUsedBytes());
+		engine.disconnect();
+	}
+
 	@Test
 	public void testTagFiltering() throws Exception {
 		MemStorageEngine engine = new MemStorageEngine();
@@ -654,7 +888,7 @@ public class TestMemStorageEngine {
 			assertEquals(dp.getValue(), i * 1.1, 0.001);
 		}
 		TimeSeries series = engine.getOrCreateTimeSeries(dbName, measurementName, valueFieldName, tags, 409600, false);
-		SortedMap<String, List<Writer>> bucketRawMap = series.getBucketRawMap();
+		BucketMap bucketRawMap = series.getBucketRawMap();
 		assertEquals(1, bucketRawMap.size());
 		int size = bucketRawMap.values().iterator().next().size();
 		assertTrue(series.getCompactionSet().size() < size);
@@ -711,7 +945,7 @@ public class TestMemStorageEngine {
 		}
 		final TimeSeries series = engine.getOrCreateTimeSeries(dbName, measurementName, valueFieldName, tags, 409600,
 				false);
-		SortedMap<String, List<Writer>> bucketRawMap = series.getBucketRawMap();
+		BucketMap bucketRawMap = series.getBucketRawMap();
 		assertEquals(1, bucketRawMap.size());
 		int size = bucketRawMap.values().iterator().next().size();
 		assertTrue(series.getCompactionSet().size() < size);
@@ -740,12 +974,16 @@ public class TestMemStorageEngine {
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
-			if (!bool.get()) {
-				throw new RuntimeException("Synchronized block failed");
+			// appends to the tail writer must not wait for compaction
+			if (bool.get()) {
+				throw new RuntimeException("Write blocked by compaction");
 			}
 		});
 		Thread.sleep(100);
 		assertTrue(!bool.get());
+		queryDataPoints = engine.queryDataPoints(dbName, measurementName, valueFieldName, curr - 1000,
+				curr + 10001 * 1000 + 1, null, null);
+		assertEquals(10001, queryDataPoints.iterator().next().getDataPoints().size());
 	}
 
 }
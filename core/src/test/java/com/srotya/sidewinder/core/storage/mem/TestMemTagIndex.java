@@ -16,10 +16,12 @@
 package com.srotya.sidewinder.core.storage.mem;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -59,7 +61,14 @@ public class TestMemTagIndex {
 		for (int i = 0; i < 1000; i++) {
 			index.index("tag", String.valueOf(i + 1), "test212");
 		}
-
+		index.index("tag", "1", "test213");
+		assertEquals(new HashSet<>(Arrays.asList("test212", "test213")), index.searchRowKeysForTag("tag", "1"));
+		assertEquals(new HashSet<>(Arrays.asList("test212")), index.searchRowKeysForTag("tag", "1000"));
+		assertNull(index.searchRowKeysForTag("tag", "1001"));
+		Set<String> keys = index
+				.searchRowKeysForTagFilter(new SimpleTagFilter(FilterType.GREATER_THAN_EQUALS, "tag", "999"));
+		assertEquals(new HashSet<>(Arrays.asList("test212")), keys);
+		assertEquals(1000, index.getTagValues("tag").size());
 	}
 
 	// @Test
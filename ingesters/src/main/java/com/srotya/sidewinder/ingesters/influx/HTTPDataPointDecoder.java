@@ -24,7 +24,6 @@ import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 import java.io.IOException;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -134,14 +133,14 @@ public class HTTPDataPointDecoder extends SimpleChannelInboundHandler<Object> {
 						logger.fine("Request:" + payload);
 						List<Point> dps = InfluxDecoder.pointsFromString(dbName, payload);
 						meter.inc(dps.size());
-						for (Point dp : dps) {
-							try {
-								engine.writeDataPoint(dp);
-								logger.fine("Accepted:" + dp + "\t" + new Date(dp.getTimestamp()));
-							} catch (IOException e) {
+						try {
+							engine.writeDataPoints(dps, (dp, e) -> {
 								logger.fine("Dropped:" + dp + "\t" + e.getMessage());
 								responseString.append("Dropped:" + dp);
-							}
+							});
+							logger.fine("Accepted:" + dps.size());
+						} catch (IOException e) {
+							logger.fine("Dropped:" + e.getMessage());
 						}
 					}
 					if (writeResponse(request, ctx)) {